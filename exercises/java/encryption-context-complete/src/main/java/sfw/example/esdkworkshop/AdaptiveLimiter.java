@@ -0,0 +1,160 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.retry.RetryUtils;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent calls to one dependency, adapting the limit to how the dependency
+ * responds: additive increase while calls succeed promptly, multiplicative decrease when a call is
+ * throttled or takes much longer than usual. Callers over the limit wait their turn, so that an
+ * overloaded dependency sees a steady load rather than a pile-up of retries.
+ *
+ * <p>"Usual" is a slowly moving average of past latencies. After a decrease, calls that were
+ * already in flight do not decrease the limit again, so one episode of throttling halves the limit
+ * once rather than once per call. Calls whose latency grows with the data they carry, such as an
+ * upload or an encryption, say nothing about congestion through their latency, so they are made
+ * with {@code latencySensitive} off and only back off when throttled.
+ */
+class AdaptiveLimiter {
+  private static final int INITIAL_LIMIT = 10;
+  /** The factor by which the limit is cut on throttling or inflated latency. */
+  private static final double BACKOFF = 0.5;
+  /** How many times the usual latency a call must take to count as inflated. */
+  private static final double LATENCY_TOLERANCE = 2.0;
+  /** The weight of each new latency in the usual latency. */
+  private static final double LATENCY_SMOOTHING = 0.01;
+
+  private final String name;
+  private final int maxLimit;
+  private double limit;
+  private int inFlight = 0;
+  private int queued = 0;
+  private long congested = 0;
+  private double usualLatencyNanos = 0;
+  private long lastDecreaseNanos = Long.MIN_VALUE;
+
+  /**
+   * Construct a limiter for a dependency.
+   *
+   * @param name the name of the dependency, for its statistics.
+   * @param maxLimit the highest the limit may grow.
+   */
+  AdaptiveLimiter(String name, int maxLimit) {
+    this.name = name;
+    this.maxLimit = maxLimit;
+    this.limit = Math.min(INITIAL_LIMIT, maxLimit);
+  }
+
+  /**
+   * Make a call once the limit allows, and adapt the limit to its outcome.
+   *
+   * @param <T> the result type of the call.
+   * @param call the call to make.
+   * @return the result of the call.
+   */
+  <T> T call(Supplier<T> call) {
+    return call(call, true);
+  }
+
+  /**
+   * Make a call once the limit allows, and adapt the limit to its outcome.
+   *
+   * @param <T> the result type of the call.
+   * @param call the call to make.
+   * @param latencySensitive whether a call that takes much longer than usual cuts the limit. The
+   *     latency of other calls does not count towards the usual latency either.
+   * @return the result of the call.
+   */
+  <T> T call(Supplier<T> call, boolean latencySensitive) {
+    acquire();
+    long start = System.nanoTime();
+    boolean backOff = false;
+    try {
+      T result = call.get();
+      backOff = latencySensitive && isInflated(System.nanoTime() - start);
+      return result;
+    } catch (RuntimeException e) {
+      backOff = isThrottling(e);
+      throw e;
+    } finally {
+      release(start, backOff);
+    }
+  }
+
+  private synchronized void acquire() {
+    queued++;
+    try {
+      while (inFlight >= (int) limit) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DocumentBucketException(
+          String.format("Interrupted while waiting to call %s!", name), e);
+    } finally {
+      queued--;
+    }
+    inFlight++;
+  }
+
+  private synchronized boolean isInflated(long latency) {
+    boolean inflated = usualLatencyNanos > 0 && latency > LATENCY_TOLERANCE * usualLatencyNanos;
+    usualLatencyNanos =
+        usualLatencyNanos == 0
+            ? latency
+            : usualLatencyNanos + LATENCY_SMOOTHING * (latency - usualLatencyNanos);
+    return inflated;
+  }
+
+  private synchronized void release(long start, boolean backOff) {
+    // Only grow a limit that is in use, so that an idle period does not license a burst
+    boolean saturated = inFlight >= (int) limit;
+    inFlight--;
+    if (backOff) {
+      congested++;
+      if (start > lastDecreaseNanos) {
+        limit = Math.max(1, limit * BACKOFF);
+        lastDecreaseNanos = System.nanoTime();
+      }
+    } else if (saturated) {
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Return whether the provided exception, or any exception that caused it, is a throttling error
+   * from an AWS service. The Encryption SDK reports KMS errors as the cause or suppressed
+   * exceptions of its own.
+   *
+   * @param e the exception.
+   * @return whether it is a throttling error.
+   */
+  static boolean isThrottling(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SdkBaseException
+          && RetryUtils.isThrottlingException((SdkBaseException) cause)) {
+        return true;
+      }
+      for (Throwable suppressed : cause.getSuppressed()) {
+        if (isThrottling(suppressed)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return the current state of this limiter.
+   *
+   * @return the {@link ConcurrencyStats} for this limiter's dependency.
+   */
+  synchronized ConcurrencyStats stats() {
+    return new ConcurrencyStats(name, (int) limit, inFlight, queued, congested);
+  }
+}
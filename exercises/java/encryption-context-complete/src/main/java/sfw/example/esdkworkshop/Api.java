@@ -5,42 +5,158 @@ package sfw.example.esdkworkshop;
 
 import com.amazonaws.encryptionsdk.AwsCrypto;
 import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.CryptoAlgorithm;
+import com.amazonaws.encryptionsdk.CryptoInputStream;
 import com.amazonaws.encryptionsdk.CryptoResult;
 import com.amazonaws.encryptionsdk.MasterKey;
 import com.amazonaws.encryptionsdk.MasterKeyProvider;
+import com.amazonaws.encryptionsdk.exception.AwsCryptoException;
+import com.amazonaws.encryptionsdk.exception.ParseException;
 import com.amazonaws.encryptionsdk.kms.KmsMasterKey;
+import com.amazonaws.encryptionsdk.model.CiphertextHeaders;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
 import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
 import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
 import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.util.IOUtils;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import sfw.example.esdkworkshop.datamodel.BaseItem;
+import sfw.example.esdkworkshop.datamodel.ChunkManifest;
+import sfw.example.esdkworkshop.datamodel.Compression;
 import sfw.example.esdkworkshop.datamodel.ContextItem;
+import sfw.example.esdkworkshop.datamodel.DataModelException;
 import sfw.example.esdkworkshop.datamodel.DocumentBundle;
+import sfw.example.esdkworkshop.datamodel.KeyGenerator;
 import sfw.example.esdkworkshop.datamodel.PointerItem;
+import sfw.example.esdkworkshop.datamodel.SegmentItem;
+import sfw.example.esdkworkshop.datamodel.SegmentLocation;
+import sfw.example.esdkworkshop.datamodel.TimeIndexItem;
 
 /** Defines the public interface to the Document Bucket operations. */
 public class Api {
+  // Large enough for the header of a message with a few KMS keys and a modest context
+  protected static final int INITIAL_HEADER_RANGE = 4096;
+  protected static final int REENCRYPT_PART_SIZE = 8 * 1024 * 1024;
+  // Leaves room for the keys and context within DynamoDB's 400 KB item limit
+  public static final int MAX_INLINE_THRESHOLD = 350 * 1024;
+  // Service limits on the number of keys per batch request
+  protected static final int MAX_BATCH_GET = 100;
+  protected static final int MAX_BATCH_WRITE = 25;
+  protected static final int MAX_DELETE_OBJECTS = 1000;
+  protected static final int MAX_BATCH_ATTEMPTS = 8;
+  protected static final long MAX_BACKOFF_MILLIS = 2000;
+  protected static final String RESERVED_SDK_CONTEXT_PREFIX = "aws-crypto-";
+  // Set on each chunk of a chunked document, and removed again from the context it is read with
+  private static final List<String> RESERVED_CHUNK_CONTEXT_KEYS =
+      List.of(
+          ChunkManifest.CHUNK_DOCUMENT_KEY,
+          ChunkManifest.CHUNK_INDEX_KEY,
+          ChunkManifest.CHUNK_COUNT_KEY);
+  // The provider ID of KmsMasterKeyProvider, whose keys each cost a KMS request
+  private static final String KMS_PROVIDER_ID = "aws-kms";
+  // S3 requests that carry a body, whose latency grows with its size rather than with congestion
+  private static final Set<String> SIZED_S3_REQUESTS = Set.of("PutObject", "UploadPart");
   private final AmazonDynamoDB ddbClient;
   private final AmazonS3 s3Client;
   private final AwsCrypto awsEncryptionSdk;
   private final MasterKeyProvider mkp;
   private final String tableName;
   private final String bucketName;
+  private KeyGenerator keyGenerator = KeyGenerator.defaultGenerator();
+  private Executor executor =
+      CostAccounting.propagating(Lane.propagating(ForkJoinPool.commonPool()));
+  private boolean preflightContextCheck = false;
+  private boolean timeIndex = false;
+  private PointerCache pointerCache = null;
+  private int chunkSize = 0;
+  private int inlineThreshold = 0;
+  private SegmentPacker segmentPacker = null;
+  private WriteBatcher writeBatcher = null;
+  private int maxPackedBytes = 0;
+  private boolean compression = false;
+  private boolean binaryContext = false;
+  private SingleFlight<String, DocumentBundle> retrieveFlights = null;
+  private SingleFlight<String, PointerItem> pointerFlights = null;
+  private SingleFlight<String, Set<PointerItem>> contextKeyFlights = null;
+  private HedgedReads hedgedReads = null;
+  private MemoryBudget memoryBudget = null;
+  private LaneScheduler laneScheduler = null;
+  private AdaptiveLimiter dynamoDbLimiter = null;
+  private ThroughputLimiter readThroughput = null;
+  private ThroughputLimiter writeThroughput = null;
+  private CostAccounting costs = null;
+  private AdaptiveLimiter s3Limiter = null;
+  private AdaptiveLimiter kmsLimiter = null;
 
   /**
-   * Construct a Document Bucket {@code Api} using a default {@link AwsCrypto} instance.
+   * Construct a Document Bucket {@code Api} using an {@link AwsCrypto} instance configured from the
+   * [document_bucket.encryption] section of the configuration file. See {@link
+   * #awsCryptoFor(Config.Encryption)}.
    *
    * @param ddbClient the {@link AmazonDynamoDB} to use to interact with Amazon DynamoDB.
    * @param tableName the name of the Document Bucket table.
@@ -60,9 +176,7 @@ public class Api {
         tableName,
         s3Client,
         bucketName,
-        AwsCrypto.builder()
-            .withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt)
-            .build(),
+        awsCryptoFor(Config.contents.document_bucket.encryption),
         mkp);
   }
 
@@ -94,72 +208,1185 @@ public class Api {
     this.mkp = mkp;
   }
 
+  /**
+   * Build an {@link AwsCrypto} instance that encrypts with the configured algorithm suite and frame
+   * size. Messages written with any suite can still be decrypted: a key-committing suite is
+   * required for encryption only, and a non-committing one forbidden for encryption only.
+   *
+   * @param encryption the [document_bucket.encryption] configuration, or {@code null} for the
+   *     Encryption SDK's defaults.
+   * @return the configured {@link AwsCrypto}.
+   */
+  protected static AwsCrypto awsCryptoFor(Config.Encryption encryption) {
+    AwsCrypto.Builder builder = AwsCrypto.builder();
+    CommitmentPolicy commitmentPolicy = CommitmentPolicy.ForbidEncryptAllowDecrypt;
+    if (encryption != null
+        && encryption.algorithm_suite != null
+        && !encryption.algorithm_suite.isEmpty()) {
+      CryptoAlgorithm suite;
+      try {
+        suite = CryptoAlgorithm.valueOf(encryption.algorithm_suite);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            String.format("Unknown algorithm suite %s!", encryption.algorithm_suite), e);
+      }
+      builder.withEncryptionAlgorithm(suite);
+      if (suite.isCommitting()) {
+        commitmentPolicy = CommitmentPolicy.RequireEncryptAllowDecrypt;
+      }
+    }
+    if (encryption != null && encryption.frame_size > 0) {
+      builder.withEncryptionFrameSize(encryption.frame_size);
+    }
+    return builder.withCommitmentPolicy(commitmentPolicy).build();
+  }
+
+  /**
+   * Use the provided {@link KeyGenerator} for the keys of newly stored documents. Configure this
+   * before sharing the {@code Api} between threads.
+   *
+   * @param keyGenerator the source of new document keys.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withKeyGenerator(KeyGenerator keyGenerator) {
+    this.keyGenerator = keyGenerator;
+    return this;
+  }
+
+  /**
+   * Use the provided {@link Executor} for the requests that {@code Api} operations issue in
+   * parallel. Defaults to the {@link ForkJoinPool#commonPool()}.
+   *
+   * @param executor the {@link Executor} to run parallel requests on.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withExecutor(Executor executor) {
+    this.executor = CostAccounting.propagating(Lane.propagating(executor));
+    return this;
+  }
+
+  /**
+   * Check the expected context of {@code retrieve} calls against the document's {@link PointerItem}
+   * before downloading and decrypting it, so that mismatches fail without paying for the S3 GET and
+   * KMS decrypt. The authenticated encryption context is still checked after decryption.
+   *
+   * @param enabled whether to check the pointer record first.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withPreflightContextCheck(boolean enabled) {
+    this.preflightContextCheck = enabled;
+    return this;
+  }
+
+  /**
+   * Write a {@link TimeIndexItem} for each stored document, so that {@link #listBetween} and {@link
+   * #listRecent} can find it. Each index item costs a second DynamoDB write per {@code store}, and
+   * holds a copy of the document's context. The index items of each hour are spread over {@link
+   * TimeIndexItem#SHARDS} partitions, which {@code listBetween} queries in parallel.
+   *
+   * <p>The pointer and its index item are not written atomically: the pointer goes first, so an
+   * index item always refers to a stored document, but a {@code store} that fails between the two
+   * writes leaves a document that {@code listBetween} does not return. The store still fails, so
+   * the caller may delete the document or store it again.
+   *
+   * @param enabled whether to index documents by creation time.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withTimeIndex(boolean enabled) {
+    this.timeIndex = enabled;
+    return this;
+  }
+
+  /**
+   * Cache up to {@code maxEntries} {@link PointerItem}s looked up by key, least recently used first
+   * out. Pass {@code 0} to disable caching.
+   *
+   * @param maxEntries the maximum number of pointers to cache.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withPointerCache(int maxEntries) {
+    this.pointerCache = maxEntries > 0 ? new PointerCache(maxEntries) : null;
+    return this;
+  }
+
+  /**
+   * Store documents whose ciphertext is at most {@code maxCiphertextBytes} inline in their {@link
+   * PointerItem}, so that {@code store} makes no S3 write, and {@code retrieve} is served from a
+   * single DynamoDB read. {@code store} then makes a single DynamoDB write, or two with {@link
+   * #withTimeIndex} on, since the document's {@link TimeIndexItem} is written as well. Larger
+   * documents still go to S3. Pass {@code 0} to store every document in S3.
+   *
+   * <p>Inline documents are readable by any {@code Api}: with this option off, {@code retrieve}
+   * first tries S3 and falls back to the pointer item.
+   *
+   * @param maxCiphertextBytes the largest ciphertext to store inline, at most {@link
+   *     #MAX_INLINE_THRESHOLD}.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withInlineThreshold(int maxCiphertextBytes) {
+    if (maxCiphertextBytes < 0 || maxCiphertextBytes > MAX_INLINE_THRESHOLD) {
+      throw new IllegalArgumentException(
+          String.format("Inline threshold must be between 0 and %d!", MAX_INLINE_THRESHOLD));
+    }
+    this.inlineThreshold = maxCiphertextBytes;
+    return this;
+  }
+
+  /**
+   * Store documents larger than {@code chunkSize} bytes in the chunked layout described by {@link
+   * ChunkManifest}: chunks are encrypted and decrypted in parallel on the configured {@link
+   * Executor}, and {@link #retrieveRange(String, long, int)} decrypts only the chunks it needs.
+   * Each chunk is its own message, so costs one KMS request to encrypt and one to decrypt. Pass
+   * {@code 0} to store every document as a single message.
+   *
+   * @param chunkSize the plaintext size of each chunk, in bytes.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withChunkedStorage(int chunkSize) {
+    if (chunkSize < 0) {
+      throw new IllegalArgumentException("Chunk size must not be negative!");
+    }
+    this.chunkSize = chunkSize;
+    return this;
+  }
+
+  /**
+   * Compress documents before encrypting them, when a sample of the document shows that it is worth
+   * doing so. Compressed documents are flagged in their encryption context and decompressed by
+   * {@code retrieve} whether or not this option is on.
+   *
+   * @param enabled whether to compress compressible documents.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withCompression(boolean enabled) {
+    this.compression = enabled;
+    return this;
+  }
+
+  /**
+   * Write the context of new {@link PointerItem}s as a single binary attribute rather than one
+   * string attribute per entry, so that pointer items are smaller and cheaper to read and write.
+   * Only contexts that are smaller in binary form, which takes keys from the configured context
+   * dictionary, are written so; others are still written as string attributes. Pointers are read in
+   * either form whether or not this option is on; a {@link ContextMigrator} rewrites existing
+   * pointers in binary form.
+   *
+   * @param enabled whether to write contexts in binary form.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withBinaryContext(boolean enabled) {
+    this.binaryContext = enabled;
+    return this;
+  }
+
+  /**
+   * Coalesce concurrent identical requests, so that callers retrieving the same document at once
+   * share one S3 GET and one KMS decrypt, and callers looking up the same pointer or searching for
+   * the same context key share one DynamoDB request. Each caller still checks its own expected
+   * context. Results are not kept once the shared request completes; see {@link
+   * #withPointerCache(int)} for that.
+   *
+   * @param enabled whether to coalesce concurrent identical requests.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withRequestCoalescing(boolean enabled) {
+    this.retrieveFlights = enabled ? new SingleFlight<>() : null;
+    this.pointerFlights = enabled ? new SingleFlight<>() : null;
+    this.contextKeyFlights = enabled ? new SingleFlight<>() : null;
+    return this;
+  }
+
+  /**
+   * Hedge slow S3 GETs of whole objects: if a GET has not received the first byte of its response
+   * within the {@code percentile}th percentile of recent GETs, send a second and use whichever
+   * responds first, aborting the other's connection when it responds. Hedged GETs are sent on the
+   * {@link Executor} configured when this is called, and are limited to {@code maxExtraPercent}
+   * percent of the GETs sent. Pass {@code 0} for {@code maxExtraPercent} to disable hedging.
+   *
+   * @param percentile the percentile of recent GET latencies after which to hedge, such as 95.
+   * @param maxExtraPercent the most extra GETs to send, as a percentage of all GETs.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withHedgedReads(double percentile, double maxExtraPercent) {
+    if (!(percentile > 0 && percentile < 100) || !(maxExtraPercent >= 0)) {
+      throw new IllegalArgumentException(
+          "Hedging percentile must be between 0 and 100, and the budget must not be negative!");
+    }
+    this.hedgedReads =
+        maxExtraPercent > 0 ? new HedgedReads(percentile, maxExtraPercent, executor) : null;
+    return this;
+  }
+
+  /**
+   * Limit the concurrent calls to each of DynamoDB, S3 and KMS (through the Encryption SDK) with an
+   * adaptive limit: the limit grows while calls succeed promptly, and halves when a call is
+   * throttled or takes more than twice as long as usual. Uploads, and encryption and decryption,
+   * take as long as their data is large, so they only halve the limit when throttled. Calls over
+   * the limit wait until it allows them, so that a throttled dependency sees less load rather than
+   * more. Pass {@code 0} to disable limiting.
+   *
+   * @param maxConcurrency the most concurrent calls to allow to any one dependency.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withAdaptiveConcurrency(int maxConcurrency) {
+    if (maxConcurrency < 0) {
+      throw new IllegalArgumentException("Maximum concurrency must not be negative!");
+    }
+    boolean enabled = maxConcurrency > 0;
+    this.dynamoDbLimiter = enabled ? new AdaptiveLimiter("dynamodb", maxConcurrency) : null;
+    this.s3Limiter = enabled ? new AdaptiveLimiter("s3", maxConcurrency) : null;
+    this.kmsLimiter = enabled ? new AdaptiveLimiter("kms", maxConcurrency) : null;
+    return this;
+  }
+
+  /**
+   * Count the requests, capacity units and bytes that each operation spends on DynamoDB, S3 and
+   * KMS, by operation and by {@link CostTag}, so that expensive workloads can be found and
+   * optimizations checked. The operation is the outermost public call on the thread, such as {@code
+   * "store"}, or the bulk job, such as {@code "scrub"}. Pass {@code false} to turn accounting off
+   * and discard the counts.
+   *
+   * @param enabled whether to account for costs.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withCostAccounting(boolean enabled) {
+    this.costs = enabled ? new CostAccounting() : null;
+    return this;
+  }
+
+  /**
+   * Return the costs counted so far, if {@link #withCostAccounting(boolean)} is on.
+   *
+   * @return a {@link CostReport} for each operation and tag that has spent anything, or an empty
+   *     list if accounting is off.
+   */
+  public List<CostReport> costReport() {
+    if (costs == null) {
+      return Collections.emptyList();
+    }
+    return costs.report();
+  }
+
+  /**
+   * Return the current adaptive concurrency limit, calls in flight and queue depth for each
+   * dependency, if {@link #withAdaptiveConcurrency(int)} is on.
+   *
+   * @return the {@link ConcurrencyStats} for DynamoDB, S3 and KMS, in that order, or an empty list
+   *     if limiting is off.
+   */
+  public List<ConcurrencyStats> concurrencyStats() {
+    if (dynamoDbLimiter == null) {
+      return Collections.emptyList();
+    }
+    return Arrays.asList(dynamoDbLimiter.stats(), s3Limiter.stats(), kmsLimiter.stats());
+  }
+
+  /**
+   * Limit the document bytes that {@code store} and {@code retrieve} calls hold on the heap at
+   * once, counting plaintext, ciphertext and their copies. A call that would take the total over
+   * {@code maxBytesInFlight} waits for others to finish, for at most {@code maxWait}, then fails
+   * with a {@link DocumentBucketException} that gives the reason; pass {@link Duration#ZERO} to
+   * fail at once. A call is always admitted when no other holds any bytes, so documents larger than
+   * the budget are handled one at a time. Pass {@code 0} for {@code maxBytesInFlight} to disable
+   * the limit.
+   *
+   * @param maxBytesInFlight the most document bytes to hold across all calls.
+   * @param maxWait the longest a call waits to be admitted.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withMemoryBudget(long maxBytesInFlight, Duration maxWait) {
+    if (maxBytesInFlight < 0 || maxWait.isNegative()) {
+      throw new IllegalArgumentException("Memory budget and wait must not be negative!");
+    }
+    this.memoryBudget = maxBytesInFlight > 0 ? new MemoryBudget(maxBytesInFlight, maxWait) : null;
+    return this;
+  }
+
+  /**
+   * Schedule calls to DynamoDB, S3 and KMS in priority {@link Lane}s, so that bulk jobs cannot
+   * crowd out interactive calls: at most {@code maxConcurrency} calls are made at once, of which at
+   * most {@code maxBulkConcurrency} in the {@link Lane#BULK} lane, and while both lanes have calls
+   * waiting, interactive calls get {@code interactiveWeight} slots for every bulk call's one. Calls
+   * are interactive unless made in {@link Lane#BULK}, as the bulk jobs in this package are. Pass
+   * {@code 0} for {@code maxConcurrency} to disable scheduling.
+   *
+   * @param maxConcurrency the most concurrent calls in all lanes.
+   * @param maxBulkConcurrency the most concurrent calls in the bulk lane.
+   * @param interactiveWeight the share of the slots for interactive calls relative to bulk calls.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withPriorityLanes(int maxConcurrency, int maxBulkConcurrency, int interactiveWeight) {
+    if (maxConcurrency < 0
+        || (maxConcurrency > 0 && (maxBulkConcurrency < 1 || interactiveWeight < 1))) {
+      throw new IllegalArgumentException(
+          "Lane concurrency must not be negative, and bulk concurrency and weight positive!");
+    }
+    int[] limits = new int[Lane.values().length];
+    limits[Lane.INTERACTIVE.ordinal()] = maxConcurrency;
+    limits[Lane.BULK.ordinal()] = Math.min(maxBulkConcurrency, maxConcurrency);
+    int[] weights = new int[Lane.values().length];
+    weights[Lane.INTERACTIVE.ordinal()] = interactiveWeight;
+    weights[Lane.BULK.ordinal()] = 1;
+    this.laneScheduler =
+        maxConcurrency > 0 ? new LaneScheduler(maxConcurrency, limits, weights) : null;
+    return this;
+  }
+
+  /**
+   * Pack documents whose ciphertext is at most {@code maxDocumentBytes} into shared segment objects
+   * of up to {@code maxSegmentBytes}, so that a burst of small documents costs one S3 PUT between
+   * them rather than one each. A {@code store} call waits at most {@code linger} for its segment to
+   * fill, and returns once the segment is written. Lingering segments are written by a few threads
+   * of the packer's own, in the lane and cost operation and tag of the {@code store} that started
+   * them, so that they are written even while every thread of the {@link Executor} is blocked in a
+   * {@code store}. Pass {@code 0} to store every document in its own object.
+   *
+   * <p>Packed documents are readable by any {@code Api}, as for inline documents. Space held by
+   * deleted documents is reclaimed by a {@link SegmentCompactor}.
+   *
+   * @param maxDocumentBytes the largest ciphertext to pack.
+   * @param maxSegmentBytes the size at which a segment is written without waiting.
+   * @param linger the longest time a {@code store} waits for its segment to fill.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withSegmentPacking(int maxDocumentBytes, int maxSegmentBytes, Duration linger) {
+    if (maxDocumentBytes < 0 || maxSegmentBytes < maxDocumentBytes) {
+      throw new IllegalArgumentException(
+          "Segment size must be at least the packed document size, which must not be negative!");
+    }
+    this.maxPackedBytes = maxDocumentBytes;
+    this.segmentPacker =
+        maxDocumentBytes > 0 ? new SegmentPacker(this, maxSegmentBytes, linger) : null;
+    return this;
+  }
+
+  /**
+   * Collect the pointer and time index writes of concurrent {@code store} calls into shared {@code
+   * BatchWriteItem} requests of up to {@link #MAX_BATCH_WRITE} items, so that a burst of stores
+   * costs a fraction of the DynamoDB requests. A {@code store} call waits at most {@code linger}
+   * for its batch to fill, and returns once its own items are written; items still unprocessed
+   * after retrying fail only the calls that wrote them. Lingering batches are written by a few
+   * threads of the batcher's own, in the lane and cost operation and tag of the {@code store} that
+   * started them, so that they are written even while every thread of the {@link Executor} is
+   * blocked in a {@code store}. Pass {@link Duration#ZERO} to write each item on its own.
+   *
+   * @param linger the longest time a {@code store} waits for its batch to fill.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withWriteBatching(Duration linger) {
+    if (linger.isNegative()) {
+      throw new IllegalArgumentException("Write batching linger must not be negative!");
+    }
+    this.writeBatcher = linger.isZero() ? null : new WriteBatcher(this, linger);
+    return this;
+  }
+
+  /**
+   * Pace calls to DynamoDB to a fraction of the table's provisioned read and write capacity, so
+   * that scans and ingests run at the most the table can sustain rather than tripping {@code
+   * ProvisionedThroughputExceededException} and spending their time in retries. The capacity is
+   * read from the table once, when this is called; see {@link #withThroughputLimit(double, double)}
+   * for tables with on-demand capacity. Pass {@code 0} to turn pacing off.
+   *
+   * @param fraction the fraction of the table's provisioned capacity to use, at most {@code 1}.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withThroughputLimit(double fraction) {
+    if (fraction < 0 || fraction > 1) {
+      throw new IllegalArgumentException("Throughput fraction must be between 0 and 1!");
+    }
+    if (fraction == 0) {
+      return withThroughputLimit(0, 0);
+    }
+    ProvisionedThroughputDescription provisioned =
+        schedule(dynamoDbLimiter, true, () -> ddbClient.describeTable(tableName))
+            .getTable()
+            .getProvisionedThroughput();
+    if (provisioned == null
+        || provisioned.getReadCapacityUnits() == 0
+        || provisioned.getWriteCapacityUnits() == 0) {
+      throw new IllegalArgumentException(
+          "Table has no provisioned capacity, so the limit must be given in units per second!");
+    }
+    return withThroughputLimit(
+        fraction * provisioned.getReadCapacityUnits(),
+        fraction * provisioned.getWriteCapacityUnits());
+  }
+
+  /**
+   * Pace calls to DynamoDB to the provided read and write capacity units per second, shared by
+   * every thread using this {@code Api}. Each call reserves the capacity that calls usually
+   * consume, and is settled against the capacity DynamoDB reports it consumed; a throttled call
+   * makes the calls after it wait for capacity to accrue. Pass {@code 0} for both to turn pacing
+   * off.
+   *
+   * @param readUnitsPerSecond the read capacity units to allow per second.
+   * @param writeUnitsPerSecond the write capacity units to allow per second.
+   * @return this {@code Api}, for chaining.
+   */
+  public Api withThroughputLimit(double readUnitsPerSecond, double writeUnitsPerSecond) {
+    if (readUnitsPerSecond < 0
+        || writeUnitsPerSecond < 0
+        || (readUnitsPerSecond == 0) != (writeUnitsPerSecond == 0)) {
+      throw new IllegalArgumentException(
+          "Throughput limits must both be positive, or both 0 to turn pacing off!");
+    }
+    this.readThroughput =
+        readUnitsPerSecond > 0 ? new ThroughputLimiter("read", readUnitsPerSecond) : null;
+    this.writeThroughput =
+        writeUnitsPerSecond > 0 ? new ThroughputLimiter("write", writeUnitsPerSecond) : null;
+    return this;
+  }
+
+  private MemoryBudget.Lease openLease() {
+    return memoryBudget == null ? MemoryBudget.none() : memoryBudget.open();
+  }
+
+  /** Run work with a lease open, for calls whose bytes are charged by the code they call. */
+  private <T> T leased(Supplier<T> work) {
+    try (MemoryBudget.Lease lease = openLease()) {
+      return lease.run(work);
+    }
+  }
+
+  private <T> T readDynamoDb(String request, Supplier<T> call, ToDoubleFunction<T> consumed) {
+    T result = callDynamoDb(readThroughput, call, consumed);
+    recordCosts(
+        costs -> costs.dynamoDbRequest(request, consumed.applyAsDouble(result), Double.NaN));
+    return result;
+  }
+
+  private <T> T writeDynamoDb(String request, Supplier<T> call, ToDoubleFunction<T> consumed) {
+    T result = callDynamoDb(writeThroughput, call, consumed);
+    recordCosts(
+        costs -> costs.dynamoDbRequest(request, Double.NaN, consumed.applyAsDouble(result)));
+    return result;
+  }
+
+  private <T> T callDynamoDb(
+      ThroughputLimiter throughput, Supplier<T> call, ToDoubleFunction<T> consumed) {
+    // Pace before taking a concurrency slot, so that calls waiting for capacity do not hold one
+    if (throughput == null) {
+      return schedule(dynamoDbLimiter, true, call);
+    }
+    return throughput.call(() -> schedule(dynamoDbLimiter, true, call), consumed);
+  }
+
+  private static double units(ConsumedCapacity consumed) {
+    return consumed == null || consumed.getCapacityUnits() == null
+        ? Double.NaN
+        : consumed.getCapacityUnits();
+  }
+
+  private static double units(List<ConsumedCapacity> consumed) {
+    return consumed == null || consumed.isEmpty()
+        ? Double.NaN
+        : consumed.stream().mapToDouble(Api::units).sum();
+  }
+
+  private <T> T callS3(String request, Supplier<T> call) {
+    T result = schedule(s3Limiter, !SIZED_S3_REQUESTS.contains(request), call);
+    recordCosts(costs -> costs.s3Request(request));
+    return result;
+  }
+
+  private S3Object getS3Object(Supplier<S3Object> call) {
+    S3Object object = callS3("GetObject", call);
+    recordCosts(costs -> costs.downloaded(object.getObjectMetadata().getContentLength()));
+    return object;
+  }
+
+  private <T> T callKms(Supplier<T> call) {
+    // Each call encrypts or decrypts a whole document locally as well as calling KMS
+    return schedule(kmsLimiter, false, call);
+  }
+
+  private void recordKmsRequests(CryptoResult<?, ?> result, boolean encrypted) {
+    List<?> masterKeys = result.getMasterKeys();
+    for (int i = 0; i < masterKeys.size(); i++) {
+      if (KMS_PROVIDER_ID.equals(((MasterKey<?>) masterKeys.get(i)).getProviderId())) {
+        // The first master key generates the data key, and the others encrypt it
+        String request = !encrypted ? "Decrypt" : i == 0 ? "GenerateDataKey" : "Encrypt";
+        recordCosts(costs -> costs.kmsRequest(request));
+      }
+    }
+  }
+
+  private void recordCosts(Consumer<CostAccounting.Counters> record) {
+    if (costs != null) {
+      record.accept(costs.current());
+    }
+  }
+
+  private <T> T schedule(AdaptiveLimiter limiter, boolean latencySensitive, Supplier<T> call) {
+    Supplier<T> limited = limiter == null ? call : () -> limiter.call(call, latencySensitive);
+    return laneScheduler == null ? limited.get() : laneScheduler.call(Lane.current(), limited);
+  }
+
   /**
    * Writes a {@link BaseItem} item to the DynamoDB table.
    *
-   * @param modeledItem the item to write.
-   * @param <T> the subtype of item to write.
-   * @return the actual item value written ({@link Map} of {@link String}:{@link AttributeValue}).
+   * @param modeledItem the item to write.
+   * @param <T> the subtype of item to write.
+   * @return the actual item value written ({@link Map} of {@link String}:{@link AttributeValue}).
+   */
+  protected <T extends BaseItem> Map<String, AttributeValue> writeItem(T modeledItem) {
+    Map<String, AttributeValue> ddbItem = modeledItem.toItem();
+    PutItemRequest request =
+        new PutItemRequest(tableName, ddbItem)
+            .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+    writeDynamoDb(
+        "PutItem", () -> ddbClient.putItem(request), result -> units(result.getConsumedCapacity()));
+    return ddbItem;
+  }
+
+  /**
+   * Writes a new document's {@link PointerItem}, stamped with the current time, and its {@link
+   * TimeIndexItem} if the time index is on.
+   *
+   * @param pointer the pointer to write.
+   */
+  protected void writePointer(PointerItem pointer) {
+    Instant created = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    PointerItem stamped = pointer.withCreated(created).withBinaryContext(binaryContext);
+    TimeIndexItem indexItem = timeIndex ? TimeIndexItem.fromPointer(pointer, created) : null;
+    if (writeBatcher == null) {
+      writeItem(stamped);
+      if (indexItem != null) {
+        writeItem(indexItem);
+      }
+      return;
+    }
+    try {
+      List<CompletableFuture<Void>> written = new ArrayList<>();
+      written.add(writeBatcher.add(stamped.toItem()));
+      if (indexItem != null) {
+        written.add(writeBatcher.add(indexItem.toItem()));
+      }
+      CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      throw new DocumentBucketException("Unable to write document pointer!", e.getCause());
+    }
+  }
+
+  /**
+   * Retrieves a {@link PointerItem} for the supplied key.
+   *
+   * @param key the key for which to fetch the {@link PointerItem}.
+   * @return the {@link PointerItem} found.
+   */
+  protected PointerItem getPointerItem(String key) {
+    return coalesce(pointerFlights, key, () -> lookupPointerItem(key));
+  }
+
+  /**
+   * Retrieves the {@link PointerItem} for an associated {@link ContextItem}-pointer pair.
+   *
+   * @param contextItem the {@link ContextItem} with the desired document pointer key.
+   * @return the {@link PointerItem} for that context and pointer pair.
+   */
+  protected PointerItem getPointerItem(ContextItem contextItem) {
+    return getPointerItem(contextItem.sortKey().getS());
+  }
+
+  private PointerItem lookupPointerItem(String key) {
+    if (pointerCache != null) {
+      return pointerCache.get(key, this::loadPointerItem);
+    }
+    return loadPointerItem(key);
+  }
+
+  /**
+   * Fetches the {@link PointerItem} for the supplied key from DynamoDB, bypassing any cache.
+   *
+   * @param key the key for which to fetch the {@link PointerItem}.
+   * @return the {@link PointerItem} found.
+   */
+  protected PointerItem loadPointerItem(String key) {
+    GetItemRequest request =
+        new GetItemRequest(tableName, PointerItem.atKey(key))
+            .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+    GetItemResult result =
+        readDynamoDb(
+            "GetItem", () -> ddbClient.getItem(request), got -> units(got.getConsumedCapacity()));
+    if (result.getItem() == null) {
+      throw new DocumentBucketException(
+          String.format("No document found for key %s!", key), new NoSuchElementException());
+    }
+    PointerItem pointer = PointerItem.fromItem(result.getItem());
+    return pointer;
+  }
+
+  /**
+   * Points a packed document's {@link PointerItem} at a new segment location, provided it still
+   * points into the segment it is being moved from.
+   *
+   * @param key the document key.
+   * @param fromSegment the key of the segment the document is being moved from.
+   * @param to the document's location in its new segment.
+   * @return {@code true} if the pointer was updated, or {@code false} if the document was deleted
+   *     or moved elsewhere in the meantime.
+   */
+  protected boolean relocatePointer(String key, String fromSegment, SegmentLocation to) {
+    UpdateItemRequest request =
+        new UpdateItemRequest()
+            .withTableName(tableName)
+            .withKey(PointerItem.atKey(key))
+            .withUpdateExpression("SET #segment = :to")
+            .withConditionExpression("#segment.#id = :from")
+            .addExpressionAttributeNamesEntry("#segment", PointerItem.segmentAttributeName())
+            .addExpressionAttributeNamesEntry("#id", SegmentLocation.idFieldName())
+            .addExpressionAttributeValuesEntry(":to", to.toAttribute())
+            .addExpressionAttributeValuesEntry(":from", new AttributeValue(fromSegment));
+    return conditionalUpdate(key, request);
+  }
+
+  /**
+   * Replaces the ciphertext stored inline in a document's {@link PointerItem}, provided it is still
+   * the ciphertext being replaced.
+   *
+   * @param key the document key.
+   * @param expected the inline ciphertext being replaced.
+   * @param replacement the new inline ciphertext.
+   * @return {@code true} if the pointer was updated, or {@code false} if the document was deleted
+   *     or its ciphertext changed in the meantime.
+   */
+  protected boolean replaceInlineData(String key, byte[] expected, byte[] replacement) {
+    UpdateItemRequest request =
+        new UpdateItemRequest()
+            .withTableName(tableName)
+            .withKey(PointerItem.atKey(key))
+            .withUpdateExpression("SET #inline = :to")
+            .withConditionExpression("#inline = :from")
+            .addExpressionAttributeNamesEntry("#inline", PointerItem.inlineDataAttributeName())
+            .addExpressionAttributeValuesEntry(
+                ":to", new AttributeValue().withB(ByteBuffer.wrap(replacement)))
+            .addExpressionAttributeValuesEntry(
+                ":from", new AttributeValue().withB(ByteBuffer.wrap(expected)));
+    return conditionalUpdate(key, request);
+  }
+
+  /**
+   * Removes a packed document's segment location from its {@link PointerItem}, so that it is read
+   * from its own S3 object, provided it still points into the segment it is being moved from.
+   *
+   * @param key the document key.
+   * @param fromSegment the key of the segment the document is being moved from.
+   * @return {@code true} if the pointer was updated, or {@code false} if the document was deleted
+   *     or moved elsewhere in the meantime.
+   */
+  protected boolean unpackPointer(String key, String fromSegment) {
+    UpdateItemRequest request =
+        new UpdateItemRequest()
+            .withTableName(tableName)
+            .withKey(PointerItem.atKey(key))
+            .withUpdateExpression("REMOVE #segment")
+            .withConditionExpression("#segment.#id = :from")
+            .addExpressionAttributeNamesEntry("#segment", PointerItem.segmentAttributeName())
+            .addExpressionAttributeNamesEntry("#id", SegmentLocation.idFieldName())
+            .addExpressionAttributeValuesEntry(":from", new AttributeValue(fromSegment));
+    return conditionalUpdate(key, request);
+  }
+
+  /**
+   * Rewrites a {@link PointerItem} stored with one string attribute per context entry with its
+   * context in binary form, provided it still exists and has not been rewritten already.
+   *
+   * @param pointer the pointer, as read from the table.
+   * @return {@code true} if the pointer was updated, or {@code false} if the document was deleted
+   *     or its pointer rewritten in the meantime.
+   */
+  protected boolean packContext(PointerItem pointer) {
+    String key = pointer.partitionKey().getS();
+    StringBuilder remove = new StringBuilder();
+    UpdateItemRequest request =
+        new UpdateItemRequest()
+            .withTableName(tableName)
+            .withKey(PointerItem.atKey(key))
+            .withConditionExpression("attribute_exists(#key) AND attribute_not_exists(#context)")
+            .addExpressionAttributeNamesEntry("#key", BaseItem.partitionKeyName())
+            .addExpressionAttributeNamesEntry("#context", PointerItem.contextAttributeName())
+            .addExpressionAttributeValuesEntry(":context", pointer.binaryContextAttribute());
+    int entry = 0;
+    for (String contextKey : pointer.getContext().keySet()) {
+      // Context keys are free-form, so refer to them by placeholder
+      String name = "#c" + entry++;
+      request.addExpressionAttributeNamesEntry(name, contextKey);
+      remove.append(remove.length() == 0 ? " REMOVE " : ", ").append(name);
+    }
+    request.setUpdateExpression("SET #context = :context" + remove);
+    return conditionalUpdate(key, request);
+  }
+
+  private boolean conditionalUpdate(String key, UpdateItemRequest request) {
+    try {
+      request.setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+      writeDynamoDb(
+          "UpdateItem",
+          () -> ddbClient.updateItem(request),
+          result -> units(result.getConsumedCapacity()));
+      return true;
+    } catch (ConditionalCheckFailedException e) {
+      return false;
+    } finally {
+      if (pointerCache != null) {
+        pointerCache.invalidate(key);
+      }
+    }
+  }
+
+  /**
+   * Scans DynamoDB for all {@link SegmentItem}s, following pagination.
+   *
+   * @return the {@link List} of {@link SegmentItem}s in the table.
+   */
+  protected List<SegmentItem> scanSegments() {
+    ScanRequest scan =
+        new ScanRequest()
+            .withTableName(tableName)
+            .withScanFilter(SegmentItem.filterFor())
+            .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+    List<SegmentItem> segments = new ArrayList<>();
+    do {
+      ScanResult result =
+          readDynamoDb(
+              "Scan", () -> ddbClient.scan(scan), page -> units(page.getConsumedCapacity()));
+      result.getItems().stream().map(SegmentItem::fromItem).forEach(segments::add);
+      scan.setExclusiveStartKey(result.getLastEvaluatedKey());
+    } while (scan.getExclusiveStartKey() != null);
+    return segments;
+  }
+
+  /**
+   * Scans one segment of the DynamoDB table, following pagination, and passes each item to the
+   * provided consumer. Segments can be scanned in parallel.
+   *
+   * @param segment the segment to scan, from {@code 0} to {@code totalSegments - 1}.
+   * @param totalSegments the number of segments the table is divided into.
+   * @param consumer the consumer for each item in the segment.
+   */
+  protected void scanSegment(
+      int segment, int totalSegments, Consumer<Map<String, AttributeValue>> consumer) {
+    Map<String, AttributeValue> startKey = null;
+    do {
+      ScanResult result = scanPage(segment, totalSegments, startKey);
+      result.getItems().forEach(consumer);
+      startKey = result.getLastEvaluatedKey();
+    } while (startKey != null);
+  }
+
+  /**
+   * Scans one page of one segment of the DynamoDB table.
+   *
+   * @param segment the segment to scan, from {@code 0} to {@code totalSegments - 1}.
+   * @param totalSegments the number of segments the table is divided into.
+   * @param startKey the last evaluated key of the previous page, or {@code null} for the first.
+   * @return the {@link ScanResult}, whose last evaluated key is {@code null} after the last page.
+   */
+  protected ScanResult scanPage(
+      int segment, int totalSegments, Map<String, AttributeValue> startKey) {
+    ScanRequest scan =
+        new ScanRequest()
+            .withTableName(tableName)
+            .withSegment(segment)
+            .withTotalSegments(totalSegments)
+            .withExclusiveStartKey(startKey)
+            .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+    return readDynamoDb(
+        "Scan", () -> ddbClient.scan(scan), page -> units(page.getConsumedCapacity()));
+  }
+
+  /**
+   * Lists the objects in the Document Bucket, in key order, fetching each page as it is needed.
+   *
+   * @return an {@link Iterator} over the object summaries.
+   */
+  protected Iterator<S3ObjectSummary> listObjects() {
+    return new Iterator<S3ObjectSummary>() {
+      private final ListObjectsV2Request request =
+          new ListObjectsV2Request().withBucketName(bucketName);
+      private Iterator<S3ObjectSummary> page = Collections.emptyIterator();
+      private boolean more = true;
+
+      @Override
+      public boolean hasNext() {
+        while (!page.hasNext() && more) {
+          ListObjectsV2Result result =
+              callS3("ListObjectsV2", () -> s3Client.listObjectsV2(request));
+          page = result.getObjectSummaries().iterator();
+          request.setContinuationToken(result.getNextContinuationToken());
+          more = result.isTruncated();
+        }
+        return page.hasNext();
+      }
+
+      @Override
+      public S3ObjectSummary next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return page.next();
+      }
+    };
+  }
+
+  /**
+   * Checks the integrity of the message stored at the key in S3 by decrypting it as a stream, so
+   * that the plaintext is never held in memory.
+   *
+   * @param key the S3 key of the message to check.
+   * @throws DocumentBucketException if the message cannot be decrypted.
+   */
+  protected void verifyObject(String key) {
+    byte[] buffer = new byte[64 * 1024];
+    try (S3ObjectInputStream stream =
+            getS3Object(() -> s3Client.getObject(bucketName, key)).getObjectContent();
+        CryptoInputStream<?> decrypted = awsEncryptionSdk.createDecryptingStream(mkp, stream)) {
+      while (decrypted.read(buffer) >= 0) {
+        // Only authentication matters
+      }
+      recordKmsRequests(decrypted.getCryptoResult(), false);
+    } catch (IOException | AwsCryptoException e) {
+      throw new DocumentBucketException(String.format("Unable to verify object %s!", key), e);
+    }
+  }
+
+  /**
+   * Return the {@link Executor} configured for parallel requests, for jobs that run alongside
+   * {@code Api} operations.
+   *
+   * @return the configured {@link Executor}.
+   */
+  Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Deletes a segment's S3 object and then its {@link SegmentItem}, so that an interrupted delete
+   * leaves a record to retry from.
+   *
+   * @param segmentId the key of the segment to delete.
+   */
+  protected void deleteSegment(String segmentId) {
+    deleteObject(segmentId);
+    DeleteItemRequest request =
+        new DeleteItemRequest(tableName, SegmentItem.atKey(segmentId))
+            .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+    writeDynamoDb(
+        "DeleteItem",
+        () -> ddbClient.deleteItem(request),
+        result -> units(result.getConsumedCapacity()));
+  }
+
+  /**
+   * Query DynamoDB for the records associated with the supplied context key.
+   *
+   * @param contextKey the key for which to retrieve the list of matching records.
+   * @return the {@link Set} of {@link PointerItem}s that have that context key.
+   */
+  protected Set<PointerItem> queryForContextKey(String contextKey) {
+    if (contextKeyFlights == null) {
+      return loadForContextKey(contextKey);
+    }
+    // Callers share the result, so each gets its own copy of the set
+    return new HashSet<>(contextKeyFlights.get(contextKey, () -> loadForContextKey(contextKey)));
+  }
+
+  private Set<PointerItem> loadForContextKey(String contextKey) {
+    Set<ContextItem> contextItems = new HashSet<>();
+    queryContextItems(contextKey, contextItems::add);
+    Set<PointerItem> pointerItems =
+        contextItems.stream().map(this::getPointerItem).collect(Collectors.toSet());
+    return pointerItems;
+  }
+
+  /**
+   * Query DynamoDB for the {@link ContextItem}s of the supplied context key, following pagination,
+   * and pass each to the provided consumer as its page arrives.
+   *
+   * @param contextKey the context key to query for.
+   * @param consumer the consumer for each {@link ContextItem}.
+   */
+  protected void queryContextItems(String contextKey, Consumer<ContextItem> consumer) {
+    QueryRequest query =
+        ContextItem.queryFor(contextKey)
+            .withTableName(tableName)
+            .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+    do {
+      QueryResult result =
+          readDynamoDb(
+              "Query", () -> ddbClient.query(query), page -> units(page.getConsumedCapacity()));
+      result.getItems().stream().map(ContextItem::fromItem).forEach(consumer);
+      query.setExclusiveStartKey(result.getLastEvaluatedKey());
+    } while (query.getExclusiveStartKey() != null);
+  }
+
+  /**
+   * Query DynamoDB for the time index records in a single bucket created in {@code [from, to)},
+   * following pagination to the end of the bucket.
+   *
+   * @param bucket the time bucket partition key to query.
+   * @param from the inclusive start of the range.
+   * @param to the exclusive end of the range.
+   * @return the {@link List} of {@link TimeIndexItem}s in that bucket and range, in time order.
+   */
+  protected List<TimeIndexItem> queryTimeBucket(String bucket, Instant from, Instant to) {
+    QueryRequest query =
+        TimeIndexItem.queryFor(bucket, from, to)
+            .withTableName(tableName)
+            .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+    List<TimeIndexItem> items = new ArrayList<>();
+    do {
+      QueryResult result =
+          readDynamoDb(
+              "Query", () -> ddbClient.query(query), page -> units(page.getConsumedCapacity()));
+      result.getItems().stream().map(TimeIndexItem::fromItem).forEach(items::add);
+      query.setExclusiveStartKey(result.getLastEvaluatedKey());
+    } while (query.getExclusiveStartKey() != null);
+    return items;
+  }
+
+  /**
+   * Helper to perform the write operations required to store the provided {@link DocumentBundle} in
+   * the Document Bucket system.
+   *
+   * @param bundle the document to store.
+   */
+  protected void writeObject(DocumentBundle bundle) {
+    writeObject(
+        bundle.getPointer().partitionKey().getS(),
+        bundle.getData(),
+        bundle.getPointer().getContext());
+  }
+
+  /**
+   * Helper to write the provided bytes to S3 under the provided key.
+   *
+   * @param key the S3 key to write.
+   * @param data the bytes to write.
+   * @param context the context to attach as object metadata.
+   */
+  protected void writeObject(String key, byte[] data, Map<String, String> context) {
+    ObjectMetadata metadata = new ObjectMetadata();
+    metadata.setContentLength(data.length);
+    metadata.setUserMetadata(context);
+    callS3(
+        "PutObject",
+        () -> s3Client.putObject(bucketName, key, new ByteArrayInputStream(data), metadata));
+    recordCosts(costs -> costs.uploaded(data.length));
+  }
+
+  /**
+   * Helper to delete the object under the provided key from S3.
+   *
+   * @param key the S3 key to delete.
+   */
+  protected void deleteObject(String key) {
+    callS3(
+        "DeleteObject",
+        () -> {
+          s3Client.deleteObject(bucketName, key);
+          return null;
+        });
+  }
+
+  /**
+   * Helper to encrypt and write one chunk of a document stored in the chunked layout.
+   *
+   * @param key the document's key.
+   * @param data the whole document plaintext, from its position to its limit.
+   * @param context the document's context.
+   * @param manifest the document's {@link ChunkManifest}.
+   * @param index the index of the chunk to write.
    */
-  protected <T extends BaseItem> Map<String, AttributeValue> writeItem(T modeledItem) {
-    Map<String, AttributeValue> ddbItem = modeledItem.toItem();
-    ddbClient.putItem(tableName, ddbItem);
-    return ddbItem;
+  protected void writeChunk(
+      String key, ByteBuffer data, Map<String, String> context, ChunkManifest manifest, int index) {
+    // Chunks are not held once written, so their bytes are released as each completes
+    MemoryBudget.Lease lease = MemoryBudget.current();
+    long charged = 3L * manifest.chunkLength(index);
+    lease.charge(charged);
+    try {
+      ByteBuffer source = data.duplicate();
+      source.position(data.position() + (int) manifest.chunkOffset(index));
+      byte[] chunk = new byte[manifest.chunkLength(index)];
+      source.get(chunk);
+      CryptoResult<byte[], KmsMasterKey> encryptedChunk =
+          encrypt(chunk, manifest.chunkContext(key, context, index));
+      writeObject(ChunkManifest.chunkKey(key, index), encryptedChunk.getResult(), context);
+    } finally {
+      lease.refund(charged);
+    }
   }
 
   /**
-   * Retrieves a {@link PointerItem} for the supplied key.
+   * Helper to fetch and decrypt one chunk of a document stored in the chunked layout.
    *
-   * @param key the key for which to fetch the {@link PointerItem}.
-   * @return the {@link PointerItem} found.
+   * @param key the document's key.
+   * @param manifest the document's {@link ChunkManifest}.
+   * @param index the index of the chunk to read.
+   * @return the decrypted chunk, with its encryption context.
    */
-  protected PointerItem getPointerItem(String key) {
-    GetItemResult result = ddbClient.getItem(tableName, PointerItem.atKey(key));
-    PointerItem pointer = PointerItem.fromItem(result.getItem());
-    return pointer;
+  protected DocumentBundle readChunk(String key, ChunkManifest manifest, int index) {
+    byte[] stored = getObjectData(ChunkManifest.chunkKey(key, index));
+    DocumentBundle decryptedChunk = decrypt(key, stored);
+    if (decryptedChunk.getData().length != manifest.chunkLength(index)) {
+      throw new DocumentBucketException(
+          String.format("Chunk %d of %s has the wrong length!", index, key),
+          new IllegalStateException());
+    }
+    return decryptedChunk;
   }
 
   /**
-   * Retrieves the {@link PointerItem} for an associated {@link ContextItem}-pointer pair.
+   * Encrypts a document, first compressing it if compression is enabled and worthwhile.
    *
-   * @param contextItem the {@link ContextItem} with the desired document pointer key.
-   * @return the {@link PointerItem} for that context and pointer pair.
+   * @param data the document plaintext.
+   * @param context the encryption context for the document.
+   * @return the encrypted message.
    */
-  protected PointerItem getPointerItem(ContextItem contextItem) {
-    return getPointerItem(contextItem.sortKey().getS());
+  protected CryptoResult<byte[], KmsMasterKey> encrypt(byte[] data, Map<String, String> context) {
+    if (context.containsKey(Compression.CONTEXT_KEY)) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Can't create an encryption context with reserved key %s", Compression.CONTEXT_KEY));
+    }
+    byte[] compressed = compression ? Compression.tryCompress(data) : null;
+    CryptoResult<byte[], KmsMasterKey> encryptedMessage =
+        compressed != null
+            ? callKms(
+                () -> awsEncryptionSdk.encryptData(mkp, compressed, Compression.flag(context)))
+            : callKms(() -> awsEncryptionSdk.encryptData(mkp, data, context));
+    recordKmsRequests(encryptedMessage, true);
+    return encryptedMessage;
   }
 
   /**
-   * Query DynamoDB for the records associated with the supplied context key.
+   * Decrypts a stored message and encrypts its payload again under the target master key provider,
+   * with the same encryption context. A compressed payload stays compressed and keeps its flag.
    *
-   * @param contextKey the key for which to retrieve the list of matching records.
-   * @return the {@link Set} of {@link PointerItem}s that have that context key.
+   * <p>The message, its plaintext and the new message are all held in memory, so this is only for
+   * messages that are small by layout, such as inline and packed documents; use {@link
+   * #reEncryptObject(String, MasterKeyProvider, Map)} for S3 objects.
+   *
+   * @param message the encrypted message.
+   * @param target the {@link MasterKeyProvider} to encrypt under.
+   * @return the new encrypted message.
    */
-  protected Set<PointerItem> queryForContextKey(String contextKey) {
-    QueryResult result = ddbClient.query(ContextItem.queryFor(contextKey).withTableName(tableName));
-    Set<ContextItem> contextItems =
-        result.getItems().stream().map(ContextItem::fromItem).collect(Collectors.toSet());
-    Set<PointerItem> pointerItems =
-        contextItems.stream().map(this::getPointerItem).collect(Collectors.toSet());
-    return pointerItems;
+  protected byte[] reEncrypt(byte[] message, MasterKeyProvider<?> target) {
+    CryptoResult<byte[], KmsMasterKey> decryptedMessage =
+        callKms(() -> awsEncryptionSdk.decryptData(mkp, message));
+    recordKmsRequests(decryptedMessage, false);
+    Map<String, String> context = new HashMap<>(decryptedMessage.getEncryptionContext());
+    // Keys the Encryption SDK added itself, such as a signing suite's public key, are added again
+    context.keySet().removeIf(name -> name.startsWith(RESERVED_SDK_CONTEXT_PREFIX));
+    byte[] plaintext = decryptedMessage.getResult();
+    CryptoResult<byte[], ?> encryptedMessage =
+        callKms(() -> awsEncryptionSdk.encryptData(target, plaintext, context));
+    recordKmsRequests(encryptedMessage, true);
+    return encryptedMessage.getResult();
   }
 
   /**
-   * Helper to perform the write operations required to store the provided {@link DocumentBundle} in
-   * the Document Bucket system.
+   * Re-encrypts the message stored at the key in S3 under the target master key provider, as for
+   * {@link #reEncrypt(byte[], MasterKeyProvider)}, but streaming it from the GET through decryption
+   * and encryption into the upload. A new message larger than {@link #REENCRYPT_PART_SIZE} is
+   * uploaded in parts, so that at most one part is held in memory whatever the object's size.
    *
-   * @param bundle the document to store.
+   * @param key the S3 key of the message to re-encrypt.
+   * @param target the {@link MasterKeyProvider} to encrypt under.
+   * @param metadata the context to attach as object metadata.
    */
-  protected void writeObject(DocumentBundle bundle) {
-    ObjectMetadata metadata = new ObjectMetadata();
-    byte[] data = bundle.getData();
-    metadata.setContentLength(data.length);
-    metadata.setUserMetadata(bundle.getPointer().getContext());
-    s3Client.putObject(
-        bucketName,
-        bundle.getPointer().partitionKey().getS(),
-        new ByteArrayInputStream(data),
-        metadata);
+  protected void reEncryptObject(
+      String key, MasterKeyProvider<?> target, Map<String, String> metadata) {
+    try (S3ObjectInputStream stream =
+            getS3Object(() -> s3Client.getObject(bucketName, key)).getObjectContent();
+        CryptoInputStream<?> decrypted = awsEncryptionSdk.createDecryptingStream(mkp, stream)) {
+      // Blocks until the header, and so the context, has been read
+      Map<String, String> context =
+          new HashMap<>(decrypted.getCryptoResult().getEncryptionContext());
+      context.keySet().removeIf(name -> name.startsWith(RESERVED_SDK_CONTEXT_PREFIX));
+      try (CryptoInputStream<?> encrypted =
+          awsEncryptionSdk.createEncryptingStream(target, decrypted, context)) {
+        byte[] first = encrypted.readNBytes(REENCRYPT_PART_SIZE);
+        if (first.length < REENCRYPT_PART_SIZE) {
+          writeObject(key, first, metadata);
+        } else {
+          uploadInParts(key, first, encrypted, metadata);
+        }
+        recordKmsRequests(decrypted.getCryptoResult(), false);
+        recordKmsRequests(encrypted.getCryptoResult(), true);
+      }
+    } catch (IOException | AwsCryptoException e) {
+      throw new DocumentBucketException(String.format("Unable to re-encrypt object %s!", key), e);
+    }
+  }
+
+  private void uploadInParts(
+      String key, byte[] first, InputStream rest, Map<String, String> metadata) throws IOException {
+    ObjectMetadata objectMetadata = new ObjectMetadata();
+    objectMetadata.setUserMetadata(metadata);
+    InitiateMultipartUploadRequest initiate =
+        new InitiateMultipartUploadRequest(bucketName, key, objectMetadata);
+    String uploadId =
+        callS3("CreateMultipartUpload", () -> s3Client.initiateMultipartUpload(initiate))
+            .getUploadId();
+    List<PartETag> parts = new ArrayList<>();
+    try {
+      for (byte[] part = first; part.length > 0; part = rest.readNBytes(REENCRYPT_PART_SIZE)) {
+        UploadPartRequest upload =
+            new UploadPartRequest()
+                .withBucketName(bucketName)
+                .withKey(key)
+                .withUploadId(uploadId)
+                .withPartNumber(parts.size() + 1)
+                .withInputStream(new ByteArrayInputStream(part))
+                .withPartSize(part.length);
+        parts.add(callS3("UploadPart", () -> s3Client.uploadPart(upload)).getPartETag());
+        long uploaded = part.length;
+        recordCosts(costs -> costs.uploaded(uploaded));
+      }
+      CompleteMultipartUploadRequest complete =
+          new CompleteMultipartUploadRequest(bucketName, key, uploadId, parts);
+      callS3("CompleteMultipartUpload", () -> s3Client.completeMultipartUpload(complete));
+    } catch (IOException | RuntimeException e) {
+      try {
+        AbortMultipartUploadRequest abort =
+            new AbortMultipartUploadRequest(bucketName, key, uploadId);
+        callS3(
+            "AbortMultipartUpload",
+            () -> {
+              s3Client.abortMultipartUpload(abort);
+              return null;
+            });
+      } catch (RuntimeException abortFailure) {
+        e.addSuppressed(abortFailure);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Decrypts a stored message, decompressing it if it was compressed before encryption.
+   *
+   * @param key the document key.
+   * @param message the encrypted message.
+   * @return the {@link DocumentBundle} with the document and its encryption context, without the
+   *     compression flag.
+   */
+  protected DocumentBundle decrypt(String key, byte[] message) {
+    // The plaintext, then its copy in the bundle
+    MemoryBudget.current().charge(2L * message.length);
+    CryptoResult<byte[], KmsMasterKey> decryptedMessage =
+        callKms(() -> awsEncryptionSdk.decryptData(mkp, message));
+    recordKmsRequests(decryptedMessage, false);
+    Map<String, String> context = new HashMap<>(decryptedMessage.getEncryptionContext());
+    byte[] data;
+    try {
+      data = Compression.decompress(decryptedMessage.getResult(), context);
+    } catch (DataModelException e) {
+      throw new DocumentBucketException("Unable to decompress document!", e);
+    }
+    return DocumentBundle.fromDataAndPointer(data, PointerItem.fromKeyAndContext(key, context));
   }
 
   /**
@@ -169,9 +1396,34 @@ public class Api {
    * @return the bytes for that key.
    */
   protected byte[] getObjectData(String key) {
-    S3Object object = s3Client.getObject(bucketName, key);
+    if (hedgedReads == null) {
+      return readObjectContent(getS3Object(() -> s3Client.getObject(bucketName, key)));
+    }
+    return readObjectContent(
+        hedgedReads.get(
+            () -> getS3Object(() -> s3Client.getObject(bucketName, key)), Api::abortObject));
+  }
+
+  /**
+   * Abort the content stream of an {@link S3Object} that will not be read, closing its connection
+   * rather than draining it.
+   *
+   * @param object the unwanted {@link S3Object}.
+   */
+  protected static void abortObject(S3Object object) {
+    object.getObjectContent().abort();
+  }
+
+  /**
+   * Read and close the content stream of the provided {@link S3Object}.
+   *
+   * @param object the {@link S3Object} to read.
+   * @return the bytes of its content.
+   */
+  protected static byte[] readObjectContent(S3Object object) {
     byte[] result;
     try (S3ObjectInputStream stream = object.getObjectContent()) {
+      MemoryBudget.current().charge(object.getObjectMetadata().getContentLength());
       result = IOUtils.toByteArray(stream);
     } catch (java.io.IOException e) {
       throw new DocumentBucketException("Unable to retrieve object from S3!", e);
@@ -179,6 +1431,150 @@ public class Api {
     return result;
   }
 
+  /**
+   * Retrieve {@code length} bytes of the object at the key in S3, starting at {@code offset}.
+   *
+   * @param key the S3 key to retrieve.
+   * @param offset the offset of the first byte to retrieve.
+   * @param length the number of bytes to retrieve.
+   * @return the bytes in that range.
+   */
+  protected byte[] getObjectRange(String key, long offset, int length) {
+    GetObjectRequest request =
+        new GetObjectRequest(bucketName, key).withRange(offset, offset + length - 1);
+    byte[] result = readObjectContent(getS3Object(() -> s3Client.getObject(request)));
+    if (result.length != length) {
+      throw new DocumentBucketException(
+          String.format("Object %s ended before the requested range!", key),
+          new IndexOutOfBoundsException());
+    }
+    return result;
+  }
+
+  /**
+   * Retrieve the stored message for the key: from S3, or from the pointer item if the document is
+   * stored inline or packed into a segment.
+   *
+   * @param key the document key.
+   * @return the stored message bytes (or chunk manifest).
+   */
+  protected byte[] getStoredData(String key) {
+    try {
+      return getObjectData(key);
+    } catch (AmazonS3Exception e) {
+      if (e.getStatusCode() != 404) {
+        throw e;
+      }
+      return getPointerData(key, e);
+    }
+  }
+
+  /**
+   * Retrieve the stored message for the document with the provided pointer, wherever the pointer
+   * says it is stored.
+   *
+   * @param pointer the document's {@link PointerItem}.
+   * @return the stored message bytes (or chunk manifest).
+   */
+  protected byte[] getStoredData(PointerItem pointer) {
+    if (pointer.hasInlineData()) {
+      return pointer.getInlineData();
+    }
+    if (pointer.hasSegment()) {
+      return getSegmentData(pointer);
+    }
+    return getObjectData(pointer.partitionKey().getS());
+  }
+
+  /**
+   * Retrieve the inline or packed ciphertext of a document that was not found in S3.
+   *
+   * @param key the document key.
+   * @param notFound the exception from S3, rethrown if the document is stored in neither way.
+   * @return the document's ciphertext.
+   */
+  protected byte[] getPointerData(String key, AmazonS3Exception notFound) {
+    PointerItem pointer = getPointerItem(key);
+    if (!pointer.hasInlineData() && !pointer.hasSegment()) {
+      throw new DocumentBucketException(
+          String.format("No stored object found for key %s!", key), notFound);
+    }
+    return getStoredData(pointer);
+  }
+
+  /**
+   * Retrieve the ciphertext of a packed document with a ranged GET of its segment. If the segment
+   * is gone, it has been compacted since the pointer was read, so the pointer is reloaded and the
+   * read retried once.
+   *
+   * @param pointer the document's {@link PointerItem}.
+   * @return the document's ciphertext.
+   */
+  protected byte[] getSegmentData(PointerItem pointer) {
+    String key = pointer.partitionKey().getS();
+    SegmentLocation location = pointer.getSegment();
+    try {
+      return getObjectRange(location.getSegmentId(), location.getOffset(), location.getLength());
+    } catch (AmazonS3Exception e) {
+      if (e.getStatusCode() != 404) {
+        throw e;
+      }
+      if (pointerCache != null) {
+        pointerCache.invalidate(key);
+      }
+      SegmentLocation moved = loadPointerItem(key).getSegment();
+      if (moved == null || moved.getSegmentId().equals(location.getSegmentId())) {
+        throw new DocumentBucketException(
+            String.format("No stored segment found for key %s!", key), e);
+      }
+      return getObjectRange(moved.getSegmentId(), moved.getOffset(), moved.getLength());
+    }
+  }
+
+  /**
+   * Retrieve and parse only the message header of the object at the key in S3, using ranged GETs.
+   * The range starts at {@link #INITIAL_HEADER_RANGE} bytes and doubles until the header is
+   * complete. If the object is the {@link ChunkManifest} of a chunked document, the header of the
+   * document's first chunk is returned instead.
+   *
+   * @param key the S3 key to retrieve.
+   * @return the parsed {@link CiphertextHeaders} for that key.
+   */
+  protected CiphertextHeaders getObjectHeaders(String key) {
+    long rangeLength = INITIAL_HEADER_RANGE;
+    while (true) {
+      GetObjectRequest request =
+          new GetObjectRequest(bucketName, key).withRange(0, rangeLength - 1);
+      S3Object object = getS3Object(() -> s3Client.getObject(request));
+      byte[] prefix = readObjectContent(object);
+      if (ChunkManifest.isManifest(prefix)) {
+        return getChunkHeaders(key, ChunkManifest.fromBytes(prefix));
+      }
+      CiphertextHeaders headers = new CiphertextHeaders();
+      try {
+        headers.deserialize(prefix, 0);
+      } catch (ParseException e) {
+        throw new DocumentBucketException("Unable to parse the object's message header!", e);
+      }
+      if (headers.isComplete()) {
+        return headers;
+      }
+      if (prefix.length >= object.getObjectMetadata().getInstanceLength()) {
+        throw new DocumentBucketException(
+            "Object ended before its message header was complete!", new ParseException());
+      }
+      rangeLength *= 2;
+    }
+  }
+
+  private CiphertextHeaders getChunkHeaders(String key, ChunkManifest manifest) {
+    if (manifest.getChunkCount() == 0) {
+      throw new DocumentBucketException(
+          String.format("Chunked document %s has no chunks!", key), new ParseException());
+    }
+    return getObjectHeaders(ChunkManifest.chunkKey(key, 0));
+  }
+
   /**
    * Lists all of the Document Bucket {@link PointerItem}s in the DynamoDB table.
    *
@@ -187,10 +1583,68 @@ public class Api {
    * @return the {@link Set} of {@link PointerItem}s in the Document Bucket.
    */
   public Set<PointerItem> list() {
-    ScanResult result = ddbClient.scan(tableName, PointerItem.filterFor());
-    Set<PointerItem> mappedItems =
-        result.getItems().stream().map(PointerItem::fromItem).collect(Collectors.toSet());
-    return mappedItems;
+    return CostAccounting.call(
+        "list",
+        () -> {
+          ScanRequest scan =
+              new ScanRequest()
+                  .withTableName(tableName)
+                  .withScanFilter(PointerItem.filterFor())
+                  .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+          ScanResult result =
+              readDynamoDb(
+                  "Scan", () -> ddbClient.scan(scan), page -> units(page.getConsumedCapacity()));
+          Set<PointerItem> mappedItems =
+              result.getItems().stream().map(PointerItem::fromItem).collect(Collectors.toSet());
+          return mappedItems;
+        });
+  }
+
+  /**
+   * Lists the Document Bucket {@link PointerItem}s for documents stored in {@code [from, to)}.
+   *
+   * <p>Only the shards of the time index buckets overlapping the range are queried, in parallel,
+   * rather than scanning the whole table. Only documents stored with {@link #withTimeIndex} on are
+   * listed.
+   *
+   * @param from the inclusive start of the range.
+   * @param to the exclusive end of the range.
+   * @return the {@link List} of {@link PointerItem}s stored in that range, oldest first.
+   */
+  public List<PointerItem> listBetween(Instant from, Instant to) {
+    return CostAccounting.call(
+        "listBetween",
+        () -> {
+          List<CompletableFuture<List<TimeIndexItem>>> buckets =
+              TimeIndexItem.bucketsBetween(from, to).stream()
+                  .map(
+                      bucket ->
+                          CompletableFuture.supplyAsync(
+                              () -> queryTimeBucket(bucket, from, to), executor))
+                  .collect(Collectors.toList());
+          // Sort keys start with the creation time, so merge the shards by sort key
+          return joinAll(buckets, "Unable to query the time index!").stream()
+              .flatMap(List::stream)
+              .sorted(Comparator.comparing(item -> item.sortKey().getS()))
+              .map(TimeIndexItem::getPointer)
+              .collect(Collectors.toList());
+        });
+  }
+
+  /**
+   * Lists the Document Bucket {@link PointerItem}s for documents stored within the provided
+   * duration before now.
+   *
+   * @param window how far back to list documents.
+   * @return the {@link List} of {@link PointerItem}s stored in that window, oldest first.
+   */
+  public List<PointerItem> listRecent(Duration window) {
+    return CostAccounting.call(
+        "listRecent",
+        () -> {
+          Instant now = Instant.now();
+          return listBetween(now.minus(window), now.plusMillis(1));
+        });
   }
 
   /**
@@ -212,14 +1666,117 @@ public class Api {
    * @return the {@link PointerItem} under which this data and context are stored.
    */
   public PointerItem store(byte[] data, Map<String, String> context) {
-    // ENCRYPTION-CONTEXT-COMPLETE: Set Encryption Context on Encrypt
-    CryptoResult<byte[], KmsMasterKey> encryptedMessage =
-        awsEncryptionSdk.encryptData(mkp, data, context);
-    DocumentBundle bundle =
-        DocumentBundle.fromDataAndContext(encryptedMessage.getResult(), context);
-    writeItem(bundle.getPointer());
-    writeObject(bundle);
-    return bundle.getPointer();
+    checkChunkContextKeys(context);
+    return CostAccounting.call(
+        "store",
+        () -> {
+          try (MemoryBudget.Lease lease = openLease()) {
+            if (chunkSize > 0 && data.length > chunkSize) {
+              return storeChunked(ByteBuffer.wrap(data), context);
+            }
+            // The plaintext may be copied to compress it, and the ciphertext into the bundle
+            lease.charge(3L * data.length);
+            // ENCRYPTION-CONTEXT-COMPLETE: Set Encryption Context on Encrypt
+            CryptoResult<byte[], KmsMasterKey> encryptedMessage = encrypt(data, context);
+            DocumentBundle bundle =
+                DocumentBundle.fromDataAndContext(
+                    encryptedMessage.getResult(), context, keyGenerator);
+            if (encryptedMessage.getResult().length <= inlineThreshold) {
+              writePointer(bundle.getPointer().withInlineData(encryptedMessage.getResult()));
+              return bundle.getPointer();
+            }
+            if (encryptedMessage.getResult().length <= maxPackedBytes) {
+              // The segment is written before the pointer, so a visible pointer is always readable
+              SegmentLocation location;
+              try {
+                location =
+                    segmentPacker
+                        .add(
+                            bundle.getPointer().partitionKey().getS(), encryptedMessage.getResult())
+                        .join();
+              } catch (CompletionException e) {
+                throw new DocumentBucketException(
+                    "Unable to store document segment!", e.getCause());
+              }
+              writePointer(bundle.getPointer().withSegment(location));
+              return bundle.getPointer();
+            }
+            writePointer(bundle.getPointer());
+            writeObject(bundle);
+            return bundle.getPointer();
+          }
+        });
+  }
+
+  /**
+   * Stores the remaining bytes of the supplied buffer as a new document in the Document Bucket,
+   * along with the supplied Context. With chunked storage, a document larger than a chunk is copied
+   * out of the buffer one chunk at a time, so a memory-mapped file is never read onto the heap
+   * whole. The buffer's position is not changed.
+   *
+   * @param data the data to store, from its position to its limit.
+   * @param context the context for this data.
+   * @return the {@link PointerItem} under which this data and context are stored.
+   */
+  public PointerItem store(ByteBuffer data, Map<String, String> context) {
+    checkChunkContextKeys(context);
+    return CostAccounting.call(
+        "store",
+        () -> {
+          try (MemoryBudget.Lease lease = openLease()) {
+            if (chunkSize > 0 && data.remaining() > chunkSize) {
+              return storeChunked(data, context);
+            }
+            lease.charge(data.remaining());
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            return store(bytes, context);
+          }
+        });
+  }
+
+  private static void checkChunkContextKeys(Map<String, String> context) {
+    for (String reserved : RESERVED_CHUNK_CONTEXT_KEYS) {
+      if (context.containsKey(reserved)) {
+        throw new IllegalArgumentException(
+            String.format("Can't create an encryption context with reserved key %s", reserved));
+      }
+    }
+  }
+
+  /**
+   * Stores the supplied Data as a new document in the chunked layout, encrypting and writing the
+   * chunks in parallel. The manifest is written last, so a document whose manifest is readable has
+   * all of its chunks.
+   *
+   * @param data the data to store, from its position to its limit.
+   * @param context the context for this data.
+   * @return the {@link PointerItem} under which this data and context are stored.
+   */
+  protected PointerItem storeChunked(ByteBuffer data, Map<String, String> context) {
+    PointerItem pointer = PointerItem.generate(context, keyGenerator);
+    String key = pointer.partitionKey().getS();
+    ChunkManifest manifest = ChunkManifest.forLength(data.remaining(), chunkSize);
+    writePointer(pointer.withChunks(manifest.getChunkCount()));
+    // Be admitted here rather than on the executor, where a waiting chunk would hold up others
+    MemoryBudget.Lease lease = MemoryBudget.current();
+    lease.charge(manifest.getChunkSize());
+    List<CompletableFuture<Void>> chunkWrites =
+        IntStream.range(0, manifest.getChunkCount())
+            .mapToObj(
+                i ->
+                    CompletableFuture.runAsync(
+                        () ->
+                            lease.run(
+                                () -> {
+                                  writeChunk(key, data, context, manifest, i);
+                                  return null;
+                                }),
+                        executor))
+            .collect(Collectors.toList());
+    joinAll(chunkWrites, "Unable to store document chunks!");
+    writeObject(key, manifest.toBytes(), context);
+    return pointer;
   }
 
   /**
@@ -266,36 +1823,610 @@ public class Api {
    */
   public DocumentBundle retrieve(
       String key, Set<String> expectedContextKeys, Map<String, String> expectedContext) {
-    byte[] data = getObjectData(key);
-    CryptoResult<byte[], KmsMasterKey> decryptedMessage = awsEncryptionSdk.decryptData(mkp, data);
+    return CostAccounting.call(
+        "retrieve",
+        () -> leased(() -> retrieveDocument(key, expectedContextKeys, expectedContext)));
+  }
+
+  private DocumentBundle retrieveDocument(
+      String key, Set<String> expectedContextKeys, Map<String, String> expectedContext) {
+    PointerItem pointer = null;
+    if (preflightContextCheck || inlineThreshold > 0 || segmentPacker != null) {
+      // Read the pointer first: it holds inline documents, segment locations, and the context
+      pointer = getPointerItem(key);
+      if (preflightContextCheck) {
+        Map<String, String> pointerContext = pointer.getContext();
+        assertContext(pointerContext, expectedContextKeys, expectedContext, "pointer record");
+      }
+    }
+    PointerItem knownPointer = pointer;
+    // A bundle copies its data in and out, so callers sharing one cannot see each other's changes
+    boolean[] fetched = {false};
+    DocumentBundle decrypted =
+        coalesce(
+            retrieveFlights,
+            key,
+            () -> {
+              fetched[0] = true;
+              return fetch(key, knownPointer);
+            });
+    if (!fetched[0]) {
+      recordCosts(CostAccounting.Counters::kmsRequestAvoided);
+    }
     // ENCRYPTION-CONTEXT-COMPLETE: Use Encryption Context on Decrypt
-    Map<String, String> actualContext = decryptedMessage.getEncryptionContext();
-    PointerItem pointer = PointerItem.fromKeyAndContext(key, actualContext);
+    Map<String, String> actualContext = decrypted.getPointer().getContext();
+    assertContext(actualContext, expectedContextKeys, expectedContext, "actual encryption context");
+    return decrypted;
+  }
+
+  /**
+   * Fetches and decrypts the whole of the document at the provided key, without checking its
+   * context.
+   *
+   * @param key the key under which the document is stored.
+   * @param pointer the document's {@link PointerItem}, or {@code null} to look in S3 first.
+   * @return the {@link DocumentBundle} containing the document data and its metadata.
+   */
+  protected DocumentBundle fetch(String key, PointerItem pointer) {
+    byte[] data = pointer == null ? getStoredData(key) : getStoredData(pointer);
+    if (ChunkManifest.isManifest(data)) {
+      ChunkManifest manifest = ChunkManifest.fromBytes(data);
+      if (manifest.getLength() > Integer.MAX_VALUE) {
+        String error =
+            String.format(
+                "Document %s is too large (length %d) to retrieve whole; use retrieveRange!",
+                key, manifest.getLength());
+        throw new DocumentBucketException(error, new UnsupportedOperationException());
+      }
+      return retrieveChunks(
+          key,
+          manifest,
+          0,
+          (int) manifest.getLength(),
+          Collections.emptySet(),
+          Collections.emptyMap());
+    }
+    return decrypt(key, data);
+  }
+
+  private static <T> T coalesce(SingleFlight<String, T> flights, String key, Supplier<T> loader) {
+    return flights == null ? loader.get() : flights.get(key, loader);
+  }
+
+  /**
+   * Retrieves {@code length} bytes of the document at the provided key, starting at {@code offset}.
+   * For documents in the chunked layout only the chunks overlapping the range are fetched and
+   * decrypted, in parallel; other documents are decrypted in full.
+   *
+   * @param key the key under which the document and its metadata are stored.
+   * @param offset the offset within the document of the first byte to retrieve.
+   * @param length the number of bytes to retrieve.
+   * @return the {@link DocumentBundle} containing the requested range and the document metadata.
+   */
+  public DocumentBundle retrieveRange(String key, long offset, int length) {
+    return CostAccounting.call(
+        "retrieveRange", () -> leased(() -> retrieveDocumentRange(key, offset, length)));
+  }
+
+  private DocumentBundle retrieveDocumentRange(String key, long offset, int length) {
+    byte[] data = getStoredData(key);
+    if (ChunkManifest.isManifest(data)) {
+      ChunkManifest manifest = ChunkManifest.fromBytes(data);
+      checkRange(offset, length, manifest.getLength());
+      return retrieveChunks(
+          key, manifest, offset, length, Collections.emptySet(), Collections.emptyMap());
+    }
+    DocumentBundle decrypted = decrypt(key, data);
+    byte[] plaintext = decrypted.getData();
+    checkRange(offset, length, plaintext.length);
+    return DocumentBundle.fromDataAndPointer(
+        Arrays.copyOfRange(plaintext, (int) offset, (int) offset + length), decrypted.getPointer());
+  }
+
+  /**
+   * Checks that the range {@code [offset, offset + length)} lies within a document.
+   *
+   * @param offset the start of the range.
+   * @param length the length of the range.
+   * @param documentLength the length of the document.
+   */
+  protected static void checkRange(long offset, int length, long documentLength) {
+    if (offset < 0 || length < 0 || offset + length > documentLength) {
+      String error =
+          String.format(
+              "Range [%d, %d) is outside of the document (length %d)!",
+              offset, offset + length, documentLength);
+      throw new DocumentBucketException(error, new IndexOutOfBoundsException());
+    }
+  }
+
+  /**
+   * Fetches and decrypts, in parallel, the chunks of a chunked document that overlap {@code
+   * [offset, offset + length)}, and assembles that range.
+   *
+   * @param key the key under which the document is stored.
+   * @param manifest the document's {@link ChunkManifest}.
+   * @param offset the offset within the document of the first byte to retrieve.
+   * @param length the number of bytes to retrieve.
+   * @param expectedContextKeys the keys expected to be present in the document's context.
+   * @param expectedContext the keys and associated values expected to be present in the document's
+   *     context.
+   * @return the {@link DocumentBundle} containing the requested range and the document metadata.
+   */
+  protected DocumentBundle retrieveChunks(
+      String key,
+      ChunkManifest manifest,
+      long offset,
+      int length,
+      Set<String> expectedContextKeys,
+      Map<String, String> expectedContext) {
+    int first = manifest.chunkAt(offset);
+    int last = length == 0 ? first - 1 : manifest.chunkAt(offset + length - 1);
+    MemoryBudget.Lease lease = MemoryBudget.current();
+    lease.charge(length);
+    List<CompletableFuture<DocumentBundle>> chunkReads =
+        IntStream.rangeClosed(first, last)
+            .mapToObj(
+                i ->
+                    CompletableFuture.supplyAsync(
+                        () -> lease.run(() -> readChunk(key, manifest, i)), executor))
+            .collect(Collectors.toList());
+    List<DocumentBundle> chunks = joinAll(chunkReads, "Unable to retrieve document chunks!");
+    Map<String, String> actualContext = null;
+    byte[] result = new byte[length];
+    for (int i = first; i <= last; i++) {
+      DocumentBundle chunk = chunks.get(i - first);
+      Map<String, String> chunkContext;
+      try {
+        chunkContext = manifest.checkChunkContext(key, i, chunk.getPointer().getContext());
+      } catch (DataModelException e) {
+        throw new DocumentBucketException("Document chunks are inconsistent!", e);
+      }
+      if (actualContext == null) {
+        actualContext = chunkContext;
+      }
+      long chunkStart = manifest.chunkOffset(i);
+      long copyStart = Math.max(offset, chunkStart);
+      long copyEnd = Math.min(offset + length, chunkStart + chunk.getData().length);
+      System.arraycopy(
+          chunk.getData(),
+          (int) (copyStart - chunkStart),
+          result,
+          (int) (copyStart - offset),
+          (int) (copyEnd - copyStart));
+    }
+    if (actualContext == null) {
+      actualContext = Collections.emptyMap();
+    }
+    assertContext(actualContext, expectedContextKeys, expectedContext, "actual encryption context");
+    return DocumentBundle.fromDataAndPointer(
+        result, PointerItem.fromKeyAndContext(key, actualContext));
+  }
+
+  /**
+   * Retrieves the encryption context of the document at the provided key, without downloading the
+   * document body or calling KMS.
+   *
+   * <p>Only the leading bytes of the stored message are fetched and parsed. The header is not
+   * authenticated until the message is decrypted, so use {@link #retrieve(String, Set, Map)} when
+   * the context must be trusted.
+   *
+   * @param key the key under which the document is stored.
+   * @return the encryption context from the document's message header.
+   */
+  public Map<String, String> retrieveContext(String key) {
+    return CostAccounting.call(
+        "retrieveContext",
+        () -> {
+          CiphertextHeaders headers;
+          try {
+            headers = getObjectHeaders(key);
+          } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 404) {
+              throw e;
+            }
+            headers = new CiphertextHeaders();
+            try {
+              headers.deserialize(getPointerData(key, e), 0);
+            } catch (ParseException parseFailure) {
+              throw new DocumentBucketException(
+                  "Unable to parse the document's message header!", parseFailure);
+            }
+            if (!headers.isComplete()) {
+              throw new DocumentBucketException(
+                  "Document ended before its message header was complete!", new ParseException());
+            }
+          }
+          Map<String, String> context = new HashMap<>(headers.getEncryptionContextMap());
+          context.remove(Compression.CONTEXT_KEY);
+          // Only present for documents in the chunked layout, whose first chunk's header was read
+          context.remove(ChunkManifest.CHUNK_DOCUMENT_KEY);
+          context.remove(ChunkManifest.CHUNK_INDEX_KEY);
+          context.remove(ChunkManifest.CHUNK_COUNT_KEY);
+          return context;
+        });
+  }
+
+  /**
+   * Waits for all of the provided futures to complete, in order.
+   *
+   * @param futures the futures to wait for.
+   * @param error the message for the exception thrown if any future failed.
+   * @param <T> the result type of the futures.
+   * @return the results of the futures, in order.
+   * @throws DocumentBucketException if any future failed.
+   */
+  protected static <T> List<T> joinAll(List<CompletableFuture<T>> futures, String error) {
+    try {
+      return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof DocumentBucketException) {
+        throw (DocumentBucketException) e.getCause();
+      }
+      throw new DocumentBucketException(error, e.getCause());
+    }
+  }
+
+  /**
+   * Checks that the provided context has all of the expected keys and pairs.
+   *
+   * @param actualContext the context to check.
+   * @param expectedContextKeys the keys expected to be present in the context.
+   * @param expectedContext the keys and associated values expected to be present in the context.
+   * @param source a description of where {@code actualContext} came from, for error messages.
+   * @throws DocumentBucketException if any expected key or pair is missing.
+   */
+  protected static void assertContext(
+      Map<String, String> actualContext,
+      Set<String> expectedContextKeys,
+      Map<String, String> expectedContext,
+      String source) {
     // ENCRYPTION-CONTEXT-COMPLETE: Making Assertions
     boolean allExpectedContextKeysFound = actualContext.keySet().containsAll(expectedContextKeys);
     if (!allExpectedContextKeysFound) {
-      // Remove all of the keys that were found
-      expectedContextKeys.removeAll(actualContext.keySet());
+      // Collect the keys that were not found, leaving the caller's set untouched
+      Set<String> missingKeys = new HashSet<>(expectedContextKeys);
+      missingKeys.removeAll(actualContext.keySet());
       String error =
           String.format(
-              "Expected context keys were not found in the actual encryption context! "
-                  + "Missing keys were: %s",
-              expectedContextKeys.toString());
+              "Expected context keys were not found in the %s! Missing keys were: %s",
+              source, missingKeys.toString());
       throw new DocumentBucketException(error, new NoSuchElementException());
     }
     boolean allExpectedContextFound =
         actualContext.entrySet().containsAll(expectedContext.entrySet());
     if (!allExpectedContextFound) {
-      Set<Map.Entry<String, String>> expectedContextEntries = expectedContext.entrySet();
-      expectedContextEntries.removeAll(actualContext.entrySet());
+      Set<Map.Entry<String, String>> missingEntries = new HashSet<>(expectedContext.entrySet());
+      missingEntries.removeAll(actualContext.entrySet());
       String error =
           String.format(
-              "Expected context pairs were not found in the actual encryption context! "
-                  + "Missing pairs were: %s",
-              expectedContextEntries.toString());
+              "Expected context pairs were not found in the %s! Missing pairs were: %s",
+              source, missingEntries.toString());
       throw new DocumentBucketException(error, new NoSuchElementException());
     }
-    return DocumentBundle.fromDataAndPointer(decryptedMessage.getResult(), pointer);
+  }
+
+  /**
+   * Deletes the document at the provided key: its S3 objects, then its {@link PointerItem}, {@link
+   * ContextItem}s and {@link TimeIndexItem}. Objects go first, so that a delete that fails part way
+   * can be retried from the pointer. Documents packed into a segment leave their bytes for the
+   * {@link SegmentCompactor} to reclaim.
+   *
+   * @param key the key of the document to delete.
+   * @return {@code true} if the document was deleted, or {@code false} if there was no document
+   *     with that key.
+   * @throws DocumentBucketException if the document could not be deleted.
+   */
+  public boolean delete(String key) {
+    return CostAccounting.call(
+        "delete",
+        () -> {
+          DeleteResult result = deleteAll(Collections.singletonList(key)).get(key);
+          if (result.getStatus() == DeleteResult.Status.FAILED) {
+            throw new DocumentBucketException(
+                String.format("Unable to delete document %s!", key), result.getError());
+          }
+          return result.getStatus() == DeleteResult.Status.DELETED;
+        });
+  }
+
+  /**
+   * Deletes the documents at the provided keys, as {@link #delete(String)} does, using batch
+   * requests: pointers are read with {@code BatchGetItem}, objects deleted with {@code
+   * DeleteObjects} and items deleted with {@code BatchWriteItem}. Batches run in parallel on the
+   * configured {@link Executor}, and unprocessed items are retried with backoff.
+   *
+   * @param keys the keys of the documents to delete.
+   * @return the {@link DeleteResult} for each distinct key, in the order provided.
+   */
+  public Map<String, DeleteResult> deleteAll(Collection<String> keys) {
+    return CostAccounting.call(
+        "deleteAll",
+        () -> {
+          List<String> distinctKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+          Map<String, RuntimeException> failures = new HashMap<>();
+          List<String> validKeys = new ArrayList<>(distinctKeys.size());
+          for (String key : distinctKeys) {
+            try {
+              PointerItem.atKey(key);
+              validKeys.add(key);
+            } catch (IllegalArgumentException e) {
+              failures.put(key, new DocumentBucketException("Invalid document key!", e));
+            }
+          }
+          Map<String, PointerItem> pointers = batchGetPointers(validKeys, failures);
+          Map<String, String> objectOwners = new LinkedHashMap<>();
+          for (PointerItem pointer : pointers.values()) {
+            String key = pointer.partitionKey().getS();
+            storedObjectKeys(pointer).forEach(objectKey -> objectOwners.put(objectKey, key));
+          }
+          batchDeleteObjects(objectOwners, failures);
+          Map<Map<String, AttributeValue>, String> itemOwners = new LinkedHashMap<>();
+          for (PointerItem pointer : pointers.values()) {
+            String key = pointer.partitionKey().getS();
+            if (failures.containsKey(key)) {
+              continue;
+            }
+            for (ContextItem contextItem : pointer.contextItems()) {
+              itemOwners.put(contextItem.toItem(), key);
+            }
+            if (pointer.getCreated() != null) {
+              itemOwners.put(TimeIndexItem.atKey(pointer), key);
+            }
+            itemOwners.put(PointerItem.atKey(key), key);
+          }
+          batchDeleteItems(itemOwners, failures);
+          Map<String, DeleteResult> results = new LinkedHashMap<>();
+          for (String key : distinctKeys) {
+            if (pointerCache != null) {
+              pointerCache.invalidate(key);
+            }
+            if (failures.containsKey(key)) {
+              results.put(key, DeleteResult.failed(failures.get(key)));
+            } else if (pointers.containsKey(key)) {
+              results.put(key, DeleteResult.deleted());
+            } else {
+              results.put(key, DeleteResult.notFound());
+            }
+          }
+          return results;
+        });
+  }
+
+  /**
+   * Returns the S3 keys of the objects holding the document with the provided pointer.
+   *
+   * @param pointer the document's {@link PointerItem}.
+   * @return the object keys, which are empty for inline and packed documents.
+   */
+  protected static List<String> storedObjectKeys(PointerItem pointer) {
+    if (pointer.hasInlineData() || pointer.hasSegment()) {
+      return Collections.emptyList();
+    }
+    String key = pointer.partitionKey().getS();
+    List<String> objectKeys = new ArrayList<>(Math.max(pointer.getChunkCount(), 0) + 1);
+    objectKeys.add(key);
+    for (int i = 0; i < pointer.getChunkCount(); i++) {
+      objectKeys.add(ChunkManifest.chunkKey(key, i));
+    }
+    return objectKeys;
+  }
+
+  /**
+   * Reads the {@link PointerItem}s for the provided keys with parallel {@code BatchGetItem}
+   * requests.
+   *
+   * @param keys the document keys.
+   * @param failures the map to record the keys of batches that could not be read in.
+   * @return the pointers found, by key.
+   */
+  protected Map<String, PointerItem> batchGetPointers(
+      List<String> keys, Map<String, RuntimeException> failures) {
+    List<List<String>> batches = partition(keys, MAX_BATCH_GET);
+    List<CompletableFuture<List<Map<String, AttributeValue>>>> reads =
+        batches.stream()
+            .map(batch -> CompletableFuture.supplyAsync(() -> batchGetItems(batch), executor))
+            .collect(Collectors.toList());
+    Map<String, PointerItem> pointers = new LinkedHashMap<>();
+    for (int i = 0; i < batches.size(); i++) {
+      try {
+        for (Map<String, AttributeValue> item : reads.get(i).join()) {
+          PointerItem pointer = PointerItem.fromItem(item);
+          pointers.put(pointer.partitionKey().getS(), pointer);
+        }
+      } catch (CompletionException e) {
+        RuntimeException error =
+            new DocumentBucketException("Unable to read pointers!", e.getCause());
+        batches.get(i).forEach(key -> failures.put(key, error));
+      }
+    }
+    return pointers;
+  }
+
+  private List<Map<String, AttributeValue>> batchGetItems(List<String> keys) {
+    KeysAndAttributes request =
+        new KeysAndAttributes()
+            .withKeys(keys.stream().map(PointerItem::atKey).collect(Collectors.toList()))
+            .withConsistentRead(true);
+    Map<String, KeysAndAttributes> unprocessed = Collections.singletonMap(tableName, request);
+    List<Map<String, AttributeValue>> items = new ArrayList<>(keys.size());
+    for (int attempt = 0; unprocessed != null && !unprocessed.isEmpty(); attempt++) {
+      if (attempt == MAX_BATCH_ATTEMPTS) {
+        throw new DocumentBucketException(
+            "Pointers were still unprocessed after retrying!", new IllegalStateException());
+      }
+      backoff(attempt);
+      BatchGetItemRequest batch =
+          new BatchGetItemRequest()
+              .withRequestItems(unprocessed)
+              .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+      BatchGetItemResult result =
+          readDynamoDb(
+              "BatchGetItem",
+              () -> ddbClient.batchGetItem(batch),
+              got -> units(got.getConsumedCapacity()));
+      items.addAll(result.getResponses().getOrDefault(tableName, Collections.emptyList()));
+      unprocessed = result.getUnprocessedKeys();
+    }
+    return items;
+  }
+
+  /**
+   * Deletes the provided S3 objects with parallel {@code DeleteObjects} requests.
+   *
+   * @param objectOwners the keys of the objects to delete, mapped to the documents they belong to.
+   * @param failures the map to record the documents whose objects could not be deleted in.
+   */
+  protected void batchDeleteObjects(
+      Map<String, String> objectOwners, Map<String, RuntimeException> failures) {
+    List<List<String>> batches =
+        partition(new ArrayList<>(objectOwners.keySet()), MAX_DELETE_OBJECTS);
+    List<CompletableFuture<Void>> deletes =
+        batches.stream()
+            .map(
+                batch ->
+                    CompletableFuture.runAsync(
+                        () ->
+                            callS3(
+                                "DeleteObjects",
+                                () ->
+                                    s3Client.deleteObjects(
+                                        new DeleteObjectsRequest(bucketName)
+                                            .withKeys(batch.toArray(new String[0]))
+                                            .withQuiet(true))),
+                        executor))
+            .collect(Collectors.toList());
+    for (int i = 0; i < batches.size(); i++) {
+      try {
+        deletes.get(i).join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof MultiObjectDeleteException) {
+          MultiObjectDeleteException partial = (MultiObjectDeleteException) e.getCause();
+          for (MultiObjectDeleteException.DeleteError error : partial.getErrors()) {
+            String message =
+                String.format("Unable to delete object %s: %s", error.getKey(), error.getMessage());
+            failures.put(
+                objectOwners.get(error.getKey()), new DocumentBucketException(message, partial));
+          }
+        } else {
+          RuntimeException error =
+              new DocumentBucketException("Unable to delete objects!", e.getCause());
+          batches.get(i).forEach(objectKey -> failures.put(objectOwners.get(objectKey), error));
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes the provided DynamoDB items with parallel {@code BatchWriteItem} requests.
+   *
+   * @param itemOwners the keys of the items to delete, mapped to the documents they belong to.
+   * @param failures the map to record the documents whose items could not be deleted in.
+   */
+  protected void batchDeleteItems(
+      Map<Map<String, AttributeValue>, String> itemOwners, Map<String, RuntimeException> failures) {
+    List<List<Map<String, AttributeValue>>> batches =
+        partition(new ArrayList<>(itemOwners.keySet()), MAX_BATCH_WRITE);
+    List<CompletableFuture<List<Map<String, AttributeValue>>>> deletes =
+        batches.stream()
+            .map(batch -> CompletableFuture.supplyAsync(() -> batchDeleteItems(batch), executor))
+            .collect(Collectors.toList());
+    for (int i = 0; i < batches.size(); i++) {
+      try {
+        RuntimeException error =
+            new DocumentBucketException(
+                "Items were still unprocessed after retrying!", new IllegalStateException());
+        deletes.get(i).join().forEach(itemKey -> failures.put(itemOwners.get(itemKey), error));
+      } catch (CompletionException e) {
+        RuntimeException error =
+            new DocumentBucketException("Unable to delete items!", e.getCause());
+        batches.get(i).forEach(itemKey -> failures.put(itemOwners.get(itemKey), error));
+      }
+    }
+  }
+
+  private List<Map<String, AttributeValue>> batchDeleteItems(
+      List<Map<String, AttributeValue>> keys) {
+    List<WriteRequest> writes =
+        keys.stream()
+            .map(key -> new WriteRequest().withDeleteRequest(new DeleteRequest().withKey(key)))
+            .collect(Collectors.toList());
+    return batchWrite(writes).stream()
+        .map(write -> write.getDeleteRequest().getKey())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Writes the provided DynamoDB items with a single {@code BatchWriteItem} request, retrying
+   * unprocessed items with backoff.
+   *
+   * @param items the items to write, at most {@link #MAX_BATCH_WRITE} and with distinct keys.
+   * @return the items that were still unprocessed after retrying.
+   */
+  protected List<Map<String, AttributeValue>> batchPutItems(
+      List<Map<String, AttributeValue>> items) {
+    List<WriteRequest> writes =
+        items.stream()
+            .map(item -> new WriteRequest().withPutRequest(new PutRequest().withItem(item)))
+            .collect(Collectors.toList());
+    return batchWrite(writes).stream()
+        .map(write -> write.getPutRequest().getItem())
+        .collect(Collectors.toList());
+  }
+
+  private List<WriteRequest> batchWrite(List<WriteRequest> writes) {
+    Map<String, List<WriteRequest>> unprocessed = Collections.singletonMap(tableName, writes);
+    for (int attempt = 0; attempt < MAX_BATCH_ATTEMPTS; attempt++) {
+      backoff(attempt);
+      BatchWriteItemRequest batch =
+          new BatchWriteItemRequest()
+              .withRequestItems(unprocessed)
+              .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+      BatchWriteItemResult result =
+          writeDynamoDb(
+              "BatchWriteItem",
+              () -> ddbClient.batchWriteItem(batch),
+              done -> units(done.getConsumedCapacity()));
+      unprocessed = result.getUnprocessedItems();
+      if (unprocessed == null || unprocessed.isEmpty()) {
+        return Collections.emptyList();
+      }
+    }
+    return unprocessed.getOrDefault(tableName, Collections.emptyList());
+  }
+
+  /**
+   * Sleeps before retrying a batch request, with exponential backoff and full jitter.
+   *
+   * @param attempt the number of attempts already made; no sleep before the first.
+   */
+  protected static void backoff(int attempt) {
+    if (attempt == 0) {
+      return;
+    }
+    long ceiling = Math.min(MAX_BACKOFF_MILLIS, 25L << Math.min(attempt, 16));
+    try {
+      Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DocumentBucketException("Interrupted while retrying a batch request!", e);
+    }
+  }
+
+  /**
+   * Splits a list into consecutive sublists of at most {@code size} elements.
+   *
+   * @param list the list to split.
+   * @param size the largest sublist size.
+   * @param <T> the element type.
+   * @return the sublists, in order.
+   */
+  protected static <T> List<List<T>> partition(List<T> list, int size) {
+    List<List<T>> result = new ArrayList<>((list.size() + size - 1) / size);
+    for (int i = 0; i < list.size(); i += size) {
+      result.add(list.subList(i, Math.min(i + size, list.size())));
+    }
+    return result;
   }
 
   /**
@@ -305,6 +2436,6 @@ public class Api {
    * @return the {@link Set} of {@link PointerItem}s for matching documents.
    */
   public Set<PointerItem> searchByContextKey(String contextKey) {
-    return queryForContextKey(contextKey);
+    return CostAccounting.call("searchByContextKey", () -> queryForContextKey(contextKey));
   }
 }
@@ -0,0 +1,76 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+/**
+ * A snapshot of the adaptive concurrency limit on calls to one of the Document Bucket's
+ * dependencies.
+ */
+public class ConcurrencyStats {
+  private final String dependency;
+  private final int limit;
+  private final int inFlight;
+  private final int queued;
+  private final long congested;
+
+  ConcurrencyStats(String dependency, int limit, int inFlight, int queued, long congested) {
+    this.dependency = dependency;
+    this.limit = limit;
+    this.inFlight = inFlight;
+    this.queued = queued;
+    this.congested = congested;
+  }
+
+  /**
+   * Return the name of the dependency: {@code "dynamodb"}, {@code "s3"} or {@code "kms"}.
+   *
+   * @return the dependency name.
+   */
+  public String getDependency() {
+    return dependency;
+  }
+
+  /**
+   * Return the number of concurrent calls currently allowed.
+   *
+   * @return the concurrency limit.
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Return the number of calls in flight.
+   *
+   * @return the calls in flight.
+   */
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Return the number of calls waiting for the limit to allow them.
+   *
+   * @return the queue depth.
+   */
+  public int getQueued() {
+    return queued;
+  }
+
+  /**
+   * Return the number of calls so far that were throttled or took much longer than usual.
+   *
+   * @return the congested calls.
+   */
+  public long getCongested() {
+    return congested;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "ConcurrencyStats(dependency=%s, limit=%d, inFlight=%d, queued=%d, congested=%d)",
+        dependency, limit, inFlight, queued, congested);
+  }
+}
@@ -5,6 +5,7 @@ package sfw.example.esdkworkshop;
 
 import com.moandjiezana.toml.Toml;
 import java.io.File;
+import java.util.List;
 
 /** Helper to pull required Document Bucket configuration keys out of the configuration system. */
 public class Config {
@@ -48,10 +49,13 @@ public class Config {
     public final DocumentTable document_table;
     /** The [document_bucket.bucket] section of the configuration file. */
     public final Bucket bucket;
+    /** The [document_bucket.encryption] section of the configuration file. */
+    public final Encryption encryption;
 
-    DocumentBucket(DocumentTable document_table, Bucket bucket) {
+    DocumentBucket(DocumentTable document_table, Bucket bucket, Encryption encryption) {
       this.document_table = document_table;
       this.bucket = bucket;
+      this.encryption = encryption;
     }
   }
 
@@ -75,17 +79,46 @@ public class Config {
      */
     public final String ctx_prefix;
 
+    /**
+     * The prefix for time index records to indicate that this record is for a list of documents
+     * created within a time bucket.
+     */
+    public final String time_prefix;
+
+    /**
+     * The prefix for segment records to indicate that this record is for a shared object holding
+     * several small documents.
+     */
+    public final String segment_prefix;
+
+    /** The target for segment records. */
+    public final String segment_target;
+
+    /**
+     * Context keys in common use, coded in a single byte when a pointer's context is stored in
+     * binary form. Stored contexts refer to the keys by position, so keys can only be appended.
+     */
+    public final List<String> context_dictionary;
+
     DocumentTable(
         String name,
         String partition_key,
         String sort_key,
         String object_target,
-        String ctx_prefix) {
+        String ctx_prefix,
+        String time_prefix,
+        String segment_prefix,
+        String segment_target,
+        List<String> context_dictionary) {
       this.name = name;
       this.partition_key = partition_key;
       this.sort_key = sort_key;
       this.object_target = object_target;
       this.ctx_prefix = ctx_prefix;
+      this.time_prefix = time_prefix;
+      this.segment_prefix = segment_prefix;
+      this.segment_target = segment_target;
+      this.context_dictionary = context_dictionary;
     }
   }
 
@@ -104,6 +137,23 @@ public class Config {
       this.export = export;
     }
   }
+
+  /** The [document_bucket.encryption] section of the configuration file. */
+  public static class Encryption {
+    /**
+     * The name of the {@link com.amazonaws.encryptionsdk.CryptoAlgorithm} to encrypt documents
+     * with, or empty for the Encryption SDK's default. Suites without ECDSA signatures are cheaper,
+     * but any reader able to decrypt a message could also have written it.
+     */
+    public final String algorithm_suite;
+    /** The frame size in bytes of encrypted messages, or 0 for the Encryption SDK's default. */
+    public final int frame_size;
+
+    Encryption(String algorithm_suite, int frame_size) {
+      this.algorithm_suite = algorithm_suite;
+      this.frame_size = frame_size;
+    }
+  }
   // CHECKSTYLE:ON MemberName
   // CHECKSTYLE:ON ParameterName
 }
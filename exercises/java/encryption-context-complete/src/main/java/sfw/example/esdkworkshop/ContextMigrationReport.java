@@ -0,0 +1,112 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link ContextMigrator} run. Every document is counted; the keys and errors of
+ * the first {@link #MAX_SAMPLES} failures are kept as samples.
+ */
+public class ContextMigrationReport {
+  public static final int MAX_SAMPLES = 1000;
+  private final Map<String, RuntimeException> failures = new LinkedHashMap<>();
+  private long documents = 0;
+  private long migrated = 0;
+  private long skipped = 0;
+  private long failed = 0;
+  private boolean stopped = false;
+
+  ContextMigrationReport() {
+    // Created by ContextMigrator
+  }
+
+  synchronized void recordMigrated() {
+    documents++;
+    migrated++;
+  }
+
+  synchronized void recordSkipped() {
+    documents++;
+    skipped++;
+  }
+
+  synchronized void recordFailure(String key, RuntimeException error) {
+    documents++;
+    failed++;
+    if (failures.size() < MAX_SAMPLES) {
+      failures.put(key, error);
+    }
+  }
+
+  synchronized void recordStopped() {
+    stopped = true;
+  }
+
+  /**
+   * Return the number of documents visited in this run.
+   *
+   * @return the number of documents.
+   */
+  public synchronized long getDocuments() {
+    return documents;
+  }
+
+  /**
+   * Return the number of pointers rewritten with their context in binary form.
+   *
+   * @return the number migrated.
+   */
+  public synchronized long getMigrated() {
+    return migrated;
+  }
+
+  /**
+   * Return the number of documents left alone: already in binary form, with a context that is no
+   * smaller in binary form, or deleted or rewritten while they were being migrated.
+   *
+   * @return the number skipped.
+   */
+  public synchronized long getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * Return the number of pointers that could not be rewritten. A later run retries them and skips
+   * the pointers already done.
+   *
+   * @return the number of failures.
+   */
+  public synchronized long getFailed() {
+    return failed;
+  }
+
+  /**
+   * Check whether the run was stopped before it had visited every document.
+   *
+   * @return {@code true} if the run was stopped.
+   */
+  public synchronized boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * Return the keys of the first {@link #MAX_SAMPLES} pointers that could not be rewritten, with
+   * their errors.
+   *
+   * @return the sample failures, in the order found.
+   */
+  public synchronized Map<String, RuntimeException> getFailures() {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "ContextMigrationReport(documents=%d, migrated=%d, skipped=%d, failed=%d, stopped=%b)",
+        documents, migrated, skipped, failed, stopped);
+  }
+}
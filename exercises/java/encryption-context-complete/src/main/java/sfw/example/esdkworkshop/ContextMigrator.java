@@ -0,0 +1,156 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+
+/**
+ * Rewrites the {@link PointerItem}s stored with one string attribute per context entry with their
+ * context in binary form, as written by an {@link Api} configured with {@link
+ * Api#withBinaryContext(boolean)}. Pointers are read in either form, so the migration can run in
+ * the background while the Document Bucket is in use, and be stopped and run again at any point.
+ *
+ * <p>The table is scanned in parallel segments, on the {@code Api}'s {@link
+ * java.util.concurrent.Executor}. Each pointer is rewritten with a conditional update, which sets
+ * the binary attribute and removes the string attributes at once, provided the pointer still exists
+ * and has not been rewritten already. Pointers already in binary form are skipped without decoding
+ * them, so repeating a run costs only the scan, and so are pointers whose context is no smaller in
+ * binary form.
+ */
+public class ContextMigrator {
+  private final Api api;
+  private int scanSegments = 4;
+  private double maxItemsPerSecond = 0;
+  private volatile boolean stopped = false;
+
+  /**
+   * Construct a migrator for the pointers in the provided {@link Api}'s table.
+   *
+   * @param api the {@link Api} to rewrite pointers with.
+   */
+  public ContextMigrator(Api api) {
+    this.api = api;
+  }
+
+  /**
+   * Scan the table in the provided number of parallel segments.
+   *
+   * @param scanSegments the number of segments.
+   * @return this {@code ContextMigrator}, for chaining.
+   */
+  public ContextMigrator withScanSegments(int scanSegments) {
+    if (scanSegments < 1) {
+      throw new IllegalArgumentException("There must be at least one scan segment!");
+    }
+    this.scanSegments = scanSegments;
+    return this;
+  }
+
+  /**
+   * Rewrite at most the provided number of pointers per second, across all segments, to bound the
+   * run's share of the table's write throughput.
+   *
+   * @param maxItemsPerSecond the cap, or {@code 0} for none.
+   * @return this {@code ContextMigrator}, for chaining.
+   */
+  public ContextMigrator withThroughputCap(double maxItemsPerSecond) {
+    if (maxItemsPerSecond < 0) {
+      throw new IllegalArgumentException("Throughput cap must not be negative!");
+    }
+    this.maxItemsPerSecond = maxItemsPerSecond;
+    return this;
+  }
+
+  /**
+   * Run the migration of every pointer. A failure to rewrite one pointer is reported and the run
+   * continues; a failure to scan the table stops it.
+   *
+   * @return the {@link ContextMigrationReport} for this run.
+   */
+  public ContextMigrationReport run() {
+    return CostAccounting.call("migrateContext", () -> Lane.BULK.call(this::migrateAll));
+  }
+
+  private ContextMigrationReport migrateAll() {
+    stopped = false;
+    Throttle throttle = new Throttle(maxItemsPerSecond);
+    ContextMigrationReport report = new ContextMigrationReport();
+    List<CompletableFuture<Void>> segments =
+        IntStream.range(0, scanSegments)
+            .mapToObj(
+                segment ->
+                    CompletableFuture.runAsync(
+                        () -> runSegment(segment, throttle, report), api.getExecutor()))
+            .collect(Collectors.toList());
+    Api.joinAll(segments, "Unable to scan the table for context migration!");
+    if (stopped) {
+      report.recordStopped();
+    }
+    return report;
+  }
+
+  /**
+   * Start the migration of every pointer on a background thread of its own, as {@link #run()}.
+   *
+   * @return a future of the {@link ContextMigrationReport} for this run.
+   */
+  public CompletableFuture<ContextMigrationReport> runInBackground() {
+    return CompletableFuture.supplyAsync(
+        this::run,
+        runnable -> {
+          Thread thread = new Thread(runnable, "document-bucket-context-migration");
+          thread.setDaemon(true);
+          thread.start();
+        });
+  }
+
+  /** Stop the current run once each segment has finished its current page. */
+  public void stop() {
+    stopped = true;
+  }
+
+  private void runSegment(int segment, Throttle throttle, ContextMigrationReport report) {
+    Map<String, AttributeValue> startKey = null;
+    do {
+      ScanResult page = api.scanPage(segment, scanSegments, startKey);
+      for (Map<String, AttributeValue> item : page.getItems()) {
+        if (PointerItem.isPointerItem(item)) {
+          migratePointer(item, throttle, report);
+        }
+      }
+      startKey = page.getLastEvaluatedKey();
+    } while (startKey != null && !stopped);
+  }
+
+  private void migratePointer(
+      Map<String, AttributeValue> item, Throttle throttle, ContextMigrationReport report) {
+    if (item.containsKey(PointerItem.contextAttributeName())) {
+      report.recordSkipped();
+      return;
+    }
+    String key = item.get(PointerItem.partitionKeyName()).getS();
+    try {
+      PointerItem pointer = PointerItem.fromItem(item).withBinaryContext(true);
+      if (!pointer.hasBinaryContext()) {
+        report.recordSkipped();
+        return;
+      }
+      throttle.acquire();
+      if (api.packContext(pointer)) {
+        report.recordMigrated();
+      } else {
+        report.recordSkipped();
+      }
+    } catch (RuntimeException e) {
+      report.recordFailure(key, e);
+    }
+  }
+}
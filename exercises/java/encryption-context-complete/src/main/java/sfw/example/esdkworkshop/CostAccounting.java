@@ -0,0 +1,188 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Attributes the requests and capacity an {@link Api} spends on DynamoDB, S3 and KMS to the
+ * operation and {@link CostTag} that spent them. The operation is the outermost public call or job
+ * on the thread, so that a {@code store} made by a {@link DirectorySync} counts towards the sync.
+ * Like the {@link Lane} and tag, it is carried over to the work a call hands to the {@code Api}'s
+ * executor.
+ *
+ * <p>Writes shared between calls, such as a packed segment or a batch of pointer writes, are
+ * charged to whichever call flushed them, or to the call that started them if they were written
+ * because their linger time ran out.
+ */
+class CostAccounting {
+  /** The operation of calls made outside of any public call or job. */
+  static final String NO_OPERATION = "other";
+
+  private static final ThreadLocal<String> OPERATION = new ThreadLocal<>();
+
+  private final Map<List<String>, Counters> counters = new ConcurrentHashMap<>();
+
+  /**
+   * Run work as the provided operation on the current thread, unless an operation is already
+   * current, in which case the work counts towards that one.
+   *
+   * @param <T> the result type of the work.
+   * @param operation the name of the operation.
+   * @param work the work to run.
+   * @return the result of the work.
+   */
+  static <T> T call(String operation, Supplier<T> work) {
+    if (OPERATION.get() != null) {
+      return work.get();
+    }
+    OPERATION.set(operation);
+    try {
+      return work.get();
+    } finally {
+      OPERATION.remove();
+    }
+  }
+
+  /**
+   * Return an {@link Executor} that runs each task in the operation and with the tag of the thread
+   * that submitted it.
+   *
+   * @param executor the {@link Executor} to run the tasks on.
+   * @return the attributing {@link Executor}.
+   */
+  static Executor propagating(Executor executor) {
+    return task -> executor.execute(capture(task));
+  }
+
+  /**
+   * Return a task that runs the provided one in the operation and with the tag of the current
+   * thread, on whichever thread it is later run.
+   *
+   * @param task the task to run.
+   * @return the attributed task.
+   */
+  static Runnable capture(Runnable task) {
+    String operation = OPERATION.get();
+    String tag = CostTag.current();
+    return () -> {
+      String previous = OPERATION.get();
+      OPERATION.set(operation);
+      try {
+        CostTag.run(tag, task);
+      } finally {
+        if (previous == null) {
+          OPERATION.remove();
+        } else {
+          OPERATION.set(previous);
+        }
+      }
+    };
+  }
+
+  /**
+   * Return the counters for the current thread's operation and tag.
+   *
+   * @return the current counters.
+   */
+  Counters current() {
+    String operation = OPERATION.get();
+    List<String> key =
+        Arrays.asList(operation == null ? NO_OPERATION : operation, CostTag.current());
+    return counters.computeIfAbsent(key, k -> new Counters());
+  }
+
+  /**
+   * Return a snapshot of the costs so far, by operation and tag.
+   *
+   * @return the {@link CostReport}s.
+   */
+  List<CostReport> report() {
+    return counters.entrySet().stream()
+        .map(entry -> entry.getValue().snapshot(entry.getKey().get(0), entry.getKey().get(1)))
+        .collect(Collectors.toList());
+  }
+
+  /** The running totals for one operation and tag. */
+  static class Counters {
+    private final DoubleAdder readCapacityUnits = new DoubleAdder();
+    private final DoubleAdder writeCapacityUnits = new DoubleAdder();
+    private final Map<String, LongAdder> dynamoDbRequests = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> s3Requests = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> kmsRequests = new ConcurrentHashMap<>();
+    private final LongAdder kmsRequestsAvoided = new LongAdder();
+    private final LongAdder bytesUploaded = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+
+    /**
+     * Count a DynamoDB request and the capacity it consumed.
+     *
+     * @param request the request type.
+     * @param readUnits the read capacity units consumed, or NaN if not reported.
+     * @param writeUnits the write capacity units consumed, or NaN if not reported.
+     */
+    void dynamoDbRequest(String request, double readUnits, double writeUnits) {
+      increment(dynamoDbRequests, request);
+      if (!Double.isNaN(readUnits)) {
+        readCapacityUnits.add(readUnits);
+      }
+      if (!Double.isNaN(writeUnits)) {
+        writeCapacityUnits.add(writeUnits);
+      }
+    }
+
+    void s3Request(String request) {
+      increment(s3Requests, request);
+    }
+
+    void kmsRequest(String request) {
+      increment(kmsRequests, request);
+    }
+
+    void kmsRequestAvoided() {
+      kmsRequestsAvoided.increment();
+    }
+
+    void uploaded(long bytes) {
+      bytesUploaded.add(bytes);
+    }
+
+    void downloaded(long bytes) {
+      bytesDownloaded.add(bytes);
+    }
+
+    private static void increment(Map<String, LongAdder> requests, String request) {
+      requests.computeIfAbsent(request, r -> new LongAdder()).increment();
+    }
+
+    private CostReport snapshot(String operation, String tag) {
+      return new CostReport(
+          operation,
+          tag,
+          readCapacityUnits.sum(),
+          writeCapacityUnits.sum(),
+          sums(dynamoDbRequests),
+          sums(s3Requests),
+          sums(kmsRequests),
+          kmsRequestsAvoided.sum(),
+          bytesUploaded.sum(),
+          bytesDownloaded.sum());
+    }
+
+    private static Map<String, Long> sums(Map<String, LongAdder> requests) {
+      Map<String, Long> sums = new TreeMap<>();
+      requests.forEach((request, count) -> sums.put(request, count.sum()));
+      return sums;
+    }
+  }
+}
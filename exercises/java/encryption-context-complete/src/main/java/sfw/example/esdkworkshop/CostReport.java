@@ -0,0 +1,160 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A snapshot of the requests and capacity that one operation, for one {@link CostTag}, has spent on
+ * the Document Bucket's dependencies since cost accounting was turned on. Requests are counted by
+ * their API name, such as {@code "GetItem"}, {@code "PutObject"} or {@code "GenerateDataKey"}.
+ */
+public class CostReport {
+  private final String operation;
+  private final String tag;
+  private final double readCapacityUnits;
+  private final double writeCapacityUnits;
+  private final Map<String, Long> dynamoDbRequests;
+  private final Map<String, Long> s3Requests;
+  private final Map<String, Long> kmsRequests;
+  private final long kmsRequestsAvoided;
+  private final long bytesUploaded;
+  private final long bytesDownloaded;
+
+  CostReport(
+      String operation,
+      String tag,
+      double readCapacityUnits,
+      double writeCapacityUnits,
+      Map<String, Long> dynamoDbRequests,
+      Map<String, Long> s3Requests,
+      Map<String, Long> kmsRequests,
+      long kmsRequestsAvoided,
+      long bytesUploaded,
+      long bytesDownloaded) {
+    this.operation = operation;
+    this.tag = tag;
+    this.readCapacityUnits = readCapacityUnits;
+    this.writeCapacityUnits = writeCapacityUnits;
+    this.dynamoDbRequests = Collections.unmodifiableMap(dynamoDbRequests);
+    this.s3Requests = Collections.unmodifiableMap(s3Requests);
+    this.kmsRequests = Collections.unmodifiableMap(kmsRequests);
+    this.kmsRequestsAvoided = kmsRequestsAvoided;
+    this.bytesUploaded = bytesUploaded;
+    this.bytesDownloaded = bytesDownloaded;
+  }
+
+  /**
+   * Return the name of the operation, such as {@code "store"}, {@code "retrieve"} or {@code
+   * "scrub"}, or {@code "other"} for calls made outside of one.
+   *
+   * @return the operation name.
+   */
+  public String getOperation() {
+    return operation;
+  }
+
+  /**
+   * Return the {@link CostTag} the costs are attributed to.
+   *
+   * @return the tag, or null for calls made without one.
+   */
+  public String getTag() {
+    return tag;
+  }
+
+  /**
+   * Return the read capacity units that DynamoDB reported consuming.
+   *
+   * @return the consumed read capacity units.
+   */
+  public double getReadCapacityUnits() {
+    return readCapacityUnits;
+  }
+
+  /**
+   * Return the write capacity units that DynamoDB reported consuming.
+   *
+   * @return the consumed write capacity units.
+   */
+  public double getWriteCapacityUnits() {
+    return writeCapacityUnits;
+  }
+
+  /**
+   * Return the number of DynamoDB requests, by request type.
+   *
+   * @return the DynamoDB request counts.
+   */
+  public Map<String, Long> getDynamoDbRequests() {
+    return dynamoDbRequests;
+  }
+
+  /**
+   * Return the number of S3 requests, by request type.
+   *
+   * @return the S3 request counts.
+   */
+  public Map<String, Long> getS3Requests() {
+    return s3Requests;
+  }
+
+  /**
+   * Return the number of KMS requests made by the Encryption SDK, by request type. Only master keys
+   * from the {@code "aws-kms"} provider are counted.
+   *
+   * @return the KMS request counts.
+   */
+  public Map<String, Long> getKmsRequests() {
+    return kmsRequests;
+  }
+
+  /**
+   * Return the number of retrieves that shared the result of a concurrent identical retrieve, each
+   * of which would otherwise have decrypted its document again.
+   *
+   * @return the decrypts avoided.
+   */
+  public long getKmsRequestsAvoided() {
+    return kmsRequestsAvoided;
+  }
+
+  /**
+   * Return the number of object bytes sent to S3.
+   *
+   * @return the bytes uploaded.
+   */
+  public long getBytesUploaded() {
+    return bytesUploaded;
+  }
+
+  /**
+   * Return the number of object bytes received from S3, including those of hedged requests whose
+   * responses were discarded.
+   *
+   * @return the bytes downloaded.
+   */
+  public long getBytesDownloaded() {
+    return bytesDownloaded;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "CostReport(operation=%s, tag=%s, readCapacityUnits=%.1f, writeCapacityUnits=%.1f,"
+            + " dynamoDbRequests=%s, s3Requests=%s, kmsRequests=%s, kmsRequestsAvoided=%d,"
+            + " bytesUploaded=%d, bytesDownloaded=%d)",
+        operation,
+        tag,
+        readCapacityUnits,
+        writeCapacityUnits,
+        dynamoDbRequests,
+        s3Requests,
+        kmsRequests,
+        kmsRequestsAvoided,
+        bytesUploaded,
+        bytesDownloaded);
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.function.Supplier;
+
+/**
+ * A caller-supplied tag, such as a tenant or workload name, that the costs of {@link Api} calls are
+ * attributed to when {@link Api#withCostAccounting(boolean)} is on. A tag is set for the current
+ * thread, and carried over to the work it hands to the {@code Api}'s executor.
+ */
+public final class CostTag {
+  private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+  private CostTag() {
+    // Tags are only set through the static methods
+  }
+
+  /**
+   * Return the tag of the current thread.
+   *
+   * @return the current tag, or null if there is none.
+   */
+  public static String current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Run work with the provided tag on the current thread.
+   *
+   * @param <T> the result type of the work.
+   * @param tag the tag to attribute the work's costs to.
+   * @param work the work to run.
+   * @return the result of the work.
+   */
+  public static <T> T call(String tag, Supplier<T> work) {
+    String previous = CURRENT.get();
+    CURRENT.set(tag);
+    try {
+      return work.get();
+    } finally {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Run work with the provided tag on the current thread.
+   *
+   * @param tag the tag to attribute the work's costs to.
+   * @param work the work to run.
+   */
+  public static void run(String tag, Runnable work) {
+    call(
+        tag,
+        () -> {
+          work.run();
+          return null;
+        });
+  }
+}
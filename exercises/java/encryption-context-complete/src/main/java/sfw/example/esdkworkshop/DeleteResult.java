@@ -0,0 +1,62 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+/** The outcome of deleting a single document from the Document Bucket. */
+public class DeleteResult {
+  private static final DeleteResult DELETED = new DeleteResult(Status.DELETED, null);
+  private static final DeleteResult NOT_FOUND = new DeleteResult(Status.NOT_FOUND, null);
+  private final Status status;
+  private final RuntimeException error;
+
+  /** What happened to a document. */
+  public enum Status {
+    /** The document's objects and items were deleted. */
+    DELETED,
+    /** There was no document with the key. */
+    NOT_FOUND,
+    /** Some of the document's objects or items could not be deleted. Deleting again is safe. */
+    FAILED
+  }
+
+  private DeleteResult(Status status, RuntimeException error) {
+    this.status = status;
+    this.error = error;
+  }
+
+  static DeleteResult deleted() {
+    return DELETED;
+  }
+
+  static DeleteResult notFound() {
+    return NOT_FOUND;
+  }
+
+  static DeleteResult failed(RuntimeException error) {
+    return new DeleteResult(Status.FAILED, error);
+  }
+
+  /**
+   * Return what happened to the document.
+   *
+   * @return the {@link Status} of the delete.
+   */
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * Return why the document could not be deleted.
+   *
+   * @return the error, or {@code null} unless the status is {@link Status#FAILED}.
+   */
+  public RuntimeException getError() {
+    return error;
+  }
+
+  @Override
+  public String toString() {
+    return error == null ? status.toString() : status + ": " + error.getMessage();
+  }
+}
@@ -0,0 +1,379 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Stores the new and changed files under a local directory tree as Document Bucket documents.
+ *
+ * <p>A local manifest records, for each file by relative path, the size, modification time and
+ * SHA-256 of the content last stored, and the key of the document it was stored as. A file whose
+ * size and modification time match the manifest is not read at all, so a pass over an unchanged
+ * tree costs one directory walk. Other files are memory-mapped and hashed, and only stored if the
+ * hash differs; storing is done from the mapping, which {@link Api#store(java.nio.ByteBuffer, Map)}
+ * copies one chunk at a time when chunked storage is enabled. Hashing and storing run in parallel
+ * on a pool of threads each pass starts for itself; not on the {@code Api}'s {@link Executor},
+ * since a store waits for the chunk writes it queues there.
+ *
+ * <p>The manifest is a journal: each stored file is appended as soon as its document is written, so
+ * an interrupted pass loses no work, and the journal is compacted when it holds superseded or
+ * removed entries. Files removed from the tree are dropped from the manifest, but their documents
+ * are left in the bucket.
+ */
+public class DirectorySync {
+  private final Api api;
+  private final Path root;
+  private final Path manifestFile;
+  private int parallelism = 16;
+  private Function<String, Map<String, String>> contextFor = path -> Collections.emptyMap();
+  private boolean deleteReplaced = false;
+
+  /**
+   * Construct a sync of the provided directory tree into the provided {@link Api}'s bucket.
+   *
+   * @param api the {@link Api} to store documents with.
+   * @param root the root of the directory tree.
+   * @param manifestFile the manifest file, which is created if it does not exist.
+   */
+  public DirectorySync(Api api, Path root, Path manifestFile) {
+    this.api = api;
+    this.root = root;
+    this.manifestFile = manifestFile;
+  }
+
+  /**
+   * Hash and store at most the provided number of files at once.
+   *
+   * @param parallelism the number of files.
+   * @return this {@code DirectorySync}, for chaining.
+   */
+  public DirectorySync withParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive!");
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Store each file with the context returned by the provided function. By default files are stored
+   * with an empty context.
+   *
+   * @param contextFor the function from a file's path relative to the root, with {@code /}
+   *     separators, to its context.
+   * @return this {@code DirectorySync}, for chaining.
+   */
+  public DirectorySync withContext(Function<String, Map<String, String>> contextFor) {
+    this.contextFor = contextFor;
+    return this;
+  }
+
+  /**
+   * Delete the previous document of a changed file once its new document is stored.
+   *
+   * @param enabled whether to delete replaced documents.
+   * @return this {@code DirectorySync}, for chaining.
+   */
+  public DirectorySync withDeleteReplaced(boolean enabled) {
+    this.deleteReplaced = enabled;
+    return this;
+  }
+
+  /**
+   * Run one pass over the directory tree. A file that cannot be read or stored is reported and the
+   * pass continues; it is retried by the next pass.
+   *
+   * @return the {@link SyncReport} for this pass.
+   */
+  public SyncReport sync() {
+    return CostAccounting.call("sync", () -> Lane.BULK.call(this::syncAll));
+  }
+
+  private SyncReport syncAll() {
+    SyncReport report = new SyncReport();
+    Semaphore syncing = new Semaphore(parallelism);
+    ExecutorService workers =
+        Executors.newFixedThreadPool(
+            parallelism,
+            runnable -> {
+              Thread thread = new Thread(runnable, "document-bucket-sync");
+              thread.setDaemon(true);
+              return thread;
+            });
+    Executor executor = CostAccounting.propagating(Lane.propagating(workers));
+    try (Manifest manifest = Manifest.open(manifestFile)) {
+      try {
+        Files.walkFileTree(
+            root,
+            new SimpleFileVisitor<Path>() {
+              @Override
+              public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && !isManifest(file)) {
+                  visit(file, attributes, manifest, executor, syncing, report);
+                }
+                return FileVisitResult.CONTINUE;
+              }
+
+              @Override
+              public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Keep its entries until the file is gone, or it would be uploaded again as new
+                manifest.see(relativePath(file));
+                manifest.seeUnder(relativePath(file));
+                report.recordFailure(relativePath(file), new UncheckedIOException(e));
+                return FileVisitResult.CONTINUE;
+              }
+            });
+      } finally {
+        // Wait for the last files, so that they are in the manifest before it is closed
+        syncing.acquireUninterruptibly(parallelism);
+      }
+      manifest.retainSeen();
+    } catch (IOException | UncheckedIOException e) {
+      throw new DocumentBucketException("Unable to sync directory!", e);
+    } finally {
+      workers.shutdown();
+    }
+    return report;
+  }
+
+  private void visit(
+      Path file,
+      BasicFileAttributes attributes,
+      Manifest manifest,
+      Executor executor,
+      Semaphore syncing,
+      SyncReport report) {
+    String path = relativePath(file);
+    long modified = attributes.lastModifiedTime().toMillis();
+    Entry previous = manifest.see(path);
+    if (previous != null && previous.size == attributes.size() && previous.modified == modified) {
+      report.recordUnchanged();
+      return;
+    }
+    syncing.acquireUninterruptibly();
+    CompletableFuture.runAsync(
+        () -> {
+          try {
+            syncFile(file, path, modified, previous, manifest, report);
+          } catch (RuntimeException e) {
+            report.recordFailure(path, e);
+          } finally {
+            syncing.release();
+          }
+        },
+        executor);
+  }
+
+  private void syncFile(
+      Path file, String path, long modified, Entry previous, Manifest manifest, SyncReport report) {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException(
+            String.format("File %s is too large to store as one document!", path));
+      }
+      MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      byte[] hash = sha256(data);
+      if (previous != null && Arrays.equals(previous.hash, hash)) {
+        manifest.put(path, new Entry(size, modified, hash, previous.key));
+        report.recordRehashed();
+        return;
+      }
+      String key = api.store(data, contextFor.apply(path)).partitionKey().getS();
+      manifest.put(path, new Entry(size, modified, hash, key));
+      if (deleteReplaced && previous != null) {
+        api.delete(previous.key);
+      }
+      report.recordUploaded();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private boolean isManifest(Path file) {
+    try {
+      return Files.exists(manifestFile) && Files.isSameFile(file, manifestFile);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private String relativePath(Path file) {
+    return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+  }
+
+  private static byte[] sha256(MappedByteBuffer data) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new DocumentBucketException("SHA-256 is not available!", e);
+    }
+    digest.update(data.duplicate());
+    return digest.digest();
+  }
+
+  /** What the manifest records about one file. */
+  private static final class Entry {
+    private static final int HASH_LENGTH = 32;
+    private final long size;
+    private final long modified;
+    private final byte[] hash;
+    private final String key;
+
+    Entry(long size, long modified, byte[] hash, String key) {
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+      this.key = key;
+    }
+  }
+
+  /**
+   * The manifest journal: a sequence of path and {@link Entry} records, the last for a path
+   * winning. A record cut short by a crash is ignored.
+   */
+  private static final class Manifest implements Closeable {
+    private final Path file;
+    private final Map<String, Entry> entries;
+    private final Set<String> seen = new HashSet<>();
+    private final DataOutputStream journal;
+    private long records;
+
+    private Manifest(Path file, Map<String, Entry> entries, long records) throws IOException {
+      this.file = file;
+      this.entries = entries;
+      this.records = records;
+      this.journal =
+          new DataOutputStream(
+              new BufferedOutputStream(
+                  Files.newOutputStream(
+                      file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    static Manifest open(Path file) throws IOException {
+      Map<String, Entry> entries = new HashMap<>();
+      long records = 0;
+      boolean truncated = false;
+      if (Files.exists(file)) {
+        try (DataInputStream in =
+            new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+          while (in.available() > 0) {
+            try {
+              entries.put(in.readUTF(), readEntry(in));
+              records++;
+            } catch (EOFException e) {
+              truncated = true;
+              break;
+            }
+          }
+        }
+      }
+      if (truncated || records != entries.size()) {
+        // Appending after a partial record would misalign the journal
+        rewrite(file, entries);
+        records = entries.size();
+      }
+      return new Manifest(file, entries, records);
+    }
+
+    synchronized Entry see(String path) {
+      seen.add(path);
+      return entries.get(path);
+    }
+
+    /** Mark every entry inside a directory that could not be read as seen. */
+    synchronized void seeUnder(String directory) {
+      // The root itself is the empty path, and contains every entry
+      String prefix = directory.isEmpty() ? "" : directory + "/";
+      for (String path : entries.keySet()) {
+        if (path.startsWith(prefix)) {
+          seen.add(path);
+        }
+      }
+    }
+
+    synchronized void put(String path, Entry entry) {
+      entries.put(path, entry);
+      records++;
+      try {
+        journal.writeUTF(path);
+        writeEntry(journal, entry);
+        journal.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    synchronized void retainSeen() {
+      entries.keySet().retainAll(seen);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      journal.close();
+      if (records != entries.size()) {
+        rewrite(file, entries);
+      }
+    }
+
+    private static void rewrite(Path file, Map<String, Entry> entries) throws IOException {
+      Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "manifest", ".tmp");
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          out.writeUTF(entry.getKey());
+          writeEntry(out, entry.getValue());
+        }
+      }
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+      out.writeLong(entry.size);
+      out.writeLong(entry.modified);
+      out.write(entry.hash);
+      out.writeUTF(entry.key);
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+      long size = in.readLong();
+      long modified = in.readLong();
+      byte[] hash = new byte[Entry.HASH_LENGTH];
+      in.readFully(hash);
+      return new Entry(size, modified, hash, in.readUTF());
+    }
+  }
+}
@@ -0,0 +1,360 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import sfw.example.esdkworkshop.datamodel.ChunkManifest;
+import sfw.example.esdkworkshop.datamodel.DataModelException;
+import sfw.example.esdkworkshop.datamodel.DocumentBundle;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+
+/**
+ * Downloads and decrypts documents from the Document Bucket to a local directory, for offline
+ * processing.
+ *
+ * <p>Pointers are streamed from the table page by page and their documents exported in parallel, on
+ * a pool of threads each run starts for itself, with at most the configured number in flight. The
+ * {@code Api}'s {@link Executor} is left to the reads an export waits for, such as hedged GETs.
+ * Each document's plaintext is written through a {@link FileChannel} to a file named by its
+ * (URL-encoded) key; a chunked document is written one chunk at a time, so no more than one chunk
+ * per document is held in memory. The file is written under a temporary name and moved into place
+ * when complete.
+ *
+ * <p>The directory's {@link #MANIFEST_NAME} file lists each exported document's key, length and
+ * encryption context, one per line, as it is completed. An export run into a directory that already
+ * has a manifest skips the documents listed in it, so an interrupted export can be resumed by
+ * running it again.
+ */
+public class DocumentExporter {
+  public static final String MANIFEST_NAME = "manifest.tsv";
+  private static final String PARTIAL_SUFFIX = ".part";
+  private final Api api;
+  private final Path directory;
+  private int parallelism = 16;
+
+  /**
+   * Construct an exporter from the provided {@link Api}'s bucket to the provided directory, which
+   * is created if it does not exist.
+   *
+   * @param api the {@link Api} to retrieve documents with.
+   * @param directory the directory to export to.
+   */
+  public DocumentExporter(Api api, Path directory) {
+    this.api = api;
+    this.directory = directory;
+  }
+
+  /**
+   * Export at most the provided number of documents at once.
+   *
+   * @param parallelism the number of documents.
+   * @return this {@code DocumentExporter}, for chaining.
+   */
+  public DocumentExporter withParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive!");
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Export every document in the Document Bucket, as {@link Api#list()} would list them.
+   *
+   * @return the {@link ExportReport} for this run.
+   */
+  public ExportReport exportAll() {
+    return run(
+        export ->
+            api.scanSegment(
+                0,
+                1,
+                item -> {
+                  if (PointerItem.isPointerItem(item)) {
+                    PointerItem pointer = PointerItem.fromItem(item);
+                    export.submit(pointer.partitionKey().getS(), () -> pointer);
+                  }
+                }));
+  }
+
+  /**
+   * Export the documents with the provided context key, as {@link Api#searchByContextKey(String)}
+   * would find them.
+   *
+   * @param contextKey the context key to search for.
+   * @return the {@link ExportReport} for this run.
+   */
+  public ExportReport exportByContextKey(String contextKey) {
+    return run(
+        export ->
+            api.queryContextItems(
+                contextKey,
+                contextItem ->
+                    export.submit(
+                        contextItem.sortKey().getS(), () -> api.getPointerItem(contextItem))));
+  }
+
+  /**
+   * Export the documents with the provided pointers.
+   *
+   * @param pointers the {@link PointerItem}s of the documents to export.
+   * @return the {@link ExportReport} for this run.
+   */
+  public ExportReport export(Iterable<PointerItem> pointers) {
+    return run(
+        export -> {
+          for (PointerItem pointer : pointers) {
+            export.submit(pointer.partitionKey().getS(), () -> pointer);
+          }
+        });
+  }
+
+  /**
+   * Return the file name a document is exported to.
+   *
+   * @param key the document key.
+   * @return the file name.
+   */
+  public static String fileName(String key) {
+    return URLEncoder.encode(key, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Parse a line of an export's {@link #MANIFEST_NAME} into the document's encryption context.
+   *
+   * @param line the manifest line.
+   * @return the document's encryption context.
+   */
+  public static Map<String, String> parseContext(String line) {
+    String[] fields = line.split("\t", -1);
+    Map<String, String> context = new TreeMap<>();
+    if (fields.length < 3 || fields[2].isEmpty()) {
+      return context;
+    }
+    for (String pair : fields[2].split("&")) {
+      int split = pair.indexOf('=');
+      context.put(
+          URLDecoder.decode(pair.substring(0, split), StandardCharsets.UTF_8),
+          URLDecoder.decode(pair.substring(split + 1), StandardCharsets.UTF_8));
+    }
+    return context;
+  }
+
+  private ExportReport run(Source source) {
+    return CostAccounting.call("export", () -> Lane.BULK.call(() -> exportFrom(source)));
+  }
+
+  private ExportReport exportFrom(Source source) {
+    ExportReport report = new ExportReport();
+    ExecutorService workers =
+        Executors.newFixedThreadPool(
+            parallelism,
+            runnable -> {
+              Thread thread = new Thread(runnable, "document-bucket-export");
+              thread.setDaemon(true);
+              return thread;
+            });
+    try {
+      Files.createDirectories(directory);
+      Path manifestFile = directory.resolve(MANIFEST_NAME);
+      Set<String> done = readManifest(manifestFile);
+      try (BufferedWriter manifest =
+          Files.newBufferedWriter(
+              manifestFile,
+              StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.APPEND)) {
+        Export export =
+            new Export(
+                done, manifest, report, CostAccounting.propagating(Lane.propagating(workers)));
+        try {
+          source.feed(export);
+        } finally {
+          // Wait for the last documents, so that they are in the manifest before it is closed
+          export.exporting.acquireUninterruptibly(parallelism);
+        }
+      }
+    } catch (IOException | UncheckedIOException e) {
+      throw new DocumentBucketException("Unable to export documents!", e);
+    } finally {
+      workers.shutdown();
+    }
+    return report;
+  }
+
+  private static Set<String> readManifest(Path manifestFile) throws IOException {
+    if (!Files.exists(manifestFile)) {
+      return Collections.emptySet();
+    }
+    trimPartialLine(manifestFile);
+    try (Stream<String> lines = Files.lines(manifestFile, StandardCharsets.UTF_8)) {
+      return lines
+          .map(line -> line.substring(0, line.indexOf('\t')))
+          .collect(Collectors.toCollection(HashSet::new));
+    }
+  }
+
+  /**
+   * Remove a last line cut short by a crash, so that its document is exported again and the next
+   * line appended does not run on from it.
+   */
+  static void trimPartialLine(Path manifestFile) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(manifestFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long end = channel.size();
+      ByteBuffer last = ByteBuffer.allocate(1);
+      while (end > 0) {
+        last.clear();
+        channel.read(last, end - 1);
+        if (last.get(0) == '\n') {
+          break;
+        }
+        end--;
+      }
+      channel.truncate(end);
+    }
+  }
+
+  private long exportDocument(PointerItem pointer, BufferedWriter manifest) throws IOException {
+    String key = pointer.partitionKey().getS();
+    byte[] stored = api.getStoredData(pointer);
+    Path target = directory.resolve(fileName(key));
+    Path partial = directory.resolve(fileName(key) + PARTIAL_SUFFIX);
+    Map<String, String> context;
+    long length;
+    try (FileChannel out =
+        FileChannel.open(
+            partial,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      if (ChunkManifest.isManifest(stored)) {
+        ChunkManifest chunks = ChunkManifest.fromBytes(stored);
+        context = Collections.emptyMap();
+        for (int i = 0; i < chunks.getChunkCount(); i++) {
+          DocumentBundle chunk = api.readChunk(key, chunks, i);
+          try {
+            context = chunks.checkChunkContext(key, i, chunk.getPointer().getContext());
+          } catch (DataModelException e) {
+            throw new DocumentBucketException("Document chunks are inconsistent!", e);
+          }
+          writeFully(out, chunk.getData());
+        }
+        length = chunks.getLength();
+      } else {
+        DocumentBundle document = api.decrypt(key, stored);
+        context = document.getPointer().getContext();
+        writeFully(out, document.getData());
+        length = document.getData().length;
+      }
+      out.force(false);
+    }
+    Files.move(
+        partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    String line = String.format("%s\t%d\t%s\n", key, length, formatContext(context));
+    synchronized (manifest) {
+      manifest.write(line);
+      manifest.flush();
+    }
+    return length;
+  }
+
+  private static void writeFully(FileChannel out, byte[] data) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  /**
+   * Format an encryption context as {@link #parseContext(String)} parses it, without the keys the
+   * Encryption SDK adds itself.
+   */
+  static String formatContext(Map<String, String> context) {
+    return new TreeMap<>(context)
+        .entrySet().stream()
+            // Keys the Encryption SDK added itself are not part of the document's context
+            .filter(entry -> !entry.getKey().startsWith(Api.RESERVED_SDK_CONTEXT_PREFIX))
+            .map(
+                entry ->
+                    URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8)
+                        + "="
+                        + URLEncoder.encode(entry.getValue(), StandardCharsets.UTF_8))
+            .collect(Collectors.joining("&"));
+  }
+
+  /** Feeds the documents to export to an export run. */
+  @FunctionalInterface
+  private interface Source {
+    void feed(Export export);
+  }
+
+  /** Runs the exports of one run, with at most the configured number in flight. */
+  private final class Export {
+    private final Semaphore exporting = new Semaphore(parallelism);
+    private final Set<String> done;
+    private final BufferedWriter manifest;
+    private final ExportReport report;
+    private final Executor executor;
+
+    Export(Set<String> done, BufferedWriter manifest, ExportReport report, Executor executor) {
+      this.done = done;
+      this.manifest = manifest;
+      this.report = report;
+      this.executor = executor;
+    }
+
+    void submit(String key, Supplier<PointerItem> pointer) {
+      if (done.contains(key)) {
+        report.recordSkipped();
+        return;
+      }
+      exporting.acquireUninterruptibly();
+      CompletableFuture.runAsync(
+          () -> {
+            try {
+              report.recordExported(exportDocument(pointer.get(), manifest));
+            } catch (DocumentBucketException e) {
+              if (e.getCause() instanceof NoSuchElementException) {
+                report.recordSkipped();
+              } else {
+                report.recordFailure(key, e);
+              }
+            } catch (IOException e) {
+              report.recordFailure(key, new UncheckedIOException(e));
+            } catch (RuntimeException e) {
+              report.recordFailure(key, e);
+            } finally {
+              exporting.release();
+            }
+          },
+          executor);
+    }
+  }
+}
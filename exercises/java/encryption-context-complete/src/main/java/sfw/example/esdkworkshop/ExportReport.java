@@ -0,0 +1,109 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link DocumentExporter} run. Every document is counted; the keys and errors of
+ * the first {@link #MAX_SAMPLES} failures are kept as samples.
+ */
+public class ExportReport {
+  public static final int MAX_SAMPLES = 1000;
+  private final Map<String, RuntimeException> failures = new LinkedHashMap<>();
+  private long documents = 0;
+  private long exported = 0;
+  private long bytes = 0;
+  private long skipped = 0;
+  private long failed = 0;
+
+  ExportReport() {
+    // Created by DocumentExporter
+  }
+
+  synchronized void recordExported(long length) {
+    documents++;
+    exported++;
+    bytes += length;
+  }
+
+  synchronized void recordSkipped() {
+    documents++;
+    skipped++;
+  }
+
+  synchronized void recordFailure(String key, RuntimeException error) {
+    documents++;
+    failed++;
+    if (failures.size() < MAX_SAMPLES) {
+      failures.put(key, error);
+    }
+  }
+
+  /**
+   * Return the number of documents visited in this run.
+   *
+   * @return the number of documents.
+   */
+  public synchronized long getDocuments() {
+    return documents;
+  }
+
+  /**
+   * Return the number of documents exported in this run.
+   *
+   * @return the number exported.
+   */
+  public synchronized long getExported() {
+    return exported;
+  }
+
+  /**
+   * Return the number of plaintext bytes written in this run.
+   *
+   * @return the number of bytes.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Return the number of documents already in the export's manifest, from an earlier interrupted
+   * run, or deleted before they could be exported.
+   *
+   * @return the number skipped.
+   */
+  public synchronized long getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * Return the number of documents that could not be exported. Running the export again into the
+   * same directory retries them and skips the documents already done.
+   *
+   * @return the number of failures.
+   */
+  public synchronized long getFailed() {
+    return failed;
+  }
+
+  /**
+   * Return the keys of the first {@link #MAX_SAMPLES} documents that could not be exported, with
+   * their errors.
+   *
+   * @return the sample failures, in the order found.
+   */
+  public synchronized Map<String, RuntimeException> getFailures() {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "ExportReport(documents=%d, exported=%d, bytes=%d, skipped=%d, failed=%d)",
+        documents, exported, bytes, skipped, failed);
+  }
+}
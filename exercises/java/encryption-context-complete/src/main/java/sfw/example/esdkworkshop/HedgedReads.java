@@ -0,0 +1,157 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Hedges slow requests: if a request has not returned within a percentile of the latencies of
+ * recent requests, a second, identical request is sent, and whichever returns first is used. The
+ * latency measured is the time until the request returns, which for an S3 GET is the time to the
+ * first byte of the response; the body is read afterwards.
+ *
+ * <p>Hedges are limited by a budget: each request earns a fraction of a hedge, and each hedge
+ * spends a whole one, so that hedges add at most that fraction to the requests sent. A few hedges
+ * may be saved up for a burst of slow requests, but no more, so that a slow service is not sent
+ * twice the load.
+ */
+class HedgedReads {
+  /** The number of recent latencies that the hedging delay is computed from. */
+  private static final int WINDOW = 1000;
+  /** The number of requests between recomputations of the delay, and before the first. */
+  private static final int RECOMPUTE_EVERY = 50;
+  /** The most hedges that may be saved up. */
+  private static final double MAX_SAVED_HEDGES = 10;
+
+  private final double percentile;
+  private final double budget;
+  private final Executor executor;
+  private final long[] latencies = new long[WINDOW];
+  private int recorded = 0;
+  private int sinceRecompute = 0;
+  private long delayNanos = Long.MAX_VALUE;
+  private double savedHedges = 0;
+
+  /**
+   * Construct a hedging policy.
+   *
+   * @param percentile the percentile of recent latencies after which to hedge, between 0 and 100.
+   * @param maxExtraPercent the most extra requests to send, as a percentage of all requests.
+   * @param executor the {@link Executor} to send hedged requests on.
+   */
+  HedgedReads(double percentile, double maxExtraPercent, Executor executor) {
+    this.percentile = percentile;
+    this.budget = maxExtraPercent / 100;
+    this.executor = executor;
+  }
+
+  /**
+   * Send the request, hedging it if it is slow, and return the first response. A response that
+   * loses the race is passed to {@code discard} when it arrives, to release what it holds. The
+   * request fails only if every copy of it sent fails.
+   *
+   * @param <T> the type of the response.
+   * @param request the request to send.
+   * @param discard the function to release a response that is not used.
+   * @return the first response.
+   */
+  <T> T get(Supplier<T> request, Consumer<T> discard) {
+    long delay = startRequest();
+    if (delay == Long.MAX_VALUE) {
+      return timed(request);
+    }
+    CompletableFuture<T> primary = CompletableFuture.supplyAsync(() -> timed(request), executor);
+    try {
+      return primary.get(delay, TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      // Too slow: hedge below, if the budget allows
+    } catch (ExecutionException e) {
+      throw unwrap(e.getCause());
+    } catch (InterruptedException e) {
+      primary.thenAccept(discard);
+      Thread.currentThread().interrupt();
+      throw new DocumentBucketException("Interrupted while waiting for a response!", e);
+    }
+    if (!tryHedge()) {
+      return join(primary);
+    }
+    CompletableFuture<T> hedge = CompletableFuture.supplyAsync(() -> timed(request), executor);
+    CompletableFuture<T> winner = new CompletableFuture<>();
+    AtomicInteger failures = new AtomicInteger();
+    BiConsumer<T, Throwable> race =
+        (response, error) -> {
+          if (error == null) {
+            if (!winner.complete(response)) {
+              discard.accept(response);
+            }
+          } else if (failures.incrementAndGet() == 2) {
+            winner.completeExceptionally(error);
+          }
+        };
+    primary.whenComplete(race);
+    hedge.whenComplete(race);
+    return join(winner);
+  }
+
+  private synchronized long startRequest() {
+    savedHedges = Math.min(savedHedges + budget, MAX_SAVED_HEDGES);
+    return delayNanos;
+  }
+
+  private synchronized boolean tryHedge() {
+    if (savedHedges < 1) {
+      return false;
+    }
+    savedHedges--;
+    return true;
+  }
+
+  private <T> T timed(Supplier<T> request) {
+    long start = System.nanoTime();
+    T response = request.get();
+    record(System.nanoTime() - start);
+    return response;
+  }
+
+  private synchronized void record(long latency) {
+    latencies[recorded % WINDOW] = latency;
+    recorded++;
+    if (++sinceRecompute < RECOMPUTE_EVERY) {
+      return;
+    }
+    sinceRecompute = 0;
+    long[] sorted = Arrays.copyOf(latencies, Math.min(recorded, WINDOW));
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+    delayNanos = sorted[Math.max(rank - 1, 0)];
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      throw unwrap(e.getCause());
+    }
+  }
+
+  private static RuntimeException unwrap(Throwable cause) {
+    if (cause instanceof RuntimeException) {
+      return (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new DocumentBucketException("Request failed!", cause);
+  }
+}
@@ -0,0 +1,86 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * The priority lane of the calls that an {@link Api} makes to DynamoDB, S3 and KMS. Work is in the
+ * {@link #INTERACTIVE} lane unless it is run in another; the bulk jobs in this package (such as
+ * {@link Scrubber} and {@link ReEncryptor}) run in the {@link #BULK} lane. A lane is set for the
+ * current thread, and carried over to the work it hands to the {@code Api}'s executor.
+ *
+ * <p>Lanes only change how calls are scheduled if {@link Api#withPriorityLanes(int, int, int)} is
+ * on.
+ */
+public enum Lane {
+  /** Latency-sensitive calls, such as those made by retrieve. */
+  INTERACTIVE,
+  /** Throughput-oriented calls, such as those made by scans, migrations and exports. */
+  BULK;
+
+  private static final ThreadLocal<Lane> CURRENT = ThreadLocal.withInitial(() -> INTERACTIVE);
+
+  /**
+   * Return the lane of the current thread.
+   *
+   * @return the current lane.
+   */
+  public static Lane current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Run work in this lane on the current thread.
+   *
+   * @param <T> the result type of the work.
+   * @param work the work to run.
+   * @return the result of the work.
+   */
+  public <T> T call(Supplier<T> work) {
+    Lane previous = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      return work.get();
+    } finally {
+      CURRENT.set(previous);
+    }
+  }
+
+  /**
+   * Run work in this lane on the current thread.
+   *
+   * @param work the work to run.
+   */
+  public void run(Runnable work) {
+    call(
+        () -> {
+          work.run();
+          return null;
+        });
+  }
+
+  /**
+   * Return an {@link Executor} that runs each task in the lane of the thread that submitted it.
+   *
+   * @param executor the {@link Executor} to run the tasks on.
+   * @return the lane-preserving {@link Executor}.
+   */
+  static Executor propagating(Executor executor) {
+    return task -> executor.execute(capture(task));
+  }
+
+  /**
+   * Return a task that runs the provided one in the lane of the current thread, on whichever thread
+   * it is later run.
+   *
+   * @param task the task to run.
+   * @return the lane-preserving task.
+   */
+  static Runnable capture(Runnable task) {
+    Lane lane = current();
+    return () -> lane.run(task);
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.function.Supplier;
+
+/**
+ * Schedules calls from the {@link Lane}s onto a fixed number of concurrent slots. Each lane has its
+ * own limit on the slots it may hold, and when calls from more than one lane are waiting, slots are
+ * shared between the lanes in proportion to their weights (by stride scheduling: each lane's pass
+ * advances by the inverse of its weight per call, and the waiting lane with the lowest pass goes
+ * next). A lane that has been idle rejoins at the current pass, rather than with credit saved up.
+ */
+class LaneScheduler {
+  private final int maxConcurrency;
+  private final int[] limits;
+  private final double[] strides;
+  private final double[] passes;
+  private final int[] inFlight;
+  private final int[] waiting;
+  private int totalInFlight = 0;
+  private double virtualTime = 0;
+
+  /**
+   * Construct a scheduler.
+   *
+   * @param maxConcurrency the most concurrent calls in all lanes.
+   * @param limits the most concurrent calls in each lane, indexed by {@link Lane#ordinal()}.
+   * @param weights the share of the slots for each lane, indexed by {@link Lane#ordinal()}.
+   */
+  LaneScheduler(int maxConcurrency, int[] limits, int[] weights) {
+    this.maxConcurrency = maxConcurrency;
+    this.limits = limits.clone();
+    this.strides = new double[weights.length];
+    for (int i = 0; i < weights.length; i++) {
+      strides[i] = 1.0 / weights[i];
+    }
+    this.passes = new double[weights.length];
+    this.inFlight = new int[weights.length];
+    this.waiting = new int[weights.length];
+  }
+
+  /**
+   * Make a call in the provided lane once the scheduler allows it.
+   *
+   * @param <T> the result type of the call.
+   * @param lane the lane of the call.
+   * @param call the call to make.
+   * @return the result of the call.
+   */
+  <T> T call(Lane lane, Supplier<T> call) {
+    acquire(lane.ordinal());
+    try {
+      return call.get();
+    } finally {
+      release(lane.ordinal());
+    }
+  }
+
+  private synchronized void acquire(int lane) {
+    if (waiting[lane] == 0 && inFlight[lane] == 0) {
+      passes[lane] = Math.max(passes[lane], virtualTime);
+    }
+    waiting[lane]++;
+    try {
+      while (next() != lane) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DocumentBucketException("Interrupted while waiting to be scheduled!", e);
+    } finally {
+      waiting[lane]--;
+      // Either way this lane may no longer be next, so a waiter of another lane may now be
+      notifyAll();
+    }
+    virtualTime = passes[lane];
+    passes[lane] += strides[lane];
+    inFlight[lane]++;
+    totalInFlight++;
+  }
+
+  private synchronized void release(int lane) {
+    inFlight[lane]--;
+    totalInFlight--;
+    notifyAll();
+  }
+
+  /** Return the lane that should take the next free slot, or -1 if none can. */
+  private int next() {
+    if (totalInFlight >= maxConcurrency) {
+      return -1;
+    }
+    int next = -1;
+    for (int i = 0; i < passes.length; i++) {
+      if (waiting[i] > 0 && inFlight[i] < limits[i] && (next < 0 || passes[i] < passes[next])) {
+        next = i;
+      }
+    }
+    return next;
+  }
+}
@@ -0,0 +1,185 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Admission control by memory: accounts for the document bytes that calls hold on the heap, and
+ * makes a call that would take the total over the budget wait for others to finish, or fail if they
+ * do not finish in time. A call is always admitted when no other holds any bytes, so that a
+ * document larger than the whole budget can still be stored and retrieved, on its own.
+ *
+ * <p>Only a call's first charge waits. Once admitted, a call's further charges are granted at once
+ * and may take the total over the budget for a while, since a call that waited while holding bytes
+ * could be waiting on another call that is doing the same.
+ *
+ * <p>Each public {@link Api} call opens a {@link Lease}, which is current on its thread until the
+ * call returns; the code that reads, copies, encrypts or decrypts a document charges its bytes to
+ * the current lease as it goes, and they are all released when the call returns. Work that a call
+ * hands to another thread {@linkplain Lease#run adopts} the call's lease.
+ */
+class MemoryBudget {
+  private static final ThreadLocal<Lease> CURRENT = new ThreadLocal<>();
+  private static final Lease NONE = new Lease(null);
+
+  private final long capacity;
+  private final long maxWaitNanos;
+  private long inFlight = 0;
+
+  /**
+   * Construct a budget.
+   *
+   * @param capacity the most document bytes to hold across all calls.
+   * @param maxWait the longest a call waits to be admitted before it fails.
+   */
+  MemoryBudget(long capacity, Duration maxWait) {
+    this.capacity = capacity;
+    this.maxWaitNanos = maxWait.toNanos();
+  }
+
+  /**
+   * Open a lease for a call, current on this thread until it is closed. If a lease is already
+   * current, as when one public call makes another, the call shares it.
+   *
+   * @return the lease for the call.
+   */
+  Lease open() {
+    Lease current = CURRENT.get();
+    if (current != null) {
+      return current.nested();
+    }
+    Lease lease = new Lease(this);
+    CURRENT.set(lease);
+    return lease;
+  }
+
+  /**
+   * Return the lease current on this thread, or a lease that charges nothing if there is none.
+   *
+   * @return the current lease.
+   */
+  static Lease current() {
+    Lease current = CURRENT.get();
+    return current == null ? NONE : current;
+  }
+
+  /**
+   * Return a lease that charges nothing, for calls made without a budget.
+   *
+   * @return the empty lease.
+   */
+  static Lease none() {
+    return NONE;
+  }
+
+  private synchronized void acquire(Lease lease, long bytes) {
+    long deadline = System.nanoTime() + maxWaitNanos;
+    // Only new calls wait: a call that waited holding bytes could wait on another doing the same
+    while (lease.held == 0 && inFlight > 0 && inFlight + bytes > capacity) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        String reason =
+            String.format(
+                "Memory budget exceeded: %d bytes requested with %d of %d bytes in flight!",
+                bytes, inFlight, capacity);
+        throw new DocumentBucketException(reason, new RejectedExecutionException(reason));
+      }
+      try {
+        wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DocumentBucketException("Interrupted while waiting for memory!", e);
+      }
+    }
+    inFlight += bytes;
+    lease.held += bytes;
+  }
+
+  private synchronized void release(Lease lease, long bytes) {
+    long released = Math.min(bytes, lease.held);
+    inFlight -= released;
+    lease.held -= released;
+    notifyAll();
+  }
+
+  /** The bytes charged by one call, released when it is closed. */
+  static class Lease implements AutoCloseable {
+    private final MemoryBudget budget;
+    private final Lease owner;
+    private long held = 0;
+
+    private Lease(MemoryBudget budget) {
+      this(budget, null);
+    }
+
+    private Lease(MemoryBudget budget, Lease owner) {
+      this.budget = budget;
+      this.owner = owner;
+    }
+
+    private Lease nested() {
+      return new Lease(budget, this);
+    }
+
+    /**
+     * Charge bytes to this lease, waiting until the budget allows them.
+     *
+     * @param bytes the number of bytes about to be held.
+     * @throws DocumentBucketException if the budget does not allow them in time.
+     */
+    void charge(long bytes) {
+      if (owner != null) {
+        owner.charge(bytes);
+      } else if (budget != null && bytes > 0) {
+        budget.acquire(this, bytes);
+      }
+    }
+
+    /**
+     * Release bytes charged to this lease before it is closed, once they are no longer held.
+     *
+     * @param bytes the number of bytes released.
+     */
+    void refund(long bytes) {
+      if (owner != null) {
+        owner.refund(bytes);
+      } else if (budget != null && bytes > 0) {
+        budget.release(this, bytes);
+      }
+    }
+
+    /**
+     * Run work on this thread with this lease current, as when a call fans out to an executor.
+     *
+     * @param <T> the result type of the work.
+     * @param work the work to run.
+     * @return the result of the work.
+     */
+    <T> T run(Supplier<T> work) {
+      Lease previous = CURRENT.get();
+      CURRENT.set(owner == null ? this : owner);
+      try {
+        return work.get();
+      } finally {
+        if (previous == null) {
+          CURRENT.remove();
+        } else {
+          CURRENT.set(previous);
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      if (owner != null || budget == null) {
+        return;
+      }
+      CURRENT.remove();
+      budget.release(this, Long.MAX_VALUE);
+    }
+  }
+}
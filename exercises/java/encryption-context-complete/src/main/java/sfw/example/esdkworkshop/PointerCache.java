@@ -0,0 +1,68 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+
+/**
+ * A bounded, least-recently-used cache of {@link PointerItem}s by document key. A document's
+ * context does not change once written, but {@link SegmentCompactor} may move a packed document to
+ * a new segment; readers that find a cached segment location gone invalidate the entry and reload.
+ */
+class PointerCache {
+  private final Map<String, PointerItem> entries;
+
+  /**
+   * Construct a cache that holds at most {@code maxEntries} pointers.
+   *
+   * @param maxEntries the maximum number of pointers to hold.
+   */
+  PointerCache(int maxEntries) {
+    this.entries =
+        new LinkedHashMap<String, PointerItem>(16, 0.75f, true) {
+          static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, PointerItem> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  /**
+   * Return the cached pointer for the key, loading and caching it if it is not present.
+   *
+   * @param key the document key.
+   * @param loader the function to load the pointer on a cache miss.
+   * @return the {@link PointerItem} for the key.
+   */
+  PointerItem get(String key, Function<String, PointerItem> loader) {
+    synchronized (entries) {
+      PointerItem cached = entries.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    // Load outside the lock so that a slow lookup does not block other keys
+    PointerItem loaded = loader.apply(key);
+    synchronized (entries) {
+      entries.put(key, loaded);
+    }
+    return loaded;
+  }
+
+  /**
+   * Remove the pointer for the key, if cached.
+   *
+   * @param key the document key.
+   */
+  void invalidate(String key) {
+    synchronized (entries) {
+      entries.remove(key);
+    }
+  }
+}
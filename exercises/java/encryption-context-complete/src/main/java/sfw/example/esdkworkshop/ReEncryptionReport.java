@@ -0,0 +1,98 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link ReEncryptor} run. Every document is counted; the keys and errors of the
+ * first {@link #MAX_SAMPLES} failures are kept as samples.
+ */
+public class ReEncryptionReport {
+  public static final int MAX_SAMPLES = 1000;
+  private final Map<String, RuntimeException> failures = new LinkedHashMap<>();
+  private long documents = 0;
+  private long reEncrypted = 0;
+  private long skipped = 0;
+  private long failed = 0;
+
+  ReEncryptionReport() {
+    // Created by ReEncryptor
+  }
+
+  synchronized void recordReEncrypted() {
+    documents++;
+    reEncrypted++;
+  }
+
+  synchronized void recordSkipped() {
+    documents++;
+    skipped++;
+  }
+
+  synchronized void recordFailure(String key, RuntimeException error) {
+    documents++;
+    failed++;
+    if (failures.size() < MAX_SAMPLES) {
+      failures.put(key, error);
+    }
+  }
+
+  /**
+   * Return the number of documents visited in this run.
+   *
+   * @return the number of documents.
+   */
+  public synchronized long getDocuments() {
+    return documents;
+  }
+
+  /**
+   * Return the number of documents re-encrypted in this run.
+   *
+   * @return the number re-encrypted.
+   */
+  public synchronized long getReEncrypted() {
+    return reEncrypted;
+  }
+
+  /**
+   * Return the number of documents left alone: already under the target keys, not selected, or
+   * deleted while they were being re-encrypted.
+   *
+   * @return the number skipped.
+   */
+  public synchronized long getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * Return the number of documents that could not be re-encrypted. A later run, with a fresh
+   * checkpoint, retries them and skips the documents already done.
+   *
+   * @return the number of failures.
+   */
+  public synchronized long getFailed() {
+    return failed;
+  }
+
+  /**
+   * Return the keys of the first {@link #MAX_SAMPLES} documents that could not be re-encrypted,
+   * with their errors.
+   *
+   * @return the sample failures, in the order found.
+   */
+  public synchronized Map<String, RuntimeException> getFailures() {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "ReEncryptionReport(documents=%d, reEncrypted=%d, skipped=%d, failed=%d)",
+        documents, reEncrypted, skipped, failed);
+  }
+}
@@ -0,0 +1,394 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import com.amazonaws.encryptionsdk.MasterKeyProvider;
+import com.amazonaws.encryptionsdk.exception.ParseException;
+import com.amazonaws.encryptionsdk.model.CiphertextHeaders;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import sfw.example.esdkworkshop.datamodel.ChunkManifest;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+import sfw.example.esdkworkshop.datamodel.SegmentLocation;
+
+/**
+ * Re-encrypts the documents in the Document Bucket under a new {@link MasterKeyProvider}, to rotate
+ * away from a master key or to re-key the bucket. Each message is decrypted with the {@link Api}'s
+ * master key provider and its payload encrypted again under the target with the same encryption
+ * context, so the {@code Api}'s provider must be able to decrypt messages under both the old and
+ * the new keys for readers to keep working during the run.
+ *
+ * <p>The table is scanned in parallel segments. Messages in their own S3 object, including each
+ * chunk of a chunked document, are streamed through decryption and encryption into the upload, so
+ * no more than one upload part of a message is held in memory; inline and packed documents, which
+ * are small by layout, are re-encrypted in memory. Inline documents are replaced with a conditional
+ * update on the old ciphertext. Packed documents are written to their own S3 object and their
+ * segment location conditionally removed, leaving the old bytes for {@link SegmentCompactor}.
+ * Objects in S3 are overwritten in place; S3 has no conditional write here, so the pointer is
+ * checked afterwards and the new objects deleted if the document was deleted during the run.
+ *
+ * <p>With a checkpoint file, the position of each scan segment is saved after every page, and a run
+ * started with an existing checkpoint resumes from it. Documents already under the target are cheap
+ * to skip (a ranged GET of the message header), so a run without a checkpoint is also safe to
+ * repeat.
+ */
+public class ReEncryptor {
+  private final Api api;
+  private final MasterKeyProvider<?> target;
+  private Predicate<CiphertextHeaders> selector = headers -> true;
+  private int scanSegments = 4;
+  private Path checkpointFile = null;
+  private double maxMessagesPerSecond = 0;
+
+  /**
+   * Construct a re-encryptor for the documents in the provided {@link Api}'s table and bucket. By
+   * default every message is re-encrypted.
+   *
+   * @param api the {@link Api} to read and decrypt documents with.
+   * @param target the {@link MasterKeyProvider} to encrypt documents under.
+   */
+  public ReEncryptor(Api api, MasterKeyProvider<?> target) {
+    this.api = api;
+    this.target = target;
+  }
+
+  /**
+   * Only re-encrypt messages whose header matches the provided selector, such as {@link
+   * #encryptedUnder(String)} for the key being rotated away from.
+   *
+   * @param selector the predicate on each message's {@link CiphertextHeaders}.
+   * @return this {@code ReEncryptor}, for chaining.
+   */
+  public ReEncryptor withSelector(Predicate<CiphertextHeaders> selector) {
+    this.selector = selector;
+    return this;
+  }
+
+  /**
+   * Scan the table in the provided number of parallel segments, on the {@code Api}'s {@link
+   * java.util.concurrent.Executor}. A checkpoint can only be resumed with the same number.
+   *
+   * @param scanSegments the number of segments.
+   * @return this {@code ReEncryptor}, for chaining.
+   */
+  public ReEncryptor withScanSegments(int scanSegments) {
+    if (scanSegments < 1) {
+      throw new IllegalArgumentException("There must be at least one scan segment!");
+    }
+    this.scanSegments = scanSegments;
+    return this;
+  }
+
+  /**
+   * Save progress to, and resume from, the provided file. Delete the file to start over.
+   *
+   * @param checkpointFile the checkpoint file.
+   * @return this {@code ReEncryptor}, for chaining.
+   */
+  public ReEncryptor withCheckpoint(Path checkpointFile) {
+    this.checkpointFile = checkpointFile;
+    return this;
+  }
+
+  /**
+   * Re-encrypt at most the provided number of messages (documents or chunks) per second, across all
+   * segments. Each costs a KMS decrypt and a KMS encrypt, so this bounds the run's share of the KMS
+   * request quota and of the table and bucket throughput.
+   *
+   * @param maxMessagesPerSecond the cap, or {@code 0} for none.
+   * @return this {@code ReEncryptor}, for chaining.
+   */
+  public ReEncryptor withThroughputCap(double maxMessagesPerSecond) {
+    if (maxMessagesPerSecond < 0) {
+      throw new IllegalArgumentException("Throughput cap must not be negative!");
+    }
+    this.maxMessagesPerSecond = maxMessagesPerSecond;
+    return this;
+  }
+
+  /**
+   * Return a selector for messages with an encrypted data key from the provided master key. For
+   * KMS, the key ID is the key ARN.
+   *
+   * @param keyId the master key's ID (its provider information).
+   * @return the selector.
+   */
+  public static Predicate<CiphertextHeaders> encryptedUnder(String keyId) {
+    return headers ->
+        headers.getEncryptedKeyBlobs().stream()
+            .anyMatch(
+                blob ->
+                    keyId.equals(
+                        new String(blob.getProviderInformation(), StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Run, or resume, the re-encryption of every document. A failure to re-encrypt one document is
+   * reported and the run continues; a failure to scan the table stops it, and the checkpoint keeps
+   * the progress made.
+   *
+   * @return the {@link ReEncryptionReport} for this run.
+   */
+  public ReEncryptionReport run() {
+    return CostAccounting.call("reEncrypt", () -> Lane.BULK.call(this::reEncryptAll));
+  }
+
+  private ReEncryptionReport reEncryptAll() {
+    Checkpoint checkpoint = Checkpoint.load(checkpointFile, scanSegments);
+    Throttle throttle = new Throttle(maxMessagesPerSecond);
+    ReEncryptionReport report = new ReEncryptionReport();
+    List<CompletableFuture<Void>> segments =
+        IntStream.range(0, scanSegments)
+            .mapToObj(
+                segment ->
+                    CompletableFuture.runAsync(
+                        () -> runSegment(segment, checkpoint, throttle, report), api.getExecutor()))
+            .collect(Collectors.toList());
+    Api.joinAll(segments, "Unable to scan the table for re-encryption!");
+    return report;
+  }
+
+  private void runSegment(
+      int segment, Checkpoint checkpoint, Throttle throttle, ReEncryptionReport report) {
+    if (checkpoint.isDone(segment)) {
+      return;
+    }
+    Map<String, AttributeValue> startKey = checkpoint.startKey(segment);
+    do {
+      ScanResult page = api.scanPage(segment, scanSegments, startKey);
+      for (Map<String, AttributeValue> item : page.getItems()) {
+        if (PointerItem.isPointerItem(item)) {
+          reEncryptDocument(PointerItem.fromItem(item), throttle, report);
+        }
+      }
+      startKey = page.getLastEvaluatedKey();
+      checkpoint.save(segment, startKey);
+    } while (startKey != null);
+  }
+
+  private void reEncryptDocument(
+      PointerItem pointer, Throttle throttle, ReEncryptionReport report) {
+    String key = pointer.partitionKey().getS();
+    boolean reEncrypted;
+    try {
+      if (pointer.hasInlineData()) {
+        reEncrypted = reEncryptInline(pointer, throttle);
+      } else if (pointer.hasSegment()) {
+        reEncrypted = reEncryptPacked(pointer, throttle);
+      } else if (pointer.getChunkCount() >= 0) {
+        reEncrypted = reEncryptChunks(pointer, throttle);
+      } else {
+        reEncrypted = reEncryptObject(pointer, throttle);
+      }
+    } catch (RuntimeException e) {
+      report.recordFailure(key, e);
+      return;
+    }
+    if (reEncrypted) {
+      report.recordReEncrypted();
+    } else {
+      report.recordSkipped();
+    }
+  }
+
+  private boolean reEncryptInline(PointerItem pointer, Throttle throttle) {
+    byte[] message = pointer.getInlineData();
+    if (!selector.test(headersOf(message))) {
+      return false;
+    }
+    throttle.acquire();
+    byte[] replacement = api.reEncrypt(message, target);
+    String key = pointer.partitionKey().getS();
+    if (api.replaceInlineData(key, message, replacement)) {
+      return true;
+    }
+    return requireChanged(key);
+  }
+
+  private boolean reEncryptPacked(PointerItem pointer, Throttle throttle) {
+    String key = pointer.partitionKey().getS();
+    SegmentLocation location = pointer.getSegment();
+    byte[] message =
+        api.getObjectRange(location.getSegmentId(), location.getOffset(), location.getLength());
+    if (!selector.test(headersOf(message))) {
+      return false;
+    }
+    throttle.acquire();
+    api.writeObject(key, api.reEncrypt(message, target), pointer.getContext());
+    if (api.unpackPointer(key, location.getSegmentId())) {
+      return true;
+    }
+    api.deleteObject(key);
+    return requireChanged(key);
+  }
+
+  private boolean reEncryptChunks(PointerItem pointer, Throttle throttle) {
+    String key = pointer.partitionKey().getS();
+    List<String> written = new ArrayList<>();
+    for (int i = 0; i < pointer.getChunkCount(); i++) {
+      String chunkKey = ChunkManifest.chunkKey(key, i);
+      if (selector.test(api.getObjectHeaders(chunkKey))) {
+        throttle.acquire();
+        api.reEncryptObject(chunkKey, target, pointer.getContext());
+        written.add(chunkKey);
+      }
+    }
+    return !written.isEmpty() && stillStored(key, written);
+  }
+
+  private boolean reEncryptObject(PointerItem pointer, Throttle throttle) {
+    String key = pointer.partitionKey().getS();
+    if (!selector.test(api.getObjectHeaders(key))) {
+      return false;
+    }
+    throttle.acquire();
+    api.reEncryptObject(key, target, pointer.getContext());
+    return stillStored(key, List.of(key));
+  }
+
+  /**
+   * Check that the document was not deleted while its objects were being overwritten, and delete
+   * the overwritten objects if it was.
+   */
+  private boolean stillStored(String key, List<String> written) {
+    if (pointerExists(key)) {
+      return true;
+    }
+    written.forEach(api::deleteObject);
+    return false;
+  }
+
+  /**
+   * After a conditional update fails, skip a document that was deleted in the meantime; any other
+   * change is a failure, retried by the next run.
+   */
+  private boolean requireChanged(String key) {
+    if (pointerExists(key)) {
+      throw new DocumentBucketException(
+          String.format("Document %s changed while it was being re-encrypted!", key),
+          new IllegalStateException());
+    }
+    return false;
+  }
+
+  private boolean pointerExists(String key) {
+    try {
+      api.loadPointerItem(key);
+      return true;
+    } catch (DocumentBucketException e) {
+      if (e.getCause() instanceof NoSuchElementException) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private static CiphertextHeaders headersOf(byte[] message) {
+    CiphertextHeaders headers = new CiphertextHeaders();
+    try {
+      headers.deserialize(message, 0);
+    } catch (ParseException e) {
+      throw new DocumentBucketException("Unable to parse the message header!", e);
+    }
+    if (!headers.isComplete()) {
+      throw new DocumentBucketException(
+          "Message ended before its header was complete!", new ParseException());
+    }
+    return headers;
+  }
+
+  /**
+   * The position of each scan segment, saved as a properties file: the last evaluated key of the
+   * last completed page, or a marker once the segment is done. The file is replaced atomically, so
+   * a crash leaves either the old or the new position.
+   */
+  private static final class Checkpoint {
+    private static final String SEGMENTS = "segments";
+    private final Path file;
+    private final Properties positions;
+
+    private Checkpoint(Path file, Properties positions) {
+      this.file = file;
+      this.positions = positions;
+    }
+
+    static Checkpoint load(Path file, int scanSegments) {
+      Properties positions = new Properties();
+      if (file != null && Files.exists(file)) {
+        try (InputStream in = Files.newInputStream(file)) {
+          positions.load(in);
+        } catch (IOException e) {
+          throw new DocumentBucketException("Unable to read the re-encryption checkpoint!", e);
+        }
+        String saved = positions.getProperty(SEGMENTS);
+        if (!String.valueOf(scanSegments).equals(saved)) {
+          throw new IllegalArgumentException(
+              String.format(
+                  "Checkpoint %s was saved with %s scan segments, not %d!",
+                  file, saved, scanSegments));
+        }
+      }
+      positions.setProperty(SEGMENTS, String.valueOf(scanSegments));
+      return new Checkpoint(file, positions);
+    }
+
+    synchronized boolean isDone(int segment) {
+      return Boolean.parseBoolean(positions.getProperty(segment + ".done"));
+    }
+
+    synchronized Map<String, AttributeValue> startKey(int segment) {
+      String prefix = segment + ".key.";
+      Map<String, AttributeValue> startKey = new HashMap<>();
+      for (String name : positions.stringPropertyNames()) {
+        if (name.startsWith(prefix)) {
+          startKey.put(
+              name.substring(prefix.length()), new AttributeValue(positions.getProperty(name)));
+        }
+      }
+      return startKey.isEmpty() ? null : startKey;
+    }
+
+    synchronized void save(int segment, Map<String, AttributeValue> lastKey) {
+      String prefix = segment + ".key.";
+      positions.stringPropertyNames().stream()
+          .filter(name -> name.startsWith(prefix))
+          .forEach(positions::remove);
+      if (lastKey == null) {
+        positions.setProperty(segment + ".done", "true");
+      } else {
+        // The table's key attributes are strings
+        lastKey.forEach((name, value) -> positions.setProperty(prefix + name, value.getS()));
+      }
+      if (file == null) {
+        return;
+      }
+      try {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "checkpoint", ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+          positions.store(out, "Document Bucket re-encryption checkpoint");
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+        throw new DocumentBucketException("Unable to save the re-encryption checkpoint!", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The findings of a {@link Scrubber} pass. Every finding is counted; the keys of the first {@link
+ * #MAX_SAMPLES} of each kind are kept as samples.
+ */
+public class ScrubReport {
+  public static final int MAX_SAMPLES = 1000;
+  private final Map<Finding, Long> counts = new EnumMap<>(Finding.class);
+  private final Map<Finding, List<String>> samples = new EnumMap<>(Finding.class);
+  private long documents = 0;
+  private long objects = 0;
+  private long repaired = 0;
+  private long repairFailures = 0;
+
+  /**
+   * A kind of inconsistency found by a scrub pass.
+   *
+   * <p>Segments are out of scope: a pointer into a segment is not checked against the segment's
+   * object or {@link sfw.example.esdkworkshop.datamodel.SegmentItem}, and segment objects are never
+   * reported as orphans. Segment objects are tracked by their {@code SegmentItem}s instead, and
+   * deleted by the {@link SegmentCompactor} once no pointer refers to them.
+   */
+  public enum Finding {
+    /** A pointer whose S3 object (or one of whose chunks) does not exist. */
+    DANGLING_POINTER,
+    /** A document's S3 object with no pointer, or beside a pointer to inline or packed data. */
+    ORPHAN_OBJECT,
+    /** A context key of a pointer with no context record to index it. */
+    MISSING_CONTEXT_ITEM,
+    /** A context record for a context key that its document does not have. */
+    STALE_CONTEXT_ITEM,
+    /** An S3 object that could not be decrypted, found in verify mode. */
+    CORRUPT_OBJECT
+  }
+
+  ScrubReport() {
+    for (Finding finding : Finding.values()) {
+      counts.put(finding, 0L);
+      samples.put(finding, new ArrayList<>());
+    }
+  }
+
+  synchronized void record(Finding finding, String key) {
+    counts.merge(finding, 1L, Long::sum);
+    List<String> found = samples.get(finding);
+    if (found.size() < MAX_SAMPLES) {
+      found.add(key);
+    }
+  }
+
+  synchronized void countDocument() {
+    documents++;
+  }
+
+  synchronized void countObject() {
+    objects++;
+  }
+
+  synchronized void countRepairs(long succeeded, long failed) {
+    repaired += succeeded;
+    repairFailures += failed;
+  }
+
+  /**
+   * Return how many times the provided inconsistency was found.
+   *
+   * @param finding the kind of inconsistency.
+   * @return the number found.
+   */
+  public synchronized long getCount(Finding finding) {
+    return counts.get(finding);
+  }
+
+  /**
+   * Return the keys of the first {@link #MAX_SAMPLES} instances of the provided inconsistency: the
+   * document key, S3 key or context key as appropriate.
+   *
+   * @param finding the kind of inconsistency.
+   * @return the sample keys, in the order found.
+   */
+  public synchronized List<String> getSamples(Finding finding) {
+    return Collections.unmodifiableList(new ArrayList<>(samples.get(finding)));
+  }
+
+  /**
+   * Return the number of pointers checked.
+   *
+   * @return the number of pointers.
+   */
+  public synchronized long getDocuments() {
+    return documents;
+  }
+
+  /**
+   * Return the number of S3 objects listed.
+   *
+   * @return the number of objects.
+   */
+  public synchronized long getObjects() {
+    return objects;
+  }
+
+  /**
+   * Return the number of inconsistencies repaired, in repair mode.
+   *
+   * @return the number repaired.
+   */
+  public synchronized long getRepaired() {
+    return repaired;
+  }
+
+  /**
+   * Return the number of repairs that failed, in repair mode. Running the scrubber again retries
+   * them.
+   *
+   * @return the number of failed repairs.
+   */
+  public synchronized long getRepairFailures() {
+    return repairFailures;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "ScrubReport(documents=%d, objects=%d, findings=%s, repaired=%d, repairFailures=%d)",
+        documents, objects, counts, repaired, repairFailures);
+  }
+}
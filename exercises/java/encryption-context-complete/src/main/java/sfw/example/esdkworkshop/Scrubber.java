@@ -0,0 +1,620 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import sfw.example.esdkworkshop.ScrubReport.Finding;
+import sfw.example.esdkworkshop.datamodel.ChunkManifest;
+import sfw.example.esdkworkshop.datamodel.ContextItem;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+
+/**
+ * Finds, and optionally repairs, inconsistencies between the Document Bucket table and bucket:
+ * pointers whose objects are missing (for example after a crash between writing the pointer and the
+ * object), objects with no pointer, and context keys with missing or stale {@link ContextItem}s.
+ * See {@link ScrubReport.Finding}. Segments are out of scope, and left to the {@link
+ * SegmentCompactor}.
+ *
+ * <p>The table is scanned in parallel segments. Each segment's pointer and context records are
+ * sorted in runs of bounded size and spilled to temporary files, then the runs are merged into a
+ * single stream in document key order and joined against the bucket listing, which S3 returns in
+ * key order. Memory use is bounded by the run size rather than by the size of the table.
+ *
+ * <p>The scan and the listing are not a snapshot, so anything newer than the grace period is left
+ * alone: a document being stored has its pointer before its objects, and an object listed after the
+ * scan may belong to a pointer written after it.
+ */
+public class Scrubber {
+  static final int DEFAULT_RUN_SIZE = 100_000;
+  static final int REPAIR_BATCH_SIZE = 1000;
+  private static final byte POINTER = 0;
+  private static final byte CONTEXT = 1;
+  private static final byte STORED_OBJECT = 'O';
+  private static final byte STORED_CHUNKS = 'C';
+  private static final byte STORED_INLINE = 'I';
+  private static final byte STORED_SEGMENT = 'S';
+  private final Api api;
+  private int scanSegments = 4;
+  private int runSize = DEFAULT_RUN_SIZE;
+  private Duration gracePeriod = Duration.ofHours(1);
+  private boolean repair = false;
+  private boolean verify = false;
+  private int verifyParallelism = 16;
+  private Path tempDirectory = null;
+
+  /**
+   * Construct a scrubber for the table and bucket of the provided {@link Api}. By default it only
+   * reports; see {@link #withRepair(boolean)} and {@link #withVerify(boolean, int)}.
+   *
+   * @param api the {@link Api} to scrub.
+   */
+  public Scrubber(Api api) {
+    this.api = api;
+  }
+
+  /**
+   * Scan the table in the provided number of parallel segments, on the {@code Api}'s {@link
+   * java.util.concurrent.Executor}.
+   *
+   * @param scanSegments the number of segments.
+   * @return this {@code Scrubber}, for chaining.
+   */
+  public Scrubber withScanSegments(int scanSegments) {
+    if (scanSegments < 1) {
+      throw new IllegalArgumentException("There must be at least one scan segment!");
+    }
+    this.scanSegments = scanSegments;
+    return this;
+  }
+
+  /**
+   * Hold at most {@code runSize} scanned records in memory, across all segments, before spilling
+   * them to a temporary file.
+   *
+   * @param runSize the number of records per spilled run.
+   * @param tempDirectory the directory for the spilled runs, or {@code null} for the default.
+   * @return this {@code Scrubber}, for chaining.
+   */
+  public Scrubber withRunSize(int runSize, Path tempDirectory) {
+    if (runSize < 1) {
+      throw new IllegalArgumentException("Run size must be positive!");
+    }
+    this.runSize = runSize;
+    this.tempDirectory = tempDirectory;
+    return this;
+  }
+
+  /**
+   * Leave alone pointers and objects newer than the provided grace period, which must comfortably
+   * exceed the time a {@code store} takes.
+   *
+   * @param gracePeriod the grace period.
+   * @return this {@code Scrubber}, for chaining.
+   */
+  public Scrubber withGracePeriod(Duration gracePeriod) {
+    this.gracePeriod = gracePeriod;
+    return this;
+  }
+
+  /**
+   * Repair what is found: delete dangling pointers (with their items and any partial objects),
+   * delete orphan objects, write missing {@link ContextItem}s and delete stale ones. Corrupt
+   * objects are only reported.
+   *
+   * @param enabled whether to repair.
+   * @return this {@code Scrubber}, for chaining.
+   */
+  public Scrubber withRepair(boolean enabled) {
+    this.repair = enabled;
+    return this;
+  }
+
+  /**
+   * Also check the integrity of every object by decrypting it as a stream. This costs a GET and a
+   * KMS decrypt per object.
+   *
+   * @param enabled whether to verify objects.
+   * @param parallelism the number of objects to verify at once.
+   * @return this {@code Scrubber}, for chaining.
+   */
+  public Scrubber withVerify(boolean enabled, int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Verify parallelism must be positive!");
+    }
+    this.verify = enabled;
+    this.verifyParallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Run one scrub pass over the whole table and bucket.
+   *
+   * @return the {@link ScrubReport} of what was found and repaired.
+   */
+  public ScrubReport scrub() {
+    return CostAccounting.call("scrub", () -> Lane.BULK.call(this::scrubAll));
+  }
+
+  private ScrubReport scrubAll() {
+    Instant cutoff = Instant.now().minus(gracePeriod);
+    ScrubReport report = new ScrubReport();
+    Path runDirectory;
+    try {
+      runDirectory =
+          tempDirectory == null
+              ? Files.createTempDirectory("docbucket-scrub")
+              : Files.createTempDirectory(tempDirectory, "docbucket-scrub");
+    } catch (IOException e) {
+      throw new DocumentBucketException("Unable to create a directory for scan runs!", e);
+    }
+    try (RunMerger records = new RunMerger(writeRuns(runDirectory))) {
+      new Join(cutoff, report).run(records, api.listObjects());
+    } catch (IOException | UncheckedIOException e) {
+      throw new DocumentBucketException("Unable to read back scan runs!", e);
+    } finally {
+      deleteRecursively(runDirectory);
+    }
+    return report;
+  }
+
+  private List<Path> writeRuns(Path runDirectory) {
+    int segmentRunSize = Math.max(1, runSize / scanSegments);
+    List<CompletableFuture<List<Path>>> segments =
+        IntStream.range(0, scanSegments)
+            .mapToObj(
+                segment ->
+                    CompletableFuture.supplyAsync(
+                        () -> writeSegmentRuns(runDirectory, segment, segmentRunSize),
+                        api.getExecutor()))
+            .collect(Collectors.toList());
+    return Api.joinAll(segments, "Unable to scan the table!").stream()
+        .flatMap(List::stream)
+        .collect(Collectors.toList());
+  }
+
+  private List<Path> writeSegmentRuns(Path runDirectory, int segment, int segmentRunSize) {
+    List<Path> runs = new ArrayList<>();
+    List<TableRecord> buffer = new ArrayList<>(segmentRunSize);
+    api.scanSegment(
+        segment,
+        scanSegments,
+        item -> {
+          TableRecord record = TableRecord.fromItem(item);
+          if (record == null) {
+            return;
+          }
+          buffer.add(record);
+          if (buffer.size() >= segmentRunSize) {
+            runs.add(spill(runDirectory, buffer));
+            buffer.clear();
+          }
+        });
+    if (!buffer.isEmpty()) {
+      runs.add(spill(runDirectory, buffer));
+    }
+    return runs;
+  }
+
+  private static Path spill(Path runDirectory, List<TableRecord> records) {
+    records.sort(Comparator.naturalOrder());
+    try {
+      Path run = Files.createTempFile(runDirectory, "run", ".bin");
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+        for (TableRecord record : records) {
+          record.writeTo(out);
+        }
+      }
+      return run;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void deleteRecursively(Path directory) {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.deleteIfExists(path);
+      }
+    } catch (IOException e) {
+      // Only temporary files are left behind
+    }
+  }
+
+  /**
+   * Return the key of the document an S3 object belongs to: the object itself or one of its chunks.
+   *
+   * @param objectKey the S3 key.
+   * @return the document key, or {@code null} if the object is not a document's (such as a
+   *     segment).
+   */
+  static String documentKeyOf(String objectKey) {
+    int keyLength = 36;
+    if (objectKey.length() < keyLength
+        || (objectKey.length() > keyLength && objectKey.charAt(keyLength) != '/')) {
+      return null;
+    }
+    String documentKey = objectKey.substring(0, keyLength);
+    try {
+      // Canonical UUIDs only, so that the listing order matches the key order
+      return UUID.fromString(documentKey).toString().equals(documentKey) ? documentKey : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** A pointer or context record from the table scan, as spilled to a run. */
+  static final class TableRecord implements Comparable<TableRecord> {
+    private final String documentKey;
+    private final byte kind;
+    private final byte storage;
+    private final int chunkCount;
+    private final long created;
+    private final List<String> contextKeys;
+
+    private TableRecord(
+        String documentKey,
+        byte kind,
+        byte storage,
+        int chunkCount,
+        long created,
+        List<String> contextKeys) {
+      this.documentKey = documentKey;
+      this.kind = kind;
+      this.storage = storage;
+      this.chunkCount = chunkCount;
+      this.created = created;
+      this.contextKeys = contextKeys;
+    }
+
+    static TableRecord fromItem(Map<String, AttributeValue> item) {
+      if (PointerItem.isPointerItem(item)) {
+        PointerItem pointer = PointerItem.fromItem(item);
+        byte storage = STORED_OBJECT;
+        if (pointer.hasInlineData()) {
+          storage = STORED_INLINE;
+        } else if (pointer.hasSegment()) {
+          storage = STORED_SEGMENT;
+        } else if (pointer.getChunkCount() >= 0) {
+          storage = STORED_CHUNKS;
+        }
+        List<String> contextKeys =
+            pointer.contextItems().stream()
+                .map(contextItem -> contextItem.partitionKey().getS())
+                .collect(Collectors.toList());
+        return new TableRecord(
+            pointer.partitionKey().getS(),
+            POINTER,
+            storage,
+            pointer.getChunkCount(),
+            pointer.getCreated() == null ? -1 : pointer.getCreated().toEpochMilli(),
+            contextKeys);
+      }
+      if (ContextItem.isContextItem(item)) {
+        ContextItem contextItem = ContextItem.fromItem(item);
+        return new TableRecord(
+            contextItem.sortKey().getS(),
+            CONTEXT,
+            (byte) 0,
+            -1,
+            -1,
+            Collections.singletonList(contextItem.partitionKey().getS()));
+      }
+      return null;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      out.writeUTF(documentKey);
+      out.writeByte(kind);
+      out.writeByte(storage);
+      out.writeInt(chunkCount);
+      out.writeLong(created);
+      out.writeInt(contextKeys.size());
+      for (String contextKey : contextKeys) {
+        out.writeUTF(contextKey);
+      }
+    }
+
+    static TableRecord readFrom(DataInputStream in) throws IOException {
+      String documentKey;
+      try {
+        documentKey = in.readUTF();
+      } catch (EOFException e) {
+        return null;
+      }
+      byte kind = in.readByte();
+      byte storage = in.readByte();
+      int chunkCount = in.readInt();
+      long created = in.readLong();
+      int contextKeyCount = in.readInt();
+      List<String> contextKeys = new ArrayList<>(contextKeyCount);
+      for (int i = 0; i < contextKeyCount; i++) {
+        contextKeys.add(in.readUTF());
+      }
+      return new TableRecord(documentKey, kind, storage, chunkCount, created, contextKeys);
+    }
+
+    @Override
+    public int compareTo(TableRecord other) {
+      int byKey = documentKey.compareTo(other.documentKey);
+      return byKey != 0 ? byKey : Byte.compare(kind, other.kind);
+    }
+  }
+
+  /** Merges sorted runs into a single stream of records in document key order. */
+  static final class RunMerger implements Iterator<TableRecord>, Closeable {
+    private final PriorityQueue<RunReader> readers =
+        new PriorityQueue<>(Comparator.comparing((RunReader reader) -> reader.head));
+    private final List<RunReader> opened = new ArrayList<>();
+
+    RunMerger(List<Path> runs) throws IOException {
+      try {
+        for (Path run : runs) {
+          RunReader reader = new RunReader(run);
+          opened.add(reader);
+          if (reader.advance()) {
+            readers.add(reader);
+          }
+        }
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !readers.isEmpty();
+    }
+
+    @Override
+    public TableRecord next() {
+      RunReader reader = readers.poll();
+      TableRecord record = reader.head;
+      try {
+        if (reader.advance()) {
+          readers.add(reader);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return record;
+    }
+
+    TableRecord peek() {
+      return readers.isEmpty() ? null : readers.peek().head;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (RunReader reader : opened) {
+        reader.in.close();
+      }
+    }
+  }
+
+  private static final class RunReader {
+    private final DataInputStream in;
+    private TableRecord head;
+
+    private RunReader(Path run) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+    }
+
+    private boolean advance() throws IOException {
+      head = TableRecord.readFrom(in);
+      return head != null;
+    }
+  }
+
+  /** The merge join of one pass, with the repairs it has queued. */
+  private final class Join {
+    private final Instant cutoff;
+    private final ScrubReport report;
+    private final Semaphore verifying = new Semaphore(verifyParallelism);
+    private final List<String> danglingPointers = new ArrayList<>();
+    private final Map<String, String> orphanObjects = new LinkedHashMap<>();
+    private final List<ContextItem> missingContextItems = new ArrayList<>();
+    private final Map<Map<String, AttributeValue>, String> staleContextItems =
+        new LinkedHashMap<>();
+
+    private Join(Instant cutoff, ScrubReport report) {
+      this.cutoff = cutoff;
+      this.report = report;
+    }
+
+    private void run(RunMerger records, Iterator<S3ObjectSummary> listing) {
+      S3ObjectSummary nextObject = nextDocumentObject(listing);
+      while (records.hasNext() || nextObject != null) {
+        String recordKey = records.hasNext() ? records.peek().documentKey : null;
+        String objectKey = nextObject == null ? null : documentKeyOf(nextObject.getKey());
+        String documentKey =
+            recordKey == null
+                ? objectKey
+                : objectKey == null || recordKey.compareTo(objectKey) <= 0 ? recordKey : objectKey;
+        TableRecord pointer = null;
+        Set<String> contextKeys = new HashSet<>();
+        while (records.hasNext() && records.peek().documentKey.equals(documentKey)) {
+          TableRecord record = records.next();
+          if (record.kind == POINTER) {
+            pointer = record;
+          } else {
+            contextKeys.addAll(record.contextKeys);
+          }
+        }
+        List<S3ObjectSummary> objects = new ArrayList<>();
+        while (nextObject != null && documentKey.equals(documentKeyOf(nextObject.getKey()))) {
+          objects.add(nextObject);
+          nextObject = nextDocumentObject(listing);
+        }
+        check(documentKey, pointer, contextKeys, objects);
+        if (danglingPointers.size()
+                + orphanObjects.size()
+                + missingContextItems.size()
+                + staleContextItems.size()
+            >= REPAIR_BATCH_SIZE) {
+          flushRepairs();
+        }
+      }
+      flushRepairs();
+      // Wait for the last verifications
+      verifying.acquireUninterruptibly(verifyParallelism);
+    }
+
+    private S3ObjectSummary nextDocumentObject(Iterator<S3ObjectSummary> listing) {
+      while (listing.hasNext()) {
+        S3ObjectSummary object = listing.next();
+        report.countObject();
+        if (documentKeyOf(object.getKey()) != null) {
+          return object;
+        }
+      }
+      return null;
+    }
+
+    private void check(
+        String documentKey,
+        TableRecord pointer,
+        Set<String> contextKeys,
+        List<S3ObjectSummary> objects) {
+      if (pointer == null) {
+        for (S3ObjectSummary object : objects) {
+          if (object.getLastModified().toInstant().isBefore(cutoff)) {
+            report.record(Finding.ORPHAN_OBJECT, object.getKey());
+            orphanObjects.put(object.getKey(), documentKey);
+          }
+        }
+        for (String contextKey : contextKeys) {
+          report.record(Finding.STALE_CONTEXT_ITEM, contextKey);
+          staleContextItems.put(
+              ContextItem.fromContext(contextKey, documentKey).toItem(), documentKey);
+        }
+        return;
+      }
+      report.countDocument();
+      if (pointer.created >= cutoff.toEpochMilli()) {
+        return;
+      }
+      Set<String> objectKeys =
+          objects.stream().map(S3ObjectSummary::getKey).collect(Collectors.toSet());
+      Set<String> expected = new HashSet<>();
+      if (pointer.storage == STORED_OBJECT || pointer.storage == STORED_CHUNKS) {
+        expected.add(documentKey);
+      }
+      for (int i = 0; i < pointer.chunkCount; i++) {
+        expected.add(ChunkManifest.chunkKey(documentKey, i));
+      }
+      if (!objectKeys.containsAll(expected)) {
+        report.record(Finding.DANGLING_POINTER, documentKey);
+        danglingPointers.add(documentKey);
+        return;
+      }
+      if (pointer.storage == STORED_INLINE || pointer.storage == STORED_SEGMENT) {
+        for (S3ObjectSummary object : objects) {
+          if (object.getLastModified().toInstant().isBefore(cutoff)) {
+            report.record(Finding.ORPHAN_OBJECT, object.getKey());
+            orphanObjects.put(object.getKey(), documentKey);
+          }
+        }
+      } else if (verify) {
+        // Chunked documents' own objects are manifests rather than messages
+        boolean chunked = pointer.storage == STORED_CHUNKS || objectKeys.size() > 1;
+        objectKeys.stream()
+            .filter(objectKey -> !(chunked && objectKey.equals(documentKey)))
+            .forEach(this::verify);
+      }
+      for (String contextKey : pointer.contextKeys) {
+        if (!contextKeys.remove(contextKey)) {
+          report.record(Finding.MISSING_CONTEXT_ITEM, contextKey);
+          missingContextItems.add(ContextItem.fromContext(contextKey, documentKey));
+        }
+      }
+      for (String contextKey : contextKeys) {
+        report.record(Finding.STALE_CONTEXT_ITEM, contextKey);
+        staleContextItems.put(
+            ContextItem.fromContext(contextKey, documentKey).toItem(), documentKey);
+      }
+    }
+
+    private void verify(String objectKey) {
+      verifying.acquireUninterruptibly();
+      CompletableFuture.runAsync(
+          () -> {
+            try {
+              api.verifyObject(objectKey);
+            } catch (RuntimeException e) {
+              report.record(Finding.CORRUPT_OBJECT, objectKey);
+            } finally {
+              verifying.release();
+            }
+          },
+          api.getExecutor());
+    }
+
+    private void flushRepairs() {
+      if (repair) {
+        long failed = 0;
+        if (!danglingPointers.isEmpty()) {
+          failed +=
+              api.deleteAll(danglingPointers).values().stream()
+                  .filter(result -> result.getStatus() == DeleteResult.Status.FAILED)
+                  .count();
+        }
+        Map<String, RuntimeException> objectFailures = new HashMap<>();
+        api.batchDeleteObjects(orphanObjects, objectFailures);
+        failed += orphanObjects.values().stream().filter(objectFailures::containsKey).count();
+        Map<String, RuntimeException> itemFailures = new HashMap<>();
+        api.batchDeleteItems(staleContextItems, itemFailures);
+        failed += staleContextItems.values().stream().filter(itemFailures::containsKey).count();
+        for (ContextItem contextItem : missingContextItems) {
+          try {
+            api.writeItem(contextItem);
+          } catch (RuntimeException e) {
+            failed++;
+          }
+        }
+        long attempted =
+            danglingPointers.size()
+                + orphanObjects.size()
+                + staleContextItems.size()
+                + missingContextItems.size();
+        report.countRepairs(attempted - failed, failed);
+      }
+      danglingPointers.clear();
+      orphanObjects.clear();
+      missingContextItems.clear();
+      staleContextItems.clear();
+    }
+  }
+}
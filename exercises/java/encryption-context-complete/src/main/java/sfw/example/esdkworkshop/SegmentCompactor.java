@@ -0,0 +1,158 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+import sfw.example.esdkworkshop.datamodel.SegmentItem;
+import sfw.example.esdkworkshop.datamodel.SegmentLocation;
+
+/**
+ * Reclaims the space held in segment objects by packed documents that have been deleted or moved.
+ * See {@link Api#withSegmentPacking(int, int, Duration)}.
+ *
+ * <p>A document in a segment is live if its {@link PointerItem} still points into that segment.
+ * Segments with no live documents are deleted. Segments whose dead bytes reach the configured
+ * fraction are rewritten: the live documents are copied into a new segment, their pointers are
+ * conditionally moved to it, and the old segment is deleted. Readers holding a pointer to the old
+ * segment reload it and retry.
+ */
+public class SegmentCompactor {
+  private final Api api;
+  private final double deadFraction;
+  private final Duration minAge;
+  private volatile RuntimeException lastFailure = null;
+
+  /**
+   * Construct a compactor for the segments written through the provided {@link Api}'s table and
+   * bucket.
+   *
+   * @param api the {@link Api} to compact segments with.
+   * @param deadFraction the fraction of a segment's bytes that must be dead before it is rewritten,
+   *     between 0 and 1.
+   * @param minAge how old a segment must be before it is compacted. Segments are written before
+   *     their documents' pointers, so this must comfortably exceed the time a {@code store} takes.
+   */
+  public SegmentCompactor(Api api, double deadFraction, Duration minAge) {
+    if (deadFraction <= 0 || deadFraction > 1) {
+      throw new IllegalArgumentException("Dead fraction must be greater than 0 and at most 1!");
+    }
+    this.api = api;
+    this.deadFraction = deadFraction;
+    this.minAge = minAge;
+  }
+
+  /**
+   * Run one compaction pass over every segment.
+   *
+   * @return the number of segments deleted or rewritten.
+   */
+  public int compact() {
+    return CostAccounting.call("compact", () -> Lane.BULK.call(this::compactAll));
+  }
+
+  private int compactAll() {
+    Instant cutoff = Instant.now().minus(minAge);
+    int compacted = 0;
+    for (SegmentItem segment : api.scanSegments()) {
+      if (segment.getCreated().isBefore(cutoff) && compactSegment(segment)) {
+        compacted++;
+      }
+    }
+    return compacted;
+  }
+
+  /**
+   * Run a compaction pass every {@code interval} on the provided scheduler. A failed pass is
+   * recorded in {@link #getLastFailure()} and retried at the next interval.
+   *
+   * @param scheduler the scheduler to run passes on.
+   * @param interval the delay between the end of one pass and the start of the next.
+   * @return the {@link ScheduledFuture} for the passes, to cancel them.
+   */
+  public ScheduledFuture<?> start(ScheduledExecutorService scheduler, Duration interval) {
+    return scheduler.scheduleWithFixedDelay(
+        () -> {
+          try {
+            compact();
+            lastFailure = null;
+          } catch (RuntimeException e) {
+            lastFailure = e;
+          }
+        },
+        interval.toNanos(),
+        interval.toNanos(),
+        TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Return the exception from the most recent scheduled pass, if it failed.
+   *
+   * @return the failure, or {@code null} if the most recent pass succeeded.
+   */
+  public RuntimeException getLastFailure() {
+    return lastFailure;
+  }
+
+  private boolean compactSegment(SegmentItem segment) {
+    String segmentId = segment.getSegmentId();
+    List<String> liveKeys = new ArrayList<>();
+    List<SegmentLocation> liveLocations = new ArrayList<>();
+    long liveBytes = 0;
+    for (String key : segment.getDocuments()) {
+      SegmentLocation location = liveLocation(key, segmentId);
+      if (location != null) {
+        liveKeys.add(key);
+        liveLocations.add(location);
+        liveBytes += location.getLength();
+      }
+    }
+    if (liveKeys.isEmpty()) {
+      api.deleteSegment(segmentId);
+      return true;
+    }
+    if (segment.getLength() - liveBytes < deadFraction * segment.getLength()) {
+      return false;
+    }
+    byte[] old = api.getObjectData(segmentId);
+    String newId = SegmentItem.generateId();
+    ByteArrayOutputStream data = new ByteArrayOutputStream((int) liveBytes);
+    List<SegmentLocation> moved = new ArrayList<>(liveKeys.size());
+    for (SegmentLocation location : liveLocations) {
+      moved.add(new SegmentLocation(newId, data.size(), location.getLength()));
+      data.write(old, (int) location.getOffset(), location.getLength());
+    }
+    api.writeObject(newId, data.toByteArray(), Collections.emptyMap());
+    api.writeItem(SegmentItem.fromDocuments(newId, liveKeys, data.size(), Instant.now()));
+    for (int i = 0; i < liveKeys.size(); i++) {
+      // A document deleted since it was checked is left behind, for the next pass to reclaim
+      api.relocatePointer(liveKeys.get(i), segmentId, moved.get(i));
+    }
+    api.deleteSegment(segmentId);
+    return true;
+  }
+
+  private SegmentLocation liveLocation(String key, String segmentId) {
+    PointerItem pointer;
+    try {
+      pointer = api.loadPointerItem(key);
+    } catch (DocumentBucketException e) {
+      if (e.getCause() instanceof NoSuchElementException) {
+        return null;
+      }
+      throw e;
+    }
+    SegmentLocation location = pointer.getSegment();
+    return location != null && location.getSegmentId().equals(segmentId) ? location : null;
+  }
+}
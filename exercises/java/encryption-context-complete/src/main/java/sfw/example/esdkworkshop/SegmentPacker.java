@@ -0,0 +1,139 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import sfw.example.esdkworkshop.datamodel.SegmentItem;
+import sfw.example.esdkworkshop.datamodel.SegmentLocation;
+
+/**
+ * Packs the ciphertexts of small documents into shared segment objects, so that many small
+ * documents cost one S3 PUT between them. A segment is written once it reaches its size or document
+ * limit, or once its first document has waited for the linger time, whichever comes first. Each
+ * document's location is only handed back after its segment object and {@link SegmentItem} have
+ * been written.
+ *
+ * <p>Lingering segments are handed from the linger timer to a small pool of writer threads of the
+ * packer's own, as for a {@link WriteBatcher}'s batches, and written in the {@link Lane} and cost
+ * operation and {@link CostTag} of the call that started them.
+ */
+class SegmentPacker {
+  // Keeps the SegmentItem's document list well within DynamoDB's item size limit
+  static final int MAX_SEGMENT_DOCUMENTS = 4096;
+  private static final ScheduledExecutorService LINGER_TIMER =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "document-bucket-segment-linger-timer");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final Api api;
+  private final int maxSegmentBytes;
+  private final Duration linger;
+  private final ThreadPoolExecutor lingerWriters =
+      WriteBatcher.lingerWriters("document-bucket-segment-linger");
+  private Segment open = null;
+
+  /**
+   * Construct a packer that writes segments through the provided {@link Api}.
+   *
+   * @param api the {@link Api} to write segment objects and items with.
+   * @param maxSegmentBytes the size at which a segment is written without waiting.
+   * @param linger the longest time a document waits for its segment to fill.
+   */
+  SegmentPacker(Api api, int maxSegmentBytes, Duration linger) {
+    this.api = api;
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.linger = linger;
+  }
+
+  /**
+   * Add a document's ciphertext to the open segment.
+   *
+   * @param key the document key.
+   * @param ciphertext the document's ciphertext.
+   * @return a future for the document's location, completed once its segment is written.
+   */
+  CompletableFuture<SegmentLocation> add(String key, byte[] ciphertext) {
+    Segment full = null;
+    CompletableFuture<SegmentLocation> location;
+    synchronized (this) {
+      if (open == null) {
+        Segment segment = new Segment();
+        Runnable write = CostAccounting.capture(Lane.capture(() -> writeLingering(segment)));
+        segment.lingerTimeout =
+            LINGER_TIMER.schedule(
+                () -> lingerWriters.execute(write), linger.toNanos(), TimeUnit.NANOSECONDS);
+        open = segment;
+      }
+      location = open.add(key, ciphertext);
+      if (open.data.size() >= maxSegmentBytes || open.keys.size() >= MAX_SEGMENT_DOCUMENTS) {
+        full = open;
+        open = null;
+      }
+    }
+    if (full != null) {
+      // The filling thread would otherwise wait for the write anyway
+      full.lingerTimeout.cancel(false);
+      write(full);
+    }
+    return location;
+  }
+
+  private void writeLingering(Segment segment) {
+    synchronized (this) {
+      if (open != segment) {
+        // Already written because it filled up
+        return;
+      }
+      open = null;
+    }
+    write(segment);
+  }
+
+  private void write(Segment segment) {
+    try {
+      byte[] data = segment.data.toByteArray();
+      api.writeObject(segment.id, data, Collections.emptyMap());
+      api.writeItem(
+          SegmentItem.fromDocuments(segment.id, segment.keys, data.length, Instant.now()));
+    } catch (RuntimeException e) {
+      segment.locations.forEach(location -> location.completeExceptionally(e));
+      return;
+    }
+    for (int i = 0; i < segment.keys.size(); i++) {
+      segment.locations.get(i).complete(segment.pending.get(i));
+    }
+  }
+
+  /** A segment being filled, guarded by the packer's lock until it is handed off for writing. */
+  private static final class Segment {
+    private final String id = SegmentItem.generateId();
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    private final List<String> keys = new ArrayList<>();
+    private final List<SegmentLocation> pending = new ArrayList<>();
+    private final List<CompletableFuture<SegmentLocation>> locations = new ArrayList<>();
+    private ScheduledFuture<?> lingerTimeout;
+
+    private CompletableFuture<SegmentLocation> add(String key, byte[] ciphertext) {
+      pending.add(new SegmentLocation(id, data.size(), ciphertext.length));
+      data.write(ciphertext, 0, ciphertext.length);
+      keys.add(key);
+      CompletableFuture<SegmentLocation> location = new CompletableFuture<>();
+      locations.add(location);
+      return location;
+    }
+  }
+}
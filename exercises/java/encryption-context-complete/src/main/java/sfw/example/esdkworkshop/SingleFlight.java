@@ -0,0 +1,61 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical requests: while a load for a key is in flight, other callers for
+ * the same key wait for its result rather than starting their own. Nothing is kept once the load
+ * completes, so unlike {@link PointerCache} a later call always loads afresh.
+ *
+ * @param <K> the type of the request keys.
+ * @param <V> the type of the results, which are shared between callers so should be immutable.
+ */
+class SingleFlight<K, V> {
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Return the result of the load in flight for the key, or run the provided loader if there is
+   * none. If the load fails, every caller waiting on it gets the same exception.
+   *
+   * @param key the request key.
+   * @param loader the function to load the result, run on the calling thread.
+   * @return the loaded result.
+   */
+  V get(K key, Supplier<V> loader) {
+    CompletableFuture<V> flight = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+    if (existing != null) {
+      return await(existing);
+    }
+    try {
+      V result = loader.get();
+      flight.complete(result);
+      return result;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+
+  private static <V> V await(CompletableFuture<V> flight) {
+    try {
+      return flight.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link DirectorySync} pass. Every file is counted; the paths and errors of the
+ * first {@link #MAX_SAMPLES} failures are kept as samples.
+ */
+public class SyncReport {
+  public static final int MAX_SAMPLES = 1000;
+  private final Map<String, RuntimeException> failures = new LinkedHashMap<>();
+  private long files = 0;
+  private long unchanged = 0;
+  private long rehashed = 0;
+  private long uploaded = 0;
+  private long failed = 0;
+
+  SyncReport() {
+    // Created by DirectorySync
+  }
+
+  synchronized void recordUnchanged() {
+    files++;
+    unchanged++;
+  }
+
+  synchronized void recordRehashed() {
+    files++;
+    rehashed++;
+  }
+
+  synchronized void recordUploaded() {
+    files++;
+    uploaded++;
+  }
+
+  synchronized void recordFailure(String path, RuntimeException error) {
+    files++;
+    failed++;
+    if (failures.size() < MAX_SAMPLES) {
+      failures.put(path, error);
+    }
+  }
+
+  /**
+   * Return the number of regular files found.
+   *
+   * @return the number of files.
+   */
+  public synchronized long getFiles() {
+    return files;
+  }
+
+  /**
+   * Return the number of files whose size and modification time matched the manifest, which were
+   * not read.
+   *
+   * @return the number unchanged.
+   */
+  public synchronized long getUnchanged() {
+    return unchanged;
+  }
+
+  /**
+   * Return the number of files that were touched but whose content hash matched the manifest, so
+   * were not uploaded.
+   *
+   * @return the number rehashed.
+   */
+  public synchronized long getRehashed() {
+    return rehashed;
+  }
+
+  /**
+   * Return the number of new or changed files stored as new documents.
+   *
+   * @return the number uploaded.
+   */
+  public synchronized long getUploaded() {
+    return uploaded;
+  }
+
+  /**
+   * Return the number of files that could not be read or stored. The next pass retries them.
+   *
+   * @return the number of failures.
+   */
+  public synchronized long getFailed() {
+    return failed;
+  }
+
+  /**
+   * Return the relative paths of the first {@link #MAX_SAMPLES} files that could not be read or
+   * stored, with their errors.
+   *
+   * @return the sample failures, in the order found.
+   */
+  public synchronized Map<String, RuntimeException> getFailures() {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "SyncReport(files=%d, unchanged=%d, rehashed=%d, uploaded=%d, failed=%d)",
+        files, unchanged, rehashed, uploaded, failed);
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of a background job's operations across its threads, without allowing bursts to
+ * build up while idle.
+ */
+final class Throttle {
+  private final long intervalNanos;
+  private long next = System.nanoTime();
+
+  /**
+   * Construct a throttle.
+   *
+   * @param perSecond the most operations to allow per second, or {@code 0} for no limit.
+   */
+  Throttle(double perSecond) {
+    this.intervalNanos = perSecond == 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+  }
+
+  /** Wait until the next operation is allowed. */
+  void acquire() {
+    if (intervalNanos == 0) {
+      return;
+    }
+    long wait;
+    synchronized (this) {
+      long now = System.nanoTime();
+      next = Math.max(next, now);
+      wait = next - now;
+      next += intervalNanos;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DocumentBucketException("Interrupted while throttled!", e);
+    }
+  }
+}
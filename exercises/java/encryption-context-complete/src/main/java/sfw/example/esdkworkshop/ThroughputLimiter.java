@@ -0,0 +1,103 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Paces calls to DynamoDB by the capacity units they consume, with a token bucket shared by every
+ * thread. The bucket refills at the configured rate and holds at most one second's worth. A call
+ * waits while the bucket is in debt, then reserves the units a call usually consumes; once the call
+ * returns, the reservation is settled against the capacity that DynamoDB reports it consumed, so
+ * that a large scan page puts later calls in debt rather than going unpaced.
+ *
+ * <p>A throttled call empties the bucket, since DynamoDB has just said that the rate is too high
+ * for now. Calls whose consumed capacity is not reported keep their reservation.
+ */
+class ThroughputLimiter {
+  /** The weight of each call's consumed capacity in the usual consumption. */
+  private static final double ESTIMATE_SMOOTHING = 0.1;
+  /** The least a call is expected to consume: one eventually consistent read. */
+  private static final double MIN_ESTIMATE = 0.5;
+
+  private final String name;
+  private final double unitsPerSecond;
+  private double tokens;
+  private long refilledAt = System.nanoTime();
+  private double estimate = 1;
+
+  /**
+   * Construct a limiter for one kind of capacity.
+   *
+   * @param name the name of the capacity, for error messages.
+   * @param unitsPerSecond the capacity units to allow per second.
+   */
+  ThroughputLimiter(String name, double unitsPerSecond) {
+    this.name = name;
+    this.unitsPerSecond = unitsPerSecond;
+    this.tokens = unitsPerSecond;
+  }
+
+  /**
+   * Make a call once the bucket allows it, and settle its reservation.
+   *
+   * @param <T> the result type of the call.
+   * @param call the call to make.
+   * @param consumed the capacity units a result reports it consumed, or NaN if it does not.
+   * @return the result of the call.
+   */
+  <T> T call(Supplier<T> call, ToDoubleFunction<T> consumed) {
+    double reserved = acquire();
+    T result;
+    try {
+      result = call.get();
+    } catch (RuntimeException e) {
+      if (AdaptiveLimiter.isThrottling(e)) {
+        drain();
+      }
+      throw e;
+    }
+    settle(reserved, consumed.applyAsDouble(result));
+    return result;
+  }
+
+  private synchronized double acquire() {
+    refill();
+    try {
+      while (tokens < 0) {
+        long waitNanos = (long) (-tokens / unitsPerSecond * 1e9) + 1;
+        wait(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        refill();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DocumentBucketException(
+          String.format("Interrupted while waiting for %s capacity!", name), e);
+    }
+    tokens -= estimate;
+    return estimate;
+  }
+
+  private synchronized void settle(double reserved, double actual) {
+    if (Double.isNaN(actual)) {
+      return;
+    }
+    tokens -= actual - reserved;
+    estimate =
+        Math.max(MIN_ESTIMATE, (1 - ESTIMATE_SMOOTHING) * estimate + ESTIMATE_SMOOTHING * actual);
+    notifyAll();
+  }
+
+  private synchronized void drain() {
+    refill();
+    tokens = Math.min(tokens, 0);
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    tokens = Math.min(unitsPerSecond, tokens + (now - refilledAt) / 1e9 * unitsPerSecond);
+    refilledAt = now;
+  }
+}
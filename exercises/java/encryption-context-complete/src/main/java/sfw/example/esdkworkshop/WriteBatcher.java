@@ -0,0 +1,179 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import sfw.example.esdkworkshop.datamodel.BaseItem;
+
+/**
+ * Collects item writes from concurrent callers into shared {@code BatchWriteItem} requests, so that
+ * a burst of stores costs one DynamoDB request per {@link Api#MAX_BATCH_WRITE} items rather than
+ * one each. A batch is written once it is full, or once its first item has waited for the linger
+ * time, whichever comes first. Each caller's future is completed once its own item is written, or
+ * failed if it was still unprocessed after retrying.
+ *
+ * <p>The linger timer only hands lingering batches to a small pool of writer threads of the
+ * batcher's own, so that one slow write holds up neither the timer nor other batches. They are not
+ * written on the {@link Api}'s executor, since every thread of a bounded executor may be blocked in
+ * a {@code store} waiting for them. A lingering batch is written in the {@link Lane} and cost
+ * operation and {@link CostTag} of the call that started it.
+ */
+class WriteBatcher {
+  static final int LINGER_WRITERS = 4;
+  private static final ScheduledExecutorService LINGER_TIMER =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "document-bucket-write-linger-timer");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final Api api;
+  private final Duration linger;
+  private final ThreadPoolExecutor lingerWriters = lingerWriters("document-bucket-write-linger");
+  private Batch open = null;
+
+  /**
+   * Construct a batcher that writes items through the provided {@link Api}.
+   *
+   * @param api the {@link Api} to write batches with.
+   * @param linger the longest time an item waits for its batch to fill.
+   */
+  WriteBatcher(Api api, Duration linger) {
+    this.api = api;
+    this.linger = linger;
+  }
+
+  /**
+   * Add an item to the open batch.
+   *
+   * @param item the DynamoDB item to write.
+   * @return a future completed once the item is written.
+   */
+  CompletableFuture<Void> add(Map<String, AttributeValue> item) {
+    List<Batch> full = new ArrayList<>();
+    CompletableFuture<Void> written;
+    synchronized (this) {
+      if (open != null && open.keys.contains(keyOf(item))) {
+        // A batch may not write the same key twice, so the earlier write goes first
+        full.add(open);
+        open = null;
+      }
+      if (open == null) {
+        open = startBatch();
+      }
+      written = open.add(item);
+      if (open.items.size() >= Api.MAX_BATCH_WRITE) {
+        full.add(open);
+        open = null;
+      }
+    }
+    for (Batch batch : full) {
+      // The filling thread would otherwise wait for the write anyway
+      batch.lingerTimeout.cancel(false);
+      write(batch);
+    }
+    return written;
+  }
+
+  private Batch startBatch() {
+    Batch batch = new Batch();
+    Runnable write = CostAccounting.capture(Lane.capture(() -> writeLingering(batch)));
+    batch.lingerTimeout =
+        LINGER_TIMER.schedule(
+            () -> lingerWriters.execute(write), linger.toNanos(), TimeUnit.NANOSECONDS);
+    return batch;
+  }
+
+  /**
+   * Create a pool of {@link #LINGER_WRITERS} threads for lingering writes, which exit again once
+   * idle.
+   *
+   * @param name the name of the threads.
+   * @return the pool.
+   */
+  static ThreadPoolExecutor lingerWriters(String name) {
+    ThreadPoolExecutor writers =
+        new ThreadPoolExecutor(
+            LINGER_WRITERS,
+            LINGER_WRITERS,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, name);
+              thread.setDaemon(true);
+              return thread;
+            });
+    writers.allowCoreThreadTimeOut(true);
+    return writers;
+  }
+
+  private void writeLingering(Batch batch) {
+    synchronized (this) {
+      if (open != batch) {
+        // Already written because it filled up
+        return;
+      }
+      open = null;
+    }
+    write(batch);
+  }
+
+  private void write(Batch batch) {
+    Set<List<AttributeValue>> unprocessed = new HashSet<>();
+    try {
+      for (Map<String, AttributeValue> item : api.batchPutItems(batch.items)) {
+        unprocessed.add(keyOf(item));
+      }
+    } catch (RuntimeException e) {
+      batch.written.forEach(written -> written.completeExceptionally(e));
+      return;
+    }
+    for (int i = 0; i < batch.items.size(); i++) {
+      if (unprocessed.contains(keyOf(batch.items.get(i)))) {
+        batch
+            .written
+            .get(i)
+            .completeExceptionally(
+                new DocumentBucketException(
+                    "Item was still unprocessed after retrying!", new IllegalStateException()));
+      } else {
+        batch.written.get(i).complete(null);
+      }
+    }
+  }
+
+  private static List<AttributeValue> keyOf(Map<String, AttributeValue> item) {
+    return List.of(item.get(BaseItem.partitionKeyName()), item.get(BaseItem.sortKeyName()));
+  }
+
+  /** A batch being filled, guarded by the batcher's lock until it is handed off for writing. */
+  private static final class Batch {
+    private final List<Map<String, AttributeValue>> items = new ArrayList<>();
+    private final Set<List<AttributeValue>> keys = new HashSet<>();
+    private final List<CompletableFuture<Void>> written = new ArrayList<>();
+    private ScheduledFuture<?> lingerTimeout;
+
+    private CompletableFuture<Void> add(Map<String, AttributeValue> item) {
+      items.add(item);
+      keys.add(keyOf(item));
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      written.add(future);
+      return future;
+    }
+  }
+}
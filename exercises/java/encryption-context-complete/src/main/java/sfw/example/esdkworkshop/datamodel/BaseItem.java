@@ -4,7 +4,6 @@
 package sfw.example.esdkworkshop.datamodel;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import sfw.example.esdkworkshop.Config;
@@ -27,6 +26,11 @@ public abstract class BaseItem {
     this.sortKey = new AttributeValue(sortKey);
   }
 
+  BaseItem(AttributeValue partitionKey, AttributeValue sortKey) {
+    this.partitionKey = partitionKey;
+    this.sortKey = sortKey;
+  }
+
   /**
    * Transform this modeled item into a DynamoDB item ready to write to the table.
    *
@@ -34,7 +38,18 @@ public abstract class BaseItem {
    *     write.
    */
   public Map<String, AttributeValue> toItem() {
-    Map<String, AttributeValue> item = new HashMap<>();
+    return keyItem(0);
+  }
+
+  /**
+   * Return a new item holding this item's key attributes, sized so that subclasses can add the
+   * provided number of further attributes without resizing it.
+   *
+   * @param otherAttributes the number of attributes to be added.
+   * @return the item, holding only the partition and sort keys.
+   */
+  protected Map<String, AttributeValue> keyItem(int otherAttributes) {
+    Map<String, AttributeValue> item = ItemCodec.newMap(otherAttributes + 2);
     item.put(PARTITION_KEY_NAME, partitionKey);
     item.put(SORT_KEY_NAME, sortKey);
     return item;
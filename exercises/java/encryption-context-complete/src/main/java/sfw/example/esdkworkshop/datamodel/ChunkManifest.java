@@ -0,0 +1,220 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes a document stored in the chunked layout. The document's plaintext is split into
+ * fixed-size chunks, each encrypted as its own message and stored under {@link #chunkKey(String,
+ * int)}. The manifest itself is stored under the document's key, in place of a single message.
+ *
+ * <p>Each chunk's encryption context is the document's context plus {@link #CHUNK_DOCUMENT_KEY},
+ * {@link #CHUNK_INDEX_KEY} and {@link #CHUNK_COUNT_KEY}, so chunks cannot be reordered, dropped, or
+ * moved between documents without failing {@link #checkChunkContext(String, int, Map)}.
+ */
+public class ChunkManifest {
+  public static final String CHUNK_DOCUMENT_KEY = "docbucket-chunk-document";
+  public static final String CHUNK_INDEX_KEY = "docbucket-chunk-index";
+  public static final String CHUNK_COUNT_KEY = "docbucket-chunk-count";
+  // Cannot be confused with a message, whose first byte is its format version
+  private static final byte[] MAGIC = "DBCHUNKS".getBytes(StandardCharsets.US_ASCII);
+  private static final int SERIALIZED_LENGTH = MAGIC.length + Integer.BYTES * 2 + Long.BYTES;
+  private final int chunkSize;
+  private final int chunkCount;
+  private final long length;
+
+  ChunkManifest(int chunkSize, int chunkCount, long length) {
+    if (chunkSize <= 0 || chunkCount < 0 || length < 0) {
+      throw new DataModelException(
+          String.format(
+              "Invalid chunk manifest (chunkSize %d, chunkCount %d, length %d)!",
+              chunkSize, chunkCount, length));
+    }
+    this.chunkSize = chunkSize;
+    this.chunkCount = chunkCount;
+    this.length = length;
+  }
+
+  /**
+   * Return a new {@link ChunkManifest} for a document of the provided length.
+   *
+   * @param length the plaintext length of the document.
+   * @param chunkSize the plaintext size of each chunk but the last.
+   * @return a new {@link ChunkManifest} for that document.
+   */
+  public static ChunkManifest forLength(long length, int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new DataModelException(String.format("Invalid chunk size %d!", chunkSize));
+    }
+    long chunkCount = (length + chunkSize - 1) / chunkSize;
+    if (chunkCount > Integer.MAX_VALUE) {
+      throw new DataModelException(
+          String.format("Too many chunks (%d) for chunk size %d!", chunkCount, chunkSize));
+    }
+    return new ChunkManifest(chunkSize, (int) chunkCount, length);
+  }
+
+  /**
+   * Check whether the provided stored object is a chunk manifest rather than a message.
+   *
+   * @param stored the stored object bytes.
+   * @return {@code true} if the bytes are a serialized {@link ChunkManifest}.
+   */
+  public static boolean isManifest(byte[] stored) {
+    return stored.length == SERIALIZED_LENGTH
+        && Arrays.equals(stored, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+  }
+
+  /**
+   * Parse a serialized {@link ChunkManifest}.
+   *
+   * @param stored the stored object bytes.
+   * @return the parsed {@link ChunkManifest}.
+   */
+  public static ChunkManifest fromBytes(byte[] stored) {
+    if (!isManifest(stored)) {
+      throw new DataModelException("Stored object is not a chunk manifest!");
+    }
+    ChunkManifest manifest;
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(stored, MAGIC.length, stored.length - MAGIC.length);
+      manifest = new ChunkManifest(buffer.getInt(), buffer.getInt(), buffer.getLong());
+    } catch (BufferUnderflowException e) {
+      throw new DataModelException("Truncated chunk manifest!");
+    }
+    if (manifest.chunkCount != forLength(manifest.length, manifest.chunkSize).chunkCount) {
+      throw new DataModelException("Chunk count does not match the manifest's length!");
+    }
+    return manifest;
+  }
+
+  /**
+   * Serialize this manifest for storage.
+   *
+   * @return the serialized manifest.
+   */
+  public byte[] toBytes() {
+    return ByteBuffer.allocate(SERIALIZED_LENGTH)
+        .put(MAGIC)
+        .putInt(chunkSize)
+        .putInt(chunkCount)
+        .putLong(length)
+        .array();
+  }
+
+  /**
+   * Return the storage key of a chunk of a document.
+   *
+   * @param documentKey the document's key.
+   * @param index the index of the chunk.
+   * @return the key under which that chunk is stored.
+   */
+  public static String chunkKey(String documentKey, int index) {
+    return documentKey + "/" + index;
+  }
+
+  /**
+   * Return the encryption context for a chunk of a document.
+   *
+   * @param documentKey the document's key.
+   * @param context the document's context.
+   * @param index the index of the chunk.
+   * @return the encryption context for that chunk.
+   */
+  public Map<String, String> chunkContext(
+      String documentKey, Map<String, String> context, int index) {
+    Map<String, String> result = new HashMap<>(context.size() + 3);
+    result.putAll(context);
+    result.put(CHUNK_DOCUMENT_KEY, documentKey);
+    result.put(CHUNK_INDEX_KEY, Integer.toString(index));
+    result.put(CHUNK_COUNT_KEY, Integer.toString(chunkCount));
+    return result;
+  }
+
+  /**
+   * Check that a decrypted chunk's encryption context matches its position in this manifest.
+   *
+   * @param documentKey the document's key.
+   * @param index the index at which the chunk was expected.
+   * @param chunkContext the decrypted chunk's encryption context.
+   * @return the document's context, without the chunk entries.
+   */
+  public Map<String, String> checkChunkContext(
+      String documentKey, int index, Map<String, String> chunkContext) {
+    if (!documentKey.equals(chunkContext.get(CHUNK_DOCUMENT_KEY))
+        || !Integer.toString(index).equals(chunkContext.get(CHUNK_INDEX_KEY))
+        || !Integer.toString(chunkCount).equals(chunkContext.get(CHUNK_COUNT_KEY))) {
+      throw new DataModelException(
+          String.format("Chunk %d does not belong at this position in %s!", index, documentKey));
+    }
+    Map<String, String> result = new HashMap<>(chunkContext);
+    result.remove(CHUNK_DOCUMENT_KEY);
+    result.remove(CHUNK_INDEX_KEY);
+    result.remove(CHUNK_COUNT_KEY);
+    return result;
+  }
+
+  /**
+   * Return the plaintext offset at which a chunk starts.
+   *
+   * @param index the index of the chunk.
+   * @return the offset of the chunk within the document.
+   */
+  public long chunkOffset(int index) {
+    return (long) index * chunkSize;
+  }
+
+  /**
+   * Return the plaintext length of a chunk.
+   *
+   * @param index the index of the chunk.
+   * @return the length of that chunk.
+   */
+  public int chunkLength(int index) {
+    return (int) Math.min(chunkSize, length - chunkOffset(index));
+  }
+
+  /**
+   * Return the index of the chunk containing the provided plaintext offset.
+   *
+   * @param offset the offset within the document.
+   * @return the index of the chunk containing it.
+   */
+  public int chunkAt(long offset) {
+    return (int) (offset / chunkSize);
+  }
+
+  /**
+   * Return the plaintext size of each chunk but the last.
+   *
+   * @return the chunk size.
+   */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Return the number of chunks in the document.
+   *
+   * @return the chunk count.
+   */
+  public int getChunkCount() {
+    return chunkCount;
+  }
+
+  /**
+   * Return the plaintext length of the document.
+   *
+   * @return the document length.
+   */
+  public long getLength() {
+    return length;
+  }
+}
@@ -0,0 +1,214 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable encryption context held as two parallel arrays, the keys sorted, for pointers kept
+ * in memory in large numbers. Compared with a {@link java.util.HashMap} of {@link AttributeValue}s
+ * there is no table, no entry per pair and no wrapper per value; and context keys, which repeat
+ * across documents, are interned in a table shared by all contexts, so each distinct key is held
+ * once rather than once per pointer. Lookups are binary searches, which for contexts of a handful
+ * of entries are as fast as hashing.
+ *
+ * <p>Any attempt to modify the map throws {@link UnsupportedOperationException}.
+ */
+final class CompactContext extends AbstractMap<String, String> {
+  static final CompactContext EMPTY = new CompactContext(new String[0], new String[0]);
+  /** Bound on the shared key table, so that unusual callers cannot grow it without limit. */
+  private static final int MAX_INTERNED_KEYS = 10_000;
+
+  private static final Map<String, String> INTERNED_KEYS = new ConcurrentHashMap<>();
+
+  private final String[] keys;
+  private final String[] values;
+
+  private CompactContext(String[] keys, String[] values) {
+    this.keys = keys;
+    this.values = values;
+  }
+
+  /**
+   * Return a compact copy of the provided encryption context.
+   *
+   * @param context the encryption context.
+   * @return the compact context.
+   */
+  static CompactContext copyOf(Map<String, String> context) {
+    if (context instanceof CompactContext) {
+      return (CompactContext) context;
+    }
+    if (context.isEmpty()) {
+      return EMPTY;
+    }
+    Builder builder = new Builder(context.size());
+    for (Map.Entry<String, String> entry : context.entrySet()) {
+      builder.put(entry.getKey(), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Return a compact copy of the provided context attributes.
+   *
+   * @param attributes the context attributes.
+   * @return the compact context.
+   */
+  static CompactContext fromAttributes(Map<String, AttributeValue> attributes) {
+    if (attributes.isEmpty()) {
+      return EMPTY;
+    }
+    Builder builder = new Builder(attributes.size());
+    for (Map.Entry<String, AttributeValue> entry : attributes.entrySet()) {
+      builder.put(entry.getKey(), entry.getValue().getS());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Add this context to an item as string attributes.
+   *
+   * @param item the item to add to.
+   */
+  void encodeTo(Map<String, AttributeValue> item) {
+    for (int i = 0; i < keys.length; i++) {
+      item.put(keys[i], new AttributeValue(values[i]));
+    }
+  }
+
+  private static String intern(String key) {
+    String interned = INTERNED_KEYS.get(key);
+    if (interned != null) {
+      return interned;
+    }
+    if (INTERNED_KEYS.size() >= MAX_INTERNED_KEYS) {
+      return key;
+    }
+    interned = INTERNED_KEYS.putIfAbsent(key, key);
+    return interned == null ? key : interned;
+  }
+
+  private int indexOf(Object key) {
+    if (!(key instanceof String)) {
+      return -1;
+    }
+    return Arrays.binarySearch(keys, key);
+  }
+
+  @Override
+  public int size() {
+    return keys.length;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public String get(Object key) {
+    int index = indexOf(key);
+    return index < 0 ? null : values[index];
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super String, ? super String> action) {
+    for (int i = 0; i < keys.length; i++) {
+      action.accept(keys[i], values[i]);
+    }
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < keys.length;
+          }
+
+          @Override
+          public Map.Entry<String, String> next() {
+            if (next >= keys.length) {
+              throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry =
+                new AbstractMap.SimpleImmutableEntry<>(keys[next], values[next]);
+            next++;
+            return entry;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return keys.length;
+      }
+    };
+  }
+
+  /** Collects context entries, in any order, into a compact context. */
+  static final class Builder {
+    private final String[] keys;
+    private final String[] values;
+    private int size = 0;
+
+    /**
+     * Construct a builder for at most the provided number of entries.
+     *
+     * @param capacity the maximum number of entries.
+     */
+    Builder(int capacity) {
+      keys = new String[capacity];
+      values = new String[capacity];
+    }
+
+    /**
+     * Add an entry, keeping the keys sorted. Contexts are small, so an insertion sort is cheapest.
+     *
+     * @param key the context key, which must not already have been added.
+     * @param value the context value.
+     */
+    void put(String key, String value) {
+      int index = size;
+      while (index > 0 && keys[index - 1].compareTo(key) > 0) {
+        keys[index] = keys[index - 1];
+        values[index] = values[index - 1];
+        index--;
+      }
+      keys[index] = intern(key);
+      values[index] = value;
+      size++;
+    }
+
+    /**
+     * Return the context built so far.
+     *
+     * @return the compact context.
+     */
+    CompactContext build() {
+      if (size == 0) {
+        return EMPTY;
+      }
+      if (size == keys.length) {
+        return new CompactContext(keys, values);
+      }
+      return new CompactContext(Arrays.copyOf(keys, size), Arrays.copyOf(values, size));
+    }
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of document plaintext before it is encrypted. Ciphertext does not compress, so this
+ * is the only point at which compressible documents can be made smaller.
+ *
+ * <p>A compressed document carries {@link #CONTEXT_KEY} in its encryption context, naming the
+ * codec. Because the encryption context is authenticated, the flag cannot be added or removed
+ * without failing decryption.
+ */
+public final class Compression {
+  public static final String CONTEXT_KEY = "docbucket-compression";
+  public static final String DEFLATE = "deflate";
+  // Below this, the deflate framing and the decompression on retrieve cost more than they save
+  static final int MIN_LENGTH = 512;
+  static final int SAMPLE_LENGTH = 4096;
+  private static final int SAMPLE_COUNT = 3;
+  // Compressed documents must save at least a tenth of their size
+  private static final double MAX_RATIO = 0.9;
+
+  private Compression() {
+    // Static helpers only
+  }
+
+  /**
+   * Compress the provided document if it is worth doing so. Short documents are skipped, and for
+   * longer documents a few samples are compressed first, so that incompressible data (such as
+   * images or already-compressed archives) costs a fraction of a full compression pass.
+   *
+   * @param data the document plaintext.
+   * @return the compressed document, or {@code null} if it is not worth compressing.
+   */
+  public static byte[] tryCompress(byte[] data) {
+    if (data.length < MIN_LENGTH) {
+      return null;
+    }
+    if (data.length > SAMPLE_LENGTH * SAMPLE_COUNT && !samplesCompress(data)) {
+      return null;
+    }
+    byte[] compressed = deflate(data, Deflater.BEST_SPEED);
+    return compressed.length <= data.length * MAX_RATIO ? compressed : null;
+  }
+
+  private static boolean samplesCompress(byte[] data) {
+    long sampled = 0;
+    long compressed = 0;
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    byte[] buffer = new byte[SAMPLE_LENGTH * 2];
+    try {
+      // Sample the start, middle and end, which differ for e.g. a header followed by a payload
+      long stride = (data.length - SAMPLE_LENGTH) / (SAMPLE_COUNT - 1);
+      for (int i = 0; i < SAMPLE_COUNT; i++) {
+        deflater.reset();
+        deflater.setInput(data, (int) (i * stride), SAMPLE_LENGTH);
+        deflater.finish();
+        sampled += SAMPLE_LENGTH;
+        while (!deflater.finished()) {
+          compressed += deflater.deflate(buffer);
+        }
+      }
+    } finally {
+      deflater.end();
+    }
+    return compressed <= sampled * MAX_RATIO;
+  }
+
+  /**
+   * Return a copy of the provided encryption context, flagged as compressed with the default codec.
+   *
+   * @param context the document's context.
+   * @return the encryption context for the compressed document.
+   */
+  public static Map<String, String> flag(Map<String, String> context) {
+    Map<String, String> result = new HashMap<>(context.size() + 1);
+    result.putAll(context);
+    result.put(CONTEXT_KEY, DEFLATE);
+    return result;
+  }
+
+  /**
+   * Decompress a decrypted document if its encryption context says it was compressed, and remove
+   * the flag from the context.
+   *
+   * @param data the decrypted plaintext.
+   * @param context the message's encryption context, which this removes the flag from.
+   * @return the document.
+   */
+  public static byte[] decompress(byte[] data, Map<String, String> context) {
+    String codec = context.remove(CONTEXT_KEY);
+    if (codec == null) {
+      return data;
+    }
+    if (!DEFLATE.equals(codec)) {
+      throw new DataModelException(String.format("Unknown compression codec %s!", codec));
+    }
+    return inflate(data);
+  }
+
+  /**
+   * Compress the provided bytes with deflate.
+   *
+   * @param data the bytes to compress.
+   * @param level the {@link Deflater} compression level.
+   * @return the compressed bytes.
+   */
+  public static byte[] deflate(byte[] data, int level) {
+    Deflater deflater = new Deflater(level);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 2 + 64);
+      byte[] buffer = new byte[Math.min(data.length + 64, 64 * 1024)];
+      while (!deflater.finished()) {
+        result.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return result.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Decompress the provided deflate-compressed bytes.
+   *
+   * @param data the compressed bytes.
+   * @return the decompressed bytes.
+   */
+  public static byte[] inflate(byte[] data) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data);
+      ByteArrayOutputStream result = new ByteArrayOutputStream(data.length * 4);
+      byte[] buffer = new byte[64 * 1024];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataModelException("Compressed document is truncated!");
+        }
+        result.write(buffer, 0, length);
+      }
+      return result.toByteArray();
+    } catch (DataFormatException e) {
+      throw new DataModelException("Compressed document is corrupt: " + e.getMessage());
+    } finally {
+      inflater.end();
+    }
+  }
+}
@@ -0,0 +1,241 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import sfw.example.esdkworkshop.Config;
+
+/**
+ * The binary form of an encryption context, stored by a {@link PointerItem} as a single attribute
+ * rather than one string attribute per entry. Stored as attributes, every context key is spelled
+ * out in every item; in binary form, keys in common use are coded in a byte or two, so pointer
+ * items are smaller and every read and write of them cheaper.
+ *
+ * <p>The layout (version 1) is:
+ *
+ * <pre>
+ * byte     version
+ * varint   number of entries
+ * for each entry, in key order:
+ *   varint   key tag: 0 for a literal key, or n for the nth key of the dictionary
+ *   varint   key length, then the key in UTF-8, for a literal key only
+ *   varint   value length, then the value in UTF-8
+ * </pre>
+ *
+ * <p>Varints are unsigned LEB128. The dictionary is the configured list of common context keys. As
+ * DynamoDB charges only for names and values, a literal key costs two bytes more in binary form
+ * than as an attribute, and only dictionary keys make the binary form smaller; {@link
+ * #isSmaller(CompactContext, String)} tells which form to write. The dictionary should list the
+ * keys the application always sets. It can only ever be appended to, since stored contexts refer to
+ * it by position.
+ */
+final class ContextEncoding {
+  static final byte VERSION = 1;
+  private static final List<String> DICTIONARY =
+      Config.contents.document_bucket.document_table.context_dictionary == null
+          ? Collections.emptyList()
+          : Collections.unmodifiableList(
+              new ArrayList<>(Config.contents.document_bucket.document_table.context_dictionary));
+  private static final Map<String, Integer> TAGS = new HashMap<>();
+
+  static {
+    for (int i = 0; i < DICTIONARY.size(); i++) {
+      TAGS.put(DICTIONARY.get(i), i + 1);
+    }
+  }
+
+  private ContextEncoding() {
+    // Static helpers only
+  }
+
+  /**
+   * Encode the provided context.
+   *
+   * @param context the encryption context.
+   * @return the encoded context.
+   */
+  static byte[] encode(CompactContext context) {
+    int size = 1 + varintSize(context.size());
+    int entry = 0;
+    byte[][] keys = new byte[context.size()][];
+    byte[][] values = new byte[context.size()][];
+    for (Map.Entry<String, String> pair : context.entrySet()) {
+      Integer tag = TAGS.get(pair.getKey());
+      if (tag == null) {
+        keys[entry] = pair.getKey().getBytes(StandardCharsets.UTF_8);
+        size += 1 + varintSize(keys[entry].length) + keys[entry].length;
+      } else {
+        size += varintSize(tag);
+      }
+      values[entry] = pair.getValue().getBytes(StandardCharsets.UTF_8);
+      size += varintSize(values[entry].length) + values[entry].length;
+      entry++;
+    }
+    ByteBuffer out = ByteBuffer.allocate(size);
+    out.put(VERSION);
+    putVarint(out, context.size());
+    entry = 0;
+    for (String key : context.keySet()) {
+      if (keys[entry] == null) {
+        putVarint(out, TAGS.get(key));
+      } else {
+        putVarint(out, 0);
+        putBytes(out, keys[entry]);
+      }
+      putBytes(out, values[entry]);
+      entry++;
+    }
+    return out.array();
+  }
+
+  /**
+   * Check whether the provided context is smaller encoded, as a binary attribute of the provided
+   * name, than as one string attribute per entry. Both sizes are as DynamoDB counts them: the UTF-8
+   * bytes of every attribute name and value.
+   *
+   * @param context the encryption context.
+   * @param attributeName the name of the binary attribute.
+   * @return {@code true} if the binary form is strictly smaller.
+   */
+  static boolean isSmaller(CompactContext context, String attributeName) {
+    int attributes = 0;
+    int encoded = utf8Length(attributeName) + 1 + varintSize(context.size());
+    for (Map.Entry<String, String> pair : context.entrySet()) {
+      int key = utf8Length(pair.getKey());
+      int value = utf8Length(pair.getValue());
+      attributes += key + value;
+      Integer tag = TAGS.get(pair.getKey());
+      encoded += tag == null ? 1 + varintSize(key) + key : varintSize(tag);
+      encoded += varintSize(value) + value;
+    }
+    return encoded < attributes;
+  }
+
+  /**
+   * Decode a context encoded by {@link #encode(CompactContext)}.
+   *
+   * @param encoded the encoded context, which is not modified.
+   * @return the encryption context.
+   * @throws DataModelException if the encoding is malformed, or of an unknown version.
+   */
+  static CompactContext decode(ByteBuffer encoded) {
+    ByteBuffer in = encoded.duplicate();
+    try {
+      byte version = in.get();
+      if (version != VERSION) {
+        throw new DataModelException(
+            String.format("Unknown encryption context encoding version %d!", version));
+      }
+      int count = getVarint(in);
+      if (count > in.remaining()) {
+        throw new DataModelException("Encryption context encoding is truncated!");
+      }
+      CompactContext.Builder builder = new CompactContext.Builder(count);
+      String previous = null;
+      for (int i = 0; i < count; i++) {
+        int tag = getVarint(in);
+        String key;
+        if (tag == 0) {
+          key = getString(in);
+        } else if (tag <= DICTIONARY.size()) {
+          key = DICTIONARY.get(tag - 1);
+        } else {
+          throw new DataModelException(
+              String.format("Unknown encryption context dictionary key %d!", tag));
+        }
+        if (previous != null && previous.compareTo(key) >= 0) {
+          throw new DataModelException("Encryption context encoding is out of order!");
+        }
+        builder.put(key, getString(in));
+        previous = key;
+      }
+      if (in.hasRemaining()) {
+        throw new DataModelException("Encryption context encoding has trailing bytes!");
+      }
+      return builder.build();
+    } catch (BufferUnderflowException e) {
+      throw new DataModelException("Encryption context encoding is truncated!");
+    }
+  }
+
+  private static int utf8Length(String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        // The pair is one four-byte code point
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static int varintSize(int value) {
+    int size = 1;
+    while ((value >>>= 7) != 0) {
+      size++;
+    }
+    return size;
+  }
+
+  private static void putVarint(ByteBuffer out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  private static void putBytes(ByteBuffer out, byte[] bytes) {
+    putVarint(out, bytes.length);
+    out.put(bytes);
+  }
+
+  private static int getVarint(ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new DataModelException("Encryption context encoding has a malformed length!");
+  }
+
+  private static String getString(ByteBuffer in) {
+    int length = getVarint(in);
+    if (length > in.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    String result;
+    if (in.hasArray()) {
+      result =
+          new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+      in.position(in.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      result = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return result;
+  }
+}
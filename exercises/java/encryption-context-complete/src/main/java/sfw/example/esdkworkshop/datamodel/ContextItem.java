@@ -21,6 +21,10 @@ public class ContextItem extends BaseItem {
     super(contextKey, objectTarget.toString());
   }
 
+  private ContextItem(String contextKey, String objectTarget) {
+    super(contextKey, objectTarget);
+  }
+
   /**
    * Ensure that the provided key is in canonical form as a {@code ContextItem} partition key.
    *
@@ -59,8 +63,7 @@ public class ContextItem extends BaseItem {
    * @return a new {@link ContextItem} for that context key and pointer target.
    */
   public static ContextItem fromContext(String key, String objectTarget) {
-    UuidKey target = new UuidKey(objectTarget);
-    return new ContextItem(canonicalize(key), target);
+    return new ContextItem(canonicalize(key), ItemCodec.checkKey(objectTarget));
   }
 
   /**
@@ -85,6 +88,19 @@ public class ContextItem extends BaseItem {
     return fromContext(key, objectTarget.getS());
   }
 
+  /**
+   * Check whether a DynamoDB item from this table is a context record, for example when scanning.
+   *
+   * @param item the DynamoDB item.
+   * @return {@code true} if the item is a {@link ContextItem}.
+   */
+  public static boolean isContextItem(Map<String, AttributeValue> item) {
+    AttributeValue partitionKey = item.get(partitionKeyName());
+    return partitionKey != null
+        && partitionKey.getS() != null
+        && partitionKey.getS().startsWith(PREFIX);
+  }
+
   /**
    * Helper function to transform a DynamoDB item into a modeled {@link ContextItem}.
    *
@@ -48,7 +48,21 @@ public class DocumentBundle {
    * @return a new {@link DocumentBundle} for storage in the Document Bucket.
    */
   public static DocumentBundle fromDataAndContext(byte[] data, Map<String, String> context) {
-    return new DocumentBundle(data, PointerItem.generate(context));
+    return fromDataAndContext(data, context, KeyGenerator.defaultGenerator());
+  }
+
+  /**
+   * Construct a new Document Bucket bundle from the provided data and context, keyed by the
+   * provided {@link KeyGenerator}.
+   *
+   * @param data the data for this bundle.
+   * @param context the context for this document bundle.
+   * @param generator the source of the new document key.
+   * @return a new {@link DocumentBundle} for storage in the Document Bucket.
+   */
+  public static DocumentBundle fromDataAndContext(
+      byte[] data, Map<String, String> context, KeyGenerator generator) {
+    return new DocumentBundle(data, PointerItem.generate(context, generator));
   }
 
   /**
@@ -0,0 +1,76 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Helpers for converting modeled items to and from DynamoDB items without needless allocation.
+ * Listing or scanning the table converts every item on every page, so maps are built at their final
+ * size and document keys are validated in place rather than parsed.
+ */
+final class ItemCodec {
+  private static final int KEY_LENGTH = 36;
+
+  private ItemCodec() {
+    // Static helpers only
+  }
+
+  /**
+   * Return the initial capacity for a {@link HashMap} that holds the provided number of entries
+   * without resizing.
+   *
+   * @param expectedSize the number of entries.
+   * @return the initial capacity.
+   */
+  static int capacityFor(int expectedSize) {
+    return (int) (expectedSize / 0.75f) + 1;
+  }
+
+  /**
+   * Return a new {@link HashMap} sized to hold the provided number of entries without resizing.
+   *
+   * @param <V> the type of the values.
+   * @param expectedSize the number of entries.
+   * @return the new map.
+   */
+  static <V> Map<String, V> newMap(int expectedSize) {
+    return new HashMap<>(capacityFor(expectedSize));
+  }
+
+  /**
+   * Check that the provided string is a valid document key, returning it in canonical form. Keys
+   * are normally generated by this application, so already canonical, and are checked without
+   * allocating; anything else is parsed as before.
+   *
+   * @param key the document key.
+   * @return the key, in canonical (lower case) form.
+   * @throws IllegalArgumentException if the key is not a valid {@link UUID}.
+   */
+  static String checkKey(String key) {
+    if (isCanonical(key)) {
+      return key;
+    }
+    return UUID.fromString(key).toString();
+  }
+
+  private static boolean isCanonical(String key) {
+    if (key.length() != KEY_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < KEY_LENGTH; i++) {
+      char c = key.charAt(i);
+      if (i == 8 || i == 13 || i == 18 || i == 23) {
+        if (c != '-') {
+          return false;
+        }
+      } else if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
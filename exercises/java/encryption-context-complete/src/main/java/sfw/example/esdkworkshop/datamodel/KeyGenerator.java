@@ -0,0 +1,30 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import java.util.UUID;
+
+/**
+ * Source of new document keys. See {@link RandomKeyGenerator} for the default random (version 4)
+ * keys and {@link TimeOrderedKeyGenerator} for time-ordered (version 7) keys. Any {@link UUID}
+ * produced by a generator must be parseable by {@link UuidKey}.
+ */
+public interface KeyGenerator {
+
+  /**
+   * Generate a new, unique document key.
+   *
+   * @return the new key.
+   */
+  UUID generate();
+
+  /**
+   * Return the generator used when no generator is supplied.
+   *
+   * @return the default {@link KeyGenerator}.
+   */
+  static KeyGenerator defaultGenerator() {
+    return RandomKeyGenerator.INSTANCE;
+  }
+}
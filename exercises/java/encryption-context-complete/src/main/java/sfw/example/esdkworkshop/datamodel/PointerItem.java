@@ -6,6 +6,9 @@ package sfw.example.esdkworkshop.datamodel;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -22,19 +25,65 @@ public class PointerItem extends BaseItem {
   protected static final String TARGET =
       Config.contents.document_bucket.document_table.object_target;
   protected static final AttributeValue ATTR_TARGET = new AttributeValue(TARGET);
-  private final Map<String, AttributeValue> context;
+  /** The name of the item attribute holding the ciphertext of documents stored inline. */
+  protected static final String INLINE_DATA_NAME = "docbucket-inline-data";
+  /** The name of the item attribute holding the location of documents packed into a segment. */
+  protected static final String SEGMENT_NAME = "docbucket-segment";
+  /** The name of the item attribute holding the number of chunks of chunked documents. */
+  protected static final String CHUNKS_NAME = "docbucket-chunks";
+  /** The name of the item attribute holding the time at which the document was stored. */
+  protected static final String CREATED_NAME = "docbucket-created";
+  /**
+   * The name of the item attribute holding the context in binary form, if it is stored so. It is
+   * kept short, as DynamoDB charges for it in every item that has it.
+   */
+  protected static final String CONTEXT_NAME = "_c";
+  /** Item attributes that describe how and when a document is stored, rather than its context. */
+  protected static final Set<String> STORAGE_NAMES =
+      Collections.unmodifiableSet(
+          new HashSet<>(
+              Arrays.asList(
+                  INLINE_DATA_NAME, SEGMENT_NAME, CHUNKS_NAME, CREATED_NAME, CONTEXT_NAME)));
+
+  /** The encryption context, immutable, so that it is shared by copies and returned as is. */
+  private final CompactContext context;
+
+  private final Map<String, AttributeValue> storage;
+  private final boolean binaryContext;
 
   protected PointerItem(UuidKey pointerTarget, Map<String, AttributeValue> context) {
-    super(pointerTarget.toString(), TARGET);
-    if (context.keySet().contains(PointerItem.partitionKeyName())
-        || context.keySet().contains(PointerItem.sortKeyName())) {
+    this(pointerTarget, context, Collections.emptyMap());
+  }
+
+  protected PointerItem(
+      UuidKey pointerTarget,
+      Map<String, AttributeValue> context,
+      Map<String, AttributeValue> storage) {
+    this(
+        new AttributeValue(pointerTarget.toString()),
+        CompactContext.fromAttributes(context),
+        storage,
+        false);
+  }
+
+  private PointerItem(
+      AttributeValue partitionKey,
+      CompactContext context,
+      Map<String, AttributeValue> storage,
+      boolean binaryContext) {
+    super(partitionKey, ATTR_TARGET);
+    if (context.containsKey(PointerItem.partitionKeyName())
+        || context.containsKey(PointerItem.sortKeyName())
+        || !Collections.disjoint(context.keySet(), STORAGE_NAMES)) {
       String err =
           String.format(
-              "Can't create an encryption context with reserved key %s or %s",
-              PointerItem.partitionKeyName(), PointerItem.sortKeyName());
+              "Can't create an encryption context with reserved key %s, %s or any of %s",
+              PointerItem.partitionKeyName(), PointerItem.sortKeyName(), STORAGE_NAMES);
       throw new IllegalArgumentException(err);
     }
     this.context = context;
+    this.storage = storage;
+    this.binaryContext = binaryContext;
   }
 
   /**
@@ -53,6 +102,16 @@ public class PointerItem extends BaseItem {
     return result;
   }
 
+  /**
+   * Check whether a DynamoDB item from this table is a pointer record, for example when scanning.
+   *
+   * @param item the DynamoDB item.
+   * @return {@code true} if the item is a {@link PointerItem}.
+   */
+  public static boolean isPointerItem(Map<String, AttributeValue> item) {
+    return ATTR_TARGET.equals(item.get(sortKeyName()));
+  }
+
   /**
    * Create a new pointer for a new Document Bucket document, with no associated context.
    *
@@ -69,7 +128,19 @@ public class PointerItem extends BaseItem {
    * @return a new {@link PointerItem} for a new document record.
    */
   public static PointerItem generate(Map<String, String> context) {
-    return fromKeyAndContext(new UuidKey().toString(), context);
+    return generate(context, KeyGenerator.defaultGenerator());
+  }
+
+  /**
+   * Create a new pointer for a Document Bucket document with the provided context, using the
+   * provided {@link KeyGenerator} for the new key.
+   *
+   * @param context the context for this document.
+   * @param generator the source of the new document key.
+   * @return a new {@link PointerItem} for a new document record.
+   */
+  public static PointerItem generate(Map<String, String> context, KeyGenerator generator) {
+    return fromKeyAndContext(new UuidKey(generator).toString(), context);
   }
 
   /**
@@ -80,35 +151,234 @@ public class PointerItem extends BaseItem {
    * @return the {@link PointerItem} for this record.
    */
   public static PointerItem fromKeyAndContext(String key, Map<String, String> context) {
-    Map<String, AttributeValue> attributeContext = new HashMap<>(context.size());
-
-    for (Map.Entry<String, String> entry : context.entrySet()) {
-      attributeContext.put(entry.getKey(), new AttributeValue(entry.getValue()));
-    }
-
-    return new PointerItem(new UuidKey(key), attributeContext);
+    return new PointerItem(
+        new AttributeValue(ItemCodec.checkKey(key)),
+        CompactContext.copyOf(context),
+        Collections.emptyMap(),
+        false);
   }
 
   /**
    * Retrieve the context for this document item that this record points to.
    *
-   * @return the context for this pointer's document.
+   * @return the context for this pointer's document, which cannot be modified.
    */
   public Map<String, String> getContext() {
-    Map<String, String> result = new HashMap<>(context.size());
-    for (Map.Entry<String, AttributeValue> entry : context.entrySet()) {
-      result.put(entry.getKey(), entry.getValue().getS());
+    return context;
+  }
+
+  /**
+   * Return a copy of this pointer that also holds the document's ciphertext, for documents small
+   * enough to be stored inline in the pointer item rather than in S3.
+   *
+   * @param ciphertext the document's encrypted message.
+   * @return a new {@link PointerItem} holding that ciphertext.
+   */
+  public PointerItem withInlineData(byte[] ciphertext) {
+    return withStorage(
+        INLINE_DATA_NAME,
+        new AttributeValue().withB(ByteBuffer.wrap(Arrays.copyOf(ciphertext, ciphertext.length))));
+  }
+
+  /**
+   * Return a copy of this pointer that records the document's location in a shared segment object,
+   * for small documents packed together rather than stored as their own S3 objects.
+   *
+   * @param location where the document's ciphertext is stored.
+   * @return a new {@link PointerItem} recording that location.
+   */
+  public PointerItem withSegment(SegmentLocation location) {
+    return withStorage(SEGMENT_NAME, location.toAttribute());
+  }
+
+  /**
+   * Return a copy of this pointer that records the number of chunks of a document stored in the
+   * chunked layout, so that the chunks can be found without reading the manifest.
+   *
+   * @param chunkCount the number of chunks.
+   * @return a new {@link PointerItem} recording the chunk count.
+   */
+  public PointerItem withChunks(int chunkCount) {
+    return withStorage(CHUNKS_NAME, new AttributeValue().withN(Integer.toString(chunkCount)));
+  }
+
+  /**
+   * Return a copy of this pointer that records the time at which the document was stored, which
+   * locates its {@link TimeIndexItem}.
+   *
+   * @param created the creation time of the document.
+   * @return a new {@link PointerItem} recording the creation time.
+   */
+  public PointerItem withCreated(Instant created) {
+    return withStorage(
+        CREATED_NAME, new AttributeValue().withN(Long.toString(created.toEpochMilli())));
+  }
+
+  private PointerItem withStorage(String name, AttributeValue value) {
+    Map<String, AttributeValue> newStorage = ItemCodec.newMap(storage.size() + 1);
+    newStorage.putAll(storage);
+    newStorage.put(name, value);
+    return new PointerItem(partitionKey, context, newStorage, binaryContext);
+  }
+
+  /**
+   * Return a copy of this pointer that is written with its context in a single binary attribute
+   * (see {@link #binaryContextAttribute()}), rather than one string attribute per entry, or the
+   * other way round. Only a context that is smaller in binary form is written so; any other is
+   * still written as string attributes. Pointers are read in either form.
+   *
+   * @param enabled whether to write the context in binary form where it is smaller.
+   * @return a new {@link PointerItem} written in that form.
+   */
+  public PointerItem withBinaryContext(boolean enabled) {
+    return new PointerItem(partitionKey, context, storage, enabled);
+  }
+
+  /**
+   * Check whether this pointer is written with its context in binary form: that form was asked for,
+   * or the pointer was read in it, and it is smaller than the string attributes.
+   *
+   * @return {@code true} if the context is written as a single binary attribute.
+   */
+  public boolean hasBinaryContext() {
+    return binaryContext && ContextEncoding.isSmaller(context, CONTEXT_NAME);
+  }
+
+  /**
+   * Return this pointer's context in binary form: a length-prefixed list of entries, with common
+   * context keys coded as a single byte.
+   *
+   * @return the binary context attribute value.
+   */
+  public AttributeValue binaryContextAttribute() {
+    return new AttributeValue().withB(ByteBuffer.wrap(ContextEncoding.encode(context)));
+  }
+
+  /**
+   * Check whether this pointer holds its document's ciphertext inline.
+   *
+   * @return {@code true} if the document is stored inline in this pointer item.
+   */
+  public boolean hasInlineData() {
+    return storage.containsKey(INLINE_DATA_NAME);
+  }
+
+  /**
+   * Check whether this pointer's document is packed into a shared segment object.
+   *
+   * @return {@code true} if the document is stored in a segment.
+   */
+  public boolean hasSegment() {
+    return storage.containsKey(SEGMENT_NAME);
+  }
+
+  /**
+   * Return the location of this pointer's document in a shared segment object.
+   *
+   * @return the {@link SegmentLocation}, or {@code null} if the document is not in a segment.
+   */
+  public SegmentLocation getSegment() {
+    AttributeValue location = storage.get(SEGMENT_NAME);
+    return location == null ? null : SegmentLocation.fromAttribute(location);
+  }
+
+  /**
+   * Return the number of chunks of this pointer's document, if it is stored in the chunked layout.
+   *
+   * @return the chunk count, or {@code -1} if the document is not chunked (or was stored before
+   *     chunk counts were recorded).
+   */
+  public int getChunkCount() {
+    AttributeValue chunks = storage.get(CHUNKS_NAME);
+    return chunks == null ? -1 : Integer.parseInt(chunks.getN());
+  }
+
+  /**
+   * Return the time at which this pointer's document was stored.
+   *
+   * @return the creation time, or {@code null} if it was not recorded.
+   */
+  public Instant getCreated() {
+    AttributeValue created = storage.get(CREATED_NAME);
+    return created == null ? null : Instant.ofEpochMilli(Long.parseLong(created.getN()));
+  }
+
+  /**
+   * Return the name of the item attribute holding inline ciphertext, for conditional updates.
+   *
+   * @return the inline data attribute name.
+   */
+  public static String inlineDataAttributeName() {
+    return INLINE_DATA_NAME;
+  }
+
+  /**
+   * Return the name of the item attribute holding the segment location, for conditional updates.
+   *
+   * @return the segment location attribute name.
+   */
+  public static String segmentAttributeName() {
+    return SEGMENT_NAME;
+  }
+
+  /**
+   * Return the name of the item attribute holding the binary context, for conditional updates.
+   *
+   * @return the binary context attribute name.
+   */
+  public static String contextAttributeName() {
+    return CONTEXT_NAME;
+  }
+
+  /**
+   * Return the document ciphertext stored inline in this pointer item.
+   *
+   * @return a copy of the inline ciphertext, or {@code null} if the document is stored in S3.
+   */
+  public byte[] getInlineData() {
+    AttributeValue inlineData = storage.get(INLINE_DATA_NAME);
+    if (inlineData == null) {
+      return null;
     }
-    return Collections.unmodifiableMap(result);
+    ByteBuffer data = inlineData.getB().duplicate();
+    byte[] result = new byte[data.remaining()];
+    data.get(result);
+    return result;
+  }
+
+  /**
+   * Return the context of this pointer in item attribute form.
+   *
+   * @return a new map of the context attributes, without any storage attributes.
+   */
+  Map<String, AttributeValue> contextAttributes() {
+    Map<String, AttributeValue> result = ItemCodec.newMap(context.size());
+    context.encodeTo(result);
+    return result;
   }
 
   @Override
   public Map<String, AttributeValue> toItem() {
-    Map<String, AttributeValue> result = super.toItem();
-    result.putAll(context);
+    Map<String, AttributeValue> result;
+    if (hasBinaryContext()) {
+      result = keyItem(1 + storage.size());
+      result.put(CONTEXT_NAME, binaryContextAttribute());
+    } else {
+      result = keyItem(context.size() + storage.size());
+      context.encodeTo(result);
+    }
+    result.putAll(storage);
     return result;
   }
 
+  @Override
+  public String toString() {
+    // Leave the (potentially large) inline ciphertext out
+    Map<String, AttributeValue> result = toItem();
+    result.remove(INLINE_DATA_NAME);
+    return result.toString();
+  }
+
   /**
    * Transform the provided pointer record key into a DynamoDB key item. This provides a DynamoDB
    * item that has the partition key and sort key populated.
@@ -117,7 +387,7 @@ public class PointerItem extends BaseItem {
    * @return a DynamoDB-formatted {@link PointerItem} for this key.
    */
   public static Map<String, AttributeValue> atKey(String key) {
-    new UuidKey(key); // Check validity
+    ItemCodec.checkKey(key);
     return atKey(new AttributeValue(key));
   }
 
@@ -129,26 +399,48 @@ public class PointerItem extends BaseItem {
    * @return a DynamoDB-formatted {@link PointerItem} for this key.
    */
   public static Map<String, AttributeValue> atKey(AttributeValue key) {
-    Map<String, AttributeValue> result = new HashMap<>(2);
+    Map<String, AttributeValue> result = ItemCodec.newMap(2);
     result.put(partitionKeyName(), key);
     result.put(sortKeyName(), ATTR_TARGET);
     return result;
   }
 
   /**
-   * Helper function to transform a DynamoDB item into a modeled {@link PointerItem}.
+   * Helper function to transform a DynamoDB item into a modeled {@link PointerItem}, whichever form
+   * its context is stored in. The item is not modified.
    *
    * @param item the modeled {@link PointerItem}.
    * @return a {@link PointerItem} for the provided item contents.
    */
   public static PointerItem fromItem(Map<String, AttributeValue> item) {
-    UuidKey partitionKey = new UuidKey(item.remove(partitionKeyName()).getS());
-    String sortKey = item.remove(sortKeyName()).getS();
+    String partitionKey = item.get(partitionKeyName()).getS();
+    String sortKey = item.get(sortKeyName()).getS();
     if (!sortKey.equals(TARGET)) {
       throw new DataModelException(
           String.format("Unexpected sortKey value (%s) for PointerItem!", sortKey));
     }
-    return new PointerItem(partitionKey, item);
+    CompactContext.Builder context = new CompactContext.Builder(item.size() - 2);
+    Map<String, AttributeValue> storage = Collections.emptyMap();
+    AttributeValue binaryContext = null;
+    for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+      String name = entry.getKey();
+      if (name.equals(CONTEXT_NAME)) {
+        binaryContext = entry.getValue();
+      } else if (STORAGE_NAMES.contains(name)) {
+        if (storage.isEmpty()) {
+          storage = ItemCodec.newMap(STORAGE_NAMES.size());
+        }
+        storage.put(name, entry.getValue());
+      } else if (!name.equals(partitionKeyName()) && !name.equals(sortKeyName())) {
+        context.put(name, entry.getValue().getS());
+      }
+    }
+    // A binary context replaces the string attributes, so any left beside it are stale
+    return new PointerItem(
+        new AttributeValue(ItemCodec.checkKey(partitionKey)),
+        binaryContext == null ? context.build() : ContextEncoding.decode(binaryContext.getB()),
+        storage,
+        binaryContext != null);
   }
 
   /**
@@ -157,9 +449,9 @@ public class PointerItem extends BaseItem {
    * @return a {@link Set} of {@link ContextItem}s for each key in this pointer's context.
    */
   public Set<ContextItem> contextItems() {
-    HashSet<ContextItem> contextItems = new HashSet<>(context.size());
-    for (Map.Entry<String, AttributeValue> entry : context.entrySet()) {
-      contextItems.add(ContextItem.fromContext(entry.getKey(), partitionKey));
+    Set<ContextItem> contextItems = new HashSet<>(ItemCodec.capacityFor(context.size()));
+    for (String contextKey : context.keySet()) {
+      contextItems.add(ContextItem.fromContext(contextKey, partitionKey));
     }
     return contextItems;
   }
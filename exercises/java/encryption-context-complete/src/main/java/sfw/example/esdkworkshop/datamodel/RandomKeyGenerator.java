@@ -0,0 +1,23 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import java.util.UUID;
+
+/**
+ * Generates random (version 4) keys with {@link UUID#randomUUID()}. All callers share the JDK's
+ * single {@link java.security.SecureRandom}, so see {@link TimeOrderedKeyGenerator} for
+ * high-throughput use.
+ */
+public final class RandomKeyGenerator implements KeyGenerator {
+  static final RandomKeyGenerator INSTANCE = new RandomKeyGenerator();
+
+  private RandomKeyGenerator() { // Use KeyGenerator.defaultGenerator()
+  }
+
+  @Override
+  public UUID generate() {
+    return UUID.randomUUID();
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import sfw.example.esdkworkshop.Config;
+
+/**
+ * Modeled item corresponding to a Document Bucket segment item. Segment Items are DynamoDB items
+ * that record a shared S3 object holding the ciphertexts of several small documents, so that those
+ * documents do not each need their own S3 object. The segment's S3 object key is the same as its
+ * partition key, and each packed document's {@link PointerItem} records its {@link SegmentLocation}
+ * within the segment.
+ */
+public class SegmentItem extends BaseItem {
+  protected static final String PREFIX =
+      Config.contents.document_bucket.document_table.segment_prefix;
+  protected static final String TARGET =
+      Config.contents.document_bucket.document_table.segment_target;
+  protected static final AttributeValue ATTR_TARGET = new AttributeValue(TARGET);
+  private static final String DOCUMENTS_NAME = "documents";
+  private static final String LENGTH_NAME = "length";
+  private static final String CREATED_NAME = "created";
+  private final List<String> documents;
+  private final long length;
+  private final Instant created;
+
+  protected SegmentItem(String segmentId, List<String> documents, long length, Instant created) {
+    super(segmentId, TARGET);
+    if (!segmentId.startsWith(PREFIX)) {
+      throw new DataModelException(
+          String.format("Unexpected partitionKey value (%s) for SegmentItem!", segmentId));
+    }
+    this.documents = documents;
+    this.length = length;
+    this.created = created;
+  }
+
+  /**
+   * Return a new, unique segment key. The key is used both as the {@link SegmentItem} partition key
+   * and as the key of the segment's S3 object.
+   *
+   * @return a new segment key.
+   */
+  public static String generateId() {
+    return PREFIX + UUID.randomUUID();
+  }
+
+  /**
+   * Return a modeled {@link SegmentItem} recording a segment holding the provided documents.
+   *
+   * @param segmentId the segment key, from {@link #generateId()}.
+   * @param documents the keys of the documents packed into the segment.
+   * @param length the total length of the segment object, in bytes.
+   * @param created the time at which the segment object was written.
+   * @return the {@link SegmentItem} for this segment.
+   */
+  public static SegmentItem fromDocuments(
+      String segmentId, List<String> documents, long length, Instant created) {
+    return new SegmentItem(segmentId, new ArrayList<>(documents), length, created);
+  }
+
+  /**
+   * Helper function to transform a DynamoDB item into a modeled {@link SegmentItem}.
+   *
+   * @param item the DynamoDB item.
+   * @return a {@link SegmentItem} for the provided item contents.
+   */
+  public static SegmentItem fromItem(Map<String, AttributeValue> item) {
+    String target = item.get(sortKeyName()).getS();
+    if (!TARGET.equals(target)) {
+      throw new DataModelException(
+          String.format("Unexpected sortKey value (%s) for SegmentItem!", target));
+    }
+    AttributeValue documents = item.get(DOCUMENTS_NAME);
+    return new SegmentItem(
+        item.get(partitionKeyName()).getS(),
+        documents == null || documents.getSS() == null
+            ? Collections.emptyList()
+            : new ArrayList<>(documents.getSS()),
+        Long.parseLong(item.get(LENGTH_NAME).getN()),
+        Instant.ofEpochMilli(Long.parseLong(item.get(CREATED_NAME).getN())));
+  }
+
+  /**
+   * Helper function to generate a scan filter to find all {@link SegmentItem} records.
+   *
+   * @return the filter {@link Map} to use with DynamoDB scan requests.
+   */
+  public static Map<String, Condition> filterFor() {
+    Map<String, Condition> result = new HashMap<>(1);
+    result.put(
+        sortKeyName(),
+        new Condition()
+            .withAttributeValueList(ATTR_TARGET)
+            .withComparisonOperator(ComparisonOperator.EQ));
+    return result;
+  }
+
+  /**
+   * Helper function to generate a DynamoDB key for the segment with the provided key.
+   *
+   * @param segmentId the segment key.
+   * @return the key {@link Map} to use with DynamoDB get and delete requests.
+   */
+  public static Map<String, AttributeValue> atKey(String segmentId) {
+    Map<String, AttributeValue> key = new HashMap<>(2);
+    key.put(partitionKeyName(), new AttributeValue(segmentId));
+    key.put(sortKeyName(), ATTR_TARGET);
+    return key;
+  }
+
+  /**
+   * Return the key of this segment, which is also the key of its S3 object.
+   *
+   * @return the segment key.
+   */
+  public String getSegmentId() {
+    return partitionKey.getS();
+  }
+
+  /**
+   * Return the keys of the documents packed into this segment when it was written. Documents may
+   * since have been deleted or moved to another segment; their {@link PointerItem} is
+   * authoritative.
+   *
+   * @return the packed document keys.
+   */
+  public List<String> getDocuments() {
+    return Collections.unmodifiableList(documents);
+  }
+
+  /**
+   * Return the total length of the segment object.
+   *
+   * @return the length in bytes.
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Return the time at which the segment object was written.
+   *
+   * @return the creation time of the segment.
+   */
+  public Instant getCreated() {
+    return created;
+  }
+
+  @Override
+  public Map<String, AttributeValue> toItem() {
+    Map<String, AttributeValue> result = super.toItem();
+    if (!documents.isEmpty()) {
+      // DynamoDB rejects empty sets
+      result.put(DOCUMENTS_NAME, new AttributeValue().withSS(documents));
+    }
+    result.put(LENGTH_NAME, new AttributeValue().withN(Long.toString(length)));
+    result.put(CREATED_NAME, new AttributeValue().withN(Long.toString(created.toEpochMilli())));
+    return result;
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The location of a packed document's ciphertext within a shared segment object. See {@link
+ * SegmentItem}.
+ */
+public class SegmentLocation {
+  protected static final String ID_NAME = "id";
+  private static final String OFFSET_NAME = "offset";
+  private static final String LENGTH_NAME = "length";
+  private final String segmentId;
+  private final long offset;
+  private final int length;
+
+  /**
+   * Construct a location within a segment.
+   *
+   * @param segmentId the key of the {@link SegmentItem} (and segment object).
+   * @param offset the offset of the document's ciphertext within the segment.
+   * @param length the length of the document's ciphertext.
+   */
+  public SegmentLocation(String segmentId, long offset, int length) {
+    this.segmentId = segmentId;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Helper function to transform a DynamoDB attribute into a {@link SegmentLocation}.
+   *
+   * @param attribute the map attribute written by {@link #toAttribute()}.
+   * @return the {@link SegmentLocation} for that attribute.
+   */
+  public static SegmentLocation fromAttribute(AttributeValue attribute) {
+    Map<String, AttributeValue> fields = attribute.getM();
+    if (fields == null
+        || !fields.containsKey(ID_NAME)
+        || !fields.containsKey(OFFSET_NAME)
+        || !fields.containsKey(LENGTH_NAME)) {
+      throw new DataModelException(
+          String.format("Unexpected value (%s) for SegmentLocation!", attribute));
+    }
+    return new SegmentLocation(
+        fields.get(ID_NAME).getS(),
+        Long.parseLong(fields.get(OFFSET_NAME).getN()),
+        Integer.parseInt(fields.get(LENGTH_NAME).getN()));
+  }
+
+  /**
+   * Transform this location into a DynamoDB map attribute.
+   *
+   * @return the attribute value.
+   */
+  public AttributeValue toAttribute() {
+    Map<String, AttributeValue> fields = new HashMap<>(4);
+    fields.put(ID_NAME, new AttributeValue(segmentId));
+    fields.put(OFFSET_NAME, new AttributeValue().withN(Long.toString(offset)));
+    fields.put(LENGTH_NAME, new AttributeValue().withN(Integer.toString(length)));
+    return new AttributeValue().withM(fields);
+  }
+
+  /**
+   * Return the name of the field holding the segment id, for conditional updates.
+   *
+   * @return the segment id field name.
+   */
+  public static String idFieldName() {
+    return ID_NAME;
+  }
+
+  /**
+   * Return the key of the segment holding the document.
+   *
+   * @return the segment's key.
+   */
+  public String getSegmentId() {
+    return segmentId;
+  }
+
+  /**
+   * Return the offset of the document's ciphertext within the segment.
+   *
+   * @return the offset in bytes.
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Return the length of the document's ciphertext.
+   *
+   * @return the length in bytes.
+   */
+  public int getLength() {
+    return length;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[%d+%d]", segmentId, offset, length);
+  }
+}
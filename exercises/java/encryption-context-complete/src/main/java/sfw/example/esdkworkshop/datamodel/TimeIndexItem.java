@@ -0,0 +1,211 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import sfw.example.esdkworkshop.Config;
+
+/**
+ * Modeled item corresponding to a Document Bucket time index item. Time Index Items are DynamoDB
+ * items that record which documents were stored within a coarse time bucket. They are partitioned
+ * by bucket and sorted by creation timestamp and pointer key, and carry a copy of the pointer's
+ * context so that a time range can be listed without fetching each {@link PointerItem}.
+ *
+ * <p>Each bucket is split into {@link #SHARDS} partitions, chosen by a hash of the pointer key, so
+ * that the index items of one hour's stores are not all written to a single partition.
+ */
+public class TimeIndexItem extends BaseItem {
+  protected static final String PREFIX = Config.contents.document_bucket.document_table.time_prefix;
+  protected static final ChronoUnit BUCKET_UNIT = ChronoUnit.HOURS;
+  // Spreads one bucket's writes across enough partitions for a few thousand stores a second
+  protected static final int SHARDS = 16;
+  private static final String SEPARATOR = "#";
+  private final Instant created;
+  private final UuidKey pointerTarget;
+  private final Map<String, AttributeValue> context;
+
+  protected TimeIndexItem(
+      Instant created, UuidKey pointerTarget, Map<String, AttributeValue> context) {
+    super(
+        bucketFor(created, pointerTarget.toString()),
+        sortKeyFor(created.toEpochMilli()) + SEPARATOR + pointerTarget);
+    this.created = created;
+    this.pointerTarget = pointerTarget;
+    this.context = context;
+  }
+
+  /**
+   * Return the partition key of the shard of the time bucket containing the provided instant.
+   *
+   * @param instant the instant to find the bucket for.
+   * @param shard the shard of the bucket, between 0 and {@link #SHARDS}.
+   * @return the partition key for that shard of the bucket.
+   */
+  protected static String bucketFor(Instant instant, int shard) {
+    return PREFIX + instant.truncatedTo(BUCKET_UNIT) + SEPARATOR + shard;
+  }
+
+  /**
+   * Return the partition key of the time bucket shard holding a document's index item.
+   *
+   * @param created the creation time of the document.
+   * @param pointerKey the key of the document's {@link PointerItem}.
+   * @return the partition key for the document's shard of the bucket.
+   */
+  protected static String bucketFor(Instant created, String pointerKey) {
+    return bucketFor(created, Math.floorMod(pointerKey.hashCode(), SHARDS));
+  }
+
+  /**
+   * Return a sort key prefix for the provided instant. Timestamps are zero-padded so that they sort
+   * lexically in time order.
+   *
+   * @param epochMilli the instant, in milliseconds since the epoch.
+   * @return the sort key prefix for that instant.
+   */
+  protected static String sortKeyFor(long epochMilli) {
+    return String.format("%013d", epochMilli);
+  }
+
+  /**
+   * Return the partition keys of every shard of every time bucket overlapping the range {@code
+   * [from, to)}.
+   *
+   * @param from the inclusive start of the range.
+   * @param to the exclusive end of the range.
+   * @return the bucket partition keys, in time order.
+   */
+  public static List<String> bucketsBetween(Instant from, Instant to) {
+    List<String> buckets = new ArrayList<>();
+    if (!from.isBefore(to)) {
+      return buckets;
+    }
+    for (Instant bucket = from.truncatedTo(BUCKET_UNIT);
+        bucket.isBefore(to);
+        bucket = bucket.plus(1, BUCKET_UNIT)) {
+      for (int shard = 0; shard < SHARDS; shard++) {
+        buckets.add(bucketFor(bucket, shard));
+      }
+    }
+    return buckets;
+  }
+
+  /**
+   * Helper to build a DynamoDB {@link QueryRequest} for the time index items in a single bucket
+   * that were created in the range {@code [from, to)}.
+   *
+   * @param bucket the bucket partition key, from {@link #bucketsBetween(Instant, Instant)}.
+   * @param from the inclusive start of the range.
+   * @param to the exclusive end of the range.
+   * @return the {@link QueryRequest} to find matching records in DynamoDB.
+   */
+  public static QueryRequest queryFor(String bucket, Instant from, Instant to) {
+    Condition keyIsBucket =
+        new Condition()
+            .withAttributeValueList(new AttributeValue(bucket))
+            .withComparisonOperator(ComparisonOperator.EQ);
+    // Sort keys are "<timestamp>#<key>", so an upper bound of "<to>" excludes documents at "to"
+    Condition sortInRange =
+        new Condition()
+            .withAttributeValueList(
+                new AttributeValue(sortKeyFor(from.toEpochMilli())),
+                new AttributeValue(sortKeyFor(to.toEpochMilli())))
+            .withComparisonOperator(ComparisonOperator.BETWEEN);
+    return new QueryRequest()
+        .addKeyConditionsEntry(partitionKeyName(), keyIsBucket)
+        .addKeyConditionsEntry(sortKeyName(), sortInRange);
+  }
+
+  /**
+   * Return a new {@link TimeIndexItem} recording that the provided pointer was created at the
+   * provided instant.
+   *
+   * @param pointer the pointer of the stored document.
+   * @param created the creation time of the document.
+   * @return a new {@link TimeIndexItem} for that pointer.
+   */
+  public static TimeIndexItem fromPointer(PointerItem pointer, Instant created) {
+    return new TimeIndexItem(
+        created.truncatedTo(ChronoUnit.MILLIS),
+        new UuidKey(pointer.partitionKey().getS()),
+        pointer.contextAttributes());
+  }
+
+  /**
+   * Helper function to generate the DynamoDB key of the time index item for a document.
+   *
+   * @param pointer the pointer of the stored document, which must record its creation time.
+   * @return the key {@link Map} to use with DynamoDB get and delete requests.
+   */
+  public static Map<String, AttributeValue> atKey(PointerItem pointer) {
+    Instant created = pointer.getCreated();
+    if (created == null) {
+      throw new DataModelException(
+          String.format("Pointer %s has no creation time!", pointer.partitionKey().getS()));
+    }
+    Map<String, AttributeValue> key = new HashMap<>(2);
+    key.put(
+        partitionKeyName(), new AttributeValue(bucketFor(created, pointer.partitionKey().getS())));
+    key.put(
+        sortKeyName(),
+        new AttributeValue(
+            sortKeyFor(created.toEpochMilli()) + SEPARATOR + pointer.partitionKey().getS()));
+    return key;
+  }
+
+  /**
+   * Helper function to transform a DynamoDB item into a modeled {@link TimeIndexItem}.
+   *
+   * @param item the modeled {@link TimeIndexItem}.
+   * @return a {@link TimeIndexItem} for the provided item contents.
+   */
+  public static TimeIndexItem fromItem(Map<String, AttributeValue> item) {
+    String sortKey = item.get(sortKeyName()).getS();
+    int separator = sortKey.indexOf(SEPARATOR);
+    if (separator < 0) {
+      throw new DataModelException(
+          String.format("Unexpected sortKey value (%s) for TimeIndexItem!", sortKey));
+    }
+    Instant created = Instant.ofEpochMilli(Long.parseLong(sortKey.substring(0, separator)));
+    UuidKey pointerTarget = new UuidKey(sortKey.substring(separator + 1));
+    Map<String, AttributeValue> context = new HashMap<>(item);
+    context.remove(partitionKeyName());
+    context.remove(sortKeyName());
+    return new TimeIndexItem(created, pointerTarget, context);
+  }
+
+  /**
+   * Return the time at which the indexed document was stored.
+   *
+   * @return the creation time of the document.
+   */
+  public Instant getCreated() {
+    return created;
+  }
+
+  /**
+   * Return the {@link PointerItem} for the indexed document.
+   *
+   * @return the indexed document's {@link PointerItem}.
+   */
+  public PointerItem getPointer() {
+    return new PointerItem(pointerTarget, context);
+  }
+
+  @Override
+  public Map<String, AttributeValue> toItem() {
+    Map<String, AttributeValue> result = keyItem(context.size());
+    result.putAll(context);
+    return result;
+  }
+}
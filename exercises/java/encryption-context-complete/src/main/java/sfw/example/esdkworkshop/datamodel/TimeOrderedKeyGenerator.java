@@ -0,0 +1,92 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+/**
+ * Generates time-ordered (version 7) keys: a 48-bit Unix millisecond timestamp, a 12-bit counter
+ * and 62 random bits. Keys generated later sort after keys generated earlier, and keys from one
+ * thread are strictly increasing even within the same millisecond.
+ *
+ * <p>Each thread draws its entropy from its own {@link SecureRandom}, so concurrent callers do not
+ * contend on a shared generator the way {@link UUID#randomUUID()} callers do.
+ */
+public final class TimeOrderedKeyGenerator implements KeyGenerator {
+  private static final int VERSION = 7;
+  private static final int COUNTER_BITS = 12;
+  private static final int COUNTER_MAX = (1 << COUNTER_BITS) - 1;
+  private static final long TIMESTAMP_MASK = (1L << 48) - 1;
+  private static final long VARIANT_BITS = 0x8000000000000000L;
+  private static final long RANDOM_MASK = 0x3FFFFFFFFFFFFFFFL;
+
+  private final LongSupplier clock;
+  private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+  /** Construct a generator using the system clock. */
+  public TimeOrderedKeyGenerator() {
+    this(System::currentTimeMillis);
+  }
+
+  /**
+   * Construct a generator using the provided clock. (Included to facilitate unit testing.)
+   *
+   * @param clock supplier of the current time in Unix milliseconds.
+   */
+  TimeOrderedKeyGenerator(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  @Override
+  public UUID generate() {
+    State s = state.get();
+    long now = clock.getAsLong();
+    if (now > s.lastMillis) {
+      s.lastMillis = now;
+      // Start each millisecond at a random point in the lower half, leaving room to count up
+      s.counter = (int) (s.nextLong() & (COUNTER_MAX >> 1));
+    } else if (s.counter < COUNTER_MAX) {
+      s.counter++;
+    } else {
+      // Counter exhausted (or the clock went backwards): borrow from the next millisecond
+      s.lastMillis++;
+      s.counter = 0;
+    }
+    long mostSig =
+        ((s.lastMillis & TIMESTAMP_MASK) << 16) | ((long) VERSION << COUNTER_BITS) | s.counter;
+    long leastSig = VARIANT_BITS | (s.nextLong() & RANDOM_MASK);
+    return new UUID(mostSig, leastSig);
+  }
+
+  /** Per-thread generator state. */
+  private static final class State {
+    // Drawing entropy in blocks amortizes the per-call cost of the SecureRandom
+    private static final int ENTROPY_BLOCK = 512;
+    private final SecureRandom random = newRandom();
+    private final ByteBuffer entropy = ByteBuffer.allocate(ENTROPY_BLOCK).position(ENTROPY_BLOCK);
+    private long lastMillis = Long.MIN_VALUE;
+    private int counter;
+
+    private long nextLong() {
+      if (!entropy.hasRemaining()) {
+        random.nextBytes(entropy.array());
+        entropy.clear();
+      }
+      return entropy.getLong();
+    }
+
+    private static SecureRandom newRandom() {
+      try {
+        // DRBG instances do not share a lock, unlike the default NativePRNG
+        return SecureRandom.getInstance("DRBG");
+      } catch (NoSuchAlgorithmException e) {
+        return new SecureRandom();
+      }
+    }
+  }
+}
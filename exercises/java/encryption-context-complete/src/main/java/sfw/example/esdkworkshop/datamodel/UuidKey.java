@@ -10,7 +10,11 @@ public class UuidKey {
   private final UUID key;
 
   protected UuidKey() {
-    key = UUID.randomUUID();
+    this(KeyGenerator.defaultGenerator());
+  }
+
+  protected UuidKey(KeyGenerator generator) {
+    key = generator.generate();
   }
 
   protected UuidKey(String uuid) {
@@ -0,0 +1,205 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.amazonaws.AmazonServiceException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveLimiterTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @AfterEach
+  void shutDown() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  private static AmazonServiceException throttling() {
+    AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+    e.setErrorCode("ThrottlingException");
+    e.setStatusCode(400);
+    return e;
+  }
+
+  private static Supplier<String> sleeping(long millis) {
+    return () -> {
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return "done";
+    };
+  }
+
+  private Supplier<String> blocking(RuntimeException failure) {
+    return () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return "done";
+    };
+  }
+
+  private List<CompletableFuture<String>> start(
+      AdaptiveLimiter limiter, int calls, RuntimeException failure) {
+    List<CompletableFuture<String>> started = new ArrayList<>();
+    for (int i = 0; i < calls; i++) {
+      started.add(CompletableFuture.supplyAsync(() -> limiter.call(blocking(failure)), executor));
+    }
+    return started;
+  }
+
+  private static void awaitStats(AdaptiveLimiter limiter, int inFlight, int queued)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (limiter.stats().getInFlight() != inFlight || limiter.stats().getQueued() != queued) {
+      assertTrue(System.nanoTime() < deadline, "Calls never reached " + limiter.stats());
+      Thread.sleep(1);
+    }
+  }
+
+  private static void throttle(AdaptiveLimiter limiter) {
+    assertThrows(
+        AmazonServiceException.class,
+        () ->
+            limiter.call(
+                () -> {
+                  throw throttling();
+                }));
+  }
+
+  @Test
+  void testCallsOverLimitWait() throws Exception {
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 2);
+    List<CompletableFuture<String>> calls = start(limiter, 3, null);
+    awaitStats(limiter, 2, 1);
+    release.countDown();
+    for (CompletableFuture<String> call : calls) {
+      assertEquals("done", call.get(10, TimeUnit.SECONDS));
+    }
+    assertEquals(0, limiter.stats().getInFlight());
+  }
+
+  @Test
+  void testThrottlingHalvesLimitOncePerEpisode() throws Exception {
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100);
+    assertEquals(10, limiter.stats().getLimit());
+    List<CompletableFuture<String>> calls = start(limiter, 3, throttling());
+    awaitStats(limiter, 3, 0);
+    release.countDown();
+    for (CompletableFuture<String> call : calls) {
+      ExecutionException thrown =
+          assertThrows(ExecutionException.class, () -> call.get(10, TimeUnit.SECONDS));
+      assertTrue(thrown.getCause() instanceof AmazonServiceException);
+    }
+    // Calls already in flight when the limit was cut do not cut it again
+    assertEquals(5, limiter.stats().getLimit());
+    assertEquals(3, limiter.stats().getCongested());
+    throttle(limiter);
+    assertEquals(2, limiter.stats().getLimit());
+  }
+
+  @Test
+  void testLimitNeverFallsBelowOne() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100);
+    for (int i = 0; i < 10; i++) {
+      throttle(limiter);
+    }
+    assertEquals(1, limiter.stats().getLimit());
+  }
+
+  @Test
+  void testLimitGrowsOnlyWhileSaturated() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100);
+    for (int i = 0; i < 10; i++) {
+      throttle(limiter);
+    }
+    // At a limit of one, every call saturates it, so a success grows it by one
+    assertEquals("done", limiter.call(sleeping(10)));
+    assertEquals(2, limiter.stats().getLimit());
+    // One call at a time no longer saturates it
+    assertEquals("done", limiter.call(sleeping(10)));
+    assertEquals(2, limiter.stats().getLimit());
+  }
+
+  @Test
+  void testInflatedLatencyHalvesLimit() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100);
+    assertEquals("done", limiter.call(sleeping(10)));
+    assertEquals(10, limiter.stats().getLimit());
+    assertEquals("done", limiter.call(sleeping(100)));
+    assertEquals(5, limiter.stats().getLimit());
+    assertEquals(1, limiter.stats().getCongested());
+  }
+
+  @Test
+  void testSlowCallThatIsNotLatencySensitiveKeepsLimit() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100);
+    assertEquals("done", limiter.call(sleeping(10)));
+    // A large upload takes longer than usual without any congestion
+    assertEquals("done", limiter.call(sleeping(100), false));
+    assertEquals(10, limiter.stats().getLimit());
+    assertEquals(0, limiter.stats().getCongested());
+    // Nor does it raise the usual latency, so a slow sensitive call still cuts the limit
+    assertEquals("done", limiter.call(sleeping(100)));
+    assertEquals(5, limiter.stats().getLimit());
+    // Throttling still cuts the limit
+    assertThrows(
+        AmazonServiceException.class,
+        () ->
+            limiter.call(
+                () -> {
+                  throw throttling();
+                },
+                false));
+    assertEquals(2, limiter.stats().getLimit());
+  }
+
+  @Test
+  void testOtherFailuresDoNotChangeLimit() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 100);
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            limiter.call(
+                () -> {
+                  throw new IllegalStateException();
+                }));
+    assertEquals(10, limiter.stats().getLimit());
+    assertEquals(0, limiter.stats().getCongested());
+  }
+
+  @Test
+  void testIsThrottling() {
+    assertTrue(AdaptiveLimiter.isThrottling(throttling()));
+    assertTrue(AdaptiveLimiter.isThrottling(new DocumentBucketException("wrapped", throttling())));
+    IllegalStateException suppressing = new IllegalStateException();
+    suppressing.addSuppressed(throttling());
+    assertTrue(AdaptiveLimiter.isThrottling(suppressing));
+    AmazonServiceException notFound = new AmazonServiceException("Not found");
+    notFound.setErrorCode("NoSuchKey");
+    notFound.setStatusCode(404);
+    assertFalse(AdaptiveLimiter.isThrottling(notFound));
+    assertFalse(AdaptiveLimiter.isThrottling(new IllegalStateException()));
+  }
+}
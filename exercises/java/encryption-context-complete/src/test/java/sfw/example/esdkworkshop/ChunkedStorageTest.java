@@ -0,0 +1,81 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import com.amazonaws.encryptionsdk.AwsCrypto;
+import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.jce.JceMasterKey;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sfw.example.esdkworkshop.datamodel.ChunkManifest;
+
+public class ChunkedStorageTest {
+  private final InMemoryS3 s3 = new InMemoryS3();
+  private final AmazonDynamoDB ddb = mock(AmazonDynamoDB.class);
+  private Api api;
+
+  @BeforeEach
+  void setUp() {
+    when(ddb.putItem(any(PutItemRequest.class))).thenReturn(new PutItemResult());
+    AwsCrypto crypto =
+        AwsCrypto.builder()
+            .withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt)
+            .build();
+    JceMasterKey masterKey =
+        JceMasterKey.getInstance(
+            new SecretKeySpec(new byte[32], "AES"), "test", "key", "AES/GCM/NoPadding");
+    api = new Api(ddb, "table", s3.client, "bucket", crypto, masterKey).withChunkedStorage(16);
+  }
+
+  @Test
+  void testRetrieveContextOfChunkedDocument() {
+    Map<String, String> context = Collections.singletonMap("tenant", "example");
+    String key = api.store(new byte[100], context).partitionKey().getS();
+    assertTrue(ChunkManifest.isManifest(s3.objects.get(key)));
+    Map<String, String> actual = api.retrieveContext(key);
+    assertEquals("example", actual.get("tenant"));
+    assertFalse(actual.containsKey(ChunkManifest.CHUNK_DOCUMENT_KEY));
+    assertFalse(actual.containsKey(ChunkManifest.CHUNK_INDEX_KEY));
+    assertFalse(actual.containsKey(ChunkManifest.CHUNK_COUNT_KEY));
+  }
+
+  @Test
+  void testFetchDocumentOverTwoGibibytesPointsAtRetrieveRange() {
+    ChunkManifest manifest = ChunkManifest.forLength(5L << 30, 64 << 20);
+    s3.objects.put("huge", manifest.toBytes());
+    DocumentBucketException e =
+        assertThrows(DocumentBucketException.class, () -> api.fetch("huge", null));
+    assertTrue(e.getMessage().contains("retrieveRange"));
+    verify(s3.client, never()).getObject(anyString(), eq(ChunkManifest.chunkKey("huge", 0)));
+  }
+
+  @Test
+  void testStoreRejectsChunkContextKeys() {
+    for (String reserved :
+        new String[] {
+          ChunkManifest.CHUNK_DOCUMENT_KEY,
+          ChunkManifest.CHUNK_INDEX_KEY,
+          ChunkManifest.CHUNK_COUNT_KEY
+        }) {
+      Map<String, String> context = Collections.singletonMap(reserved, "mine");
+      // Rejected whether or not the document would be chunked
+      assertThrows(IllegalArgumentException.class, () -> api.store(new byte[100], context));
+      assertThrows(IllegalArgumentException.class, () -> api.store(new byte[1], context));
+      assertThrows(
+          IllegalArgumentException.class, () -> api.store(ByteBuffer.allocate(100), context));
+    }
+    assertTrue(s3.objects.isEmpty());
+  }
+}
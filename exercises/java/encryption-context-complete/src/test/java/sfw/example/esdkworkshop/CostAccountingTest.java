@@ -0,0 +1,142 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class CostAccountingTest {
+  private final CostAccounting costs = new CostAccounting();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @AfterEach
+  void shutDown() {
+    executor.shutdownNow();
+  }
+
+  private Map<List<String>, CostReport> reports() {
+    return costs.report().stream()
+        .collect(
+            Collectors.toMap(
+                report -> Arrays.asList(report.getOperation(), report.getTag()),
+                Function.identity()));
+  }
+
+  private CostReport report(String operation, String tag) {
+    CostReport report = reports().get(Arrays.asList(operation, tag));
+    assertNotNull(report, "No report for " + operation + " and " + tag);
+    return report;
+  }
+
+  private void get() {
+    costs.current().s3Request("GetObject");
+  }
+
+  @Test
+  void testOutermostCallIsTheOperation() {
+    CostAccounting.call(
+        "sync",
+        () -> {
+          get();
+          return CostAccounting.call(
+              "store",
+              () -> {
+                get();
+                return null;
+              });
+        });
+    assertEquals(1, costs.report().size());
+    assertEquals(Map.of("GetObject", 2L), report("sync", null).getS3Requests());
+    // The operation ends with its call
+    get();
+    assertEquals(
+        Map.of("GetObject", 1L), report(CostAccounting.NO_OPERATION, null).getS3Requests());
+  }
+
+  @Test
+  void testOperationAndTagArePropagatedToExecutor() throws Exception {
+    Executor propagating = CostAccounting.propagating(executor);
+    CostAccounting.call(
+            "export",
+            () -> CostTag.call("tenant", () -> CompletableFuture.runAsync(this::get, propagating)))
+        .get(10, TimeUnit.SECONDS);
+    assertEquals(Map.of("GetObject", 1L), report("export", "tenant").getS3Requests());
+    // Neither is left behind on the executor's thread
+    CompletableFuture.runAsync(this::get, executor).get(10, TimeUnit.SECONDS);
+    assertEquals(
+        Map.of("GetObject", 1L), report(CostAccounting.NO_OPERATION, null).getS3Requests());
+  }
+
+  @Test
+  void testCapturedTaskRunsInCapturingContext() throws Exception {
+    Runnable task =
+        CostAccounting.call(
+            "store", () -> CostTag.call("tenant", () -> CostAccounting.capture(this::get)));
+    // Run later, elsewhere, and from inside another operation, it still counts towards its own
+    CompletableFuture.runAsync(
+            () ->
+                CostAccounting.call(
+                    "scrub",
+                    () -> {
+                      task.run();
+                      get();
+                      return null;
+                    }),
+            executor)
+        .get(10, TimeUnit.SECONDS);
+    assertEquals(Map.of("GetObject", 1L), report("store", "tenant").getS3Requests());
+    assertEquals(Map.of("GetObject", 1L), report("scrub", null).getS3Requests());
+  }
+
+  @Test
+  void testTotalsAreKeptPerOperationAndTag() {
+    CostAccounting.call(
+        "store",
+        () -> {
+          costs.current().dynamoDbRequest("PutItem", Double.NaN, 1.0);
+          CostTag.run("tenant", () -> costs.current().dynamoDbRequest("PutItem", Double.NaN, 2.0));
+          CostTag.run("tenant", () -> costs.current().dynamoDbRequest("PutItem", Double.NaN, 3.0));
+          return null;
+        });
+    CostAccounting.call(
+        "retrieve",
+        () -> {
+          CostTag.run(
+              "tenant",
+              () -> {
+                costs.current().dynamoDbRequest("GetItem", 0.5, Double.NaN);
+                costs.current().kmsRequest("Decrypt");
+                costs.current().downloaded(10);
+              });
+          return null;
+        });
+    assertEquals(3, costs.report().size());
+    CostReport untagged = report("store", null);
+    assertEquals(Map.of("PutItem", 1L), untagged.getDynamoDbRequests());
+    assertEquals(1.0, untagged.getWriteCapacityUnits());
+    CostReport tagged = report("store", "tenant");
+    assertEquals(Map.of("PutItem", 2L), tagged.getDynamoDbRequests());
+    assertEquals(5.0, tagged.getWriteCapacityUnits());
+    // Capacity that was not reported is not counted as NaN
+    assertEquals(0.0, tagged.getReadCapacityUnits());
+    CostReport read = report("retrieve", "tenant");
+    assertEquals(0.5, read.getReadCapacityUnits());
+    assertEquals(0.0, read.getWriteCapacityUnits());
+    assertEquals(Map.of("Decrypt", 1L), read.getKmsRequests());
+    assertEquals(10, read.getBytesDownloaded());
+    assertTrue(read.getS3Requests().isEmpty());
+  }
+}
@@ -0,0 +1,209 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.encryptionsdk.AwsCrypto;
+import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.jce.JceMasterKey;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sfw.example.esdkworkshop.datamodel.BaseItem;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+import sfw.example.esdkworkshop.datamodel.TimeIndexItem;
+
+public class DeleteAllTest {
+  private final InMemoryS3 s3 = new InMemoryS3();
+  private final AmazonDynamoDB ddb = mock(AmazonDynamoDB.class);
+  /** The table's items, by their primary key. */
+  private final Map<Map<String, AttributeValue>, Map<String, AttributeValue>> table =
+      new ConcurrentHashMap<>();
+
+  private final List<Integer> writeBatchSizes = new CopyOnWriteArrayList<>();
+  /** How many writes the next BatchWriteItem request leaves unprocessed. */
+  private final AtomicInteger unprocessed = new AtomicInteger();
+
+  private final Api api =
+      new Api(
+          ddb,
+          "table",
+          s3.client,
+          "bucket",
+          AwsCrypto.builder()
+              .withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt)
+              .build(),
+          JceMasterKey.getInstance(
+              new SecretKeySpec(new byte[32], "AES"), "test", "key", "AES/GCM/NoPadding"));
+
+  @BeforeEach
+  void setUp() {
+    when(ddb.batchGetItem(any(BatchGetItemRequest.class)))
+        .thenAnswer(
+            inv -> {
+              BatchGetItemRequest request = inv.getArgument(0);
+              List<Map<String, AttributeValue>> found =
+                  request.getRequestItems().get("table").getKeys().stream()
+                      .map(table::get)
+                      .filter(Objects::nonNull)
+                      .collect(Collectors.toList());
+              return new BatchGetItemResult()
+                  .withResponses(Collections.singletonMap("table", found));
+            });
+    when(ddb.batchWriteItem(any(BatchWriteItemRequest.class)))
+        .thenAnswer(
+            inv -> {
+              BatchWriteItemRequest request = inv.getArgument(0);
+              List<WriteRequest> writes = request.getRequestItems().get("table");
+              writeBatchSizes.add(writes.size());
+              int skipped = Math.min(unprocessed.getAndSet(0), writes.size());
+              for (WriteRequest write : writes.subList(skipped, writes.size())) {
+                table.remove(write.getDeleteRequest().getKey());
+              }
+              return new BatchWriteItemResult()
+                  .withUnprocessedItems(
+                      skipped == 0
+                          ? Collections.emptyMap()
+                          : Collections.singletonMap(
+                              "table", new ArrayList<>(writes.subList(0, skipped))));
+            });
+  }
+
+  private static Map<String, AttributeValue> key(BaseItem item) {
+    Map<String, AttributeValue> key = new HashMap<>();
+    key.put(BaseItem.partitionKeyName(), item.partitionKey());
+    key.put(BaseItem.sortKeyName(), item.sortKey());
+    return key;
+  }
+
+  private void put(BaseItem item) {
+    table.put(key(item), item.toItem());
+  }
+
+  /** Store a document as the Api would: its objects, pointer, context items and index item. */
+  private String addDocument(int chunks) {
+    Instant created = Instant.now();
+    PointerItem pointer =
+        PointerItem.generate(Collections.singletonMap("tenant", "example"))
+            .withChunks(chunks)
+            .withCreated(created);
+    Api.storedObjectKeys(pointer).forEach(objectKey -> s3.objects.put(objectKey, new byte[10]));
+    put(pointer);
+    pointer.contextItems().forEach(this::put);
+    put(TimeIndexItem.fromPointer(pointer, created));
+    return pointer.partitionKey().getS();
+  }
+
+  private static String missingKey() {
+    return PointerItem.generate().partitionKey().getS();
+  }
+
+  @Test
+  void testDocumentsAreDeletedInBatches() {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      keys.add(addDocument(i % 3));
+    }
+    assertEquals(90, table.size());
+    Map<String, DeleteResult> results = api.deleteAll(keys);
+    assertEquals(keys, new ArrayList<>(results.keySet()));
+    results.values().forEach(r -> assertEquals(DeleteResult.Status.DELETED, r.getStatus()));
+    assertTrue(table.isEmpty());
+    assertTrue(s3.objects.isEmpty());
+    // Three items each, in requests of at most 25
+    assertEquals(4, writeBatchSizes.size());
+    assertTrue(writeBatchSizes.stream().allMatch(size -> size <= Api.MAX_BATCH_WRITE));
+    assertEquals(90, writeBatchSizes.stream().mapToInt(Integer::intValue).sum());
+    verify(ddb, times(1)).batchGetItem(any(BatchGetItemRequest.class));
+  }
+
+  @Test
+  void testMissingAndInvalidKeys() {
+    String present = addDocument(0);
+    String missing = missingKey();
+    Map<String, DeleteResult> results =
+        api.deleteAll(List.of(missing, present, "not a key", present));
+    assertEquals(List.of(missing, present, "not a key"), new ArrayList<>(results.keySet()));
+    assertEquals(DeleteResult.Status.NOT_FOUND, results.get(missing).getStatus());
+    assertEquals(DeleteResult.Status.DELETED, results.get(present).getStatus());
+    assertEquals(DeleteResult.Status.FAILED, results.get("not a key").getStatus());
+    assertNotNull(results.get("not a key").getError());
+    assertFalse(api.delete(missing));
+  }
+
+  @Test
+  void testUnprocessedItemsAreRetried() {
+    String key = addDocument(1);
+    unprocessed.set(2);
+    assertTrue(api.delete(key));
+    assertEquals(List.of(3, 2), writeBatchSizes);
+    assertTrue(table.isEmpty());
+  }
+
+  @Test
+  void testFailedObjectDeleteKeepsItems() {
+    String failing = addDocument(1);
+    String other = addDocument(0);
+    doAnswer(
+            inv -> {
+              DeleteObjectsRequest request = inv.getArgument(0);
+              request.getKeys().stream()
+                  .map(DeleteObjectsRequest.KeyVersion::getKey)
+                  .filter(objectKey -> !objectKey.equals(failing))
+                  .forEach(s3.objects::remove);
+              MultiObjectDeleteException.DeleteError error =
+                  new MultiObjectDeleteException.DeleteError();
+              error.setKey(failing);
+              error.setCode("AccessDenied");
+              error.setMessage("Access Denied");
+              throw new MultiObjectDeleteException(List.of(error), Collections.emptyList());
+            })
+        .when(s3.client)
+        .deleteObjects(any(DeleteObjectsRequest.class));
+    Map<String, DeleteResult> results = api.deleteAll(List.of(failing, other));
+    assertEquals(DeleteResult.Status.FAILED, results.get(failing).getStatus());
+    assertEquals(DeleteResult.Status.DELETED, results.get(other).getStatus());
+    // The failed document keeps its pointer, so that the delete can be retried from it
+    assertTrue(table.containsKey(PointerItem.atKey(failing)));
+    assertFalse(table.containsKey(PointerItem.atKey(other)));
+    assertEquals(3, table.size());
+    assertThrows(DocumentBucketException.class, () -> api.delete(failing));
+  }
+
+  @Test
+  void testFailedItemDeleteFailsItsDocuments() {
+    String key = addDocument(0);
+    doThrow(new AmazonServiceException("Internal error"))
+        .when(ddb)
+        .batchWriteItem(any(BatchWriteItemRequest.class));
+    Map<String, DeleteResult> results = api.deleteAll(List.of(key, missingKey()));
+    assertEquals(DeleteResult.Status.FAILED, results.get(key).getStatus());
+    assertTrue(results.get(key).getError() instanceof DocumentBucketException);
+    assertEquals(3, table.size());
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.amazonaws.encryptionsdk.AwsCrypto;
+import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.jce.JceMasterKey;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.s3.AmazonS3;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+
+public class DirectorySyncTest {
+  private final List<String> stored = new CopyOnWriteArrayList<>();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final Api api =
+      new Api(
+          mock(AmazonDynamoDB.class),
+          "table",
+          mock(AmazonS3.class),
+          "bucket",
+          AwsCrypto.builder()
+              .withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt)
+              .build(),
+          JceMasterKey.getInstance(
+              new SecretKeySpec(new byte[32], "AES"), "test", "key", "AES/GCM/NoPadding")) {
+        @Override
+        public PointerItem store(ByteBuffer data, Map<String, String> context) {
+          // As chunked storage does, queue work on the executor and wait for it
+          CompletableFuture.runAsync(() -> {}, getExecutor()).join();
+          stored.add(StandardCharsets.UTF_8.decode(data.duplicate()).toString());
+          return PointerItem.generate(context);
+        }
+      };
+  private Path root;
+  private Path manifestFile;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    root = Files.createTempDirectory("sync");
+    manifestFile = Files.createTempDirectory("manifest").resolve("manifest");
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    executor.shutdownNow();
+    for (Path directory : List.of(root, manifestFile.getParent())) {
+      try (Stream<Path> paths = Files.walk(directory)) {
+        for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  private void write(String name, String content) throws IOException {
+    Files.write(root.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private SyncReport sync() {
+    return new DirectorySync(api, root, manifestFile).withParallelism(2).sync();
+  }
+
+  @Test
+  void testUnchangedFilesAreSkipped() throws IOException {
+    write("a.txt", "apples");
+    write("b.txt", "bananas");
+    assertEquals(2, sync().getUploaded());
+    SyncReport again = sync();
+    assertEquals(2, again.getUnchanged());
+    assertEquals(0, again.getUploaded());
+    // A file that is only touched is hashed, but not stored again
+    Path touched = root.resolve("a.txt");
+    Files.setLastModifiedTime(
+        touched, FileTime.fromMillis(Files.getLastModifiedTime(touched).toMillis() + 10_000));
+    SyncReport rehashed = sync();
+    assertEquals(1, rehashed.getUnchanged());
+    assertEquals(1, rehashed.getRehashed());
+    assertEquals(0, rehashed.getUploaded());
+    assertEquals(2, stored.size());
+  }
+
+  @Test
+  void testTruncatedJournalRecordIsIgnored() throws IOException {
+    write("a.txt", "apples");
+    write("b.txt", "bananas");
+    sync();
+    // Cut the last record short, as a crash part way through appending it would
+    try (FileChannel channel = FileChannel.open(manifestFile, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+    SyncReport report = sync();
+    assertEquals(1, report.getUnchanged());
+    assertEquals(1, report.getUploaded());
+    assertEquals(0, report.getFailed());
+    // The rewritten journal holds both files again
+    assertEquals(2, sync().getUnchanged());
+  }
+
+  @Test
+  void testManifestIsCompactedAfterRemovals() throws IOException {
+    write("a.txt", "apples");
+    write("b.txt", "bananas");
+    write("c.txt", "cherries");
+    sync();
+    long full = Files.size(manifestFile);
+    Files.delete(root.resolve("c.txt"));
+    assertEquals(2, sync().getUnchanged());
+    // Every record has the same length, as the paths and document keys do
+    assertEquals(full * 2 / 3, Files.size(manifestFile));
+    // A changed file supersedes its record, which is compacted away as well
+    write("a.txt", "apricots");
+    Files.setLastModifiedTime(
+        root.resolve("a.txt"),
+        FileTime.fromMillis(Files.getLastModifiedTime(root.resolve("b.txt")).toMillis() + 10_000));
+    assertEquals(1, sync().getUploaded());
+    assertEquals(full * 2 / 3, Files.size(manifestFile));
+    assertEquals(2, sync().getUnchanged());
+  }
+
+  @Test
+  void testStoreMayWaitOnApiExecutor() throws Exception {
+    // The executor's only thread is free for the store, since files are not synced on it
+    api.withExecutor(executor);
+    write("a.txt", "apples");
+    write("b.txt", "bananas");
+    SyncReport report = CompletableFuture.supplyAsync(this::sync).get(10, TimeUnit.SECONDS);
+    assertEquals(2, report.getUploaded());
+  }
+}
@@ -0,0 +1,171 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.amazonaws.encryptionsdk.AwsCrypto;
+import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.jce.JceMasterKey;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.s3.AmazonS3;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sfw.example.esdkworkshop.datamodel.DocumentBundle;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+
+public class DocumentExporterTest {
+  private final Set<String> read = ConcurrentHashMap.newKeySet();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final Api api =
+      new Api(
+          mock(AmazonDynamoDB.class),
+          "table",
+          mock(AmazonS3.class),
+          "bucket",
+          AwsCrypto.builder()
+              .withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt)
+              .build(),
+          JceMasterKey.getInstance(
+              new SecretKeySpec(new byte[32], "AES"), "test", "key", "AES/GCM/NoPadding")) {
+        @Override
+        protected byte[] getStoredData(PointerItem pointer) {
+          // As hedged reads do, queue work on the executor and wait for it
+          CompletableFuture.runAsync(() -> {}, getExecutor()).join();
+          String key = pointer.partitionKey().getS();
+          read.add(key);
+          return key.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected DocumentBundle decrypt(String key, byte[] message) {
+          return DocumentBundle.fromDataAndPointer(message, PointerItem.generate(context()));
+        }
+      };
+  private Path directory;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("export");
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    executor.shutdownNow();
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  private static Map<String, String> context() {
+    Map<String, String> context = new HashMap<>();
+    context.put("fleet", "gamma & delta");
+    context.put("a=b", "tab\there");
+    context.put("\u00fcber", "\u2603 snow");
+    return context;
+  }
+
+  private Path manifestFile() {
+    return directory.resolve(DocumentExporter.MANIFEST_NAME);
+  }
+
+  private void writeManifest(String content) throws IOException {
+    Files.write(manifestFile(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private String readManifest() throws IOException {
+    return new String(Files.readAllBytes(manifestFile()), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void testTrimPartialLine() throws IOException {
+    writeManifest("first\t1\t\nsecond\t2");
+    DocumentExporter.trimPartialLine(manifestFile());
+    assertEquals("first\t1\t\n", readManifest());
+    // A complete manifest is left as it is
+    DocumentExporter.trimPartialLine(manifestFile());
+    assertEquals("first\t1\t\n", readManifest());
+    writeManifest("partial");
+    DocumentExporter.trimPartialLine(manifestFile());
+    assertEquals("", readManifest());
+  }
+
+  @Test
+  void testContextRoundTrip() {
+    Map<String, String> context = context();
+    String line = "key\t5\t" + DocumentExporter.formatContext(context);
+    assertEquals(context, DocumentExporter.parseContext(line));
+    assertEquals(
+        Collections.emptyMap(),
+        DocumentExporter.parseContext("key\t5\t" + DocumentExporter.formatContext(Map.of())));
+  }
+
+  @Test
+  void testSdkContextKeysAreNotFormatted() {
+    Map<String, String> context = context();
+    context.put(Api.RESERVED_SDK_CONTEXT_PREFIX + "public-key", "key");
+    assertEquals(
+        context(),
+        DocumentExporter.parseContext("key\t5\t" + DocumentExporter.formatContext(context)));
+  }
+
+  @Test
+  void testExportResumesFromManifest() throws IOException {
+    List<PointerItem> pointers =
+        List.of(PointerItem.generate(), PointerItem.generate(), PointerItem.generate());
+    String done = pointers.get(0).partitionKey().getS();
+    String interrupted = pointers.get(1).partitionKey().getS();
+    // The first document was exported, and the line for the second cut short
+    writeManifest(done + "\t36\t\n" + interrupted + "\t3");
+    ExportReport report = new DocumentExporter(api, directory).export(pointers);
+    assertEquals(1, report.getSkipped());
+    assertEquals(2, report.getExported());
+    assertEquals(0, report.getFailed());
+    assertFalse(read.contains(done));
+    String[] lines = readManifest().split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].startsWith(done + "\t"));
+    for (PointerItem pointer : pointers.subList(1, 3)) {
+      String key = pointer.partitionKey().getS();
+      assertArrayEquals(
+          key.getBytes(StandardCharsets.UTF_8),
+          Files.readAllBytes(directory.resolve(DocumentExporter.fileName(key))));
+    }
+    for (int i = 1; i < 3; i++) {
+      assertEquals(context(), DocumentExporter.parseContext(lines[i]));
+    }
+  }
+
+  @Test
+  void testExportMayWaitOnApiExecutor() throws Exception {
+    // The executor's only thread is free for the reads, since documents are not exported on it
+    api.withExecutor(executor);
+    DocumentExporter exporter = new DocumentExporter(api, directory).withParallelism(2);
+    List<PointerItem> pointers = List.of(PointerItem.generate(), PointerItem.generate());
+    ExportReport report =
+        CompletableFuture.supplyAsync(() -> exporter.export(pointers)).get(10, TimeUnit.SECONDS);
+    assertEquals(2, report.getExported());
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class HedgedReadsTest {
+  /** The requests before the first hedging delay is computed, as in {@link HedgedReads}. */
+  private static final int WARM_UP = 50;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final AtomicInteger sent = new AtomicInteger();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final CompletableFuture<String> discarded = new CompletableFuture<>();
+
+  @AfterEach
+  void shutDown() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  private void warmUp(HedgedReads hedged) {
+    for (int i = 0; i < WARM_UP; i++) {
+      assertEquals("fast", hedged.get(this::fast, discarded::complete));
+    }
+  }
+
+  private String fast() {
+    sent.incrementAndGet();
+    return "fast";
+  }
+
+  /** A request whose first copy waits to be released, and whose later copies return at once. */
+  private Supplier<String> slowThenFast(String slow, String fast) {
+    int first = sent.get() + 1;
+    return () -> {
+      if (sent.incrementAndGet() > first) {
+        return fast;
+      }
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return slow;
+    };
+  }
+
+  @Test
+  void testDelayIsComputedAfterWarmUp() {
+    HedgedReads hedged = new HedgedReads(50, 100, executor);
+    Thread caller = Thread.currentThread();
+    for (int i = 0; i < WARM_UP; i++) {
+      // Without a delay, requests are not hedged, so are sent on the calling thread
+      assertSame(caller, hedged.get(Thread::currentThread, thread -> {}));
+    }
+    assertNotSame(caller, hedged.get(Thread::currentThread, thread -> {}));
+  }
+
+  @Test
+  void testSlowRequestIsHedgedAndLoserDiscarded() throws Exception {
+    HedgedReads hedged = new HedgedReads(50, 100, executor);
+    warmUp(hedged);
+    assertEquals("hedge", hedged.get(slowThenFast("primary", "hedge"), discarded::complete));
+    assertEquals(WARM_UP + 2, sent.get());
+    assertFalse(discarded.isDone());
+    release.countDown();
+    assertEquals("primary", discarded.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void testHedgesAreLimitedByBudget() throws Exception {
+    // Each request earns 2% of a hedge, so the warm-up and one more earn exactly one
+    HedgedReads hedged = new HedgedReads(50, 2, executor);
+    warmUp(hedged);
+    assertEquals("hedge", hedged.get(slowThenFast("primary", "hedge"), response -> {}));
+    assertEquals(WARM_UP + 2, sent.get());
+    CompletableFuture<String> unhedged =
+        CompletableFuture.supplyAsync(
+            () -> hedged.get(slowThenFast("primary", "hedge"), response -> {}));
+    Thread.sleep(100);
+    // Out of budget, the slow request is left to finish on its own
+    assertFalse(unhedged.isDone());
+    assertEquals(WARM_UP + 3, sent.get());
+    release.countDown();
+    assertEquals("primary", unhedged.get(10, TimeUnit.SECONDS));
+    assertEquals(WARM_UP + 3, sent.get());
+  }
+
+  @Test
+  void testRequestFailsOnlyIfEveryCopyFails() {
+    HedgedReads hedged = new HedgedReads(50, 100, executor);
+    warmUp(hedged);
+    int first = sent.get() + 1;
+    IllegalStateException failure = new IllegalStateException("hedge failed");
+    Supplier<String> request =
+        () -> {
+          if (sent.incrementAndGet() > first) {
+            throw failure;
+          }
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+          throw new IllegalStateException("primary failed");
+        };
+    CompletableFuture<String> result =
+        CompletableFuture.supplyAsync(() -> hedged.get(request, response -> {}));
+    // The hedge has failed, but the primary may yet succeed
+    assertThrows(TimeoutException.class, () -> result.get(100, TimeUnit.MILLISECONDS));
+    assertFalse(result.isDone());
+    release.countDown();
+    CompletionException thrown = assertThrows(CompletionException.class, result::join);
+    assertEquals("primary failed", thrown.getCause().getMessage());
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.amazonaws.util.IOUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A mock {@link AmazonS3} backed by a map, for the requests the {@link Api} makes. */
+class InMemoryS3 {
+  final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+  /** When each object was written through the client; objects put directly are listed as old. */
+  final Map<String, Instant> modified = new ConcurrentHashMap<>();
+
+  final Map<String, ByteArrayOutputStream> uploads = new ConcurrentHashMap<>();
+  final AmazonS3 client = mock(AmazonS3.class);
+
+  InMemoryS3() {
+    when(client.putObject(
+            anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class)))
+        .thenAnswer(
+            inv -> {
+              objects.put(
+                  inv.getArgument(1), IOUtils.toByteArray((InputStream) inv.getArgument(2)));
+              modified.put(inv.getArgument(1), Instant.now());
+              return new PutObjectResult();
+            });
+    when(client.getObject(anyString(), anyString()))
+        .thenAnswer(inv -> object(inv.getArgument(1), 0, Long.MAX_VALUE - 1));
+    when(client.getObject(any(GetObjectRequest.class)))
+        .thenAnswer(
+            inv -> {
+              GetObjectRequest request = inv.getArgument(0);
+              return object(request.getKey(), request.getRange()[0], request.getRange()[1]);
+            });
+    when(client.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class)))
+        .thenAnswer(
+            inv -> {
+              String uploadId = "upload-" + uploads.size();
+              uploads.put(uploadId, new ByteArrayOutputStream());
+              InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+              result.setUploadId(uploadId);
+              return result;
+            });
+    when(client.uploadPart(any(UploadPartRequest.class)))
+        .thenAnswer(
+            inv -> {
+              UploadPartRequest request = inv.getArgument(0);
+              uploads
+                  .get(request.getUploadId())
+                  .write(IOUtils.toByteArray(request.getInputStream()));
+              UploadPartResult result = new UploadPartResult();
+              result.setPartNumber(request.getPartNumber());
+              result.setETag("etag-" + request.getPartNumber());
+              return result;
+            });
+    when(client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+        .thenAnswer(
+            inv -> {
+              CompleteMultipartUploadRequest request = inv.getArgument(0);
+              objects.put(request.getKey(), uploads.remove(request.getUploadId()).toByteArray());
+              modified.put(request.getKey(), Instant.now());
+              return new CompleteMultipartUploadResult();
+            });
+    when(client.listObjectsV2(any(ListObjectsV2Request.class)))
+        .thenAnswer(
+            inv -> {
+              // A single page, in key order
+              ListObjectsV2Result result = new ListObjectsV2Result();
+              for (Map.Entry<String, byte[]> object : new TreeMap<>(objects).entrySet()) {
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setKey(object.getKey());
+                summary.setSize(object.getValue().length);
+                summary.setLastModified(
+                    Date.from(modified.getOrDefault(object.getKey(), Instant.EPOCH)));
+                result.getObjectSummaries().add(summary);
+              }
+              return result;
+            });
+    when(client.deleteObjects(any(DeleteObjectsRequest.class)))
+        .thenAnswer(
+            inv -> {
+              DeleteObjectsRequest request = inv.getArgument(0);
+              request.getKeys().forEach(key -> objects.remove(key.getKey()));
+              return new DeleteObjectsResult(Collections.emptyList());
+            });
+  }
+
+  private S3Object object(String key, long from, long to) {
+    byte[] data = objects.get(key);
+    int end = (int) Math.min(to + 1, data.length);
+    S3Object object = new S3Object();
+    object.setKey(key);
+    object.setObjectContent(new ByteArrayInputStream(Arrays.copyOfRange(data, (int) from, end)));
+    ObjectMetadata metadata = new ObjectMetadata();
+    metadata.setContentLength(end - from);
+    metadata.setHeader("Content-Range", "bytes " + from + "-" + (end - 1) + "/" + data.length);
+    object.setObjectMetadata(metadata);
+    return object;
+  }
+}
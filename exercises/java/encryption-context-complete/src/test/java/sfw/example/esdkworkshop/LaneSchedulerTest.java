@@ -0,0 +1,175 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class LaneSchedulerTest {
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final List<Thread> threads = new ArrayList<>();
+
+  @AfterEach
+  void shutDown() throws InterruptedException {
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.interrupt();
+      thread.join(TimeUnit.SECONDS.toMillis(10));
+    }
+  }
+
+  /** Start a call on a thread of its own, and return once it is running or waiting its turn. */
+  private <T> CompletableFuture<T> start(LaneScheduler scheduler, Lane lane, Supplier<T> call)
+      throws InterruptedException {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                result.complete(scheduler.call(lane, call));
+              } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+              }
+            });
+    threads.add(thread);
+    thread.start();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (thread.getState() != Thread.State.WAITING && !result.isDone()) {
+      assertTrue(System.nanoTime() < deadline, "Call never started");
+      Thread.sleep(1);
+    }
+    return result;
+  }
+
+  private Supplier<String> blocking(AtomicInteger running) {
+    return () -> {
+      running.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      } finally {
+        running.decrementAndGet();
+      }
+      return "done";
+    };
+  }
+
+  @Test
+  void testLaneLimit() throws Exception {
+    LaneScheduler scheduler = new LaneScheduler(3, new int[] {3, 1}, new int[] {1, 1});
+    AtomicInteger bulk = new AtomicInteger();
+    List<CompletableFuture<String>> bulkCalls = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      bulkCalls.add(start(scheduler, Lane.BULK, blocking(bulk)));
+    }
+    assertEquals(1, bulk.get());
+    // The bulk lane is at its limit, but the interactive lane may still use the free slots
+    assertEquals("interactive", scheduler.call(Lane.INTERACTIVE, () -> "interactive"));
+    release.countDown();
+    for (CompletableFuture<String> call : bulkCalls) {
+      assertEquals("done", call.get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  void testMaxConcurrency() throws Exception {
+    LaneScheduler scheduler = new LaneScheduler(2, new int[] {2, 2}, new int[] {1, 1});
+    AtomicInteger running = new AtomicInteger();
+    List<CompletableFuture<String>> calls = new ArrayList<>();
+    calls.add(start(scheduler, Lane.INTERACTIVE, blocking(running)));
+    calls.add(start(scheduler, Lane.BULK, blocking(running)));
+    calls.add(start(scheduler, Lane.INTERACTIVE, blocking(running)));
+    assertEquals(2, running.get());
+    assertFalse(calls.get(2).isDone());
+    release.countDown();
+    for (CompletableFuture<String> call : calls) {
+      assertEquals("done", call.get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  void testSlotsAreSharedByWeight() throws Exception {
+    LaneScheduler scheduler = new LaneScheduler(1, new int[] {1, 1}, new int[] {2, 1});
+    List<Lane> order = Collections.synchronizedList(new ArrayList<>());
+    CompletableFuture<String> blocker =
+        start(scheduler, Lane.INTERACTIVE, blocking(new AtomicInteger()));
+    List<CompletableFuture<Boolean>> calls = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      calls.add(start(scheduler, Lane.INTERACTIVE, () -> order.add(Lane.INTERACTIVE)));
+    }
+    for (int i = 0; i < 2; i++) {
+      calls.add(start(scheduler, Lane.BULK, () -> order.add(Lane.BULK)));
+    }
+    release.countDown();
+    blocker.get(10, TimeUnit.SECONDS);
+    for (CompletableFuture<Boolean> call : calls) {
+      call.get(10, TimeUnit.SECONDS);
+    }
+    // The idle bulk lane joins at the current pass, then each lane takes slots by its weight
+    assertEquals(
+        Arrays.asList(
+            Lane.BULK,
+            Lane.INTERACTIVE,
+            Lane.INTERACTIVE,
+            Lane.BULK,
+            Lane.INTERACTIVE,
+            Lane.INTERACTIVE),
+        order);
+  }
+
+  @Test
+  void testSlotsAreHandedOffBetweenLanes() throws Exception {
+    LaneScheduler scheduler = new LaneScheduler(2, new int[] {2, 1}, new int[] {3, 1});
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<CompletableFuture<Void>> workers = new ArrayList<>();
+    for (int worker = 0; worker < 8; worker++) {
+      Lane lane = worker % 2 == 0 ? Lane.INTERACTIVE : Lane.BULK;
+      workers.add(
+          CompletableFuture.runAsync(
+              () -> {
+                for (int i = 0; i < 200; i++) {
+                  scheduler.call(
+                      lane,
+                      () -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        Thread.yield();
+                        return running.decrementAndGet();
+                      });
+                }
+              }));
+    }
+    CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+    assertTrue(maxRunning.get() <= 2);
+  }
+
+  @Test
+  void testInterruptedWaiterLeavesQueue() throws Exception {
+    LaneScheduler scheduler = new LaneScheduler(1, new int[] {1, 1}, new int[] {1, 1});
+    CompletableFuture<String> blocker =
+        start(scheduler, Lane.INTERACTIVE, blocking(new AtomicInteger()));
+    CompletableFuture<String> interrupted = start(scheduler, Lane.INTERACTIVE, () -> "waited");
+    threads.get(threads.size() - 1).interrupt();
+    ExecutionException thrown =
+        assertThrows(ExecutionException.class, () -> interrupted.get(10, TimeUnit.SECONDS));
+    assertTrue(thrown.getCause() instanceof DocumentBucketException);
+    CompletableFuture<String> bulk = start(scheduler, Lane.BULK, () -> "bulk");
+    release.countDown();
+    assertEquals("done", blocker.get(10, TimeUnit.SECONDS));
+    assertEquals("bulk", bulk.get(10, TimeUnit.SECONDS));
+  }
+}
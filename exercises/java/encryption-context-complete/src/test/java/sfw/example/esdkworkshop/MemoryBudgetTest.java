@@ -0,0 +1,135 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class MemoryBudgetTest {
+  private static final long CAPACITY = 100;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @AfterEach
+  void shutDown() {
+    // Leases are current on their thread until closed, so none may leak into the next test
+    MemoryBudget.current().close();
+    executor.shutdownNow();
+  }
+
+  /** Open a lease on another thread and charge it, closing it once the charge is granted. */
+  private CompletableFuture<Void> chargeElsewhere(MemoryBudget budget, long bytes) {
+    return CompletableFuture.runAsync(
+        () -> {
+          try (MemoryBudget.Lease lease = budget.open()) {
+            lease.charge(bytes);
+          }
+        },
+        executor);
+  }
+
+  private static void assertRejected(CompletableFuture<Void> charge) throws Exception {
+    ExecutionException thrown =
+        assertThrows(ExecutionException.class, () -> charge.get(10, TimeUnit.SECONDS));
+    assertTrue(thrown.getCause() instanceof DocumentBucketException);
+    assertTrue(thrown.getCause().getCause() instanceof RejectedExecutionException);
+  }
+
+  @Test
+  void testLoneOversizedCallIsAdmitted() {
+    MemoryBudget budget = new MemoryBudget(CAPACITY, Duration.ZERO);
+    try (MemoryBudget.Lease lease = budget.open()) {
+      lease.charge(10 * CAPACITY);
+    }
+  }
+
+  @Test
+  void testOnlyFirstChargeWaits() throws Exception {
+    MemoryBudget budget = new MemoryBudget(CAPACITY, Duration.ofSeconds(10));
+    MemoryBudget.Lease held = budget.open();
+    held.charge(60);
+    CompletableFuture<Void> waiting = chargeElsewhere(budget, 60);
+    Thread.sleep(100);
+    assertFalse(waiting.isDone());
+    // The admitted call's further charges are granted at once, even over the budget
+    held.charge(CAPACITY);
+    assertFalse(waiting.isDone());
+    held.close();
+    waiting.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void testWaitTimesOut() throws Exception {
+    MemoryBudget budget = new MemoryBudget(CAPACITY, Duration.ofMillis(50));
+    try (MemoryBudget.Lease held = budget.open()) {
+      held.charge(60);
+      assertRejected(chargeElsewhere(budget, 60));
+      // A call that fits is still admitted
+      chargeElsewhere(budget, 40).get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void testRefundReleasesBytes() throws Exception {
+    MemoryBudget budget = new MemoryBudget(CAPACITY, Duration.ofMillis(50));
+    try (MemoryBudget.Lease held = budget.open()) {
+      held.charge(60);
+      held.refund(60);
+      chargeElsewhere(budget, 60).get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void testNestedLeaseChargesOuterLease() throws Exception {
+    MemoryBudget budget = new MemoryBudget(CAPACITY, Duration.ofMillis(50));
+    MemoryBudget.Lease outer = budget.open();
+    try (MemoryBudget.Lease inner = budget.open()) {
+      assertNotSame(outer, inner);
+      inner.charge(60);
+    }
+    // Closing the nested lease releases nothing, since the outer call still holds the bytes
+    assertSame(outer, MemoryBudget.current());
+    assertRejected(chargeElsewhere(budget, 60));
+    outer.close();
+    assertSame(MemoryBudget.none(), MemoryBudget.current());
+    chargeElsewhere(budget, 60).get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void testRunAdoptsLeaseOnAnotherThread() throws Exception {
+    MemoryBudget budget = new MemoryBudget(CAPACITY, Duration.ofMillis(50));
+    MemoryBudget.Lease outer = budget.open();
+    CompletableFuture.runAsync(
+            () -> {
+              outer.run(
+                  () -> {
+                    MemoryBudget.current().charge(60);
+                    return null;
+                  });
+              // The lease is only current for the work
+              assertSame(MemoryBudget.none(), MemoryBudget.current());
+            },
+            executor)
+        .get(10, TimeUnit.SECONDS);
+    assertRejected(chargeElsewhere(budget, 60));
+    outer.close();
+    chargeElsewhere(budget, 60).get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void testNoBudgetChargesNothing() {
+    assertSame(MemoryBudget.none(), MemoryBudget.current());
+    MemoryBudget.none().charge(Long.MAX_VALUE);
+    MemoryBudget.none().close();
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import com.amazonaws.encryptionsdk.AwsCrypto;
+import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.CryptoResult;
+import com.amazonaws.encryptionsdk.jce.JceMasterKey;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+
+public class ReEncryptObjectTest {
+  private final InMemoryS3 s3 = new InMemoryS3();
+  private final AwsCrypto crypto =
+      AwsCrypto.builder().withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt).build();
+  private final JceMasterKey source = key("source", 1);
+  private final JceMasterKey target = key("target", 2);
+  private final Api api =
+      new Api(mock(AmazonDynamoDB.class), "table", s3.client, "bucket", crypto, source);
+
+  private static JceMasterKey key(String keyId, int seed) {
+    byte[] bytes = new byte[32];
+    bytes[0] = (byte) seed;
+    return JceMasterKey.getInstance(
+        new SecretKeySpec(bytes, "AES"), "test", keyId, "AES/GCM/NoPadding");
+  }
+
+  private void assertReEncrypted(String key, byte[] plaintext, Map<String, String> context) {
+    CryptoResult<byte[], JceMasterKey> decrypted = crypto.decryptData(target, s3.objects.get(key));
+    assertArrayEquals(plaintext, decrypted.getResult());
+    assertEquals("target", decrypted.getMasterKeyIds().get(0));
+    assertEquals(context.get("tenant"), decrypted.getEncryptionContext().get("tenant"));
+  }
+
+  private byte[] storeUnderSource(String key, int length, Map<String, String> context) {
+    byte[] plaintext = new byte[length];
+    new Random(length).nextBytes(plaintext);
+    s3.objects.put(key, crypto.encryptData(source, plaintext, context).getResult());
+    return plaintext;
+  }
+
+  @Test
+  void testSmallObjectIsPutWhole() {
+    Map<String, String> context = Collections.singletonMap("tenant", "example");
+    byte[] plaintext = storeUnderSource("small", 1000, context);
+    api.reEncryptObject("small", target, context);
+    assertReEncrypted("small", plaintext, context);
+    verify(s3.client, never()).uploadPart(any(UploadPartRequest.class));
+  }
+
+  @Test
+  void testLargeObjectIsUploadedInParts() {
+    Map<String, String> context = Collections.singletonMap("tenant", "example");
+    byte[] plaintext = storeUnderSource("large", Api.REENCRYPT_PART_SIZE * 2 + 100, context);
+    api.reEncryptObject("large", target, context);
+    assertReEncrypted("large", plaintext, context);
+    verify(s3.client, times(3)).uploadPart(any(UploadPartRequest.class));
+  }
+}
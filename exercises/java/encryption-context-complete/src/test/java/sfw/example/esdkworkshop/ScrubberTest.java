@@ -0,0 +1,194 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.amazonaws.encryptionsdk.AwsCrypto;
+import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.jce.JceMasterKey;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+import sfw.example.esdkworkshop.ScrubReport.Finding;
+import sfw.example.esdkworkshop.datamodel.BaseItem;
+import sfw.example.esdkworkshop.datamodel.ContextItem;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+import sfw.example.esdkworkshop.datamodel.SegmentLocation;
+
+public class ScrubberTest {
+  private static final Instant OLD = Instant.now().minus(Duration.ofDays(1));
+
+  private final InMemoryS3 s3 = new InMemoryS3();
+  private final List<Map<String, AttributeValue>> table = new CopyOnWriteArrayList<>();
+  private final List<BaseItem> written = new CopyOnWriteArrayList<>();
+  private final List<Map<String, AttributeValue>> deleted = new CopyOnWriteArrayList<>();
+  private final Api api =
+      new Api(
+          mock(AmazonDynamoDB.class),
+          "table",
+          s3.client,
+          "bucket",
+          AwsCrypto.builder()
+              .withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt)
+              .build(),
+          JceMasterKey.getInstance(
+              new SecretKeySpec(new byte[32], "AES"), "test", "key", "AES/GCM/NoPadding")) {
+        @Override
+        protected void scanSegment(
+            int segment, int totalSegments, Consumer<Map<String, AttributeValue>> consumer) {
+          if (segment == 0) {
+            table.forEach(consumer);
+          }
+        }
+
+        @Override
+        protected <T extends BaseItem> Map<String, AttributeValue> writeItem(T modeledItem) {
+          written.add(modeledItem);
+          return modeledItem.toItem();
+        }
+
+        @Override
+        protected void batchDeleteItems(
+            Map<Map<String, AttributeValue>, String> itemOwners,
+            Map<String, RuntimeException> failures) {
+          deleted.addAll(itemOwners.keySet());
+        }
+      };
+
+  private static Map<String, String> context() {
+    Map<String, String> context = new HashMap<>();
+    context.put("fleet", "gamma");
+    context.put("region", "sp-moon-1");
+    return context;
+  }
+
+  /** Add a pointer to the table, with the context items of its context. */
+  private PointerItem addPointer(PointerItem pointer) {
+    table.add(pointer.toItem());
+    pointer.contextItems().forEach(contextItem -> table.add(contextItem.toItem()));
+    return pointer;
+  }
+
+  private static String key(PointerItem pointer) {
+    return pointer.partitionKey().getS();
+  }
+
+  private static String contextKey(PointerItem pointer, String key) {
+    Map<String, String> context = Collections.singletonMap(key, pointer.getContext().get(key));
+    return PointerItem.generate(context).contextItems().iterator().next().partitionKey().getS();
+  }
+
+  private ScrubReport scrub() {
+    return new Scrubber(api).withScanSegments(2).scrub();
+  }
+
+  @Test
+  void testConsistentDocumentHasNoFindings() {
+    PointerItem pointer = addPointer(PointerItem.generate(context()).withCreated(OLD));
+    s3.objects.put(key(pointer), new byte[10]);
+    ScrubReport report = scrub();
+    assertEquals(1, report.getDocuments());
+    assertEquals(1, report.getObjects());
+    for (Finding finding : Finding.values()) {
+      assertEquals(0, report.getCount(finding), finding.toString());
+    }
+  }
+
+  @Test
+  void testDanglingPointer() {
+    PointerItem pointer = addPointer(PointerItem.generate(context()).withCreated(OLD));
+    PointerItem chunked = addPointer(PointerItem.generate().withChunks(2).withCreated(OLD));
+    s3.objects.put(key(chunked), new byte[10]);
+    s3.objects.put(key(chunked) + "/0", new byte[10]);
+    ScrubReport report = scrub();
+    assertEquals(2, report.getCount(Finding.DANGLING_POINTER));
+    assertTrue(report.getSamples(Finding.DANGLING_POINTER).contains(key(pointer)));
+    // A chunked document with a missing chunk is dangling as well
+    assertTrue(report.getSamples(Finding.DANGLING_POINTER).contains(key(chunked)));
+  }
+
+  @Test
+  void testOrphanObjectIsReportedAndDeleted() {
+    String orphan = PointerItem.generate().partitionKey().getS();
+    s3.objects.put(orphan, new byte[10]);
+    s3.objects.put(orphan + "/0", new byte[10]);
+    PointerItem inline =
+        addPointer(PointerItem.generate().withInlineData(new byte[10]).withCreated(OLD));
+    s3.objects.put(key(inline), new byte[10]);
+    ScrubReport report = new Scrubber(api).withRepair(true).scrub();
+    assertEquals(3, report.getCount(Finding.ORPHAN_OBJECT));
+    // An object left beside an inline document is an orphan too
+    assertTrue(report.getSamples(Finding.ORPHAN_OBJECT).contains(key(inline)));
+    assertEquals(3, report.getRepaired());
+    assertTrue(s3.objects.isEmpty());
+  }
+
+  @Test
+  void testMissingAndStaleContextItems() {
+    PointerItem pointer = PointerItem.generate(context()).withCreated(OLD);
+    table.add(pointer.toItem());
+    s3.objects.put(key(pointer), new byte[10]);
+    // The fleet item is missing, and an item for a key the document does not have is stale
+    String stale =
+        contextKey(PointerItem.generate(Collections.singletonMap("stage", "x")), "stage");
+    table.add(ContextItem.fromContext(contextKey(pointer, "region"), key(pointer)).toItem());
+    table.add(ContextItem.fromContext(stale, key(pointer)).toItem());
+    // And so is one whose document is gone altogether
+    String gone = PointerItem.generate().partitionKey().getS();
+    table.add(ContextItem.fromContext(contextKey(pointer, "fleet"), gone).toItem());
+    ScrubReport report = new Scrubber(api).withRepair(true).scrub();
+    assertEquals(
+        List.of(contextKey(pointer, "fleet")), report.getSamples(Finding.MISSING_CONTEXT_ITEM));
+    assertEquals(2, report.getCount(Finding.STALE_CONTEXT_ITEM));
+    assertTrue(report.getSamples(Finding.STALE_CONTEXT_ITEM).contains(stale));
+    assertEquals(
+        List.of(ContextItem.fromContext(contextKey(pointer, "fleet"), key(pointer)).toItem()),
+        written.stream().map(BaseItem::toItem).collect(Collectors.toList()));
+    assertEquals(2, deleted.size());
+    assertTrue(deleted.contains(ContextItem.fromContext(stale, key(pointer)).toItem()));
+    assertEquals(3, report.getRepaired());
+  }
+
+  @Test
+  void testGracePeriodLeavesNewDocumentsAlone() throws Exception {
+    // A pointer written before its object, and an object whose pointer the scan missed
+    addPointer(PointerItem.generate(context()).withCreated(Instant.now()));
+    String objectKey = PointerItem.generate().partitionKey().getS();
+    s3.objects.put(objectKey, new byte[10]);
+    s3.modified.put(objectKey, Instant.now());
+    ScrubReport report = new Scrubber(api).withGracePeriod(Duration.ofMinutes(5)).scrub();
+    assertEquals(0, report.getCount(Finding.DANGLING_POINTER));
+    assertEquals(0, report.getCount(Finding.ORPHAN_OBJECT));
+    // Once the grace period has passed, both are found
+    Thread.sleep(5);
+    report = new Scrubber(api).withGracePeriod(Duration.ZERO).scrub();
+    assertEquals(1, report.getCount(Finding.DANGLING_POINTER));
+    assertEquals(List.of(objectKey), report.getSamples(Finding.ORPHAN_OBJECT));
+  }
+
+  @Test
+  void testSegmentsAreNotChecked() {
+    // Neither a pointer into a missing segment nor a segment object is a finding
+    addPointer(
+        PointerItem.generate().withSegment(new SegmentLocation("segment", 0, 10)).withCreated(OLD));
+    s3.objects.put("SEGMENT_other", new byte[10]);
+    ScrubReport report = scrub();
+    assertEquals(1, report.getDocuments());
+    assertEquals(1, report.getObjects());
+    assertEquals(0, report.getCount(Finding.DANGLING_POINTER));
+    assertEquals(0, report.getCount(Finding.ORPHAN_OBJECT));
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.amazonaws.encryptionsdk.AwsCrypto;
+import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.jce.JceMasterKey;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.s3.AmazonS3;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+import sfw.example.esdkworkshop.datamodel.BaseItem;
+import sfw.example.esdkworkshop.datamodel.SegmentLocation;
+
+public class SegmentPackerTest {
+  private static final Duration NEVER = Duration.ofHours(1);
+
+  private final CostAccounting probe = new CostAccounting();
+  private final List<Lane> lanes = new CopyOnWriteArrayList<>();
+  private final List<String> segments = new CopyOnWriteArrayList<>();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private volatile boolean blocking = false;
+  private final Api api =
+      new Api(
+          mock(AmazonDynamoDB.class),
+          "table",
+          mock(AmazonS3.class),
+          "bucket",
+          AwsCrypto.builder()
+              .withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt)
+              .build(),
+          JceMasterKey.getInstance(
+              new SecretKeySpec(new byte[32], "AES"), "test", "key", "AES/GCM/NoPadding")) {
+        @Override
+        protected void writeObject(String key, byte[] data, Map<String, String> context) {
+          lanes.add(Lane.current());
+          probe.current().s3Request("PutObject");
+          if (blocking) {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+          segments.add(key);
+        }
+
+        @Override
+        protected <T extends BaseItem> Map<String, AttributeValue> writeItem(T modeledItem) {
+          return modeledItem.toItem();
+        }
+      };
+
+  @Test
+  void testFullSegmentIsWrittenByFillingCall() {
+    SegmentPacker packer = new SegmentPacker(api, 10, NEVER);
+    CompletableFuture<SegmentLocation> first = packer.add("first", new byte[6]);
+    CompletableFuture<SegmentLocation> second = packer.add("second", new byte[6]);
+    assertTrue(first.isDone() && second.isDone());
+    assertEquals(1, segments.size());
+    assertEquals(6, second.join().getOffset());
+  }
+
+  @Test
+  void testLingeringSegmentIsWrittenInFirstCallersContext() throws Exception {
+    SegmentPacker packer = new SegmentPacker(api, 1000, Duration.ofMillis(10));
+    CompletableFuture<SegmentLocation> first =
+        CostAccounting.call(
+            "store",
+            () ->
+                CostTag.call(
+                    "tenant", () -> Lane.BULK.call(() -> packer.add("first", new byte[6]))));
+    CompletableFuture<SegmentLocation> second = packer.add("second", new byte[6]);
+    CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+    assertEquals(List.of(Lane.BULK), lanes);
+    List<CostReport> report = probe.report();
+    assertEquals(1, report.size());
+    assertEquals("store", report.get(0).getOperation());
+    assertEquals("tenant", report.get(0).getTag());
+  }
+
+  @Test
+  void testSlowWriteDoesNotHoldUpOtherSegments() throws Exception {
+    blocking = true;
+    try {
+      CompletableFuture<SegmentLocation> slow =
+          new SegmentPacker(api, 1000, Duration.ofMillis(10)).add("slow", new byte[6]);
+      while (lanes.isEmpty()) {
+        Thread.sleep(1);
+      }
+      // The first write is now in progress, and another segment lingers and is written meanwhile
+      blocking = false;
+      new SegmentPacker(api, 1000, Duration.ofMillis(10))
+          .add("fast", new byte[6])
+          .get(10, TimeUnit.SECONDS);
+      assertFalse(slow.isDone());
+    } finally {
+      release.countDown();
+    }
+  }
+}
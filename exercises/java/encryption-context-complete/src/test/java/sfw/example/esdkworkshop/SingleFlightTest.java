@@ -0,0 +1,131 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest {
+  private final SingleFlight<String, String> flights = new SingleFlight<>();
+  private final AtomicInteger loads = new AtomicInteger();
+  private final CountDownLatch loading = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private Supplier<String> blockingLoader(Supplier<String> result) {
+    return () -> {
+      loads.incrementAndGet();
+      loading.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return result.get();
+    };
+  }
+
+  private Supplier<String> countingLoader(String result) {
+    return () -> {
+      loads.incrementAndGet();
+      return result;
+    };
+  }
+
+  /** Start a call that waits on the load in flight, and return once it is waiting. */
+  private CompletableFuture<String> follow(String key) throws InterruptedException {
+    CompletableFuture<String> result = new CompletableFuture<>();
+    Thread follower =
+        new Thread(
+            () -> {
+              try {
+                result.complete(flights.get(key, countingLoader("follower")));
+              } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+              }
+            });
+    follower.start();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (follower.getState() != Thread.State.WAITING && !result.isDone()) {
+      assertTrue(System.nanoTime() < deadline, "Follower never started waiting");
+      Thread.sleep(1);
+    }
+    return result;
+  }
+
+  @Test
+  void testConcurrentCallersShareOneLoad() throws Exception {
+    CompletableFuture<String> leader =
+        CompletableFuture.supplyAsync(() -> flights.get("key", blockingLoader(() -> "leader")));
+    loading.await();
+    CompletableFuture<String> follower = follow("key");
+    release.countDown();
+    assertEquals("leader", leader.get(10, TimeUnit.SECONDS));
+    assertEquals("leader", follower.get(10, TimeUnit.SECONDS));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void testFailureIsSharedWithWaiters() throws Exception {
+    IllegalStateException failure = new IllegalStateException("load failed");
+    CompletableFuture<String> leader =
+        CompletableFuture.supplyAsync(
+            () ->
+                flights.get(
+                    "key",
+                    blockingLoader(
+                        () -> {
+                          throw failure;
+                        })));
+    loading.await();
+    CompletableFuture<String> follower = follow("key");
+    release.countDown();
+    assertSame(
+        failure,
+        assertThrows(ExecutionException.class, () -> leader.get(10, TimeUnit.SECONDS)).getCause());
+    assertSame(
+        failure,
+        assertThrows(ExecutionException.class, () -> follower.get(10, TimeUnit.SECONDS))
+            .getCause());
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void testCallAfterCompletionLoadsAfresh() {
+    assertEquals("first", flights.get("key", countingLoader("first")));
+    assertEquals("second", flights.get("key", countingLoader("second")));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void testCallAfterFailureLoadsAfresh() {
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            flights.get(
+                "key",
+                () -> {
+                  throw new IllegalStateException();
+                }));
+    assertEquals("retried", flights.get("key", countingLoader("retried")));
+  }
+
+  @Test
+  void testDifferentKeysLoadSeparately() throws Exception {
+    CompletableFuture<String> leader =
+        CompletableFuture.supplyAsync(() -> flights.get("one", blockingLoader(() -> "one")));
+    loading.await();
+    // Another key does not wait for the load in flight
+    assertEquals("two", flights.get("two", countingLoader("two")));
+    release.countDown();
+    assertEquals("one", leader.get(10, TimeUnit.SECONDS));
+    assertEquals(2, loads.get());
+  }
+}
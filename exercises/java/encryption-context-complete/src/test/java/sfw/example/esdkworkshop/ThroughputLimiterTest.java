@@ -0,0 +1,98 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.amazonaws.AmazonServiceException;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class ThroughputLimiterTest {
+  /** A wait that a call made without one is never expected to come near. */
+  private static final Duration NO_WAIT = Duration.ofMillis(500);
+
+  private static Duration timed(Runnable work) {
+    long start = System.nanoTime();
+    work.run();
+    return Duration.ofNanos(System.nanoTime() - start);
+  }
+
+  private static void consume(ThroughputLimiter limiter, double units) {
+    assertEquals(units, limiter.call(() -> units, Double::doubleValue));
+  }
+
+  private static void failCall(ThroughputLimiter limiter, RuntimeException failure) {
+    assertSame(
+        failure,
+        assertThrows(
+            RuntimeException.class,
+            () ->
+                limiter.call(
+                    () -> {
+                      throw failure;
+                    },
+                    result -> 1)));
+  }
+
+  private static AmazonServiceException throttling() {
+    AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+    e.setErrorCode("ProvisionedThroughputExceededException");
+    e.setStatusCode(400);
+    return e;
+  }
+
+  @Test
+  void testCallsWithinCapacityDoNotWait() {
+    ThroughputLimiter limiter = new ThroughputLimiter("read", 100);
+    Duration elapsed =
+        timed(
+            () -> {
+              for (int i = 0; i < 50; i++) {
+                consume(limiter, 1);
+              }
+            });
+    assertTrue(elapsed.compareTo(NO_WAIT) < 0, "Waited " + elapsed);
+  }
+
+  @Test
+  void testLargeConsumptionPutsLaterCallsInDebt() {
+    ThroughputLimiter limiter = new ThroughputLimiter("read", 10);
+    // Far more than was reserved: the bucket is left 10 units in debt, a second's worth
+    assertTrue(timed(() -> consume(limiter, 20)).compareTo(NO_WAIT) < 0);
+    Duration elapsed = timed(() -> consume(limiter, 1));
+    assertTrue(elapsed.compareTo(Duration.ofMillis(800)) >= 0, "Waited only " + elapsed);
+  }
+
+  @Test
+  void testUnreportedConsumptionKeepsReservation() {
+    ThroughputLimiter limiter = new ThroughputLimiter("read", 10);
+    Duration elapsed =
+        timed(
+            () -> {
+              for (int i = 0; i < 5; i++) {
+                assertEquals("item", limiter.call(() -> "item", result -> Double.NaN));
+              }
+            });
+    assertTrue(elapsed.compareTo(NO_WAIT) < 0, "Waited " + elapsed);
+  }
+
+  @Test
+  void testThrottlingEmptiesBucket() {
+    ThroughputLimiter limiter = new ThroughputLimiter("write", 2);
+    failCall(limiter, throttling());
+    // The emptied bucket admits one call into debt, and the next waits for it to be repaid
+    consume(limiter, 1);
+    Duration elapsed = timed(() -> consume(limiter, 1));
+    assertTrue(elapsed.compareTo(Duration.ofMillis(300)) >= 0, "Waited only " + elapsed);
+  }
+
+  @Test
+  void testOtherFailuresKeepBucket() {
+    ThroughputLimiter limiter = new ThroughputLimiter("write", 2);
+    failCall(limiter, new IllegalStateException());
+    Duration elapsed = timed(() -> consume(limiter, 1));
+    assertTrue(elapsed.compareTo(NO_WAIT) < 0, "Waited " + elapsed);
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.amazonaws.encryptionsdk.AwsCrypto;
+import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.jce.JceMasterKey;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.s3.AmazonS3;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+import sfw.example.esdkworkshop.datamodel.BaseItem;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+import sfw.example.esdkworkshop.datamodel.TimeIndexItem;
+
+public class TimeIndexTest {
+  private final List<BaseItem> written = new CopyOnWriteArrayList<>();
+  private final List<TimeIndexItem> index = new CopyOnWriteArrayList<>();
+  private final Set<String> queried = ConcurrentHashMap.newKeySet();
+  private final Api api =
+      new Api(
+          mock(AmazonDynamoDB.class),
+          "table",
+          mock(AmazonS3.class),
+          "bucket",
+          AwsCrypto.builder()
+              .withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt)
+              .build(),
+          JceMasterKey.getInstance(
+              new SecretKeySpec(new byte[32], "AES"), "test", "key", "AES/GCM/NoPadding")) {
+        @Override
+        protected <T extends BaseItem> Map<String, AttributeValue> writeItem(T modeledItem) {
+          written.add(modeledItem);
+          return modeledItem.toItem();
+        }
+
+        @Override
+        protected List<TimeIndexItem> queryTimeBucket(String bucket, Instant from, Instant to) {
+          queried.add(bucket);
+          return index.stream()
+              .filter(item -> item.partitionKey().getS().equals(bucket))
+              .filter(item -> !item.getCreated().isBefore(from) && item.getCreated().isBefore(to))
+              .sorted((a, b) -> a.sortKey().getS().compareTo(b.sortKey().getS()))
+              .collect(Collectors.toList());
+        }
+      };
+
+  @Test
+  void testIndexIsOffByDefault() {
+    api.writePointer(PointerItem.generate());
+    assertEquals(1, written.size());
+    assertTrue(written.get(0) instanceof PointerItem);
+  }
+
+  @Test
+  void testIndexItemIsWrittenAfterPointer() {
+    api.withTimeIndex(true).writePointer(PointerItem.generate());
+    assertEquals(2, written.size());
+    assertTrue(written.get(0) instanceof PointerItem);
+    assertTrue(written.get(1) instanceof TimeIndexItem);
+  }
+
+  @Test
+  void testListBetweenMergesShardsInTimeOrder() {
+    Instant start = Instant.parse("2019-12-03T10:59:59Z");
+    List<PointerItem> expected = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      PointerItem pointer = PointerItem.generate();
+      expected.add(pointer);
+      index.add(TimeIndexItem.fromPointer(pointer, start.plusMillis(40 * i)));
+    }
+    Collections.shuffle(index);
+    Instant end = start.plusSeconds(2);
+    assertEquals(expected, api.listBetween(start, end));
+    // Every shard of both hours is queried, since any may hold documents
+    assertEquals(Set.copyOf(TimeIndexItem.bucketsBetween(start, end)), queried);
+    assertTrue(
+        index.stream().map(item -> item.partitionKey().getS()).distinct().count() > 2,
+        "Documents should be spread over several shards");
+  }
+}
@@ -0,0 +1,195 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.amazonaws.encryptionsdk.AwsCrypto;
+import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.jce.JceMasterKey;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.s3.AmazonS3;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import sfw.example.esdkworkshop.datamodel.BaseItem;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+
+public class WriteBatcherTest {
+  private static final Duration NEVER = Duration.ofHours(1);
+
+  private final List<List<Map<String, AttributeValue>>> batches = new CopyOnWriteArrayList<>();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private Function<List<Map<String, AttributeValue>>, List<Map<String, AttributeValue>>> writer =
+      items -> Collections.emptyList();
+  private final Api api =
+      new Api(
+          mock(AmazonDynamoDB.class),
+          "table",
+          mock(AmazonS3.class),
+          "bucket",
+          AwsCrypto.builder()
+              .withCommitmentPolicy(CommitmentPolicy.ForbidEncryptAllowDecrypt)
+              .build(),
+          JceMasterKey.getInstance(
+              new SecretKeySpec(new byte[32], "AES"), "test", "key", "AES/GCM/NoPadding")) {
+        @Override
+        protected List<Map<String, AttributeValue>> batchPutItems(
+            List<Map<String, AttributeValue>> items) {
+          batches.add(new ArrayList<>(items));
+          return writer.apply(items);
+        }
+      };
+
+  @AfterEach
+  void shutDown() {
+    executor.shutdownNow();
+  }
+
+  private static Map<String, AttributeValue> item(String key) {
+    Map<String, AttributeValue> item = new HashMap<>();
+    item.put(BaseItem.partitionKeyName(), new AttributeValue(key));
+    item.put(BaseItem.sortKeyName(), new AttributeValue("sort"));
+    return item;
+  }
+
+  @Test
+  void testFullBatchIsWrittenByFillingCall() {
+    WriteBatcher batcher = new WriteBatcher(api, NEVER);
+    List<CompletableFuture<Void>> written = new ArrayList<>();
+    for (int i = 0; i < Api.MAX_BATCH_WRITE; i++) {
+      written.add(batcher.add(item("key" + i)));
+    }
+    written.forEach(future -> assertTrue(future.isDone()));
+    assertEquals(1, batches.size());
+    assertEquals(Api.MAX_BATCH_WRITE, batches.get(0).size());
+  }
+
+  @Test
+  void testLingeringBatchIsWritten() throws Exception {
+    WriteBatcher batcher = new WriteBatcher(api, Duration.ofMillis(10));
+    CompletableFuture<Void> first = batcher.add(item("first"));
+    CompletableFuture<Void> second = batcher.add(item("second"));
+    CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+    assertEquals(1, batches.size());
+    assertEquals(2, batches.get(0).size());
+  }
+
+  @Test
+  void testLingeringBatchIsWrittenWhileExecutorIsBlocked() throws Exception {
+    // The executor's only thread waits for the batch, so it cannot be the one to write it
+    api.withExecutor(executor).withWriteBatching(Duration.ofMillis(10)).withTimeIndex(true);
+    PointerItem pointer = PointerItem.generate(Collections.singletonMap("tenant", "example"));
+    executor.submit(() -> api.writePointer(pointer)).get(10, TimeUnit.SECONDS);
+    assertEquals(1, batches.size());
+    // The pointer and its time index item
+    assertEquals(2, batches.get(0).size());
+  }
+
+  @Test
+  void testLingeringBatchIsWrittenInFirstCallersContext() throws Exception {
+    CostAccounting probe = new CostAccounting();
+    List<Lane> lanes = new CopyOnWriteArrayList<>();
+    writer =
+        items -> {
+          lanes.add(Lane.current());
+          probe.current().dynamoDbRequest("BatchWriteItem", Double.NaN, items.size());
+          return Collections.emptyList();
+        };
+    WriteBatcher batcher = new WriteBatcher(api, Duration.ofMillis(10));
+    CompletableFuture<Void> first =
+        CostAccounting.call(
+            "store",
+            () -> CostTag.call("tenant", () -> Lane.BULK.call(() -> batcher.add(item("first")))));
+    CompletableFuture<Void> second = batcher.add(item("second"));
+    CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+    assertEquals(List.of(Lane.BULK), lanes);
+    List<CostReport> report = probe.report();
+    assertEquals(1, report.size());
+    assertEquals("store", report.get(0).getOperation());
+    assertEquals("tenant", report.get(0).getTag());
+    assertEquals(2, report.get(0).getWriteCapacityUnits());
+  }
+
+  @Test
+  void testSlowWriteDoesNotHoldUpOtherBatches() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    writer =
+        items -> {
+          if (items.get(0).get(BaseItem.partitionKeyName()).getS().equals("slow")) {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+          return Collections.emptyList();
+        };
+    try {
+      CompletableFuture<Void> slow = new WriteBatcher(api, Duration.ofMillis(10)).add(item("slow"));
+      Thread.sleep(50);
+      // Another batch lingers and is written while the first write is still in progress
+      new WriteBatcher(api, Duration.ofMillis(10)).add(item("fast")).get(10, TimeUnit.SECONDS);
+      assertFalse(slow.isDone());
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  void testSameKeyIsWrittenInSeparateBatches() throws Exception {
+    WriteBatcher batcher = new WriteBatcher(api, Duration.ofMillis(10));
+    CompletableFuture<Void> first = batcher.add(item("key"));
+    CompletableFuture<Void> second = batcher.add(item("key"));
+    // The earlier write is flushed at once by the call that repeated its key
+    assertTrue(first.isDone());
+    second.get(10, TimeUnit.SECONDS);
+    assertEquals(2, batches.size());
+  }
+
+  @Test
+  void testUnprocessedItemsFailOnlyTheirCallers() throws Exception {
+    writer = items -> Collections.singletonList(item("unprocessed"));
+    WriteBatcher batcher = new WriteBatcher(api, Duration.ofMillis(10));
+    CompletableFuture<Void> processed = batcher.add(item("processed"));
+    CompletableFuture<Void> unprocessed = batcher.add(item("unprocessed"));
+    processed.get(10, TimeUnit.SECONDS);
+    ExecutionException thrown =
+        assertThrows(ExecutionException.class, () -> unprocessed.get(10, TimeUnit.SECONDS));
+    assertTrue(thrown.getCause() instanceof DocumentBucketException);
+  }
+
+  @Test
+  void testFailedBatchFailsEveryCaller() {
+    IllegalStateException failure = new IllegalStateException("BatchWriteItem failed");
+    writer =
+        items -> {
+          throw failure;
+        };
+    WriteBatcher batcher = new WriteBatcher(api, Duration.ofMillis(10));
+    for (CompletableFuture<Void> written :
+        Set.of(batcher.add(item("first")), batcher.add(item("second")))) {
+      ExecutionException thrown =
+          assertThrows(ExecutionException.class, () -> written.get(10, TimeUnit.SECONDS));
+      assertSame(failure, thrown.getCause());
+    }
+  }
+}
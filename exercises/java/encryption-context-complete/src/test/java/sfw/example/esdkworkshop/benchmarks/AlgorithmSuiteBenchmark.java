@@ -0,0 +1,100 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.benchmarks;
+
+import com.amazonaws.encryptionsdk.AwsCrypto;
+import com.amazonaws.encryptionsdk.CommitmentPolicy;
+import com.amazonaws.encryptionsdk.CryptoAlgorithm;
+import com.amazonaws.encryptionsdk.jce.JceMasterKey;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares encrypt and decrypt throughput across algorithm suites and document sizes, to choose the
+ * [document_bucket.encryption] configuration. A local AES master key stands in for KMS, so the
+ * results show the cost of the suite itself: for signing suites, generating an ECDSA key pair and
+ * signing on encrypt, and verifying on decrypt.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AlgorithmSuiteBenchmark {
+  @Param({
+    "ALG_AES_256_GCM_IV12_TAG16_HKDF_SHA384_ECDSA_P384",
+    "ALG_AES_256_GCM_IV12_TAG16_HKDF_SHA256",
+    "ALG_AES_256_GCM_HKDF_SHA512_COMMIT_KEY_ECDSA_P384",
+    "ALG_AES_256_GCM_HKDF_SHA512_COMMIT_KEY"
+  })
+  public String suite;
+
+  @Param({"1024", "16384", "262144"})
+  public int size;
+
+  @Param({"4096"})
+  public int frameSize;
+
+  private final Map<String, String> context = Collections.singletonMap("fleet", "coffee-pot");
+  private JceMasterKey masterKey;
+  private AwsCrypto crypto;
+  private byte[] document;
+  private byte[] message;
+
+  /** Build the crypto instance, the document, and a message to decrypt. */
+  @Setup
+  public void setup() {
+    CryptoAlgorithm algorithm = CryptoAlgorithm.valueOf(suite);
+    crypto =
+        AwsCrypto.builder()
+            .withEncryptionAlgorithm(algorithm)
+            .withEncryptionFrameSize(frameSize)
+            .withCommitmentPolicy(
+                algorithm.isCommitting()
+                    ? CommitmentPolicy.RequireEncryptAllowDecrypt
+                    : CommitmentPolicy.ForbidEncryptAllowDecrypt)
+            .build();
+    masterKey =
+        JceMasterKey.getInstance(
+            new SecretKeySpec(new byte[32], "AES"), "benchmark", "key", "AES/GCM/NoPadding");
+    document = new byte[size];
+    new Random(42).nextBytes(document);
+    message = crypto.encryptData(masterKey, document, context).getResult();
+  }
+
+  /**
+   * Encrypt the document once.
+   *
+   * @return the message, so that it is not optimized away.
+   */
+  @Benchmark
+  public byte[] encrypt() {
+    return crypto.encryptData(masterKey, document, context).getResult();
+  }
+
+  /**
+   * Decrypt the message once.
+   *
+   * @return the document, so that it is not optimized away.
+   */
+  @Benchmark
+  public byte[] decrypt() {
+    return crypto.decryptData(masterKey, message).getResult();
+  }
+}
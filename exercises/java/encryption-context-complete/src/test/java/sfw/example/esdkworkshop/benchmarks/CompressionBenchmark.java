@@ -0,0 +1,121 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sfw.example.esdkworkshop.datamodel.Compression;
+
+/**
+ * Compares compression throughput and ratio across the codecs available without extra dependencies,
+ * on compressible (JSON-like) and incompressible (random) documents. The {@code inputBytes} and
+ * {@code outputBytes} counters give the ratio; {@code sampled} is the codec used by {@code
+ * withCompression}, including its sampling pass.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+  @Param({"sampled", "deflate1", "deflate6", "gzip"})
+  public String codec;
+
+  @Param({"json", "random"})
+  public String content;
+
+  @Param({"65536"})
+  public int size;
+
+  private byte[] document;
+
+  /** Counts bytes in and out, for the compression ratio. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Bytes {
+    public long inputBytes;
+    public long outputBytes;
+
+    /** Reset the counters for each iteration. */
+    @Setup(Level.Iteration)
+    public void reset() {
+      inputBytes = 0;
+      outputBytes = 0;
+    }
+  }
+
+  /** Build the document to compress. */
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    if ("random".equals(content)) {
+      document = new byte[size];
+      random.nextBytes(document);
+      return;
+    }
+    StringBuilder json = new StringBuilder("[");
+    while (json.length() < size) {
+      json.append(
+          String.format(
+              "{\"id\":%d,\"user\":\"user-%d\",\"level\":\"INFO\",\"message\":\"request handled\","
+                  + "\"latencyMs\":%d},",
+              random.nextInt(1_000_000), random.nextInt(100), random.nextInt(500)));
+    }
+    document = json.substring(0, size).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Compress the document once.
+   *
+   * @param bytes the byte counters.
+   * @return the compressed document, so that it is not optimized away.
+   * @throws IOException never, for the in-memory gzip stream.
+   */
+  @Benchmark
+  public byte[] compress(Bytes bytes) throws IOException {
+    byte[] result;
+    switch (codec) {
+      case "sampled":
+        result = Compression.tryCompress(document);
+        if (result == null) {
+          result = document;
+        }
+        break;
+      case "deflate1":
+        result = Compression.deflate(document, Deflater.BEST_SPEED);
+        break;
+      case "deflate6":
+        result = Compression.deflate(document, Deflater.DEFAULT_COMPRESSION);
+        break;
+      default:
+        ByteArrayOutputStream out = new ByteArrayOutputStream(document.length);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+          gzip.write(document);
+        }
+        result = out.toByteArray();
+    }
+    bytes.inputBytes += document.length;
+    bytes.outputBytes += result.length;
+    return result;
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.benchmarks;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+
+/**
+ * Measures the cost of converting a page of {@code list()} results between DynamoDB items and
+ * {@link PointerItem}s, and of building pointer keys. Run with {@code -prof gc} and compare {@code
+ * gc.alloc.rate.norm}, the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ItemCodecBenchmark {
+  @Param({"10000"})
+  public int pointers;
+
+  @Param({"5"})
+  public int contextSize;
+
+  private final List<Map<String, AttributeValue>> items = new ArrayList<>();
+  private final List<PointerItem> decoded = new ArrayList<>();
+  private final List<String> keys = new ArrayList<>();
+
+  /** Build the pointer items, as a scan would return them. */
+  @Setup
+  public void setup() {
+    for (int i = 0; i < pointers; i++) {
+      Map<String, String> context = new HashMap<>();
+      for (int j = 0; j < contextSize; j++) {
+        context.put("key" + j, "value " + i + "-" + j);
+      }
+      PointerItem pointer = PointerItem.generate(context).withCreated(Instant.now());
+      items.add(pointer.toItem());
+      decoded.add(pointer);
+      keys.add(pointer.partitionKey().getS());
+    }
+  }
+
+  /**
+   * Decode every item and read its context twice, as a caller of {@code list()} might.
+   *
+   * @param blackhole the sink for the results.
+   */
+  @Benchmark
+  public void decode(Blackhole blackhole) {
+    for (Map<String, AttributeValue> item : items) {
+      PointerItem pointer = PointerItem.fromItem(item);
+      blackhole.consume(pointer.getContext());
+      blackhole.consume(pointer.getContext());
+    }
+  }
+
+  /**
+   * Encode every pointer as an item, as {@code store} does.
+   *
+   * @param blackhole the sink for the results.
+   */
+  @Benchmark
+  public void encode(Blackhole blackhole) {
+    for (PointerItem pointer : decoded) {
+      blackhole.consume(pointer.toItem());
+    }
+  }
+
+  /**
+   * Build the DynamoDB key of every pointer, as {@code retrieve} does.
+   *
+   * @param blackhole the sink for the results.
+   */
+  @Benchmark
+  public void atKey(Blackhole blackhole) {
+    for (String key : keys) {
+      blackhole.consume(PointerItem.atKey(key));
+    }
+  }
+}
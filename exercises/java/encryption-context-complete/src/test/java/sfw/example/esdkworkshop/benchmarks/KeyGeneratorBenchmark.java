@@ -0,0 +1,57 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sfw.example.esdkworkshop.datamodel.KeyGenerator;
+import sfw.example.esdkworkshop.datamodel.TimeOrderedKeyGenerator;
+
+/**
+ * Compares document key generation throughput. Run once per thread count to compare contention,
+ * e.g. {@code make benchmark BENCH="KeyGeneratorBenchmark -t 1"} through {@code -t 64}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyGeneratorBenchmark {
+  @Param({"random", "timeOrdered"})
+  public String generator;
+
+  private KeyGenerator keyGenerator;
+
+  /** Build the generator under test. */
+  @Setup
+  public void setup() {
+    if ("timeOrdered".equals(generator)) {
+      keyGenerator = new TimeOrderedKeyGenerator();
+    } else {
+      keyGenerator = KeyGenerator.defaultGenerator();
+    }
+  }
+
+  /**
+   * Generate a single key.
+   *
+   * @return the generated key, so that it is not optimized away.
+   */
+  @Benchmark
+  public UUID generate() {
+    return keyGenerator.generate();
+  }
+}
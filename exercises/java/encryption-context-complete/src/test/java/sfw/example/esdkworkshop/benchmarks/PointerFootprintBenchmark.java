@@ -0,0 +1,135 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.benchmarks;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sfw.example.esdkworkshop.datamodel.PointerItem;
+
+/**
+ * Measures the heap retained per {@link PointerItem} when a large {@code list()} result is held in
+ * memory. Each iteration decodes the pointers from freshly built items, as the DynamoDB client
+ * unmarshals them (so no strings are shared between items), reads each context once, drops the
+ * items and reports the growth of the heap after a full collection, as the {@code
+ * retainedBytesPerPointer} counter. An invocation outlasts the iteration time, so each iteration
+ * runs exactly one; as JMH sums such counters over iterations and forks, the benchmark measures
+ * once. The times reported are not meaningful.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 1, time = 1)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class PointerFootprintBenchmark {
+  private static final int PAGE_SIZE = 1000;
+
+  @Param({"200000"})
+  public int pointers;
+
+  @Param({"5"})
+  public int contextSize;
+
+  private List<PointerItem> retained;
+
+  /** The heap measurement, reported alongside the time. */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Footprint {
+    public double retainedBytesPerPointer;
+  }
+
+  /** Drop the pointers of the warmup iteration before measuring. */
+  @Setup(Level.Iteration)
+  public void clear() {
+    retained = null;
+  }
+
+  /**
+   * Decode and hold the pointers, one page of items at a time.
+   *
+   * @param footprint the counter to report the retained heap in.
+   * @return the retained pointers, so that they are not optimized away.
+   */
+  @Benchmark
+  public List<PointerItem> retain(Footprint footprint) {
+    long before = usedHeap();
+    retained = new ArrayList<>(pointers);
+    for (int page = 0; page < pointers; page += PAGE_SIZE) {
+      List<Map<String, AttributeValue>> items = new ArrayList<>(PAGE_SIZE);
+      for (int i = page; i < page + PAGE_SIZE && i < pointers; i++) {
+        items.add(item(i));
+      }
+      for (Map<String, AttributeValue> item : items) {
+        PointerItem pointer = PointerItem.fromItem(item);
+        pointer.getContext();
+        retained.add(pointer);
+      }
+    }
+    footprint.retainedBytesPerPointer = (double) (usedHeap() - before) / pointers;
+    return retained;
+  }
+
+  private Map<String, AttributeValue> item(int index) {
+    Map<String, AttributeValue> item =
+        PointerItem.fromKeyAndContext(UUID.randomUUID().toString(), context(index))
+            .withCreated(Instant.ofEpochMilli(index))
+            .toItem();
+    return copyStrings(item);
+  }
+
+  private Map<String, String> context(int index) {
+    Map<String, String> context = new HashMap<>();
+    for (int j = 0; j < contextSize; j++) {
+      context.put("key" + j, "value " + index + "-" + j);
+    }
+    return context;
+  }
+
+  /** Give every attribute name and value its own string instance, as unmarshalling would. */
+  private static Map<String, AttributeValue> copyStrings(Map<String, AttributeValue> item) {
+    Map<String, AttributeValue> copy = new HashMap<>();
+    for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+      AttributeValue value = entry.getValue();
+      AttributeValue valueCopy =
+          value.getS() != null
+              ? new AttributeValue(new String(value.getS()))
+              : new AttributeValue().withN(new String(value.getN()));
+      copy.put(new String(entry.getKey()), valueCopy);
+    }
+    return copy;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // Collections are not guaranteed to be complete, so take the least of a few
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
+}
@@ -0,0 +1,105 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class ChunkManifestTest {
+
+  @Test
+  void testForLengthRoundsUp() {
+    ChunkManifest manifest = ChunkManifest.forLength(10, 4);
+    assertEquals(3, manifest.getChunkCount());
+    assertEquals(4, manifest.chunkLength(0));
+    assertEquals(4, manifest.chunkLength(1));
+    assertEquals(2, manifest.chunkLength(2));
+    assertEquals(8, manifest.chunkOffset(2));
+  }
+
+  @Test
+  void testForLengthExactMultiple() {
+    ChunkManifest manifest = ChunkManifest.forLength(8, 4);
+    assertEquals(2, manifest.getChunkCount());
+    assertEquals(4, manifest.chunkLength(1));
+  }
+
+  @Test
+  void testChunkAt() {
+    ChunkManifest manifest = ChunkManifest.forLength(10, 4);
+    assertEquals(0, manifest.chunkAt(0));
+    assertEquals(0, manifest.chunkAt(3));
+    assertEquals(1, manifest.chunkAt(4));
+    assertEquals(2, manifest.chunkAt(9));
+  }
+
+  @Test
+  void testRoundTrip() {
+    ChunkManifest expected = ChunkManifest.forLength(123456789L, 1 << 20);
+    byte[] serialized = expected.toBytes();
+    assertTrue(ChunkManifest.isManifest(serialized));
+    ChunkManifest actual = ChunkManifest.fromBytes(serialized);
+    assertEquals(expected.getChunkSize(), actual.getChunkSize());
+    assertEquals(expected.getChunkCount(), actual.getChunkCount());
+    assertEquals(expected.getLength(), actual.getLength());
+  }
+
+  @Test
+  void testLengthOverTwoGibibytes() {
+    long length = 5L << 30;
+    ChunkManifest manifest =
+        ChunkManifest.fromBytes(ChunkManifest.forLength(length, 1 << 26).toBytes());
+    assertEquals(length, manifest.getLength());
+    assertEquals(80, manifest.getChunkCount());
+    assertEquals(79, manifest.chunkAt(length - 1));
+    assertEquals(length - (1 << 26), manifest.chunkOffset(79));
+    assertEquals(1 << 26, manifest.chunkLength(79));
+  }
+
+  @Test
+  void testMessageIsNotManifest() {
+    byte[] message = {0x01, (byte) 0x80, 0x03, 0x78};
+    assertFalse(ChunkManifest.isManifest(message));
+    assertThrows(DataModelException.class, () -> ChunkManifest.fromBytes(message));
+  }
+
+  @Test
+  void testInconsistentManifestThrows() {
+    byte[] serialized = ChunkManifest.forLength(10, 4).toBytes();
+    // Overwrite the chunk count, which follows the magic and the chunk size
+    ByteBuffer.wrap(serialized).putInt(12, 7);
+    assertThrows(DataModelException.class, () -> ChunkManifest.fromBytes(serialized));
+  }
+
+  @Test
+  void testInvalidChunkSizeThrows() {
+    assertThrows(DataModelException.class, () -> ChunkManifest.forLength(10, 0));
+  }
+
+  @Test
+  void testChunkContextRoundTrip() {
+    ChunkManifest manifest = ChunkManifest.forLength(10, 4);
+    Map<String, String> context = Collections.singletonMap("fleet", "gamma");
+    Map<String, String> chunkContext = manifest.chunkContext("doc", context, 1);
+    assertEquals("1", chunkContext.get(ChunkManifest.CHUNK_INDEX_KEY));
+    assertEquals(context, manifest.checkChunkContext("doc", 1, chunkContext));
+  }
+
+  @Test
+  void testChunkContextMismatchThrows() {
+    ChunkManifest manifest = ChunkManifest.forLength(10, 4);
+    Map<String, String> chunkContext = manifest.chunkContext("doc", Collections.emptyMap(), 1);
+    assertThrows(
+        DataModelException.class, () -> manifest.checkChunkContext("doc", 2, chunkContext));
+    assertThrows(
+        DataModelException.class, () -> manifest.checkChunkContext("other", 1, chunkContext));
+    Map<String, String> otherCount =
+        ChunkManifest.forLength(20, 4).chunkContext("doc", Collections.emptyMap(), 1);
+    assertThrows(DataModelException.class, () -> manifest.checkChunkContext("doc", 1, otherCount));
+  }
+}
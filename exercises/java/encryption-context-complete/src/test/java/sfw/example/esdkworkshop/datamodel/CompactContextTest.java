@@ -0,0 +1,85 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+public class CompactContextTest {
+
+  Map<String, String> sampleContext() {
+    Map<String, String> context = new HashMap<>();
+    context.put("region", "sp-moon-1");
+    context.put("user", "kilroy");
+    context.put("bananas", "yes");
+    context.put("fleet", "gamma");
+    return context;
+  }
+
+  @Test
+  void testCopyOfEqualsSource() {
+    Map<String, String> context = sampleContext();
+    CompactContext compact = CompactContext.copyOf(context);
+    assertEquals(context, compact);
+    assertEquals(compact, context);
+    assertEquals(context.hashCode(), compact.hashCode());
+    assertEquals("kilroy", compact.get("user"));
+    assertNull(compact.get("missing"));
+    assertNull(compact.get(42));
+  }
+
+  @Test
+  void testEntriesAreSortedByKey() {
+    List<String> keys = new ArrayList<>(CompactContext.copyOf(sampleContext()).keySet());
+    assertEquals(new ArrayList<>(new TreeMap<>(sampleContext()).keySet()), keys);
+  }
+
+  @Test
+  void testFromAttributes() {
+    Map<String, AttributeValue> attributes = new HashMap<>();
+    for (Map.Entry<String, String> entry : sampleContext().entrySet()) {
+      attributes.put(entry.getKey(), new AttributeValue(entry.getValue()));
+    }
+    CompactContext compact = CompactContext.fromAttributes(attributes);
+    assertEquals(sampleContext(), compact);
+
+    Map<String, AttributeValue> item = new HashMap<>();
+    compact.encodeTo(item);
+    assertEquals(attributes, item);
+  }
+
+  @Test
+  void testKeysAreShared() {
+    String key1 = new String("shared-key");
+    String key2 = new String("shared-key");
+    CompactContext first = CompactContext.copyOf(Map.of(key1, "a"));
+    CompactContext second = CompactContext.copyOf(Map.of(key2, "b"));
+    assertSame(first.keySet().iterator().next(), second.keySet().iterator().next());
+  }
+
+  @Test
+  void testEmpty() {
+    assertSame(CompactContext.EMPTY, CompactContext.copyOf(new HashMap<>()));
+    assertTrue(CompactContext.EMPTY.isEmpty());
+  }
+
+  @Test
+  void testModificationThrows() {
+    CompactContext compact = CompactContext.copyOf(sampleContext());
+    assertThrows(UnsupportedOperationException.class, () -> compact.put("a", "b"));
+    assertThrows(UnsupportedOperationException.class, () -> compact.remove("user"));
+    assertThrows(UnsupportedOperationException.class, () -> compact.clear());
+    assertThrows(
+        UnsupportedOperationException.class,
+        () -> compact.entrySet().iterator().next().setValue(""));
+    assertEquals(sampleContext(), compact);
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class CompressionTest {
+
+  byte[] compressible(int length) {
+    StringBuilder text = new StringBuilder();
+    while (text.length() < length) {
+      text.append("{\"region\":\"sp-moon-1\",\"user\":\"kilroy\"},");
+    }
+    return text.substring(0, length).getBytes(StandardCharsets.UTF_8);
+  }
+
+  byte[] incompressible(int length) {
+    byte[] data = new byte[length];
+    new Random(7).nextBytes(data);
+    return data;
+  }
+
+  @Test
+  void testRoundTrip() {
+    byte[] data = compressible(100_000);
+    byte[] compressed = Compression.tryCompress(data);
+    assertNotNull(compressed);
+    assertTrue(compressed.length < data.length / 2);
+    Map<String, String> context = Compression.flag(Collections.singletonMap("user", "kilroy"));
+    assertArrayEquals(data, Compression.decompress(compressed, context));
+    assertEquals(Collections.singletonMap("user", "kilroy"), context);
+  }
+
+  @Test
+  void testSkipsShortDocuments() {
+    assertNull(Compression.tryCompress(compressible(Compression.MIN_LENGTH - 1)));
+  }
+
+  @Test
+  void testSkipsIncompressibleDocuments() {
+    assertNull(Compression.tryCompress(incompressible(Compression.SAMPLE_LENGTH)));
+    assertNull(Compression.tryCompress(incompressible(Compression.SAMPLE_LENGTH * 10)));
+  }
+
+  @Test
+  void testUncompressedPassesThrough() {
+    byte[] data = incompressible(100);
+    Map<String, String> context = new HashMap<>(Collections.singletonMap("user", "kilroy"));
+    assertSame(data, Compression.decompress(data, context));
+    assertEquals(Collections.singletonMap("user", "kilroy"), context);
+  }
+
+  @Test
+  void testUnknownCodecThrows() {
+    Map<String, String> context = new HashMap<>();
+    context.put(Compression.CONTEXT_KEY, "zstd");
+    assertThrows(
+        DataModelException.class,
+        () -> {
+          Compression.decompress(new byte[1], context);
+        });
+  }
+
+  @Test
+  void testTruncatedThrows() {
+    byte[] compressed = Compression.deflate(compressible(10_000), 1);
+    byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+    assertThrows(
+        DataModelException.class,
+        () -> {
+          Compression.inflate(truncated);
+        });
+  }
+}
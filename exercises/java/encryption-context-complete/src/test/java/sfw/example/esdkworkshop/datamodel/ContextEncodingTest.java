@@ -0,0 +1,111 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class ContextEncodingTest {
+
+  Map<String, String> sampleContext() {
+    Map<String, String> context = new HashMap<>();
+    context.put("region", "sp-moon-1");
+    context.put("fleet", "gamma");
+    context.put("bananas", "yes");
+    context.put("\u00fcber", "\u2603 snow");
+    context.put("long", "x".repeat(300));
+    return context;
+  }
+
+  @Test
+  void testRoundTrip() {
+    CompactContext context = CompactContext.copyOf(sampleContext());
+    byte[] encoded = ContextEncoding.encode(context);
+    assertEquals(sampleContext(), ContextEncoding.decode(ByteBuffer.wrap(encoded)));
+  }
+
+  @Test
+  void testRoundTripEmpty() {
+    byte[] encoded = ContextEncoding.encode(CompactContext.EMPTY);
+    assertArrayEquals(new byte[] {ContextEncoding.VERSION, 0}, encoded);
+    assertTrue(ContextEncoding.decode(ByteBuffer.wrap(encoded)).isEmpty());
+  }
+
+  @Test
+  void testDictionaryKeysAreCoded() {
+    Map<String, String> context = new HashMap<>();
+    context.put("region", "a");
+    context.put("fleet", "b");
+    // version, count, then tag, length and value for each entry
+    assertEquals(2 + 3 + 3, ContextEncoding.encode(CompactContext.copyOf(context)).length);
+  }
+
+  @Test
+  void testIsSmallerMatchesEncodedSize() {
+    Map<String, String> literal = new HashMap<>();
+    literal.put("customer", "\u2603 snow \ud83d\ude00");
+    Map<String, String> coded = new HashMap<>();
+    coded.put("region", "\u00fcber");
+    coded.put("fleet", "gamma");
+    for (Map<String, String> context : Arrays.asList(literal, coded, sampleContext())) {
+      CompactContext compact = CompactContext.copyOf(context);
+      int strings = 0;
+      for (Map.Entry<String, String> entry : context.entrySet()) {
+        strings += entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+        strings += entry.getValue().getBytes(StandardCharsets.UTF_8).length;
+      }
+      int encoded = "_c".length() + ContextEncoding.encode(compact).length;
+      assertEquals(encoded < strings, ContextEncoding.isSmaller(compact, "_c"), context.toString());
+    }
+    assertFalse(ContextEncoding.isSmaller(CompactContext.copyOf(literal), "_c"));
+    assertTrue(ContextEncoding.isSmaller(CompactContext.copyOf(coded), "_c"));
+  }
+
+  @Test
+  void testDecodeDoesNotMoveBuffer() {
+    byte[] encoded = ContextEncoding.encode(CompactContext.copyOf(sampleContext()));
+    ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 4);
+    buffer.position(2);
+    buffer.put(encoded);
+    buffer.position(2).limit(2 + encoded.length);
+    ByteBuffer slice = buffer.slice();
+    assertEquals(sampleContext(), ContextEncoding.decode(slice));
+    assertEquals(0, slice.position());
+  }
+
+  @Test
+  void testUnknownVersionThrows() {
+    byte[] encoded = ContextEncoding.encode(CompactContext.copyOf(sampleContext()));
+    encoded[0] = 99;
+    assertThrows(DataModelException.class, () -> ContextEncoding.decode(ByteBuffer.wrap(encoded)));
+  }
+
+  @Test
+  void testTruncatedThrows() {
+    byte[] encoded = ContextEncoding.encode(CompactContext.copyOf(sampleContext()));
+    for (int length = 0; length < encoded.length; length++) {
+      ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(encoded, length));
+      assertThrows(DataModelException.class, () -> ContextEncoding.decode(truncated));
+    }
+  }
+
+  @Test
+  void testTrailingBytesThrow() {
+    byte[] encoded = ContextEncoding.encode(CompactContext.copyOf(sampleContext()));
+    ByteBuffer padded = ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length + 1));
+    assertThrows(DataModelException.class, () -> ContextEncoding.decode(padded));
+  }
+
+  @Test
+  void testUnknownDictionaryKeyThrows() {
+    ByteBuffer encoded = ByteBuffer.wrap(new byte[] {ContextEncoding.VERSION, 1, 100, 1, 'a'});
+    assertThrows(DataModelException.class, () -> ContextEncoding.decode(encoded));
+  }
+}
@@ -0,0 +1,47 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+public class ItemCodecTest {
+  @Test
+  void testCheckKeyCanonical() {
+    String key = UUID.randomUUID().toString();
+    assertSame(key, ItemCodec.checkKey(key));
+  }
+
+  @Test
+  void testCheckKeyUpperCaseIsCanonicalized() {
+    String key = UUID.randomUUID().toString();
+    assertEquals(key, ItemCodec.checkKey(key.toUpperCase()));
+  }
+
+  @Test
+  void testCheckKeyShortFormIsCanonicalized() {
+    assertEquals("00000001-0002-0003-0004-000000000005", ItemCodec.checkKey("1-2-3-4-5"));
+  }
+
+  @Test
+  void testCheckKeyInvalidThrows() {
+    assertThrows(IllegalArgumentException.class, () -> ItemCodec.checkKey("garbageKey"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ItemCodec.checkKey("0000000g-0000-0000-0000-000000000000"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ItemCodec.checkKey("00000000_0000-0000-0000-000000000000"));
+  }
+
+  @Test
+  void testCapacityForAvoidsResize() {
+    for (int size = 0; size < 100; size++) {
+      // HashMap resizes once its size exceeds three quarters of its capacity
+      assertTrue(size <= ItemCodec.capacityFor(size) * 0.75f);
+    }
+  }
+}
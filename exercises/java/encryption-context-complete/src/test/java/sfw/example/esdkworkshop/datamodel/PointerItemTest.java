@@ -7,6 +7,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.Condition;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,6 +28,29 @@ public class PointerItemTest {
     return context;
   }
 
+  /** A context of dictionary keys only, which is smaller in binary form. */
+  Map<String, String> dictionaryContext() {
+    Map<String, String> context = new HashMap<>();
+    context.put("region", "sp-moon-1");
+    context.put("fleet", "gamma");
+    context.put("user", "kilroy");
+    return context;
+  }
+
+  /** The size of an item's context as DynamoDB counts it: its attribute names and values. */
+  static int contextSize(Map<String, AttributeValue> item) {
+    int size = 0;
+    for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+      if (!entry.getKey().equals(PointerItem.partitionKeyName())
+          && !entry.getKey().equals(PointerItem.sortKeyName())) {
+        AttributeValue value = entry.getValue();
+        size += entry.getKey().length();
+        size += value.getS() != null ? value.getS().length() : value.getB().remaining();
+      }
+    }
+    return size;
+  }
+
   @Test
   void testGenerateNoContext() {
     PointerItem item = PointerItem.generate();
@@ -152,4 +176,197 @@ public class PointerItemTest {
       assertTrue(test.toString().contains(entry.getValue()));
     }
   }
+
+  @Test
+  void testInlineDataRoundTrip() {
+    byte[] ciphertext = {(byte) 0xC0, (byte) 0xFF, (byte) 0xEE};
+    PointerItem expected = PointerItem.generate(sampleContext()).withInlineData(ciphertext);
+    PointerItem actual = PointerItem.fromItem(expected.toItem());
+    assertEquals(expected, actual);
+    assertTrue(actual.hasInlineData());
+    assertArrayEquals(ciphertext, actual.getInlineData());
+    assertEquals(sampleContext(), actual.getContext());
+  }
+
+  @Test
+  void testNoInlineData() {
+    PointerItem item = PointerItem.generate();
+    assertFalse(item.hasInlineData());
+    assertNull(item.getInlineData());
+    assertFalse(item.toItem().containsKey(PointerItem.INLINE_DATA_NAME));
+  }
+
+  @Test
+  void testInlineDataIsCopied() {
+    byte[] ciphertext = {1, 2, 3};
+    PointerItem item = PointerItem.generate().withInlineData(ciphertext);
+    ciphertext[0] = 9;
+    item.getInlineData()[1] = 9;
+    assertArrayEquals(new byte[] {1, 2, 3}, item.getInlineData());
+  }
+
+  @Test
+  void testReservedInlineDataKeyThrows() {
+    Map<String, String> inlineContext = new HashMap<>(1);
+    inlineContext.put(PointerItem.INLINE_DATA_NAME, "kaboom");
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> {
+          PointerItem.generate(inlineContext);
+        });
+  }
+
+  @Test
+  void testSegmentRoundTrip() {
+    SegmentLocation location = new SegmentLocation(SegmentItem.generateId(), 1024, 321);
+    PointerItem expected = PointerItem.generate(sampleContext()).withSegment(location);
+    PointerItem actual = PointerItem.fromItem(expected.toItem());
+    assertEquals(expected, actual);
+    assertTrue(actual.hasSegment());
+    assertFalse(actual.hasInlineData());
+    assertEquals(location.getSegmentId(), actual.getSegment().getSegmentId());
+    assertEquals(1024, actual.getSegment().getOffset());
+    assertEquals(321, actual.getSegment().getLength());
+    assertEquals(sampleContext(), actual.getContext());
+  }
+
+  @Test
+  void testNoSegment() {
+    PointerItem item = PointerItem.generate();
+    assertFalse(item.hasSegment());
+    assertNull(item.getSegment());
+    assertFalse(item.toItem().containsKey(PointerItem.SEGMENT_NAME));
+  }
+
+  @Test
+  void testReservedSegmentKeyThrows() {
+    Map<String, String> segmentContext = new HashMap<>(1);
+    segmentContext.put(PointerItem.SEGMENT_NAME, "kaboom");
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> {
+          PointerItem.generate(segmentContext);
+        });
+  }
+
+  @Test
+  void testStorageMetadataRoundTrip() {
+    Instant created = Instant.ofEpochMilli(1577836800123L);
+    PointerItem expected = PointerItem.generate(sampleContext()).withChunks(7).withCreated(created);
+    PointerItem actual = PointerItem.fromItem(expected.toItem());
+    assertEquals(7, actual.getChunkCount());
+    assertEquals(created, actual.getCreated());
+    assertEquals(sampleContext(), actual.getContext());
+  }
+
+  @Test
+  void testNoStorageMetadata() {
+    PointerItem item = PointerItem.generate();
+    assertEquals(-1, item.getChunkCount());
+    assertNull(item.getCreated());
+  }
+
+  @Test
+  void testFromItemDoesNotModifyItem() {
+    Map<String, AttributeValue> item =
+        PointerItem.generate(sampleContext()).withChunks(3).withInlineData(new byte[4]).toItem();
+    Map<String, AttributeValue> expected = new HashMap<>(item);
+    PointerItem actual = PointerItem.fromItem(item);
+    assertEquals(expected, item);
+    assertEquals(sampleContext(), actual.getContext());
+    assertEquals(3, actual.getChunkCount());
+  }
+
+  @Test
+  void testGetContextIsCachedAndUnmodifiable() {
+    PointerItem item = PointerItem.fromItem(PointerItem.generate(sampleContext()).toItem());
+    assertSame(item.getContext(), item.getContext());
+    assertThrows(UnsupportedOperationException.class, () -> item.getContext().put("a", "b"));
+  }
+
+  @Test
+  void testContextIsCopiedFromCaller() {
+    Map<String, String> context = sampleContext();
+    PointerItem item = PointerItem.generate(context);
+    context.put("region", "sp-mars-1");
+    assertEquals(sampleContext(), item.getContext());
+  }
+
+  @Test
+  void testAtKeyInvalidKeyThrows() {
+    assertThrows(IllegalArgumentException.class, () -> PointerItem.atKey("garbageKey"));
+  }
+
+  @Test
+  void testBinaryContextRoundTrip() {
+    PointerItem expected =
+        PointerItem.generate(dictionaryContext()).withChunks(2).withBinaryContext(true);
+    Map<String, AttributeValue> item = expected.toItem();
+    assertEquals(
+        Set.of(
+            PointerItem.partitionKeyName(),
+            PointerItem.sortKeyName(),
+            PointerItem.contextAttributeName(),
+            PointerItem.CHUNKS_NAME),
+        item.keySet());
+    PointerItem actual = PointerItem.fromItem(item);
+    assertEquals(expected, actual);
+    assertEquals(dictionaryContext(), actual.getContext());
+    assertEquals(2, actual.getChunkCount());
+    assertTrue(actual.hasBinaryContext());
+  }
+
+  @Test
+  void testStringContextIsDefault() {
+    PointerItem item = PointerItem.fromItem(PointerItem.generate(sampleContext()).toItem());
+    assertFalse(item.hasBinaryContext());
+    assertFalse(item.toItem().containsKey(PointerItem.contextAttributeName()));
+  }
+
+  @Test
+  void testBinaryContextFlagSurvivesCopies() {
+    PointerItem item =
+        PointerItem.generate(dictionaryContext())
+            .withBinaryContext(true)
+            .withCreated(Instant.now());
+    assertTrue(item.hasBinaryContext());
+  }
+
+  @Test
+  void testBinaryContextIsWrittenOnlyWhenSmaller() {
+    Map<String, String> regionAndFleet = new HashMap<>();
+    regionAndFleet.put("region", "sp-moon-1");
+    regionAndFleet.put("fleet", "gamma");
+    Map<String, String> customerAndDepartment = new HashMap<>();
+    customerAndDepartment.put("customer", "example");
+    customerAndDepartment.put("department", "shipping");
+    for (Map<String, String> context :
+        Set.of(
+            regionAndFleet,
+            Collections.singletonMap("region", "sp-moon-1"),
+            customerAndDepartment,
+            dictionaryContext(),
+            sampleContext(),
+            Collections.<String, String>emptyMap())) {
+      int strings = contextSize(PointerItem.generate(context).toItem());
+      PointerItem binary = PointerItem.generate(context).withBinaryContext(true);
+      int written = contextSize(binary.toItem());
+      int encoded =
+          PointerItem.contextAttributeName().length()
+              + binary.binaryContextAttribute().getB().remaining();
+      assertEquals(encoded < strings, binary.hasBinaryContext(), context.toString());
+      assertEquals(Math.min(encoded, strings), written, context.toString());
+    }
+    // Dictionary keys make the binary form smaller, and literal keys make it larger
+    assertTrue(PointerItem.generate(regionAndFleet).withBinaryContext(true).hasBinaryContext());
+    assertFalse(
+        PointerItem.generate(customerAndDepartment).withBinaryContext(true).hasBinaryContext());
+  }
+
+  @Test
+  void testReservedBinaryContextKeyThrows() {
+    Map<String, String> context = sampleContext();
+    context.put(PointerItem.contextAttributeName(), "nope");
+    assertThrows(IllegalArgumentException.class, () -> PointerItem.generate(context));
+  }
 }
@@ -0,0 +1,88 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class SegmentItemTest {
+
+  @Test
+  void testRoundTrip() {
+    List<String> documents =
+        Arrays.asList(new UuidKey().toString(), new UuidKey().toString(), new UuidKey().toString());
+    Instant created = Instant.ofEpochMilli(1577836800123L);
+    SegmentItem expected =
+        SegmentItem.fromDocuments(SegmentItem.generateId(), documents, 4096, created);
+    SegmentItem actual = SegmentItem.fromItem(expected.toItem());
+    assertEquals(expected, actual);
+    assertEquals(documents, actual.getDocuments());
+    assertEquals(4096, actual.getLength());
+    assertEquals(created, actual.getCreated());
+  }
+
+  @Test
+  void testNoDocumentsRoundTrip() {
+    SegmentItem expected =
+        SegmentItem.fromDocuments(
+            SegmentItem.generateId(), Collections.emptyList(), 0, Instant.now());
+    SegmentItem actual = SegmentItem.fromItem(expected.toItem());
+    assertEquals(Collections.emptyList(), actual.getDocuments());
+  }
+
+  @Test
+  void testAtKeyMatchesItem() {
+    SegmentItem item =
+        SegmentItem.fromDocuments(
+            SegmentItem.generateId(), Collections.emptyList(), 0, Instant.now());
+    Map<String, AttributeValue> key = SegmentItem.atKey(item.getSegmentId());
+    assertEquals(item.partitionKey(), key.get(BaseItem.partitionKeyName()));
+    assertEquals(item.sortKey(), key.get(BaseItem.sortKeyName()));
+  }
+
+  @Test
+  void testBadPrefixThrows() {
+    assertThrows(
+        DataModelException.class,
+        () -> {
+          SegmentItem.fromDocuments(
+              new UuidKey().toString(), Collections.emptyList(), 0, Instant.now());
+        });
+  }
+
+  @Test
+  void testFromPointerItemThrows() {
+    Map<String, AttributeValue> pointer = PointerItem.generate().toItem();
+    assertThrows(
+        DataModelException.class,
+        () -> {
+          SegmentItem.fromItem(pointer);
+        });
+  }
+
+  @Test
+  void testLocationRoundTrip() {
+    SegmentLocation expected = new SegmentLocation(SegmentItem.generateId(), 1L << 33, 77);
+    SegmentLocation actual = SegmentLocation.fromAttribute(expected.toAttribute());
+    assertEquals(expected.getSegmentId(), actual.getSegmentId());
+    assertEquals(expected.getOffset(), actual.getOffset());
+    assertEquals(expected.getLength(), actual.getLength());
+  }
+
+  @Test
+  void testBadLocationThrows() {
+    assertThrows(
+        DataModelException.class,
+        () -> {
+          SegmentLocation.fromAttribute(new AttributeValue("nope"));
+        });
+  }
+}
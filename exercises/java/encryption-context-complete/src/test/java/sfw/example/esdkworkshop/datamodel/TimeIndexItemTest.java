@@ -0,0 +1,128 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class TimeIndexItemTest {
+
+  Map<String, String> sampleContext() {
+    Map<String, String> context = new HashMap<>(2);
+    context.put("region", "sp-moon-1");
+    context.put("fleet", "gamma");
+    return context;
+  }
+
+  @Test
+  void testRoundTripHappyCase() {
+    PointerItem pointer = PointerItem.generate(sampleContext());
+    Instant created = Instant.parse("2019-12-03T10:15:30.123Z");
+    TimeIndexItem expected = TimeIndexItem.fromPointer(pointer, created);
+    TimeIndexItem actual = TimeIndexItem.fromItem(expected.toItem());
+    assertEquals(expected, actual);
+    assertEquals(created, actual.getCreated());
+    assertEquals(pointer, actual.getPointer());
+    assertEquals(pointer.getContext(), actual.getPointer().getContext());
+  }
+
+  @Test
+  void testFromItemDoesNotMutateInput() {
+    TimeIndexItem item = TimeIndexItem.fromPointer(PointerItem.generate(), Instant.now());
+    Map<String, AttributeValue> ddbItem = item.toItem();
+    Map<String, AttributeValue> copy = new HashMap<>(ddbItem);
+    TimeIndexItem.fromItem(ddbItem);
+    assertEquals(copy, ddbItem);
+  }
+
+  @Test
+  void testKeysAreBucketedAndSortable() {
+    PointerItem pointer = PointerItem.generate();
+    TimeIndexItem early =
+        TimeIndexItem.fromPointer(pointer, Instant.parse("2019-12-03T10:00:00.009Z"));
+    TimeIndexItem late =
+        TimeIndexItem.fromPointer(pointer, Instant.parse("2019-12-03T10:59:59.999Z"));
+    assertEquals(early.partitionKey(), late.partitionKey());
+    assertTrue(early.partitionKey().getS().startsWith(TimeIndexItem.PREFIX));
+    assertTrue(early.sortKey().getS().compareTo(late.sortKey().getS()) < 0);
+  }
+
+  @Test
+  void testBucketsBetween() {
+    List<String> buckets =
+        TimeIndexItem.bucketsBetween(
+            Instant.parse("2019-12-03T10:15:00Z"), Instant.parse("2019-12-03T12:00:00Z"));
+    assertEquals(2 * TimeIndexItem.SHARDS, buckets.size());
+    assertEquals(TimeIndexItem.bucketFor(Instant.parse("2019-12-03T10:00:00Z"), 0), buckets.get(0));
+    assertEquals(
+        TimeIndexItem.bucketFor(Instant.parse("2019-12-03T11:00:00Z"), TimeIndexItem.SHARDS - 1),
+        buckets.get(buckets.size() - 1));
+  }
+
+  @Test
+  void testBucketIsShardedByPointer() {
+    Instant created = Instant.parse("2019-12-03T10:15:30.123Z");
+    Set<String> shards = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      PointerItem pointer = PointerItem.generate();
+      String bucket = TimeIndexItem.fromPointer(pointer, created).partitionKey().getS();
+      assertTrue(TimeIndexItem.bucketsBetween(created, created.plusMillis(1)).contains(bucket));
+      shards.add(bucket);
+    }
+    assertTrue(shards.size() > 1);
+  }
+
+  @Test
+  void testBucketsBetweenEmptyRange() {
+    Instant now = Instant.now();
+    assertTrue(TimeIndexItem.bucketsBetween(now, now.minusSeconds(1)).isEmpty());
+  }
+
+  @Test
+  void testQueryForSanity() {
+    Instant from = Instant.parse("2019-12-03T10:15:00Z");
+    Instant to = Instant.parse("2019-12-03T10:45:00Z");
+    String bucket = TimeIndexItem.bucketFor(from, 0);
+    QueryRequest actual = TimeIndexItem.queryFor(bucket, from, to);
+    assertTrue(actual.toString().contains(bucket));
+    assertTrue(actual.toString().contains(TimeIndexItem.sortKeyFor(from.toEpochMilli())));
+    assertTrue(actual.toString().contains(TimeIndexItem.sortKeyFor(to.toEpochMilli())));
+  }
+
+  @Test
+  void testBogusSortKeyThrows() {
+    Map<String, AttributeValue> bogusItem = new HashMap<>(2);
+    bogusItem.put(TimeIndexItem.partitionKeyName(), new AttributeValue(TimeIndexItem.PREFIX));
+    bogusItem.put(TimeIndexItem.sortKeyName(), new AttributeValue("no separator"));
+    assertThrows(DataModelException.class, () -> TimeIndexItem.fromItem(bogusItem));
+  }
+
+  @Test
+  void testAtKeyMatchesItem() {
+    Instant created = Instant.ofEpochMilli(1577836800123L);
+    PointerItem pointer = PointerItem.generate().withCreated(created);
+    Map<String, AttributeValue> item = TimeIndexItem.fromPointer(pointer, created).toItem();
+    Map<String, AttributeValue> key = TimeIndexItem.atKey(pointer);
+    assertEquals(item.get(BaseItem.partitionKeyName()), key.get(BaseItem.partitionKeyName()));
+    assertEquals(item.get(BaseItem.sortKeyName()), key.get(BaseItem.sortKeyName()));
+  }
+
+  @Test
+  void testAtKeyWithoutCreatedThrows() {
+    assertThrows(
+        DataModelException.class,
+        () -> {
+          TimeIndexItem.atKey(PointerItem.generate());
+        });
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package sfw.example.esdkworkshop.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class TimeOrderedKeyGeneratorTest {
+
+  @Test
+  void testVersionAndVariant() {
+    UUID key = new TimeOrderedKeyGenerator().generate();
+    assertEquals(7, key.version());
+    assertEquals(2, key.variant());
+  }
+
+  @Test
+  void testTimestampPrefix() {
+    long millis = 0x0123456789ABL;
+    UUID key = new TimeOrderedKeyGenerator(() -> millis).generate();
+    assertEquals(millis, key.getMostSignificantBits() >>> 16);
+  }
+
+  @Test
+  void testMonotonicWithinSameMillisecond() {
+    TimeOrderedKeyGenerator generator = new TimeOrderedKeyGenerator(() -> 1000L);
+    UUID previous = generator.generate();
+    // More keys than the counter can hold forces a borrow from the next millisecond
+    for (int i = 0; i < 10000; i++) {
+      UUID next = generator.generate();
+      assertTrue(previous.toString().compareTo(next.toString()) < 0);
+      previous = next;
+    }
+  }
+
+  @Test
+  void testMonotonicWhenClockGoesBackwards() {
+    AtomicLong clock = new AtomicLong(5000L);
+    TimeOrderedKeyGenerator generator = new TimeOrderedKeyGenerator(clock::get);
+    UUID first = generator.generate();
+    clock.set(4000L);
+    UUID second = generator.generate();
+    assertTrue(first.toString().compareTo(second.toString()) < 0);
+  }
+
+  @Test
+  void testLaterMillisecondSortsAfter() {
+    AtomicLong clock = new AtomicLong(5000L);
+    TimeOrderedKeyGenerator generator = new TimeOrderedKeyGenerator(clock::get);
+    UUID first = generator.generate();
+    clock.incrementAndGet();
+    UUID second = generator.generate();
+    assertTrue(first.toString().compareTo(second.toString()) < 0);
+  }
+
+  @Test
+  void testParseableAsUuidKey() {
+    UuidKey key = new UuidKey(new TimeOrderedKeyGenerator());
+    assertEquals(key.toString(), new UuidKey(key.toString()).toString());
+  }
+
+  @Test
+  void testPointerItemWithGenerator() {
+    PointerItem item = PointerItem.generate(Collections.emptyMap(), () -> new UUID(0, 0));
+    assertEquals(new UUID(0, 0).toString(), item.partitionKey().getS());
+  }
+}